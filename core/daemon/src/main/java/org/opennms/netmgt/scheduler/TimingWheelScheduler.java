@@ -0,0 +1,518 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} backed by a hashed timing wheel.
+ *
+ * Unlike the {@link LegacyScheduler}, which repeatedly scans one FIFO queue per
+ * interval, tasks are placed in the wheel bucket matching their deadline so that
+ * every tick only visits the tasks that are due. Scheduling does not take a global
+ * lock: new tasks are handed to the wheel thread through a concurrent queue.
+ *
+ * A due task that is not {@link ReadyRunnable#isReady() ready} is moved to the next
+ * tick instead of blocking the tasks that were scheduled behind it.
+ *
+ * The lag between the deadline of a task and the time it was handed to the thread
+ * pool is tracked for every scheduling interval, see {@link #getLagStatistics()}.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * Used by the daemons to select this scheduler instead of the {@link LegacyScheduler}.
+     */
+    public static final String ENABLED_SYS_PROP = "org.opennms.netmgt.scheduler.timingWheel";
+
+    public static final String TICK_MS_SYS_PROP = "org.opennms.netmgt.scheduler.timingWheel.tickMs";
+
+    /**
+     * Tasks scheduled without a delay (i.e. at daemon start) are spread randomly
+     * over this many milliseconds to avoid a thundering herd.
+     */
+    public static final String MAX_INITIAL_JITTER_SYS_PROP = "org.opennms.netmgt.scheduler.timingWheel.maxInitialJitterMs";
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static final int MAX_TRACKED_INTERVALS = 128;
+
+    private final long m_tickMs;
+
+    private final long m_maxInitialJitterMs;
+
+    /**
+     * The buckets of the wheel, only accessed by the worker thread.
+     */
+    private final Deque<Task>[] m_wheel;
+
+    private final Queue<Task> m_pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private final Map<Long, LagStatistics> m_lagByInterval = new ConcurrentSkipListMap<>();
+
+    private final ExecutorService m_runner;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    /**
+     * Time at which the wheel started turning.
+     */
+    private volatile long m_startTime;
+
+    /**
+     * Number of ticks that were processed, only accessed by the worker thread.
+     */
+    private long m_tick = 0;
+
+    /**
+     * Returns true if the daemons should use this scheduler.
+     *
+     * @return the value of the {@value #ENABLED_SYS_PROP} system property
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_SYS_PROP);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to the names of the threads in the pool
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, Long.getLong(TICK_MS_SYS_PROP, 100L), Long.getLong(MAX_INITIAL_JITTER_SYS_PROP, 0L));
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to the names of the threads in the pool
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMs
+     *            The duration of a single tick of the wheel.
+     * @param maxInitialJitterMs
+     *            The maximum random delay added to tasks scheduled with no interval.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMs, final long maxInitialJitterMs) {
+        Assert.isTrue(tickMs > 0, "tickMs must be strictly positive");
+        m_status = START_PENDING;
+        m_tickMs = tickMs;
+        m_maxInitialJitterMs = Math.max(0, maxInitialJitterMs);
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_wheel = new Deque[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            m_wheel[i] = new ArrayDeque<>();
+        }
+        m_startTime = getCurrentTime();
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        long delay = interval;
+        if (delay <= 0 && m_maxInitialJitterMs > 0) {
+            delay = ThreadLocalRandom.current().nextLong(m_maxInitialJitterMs + 1);
+        }
+        LOG.debug("schedule: Adding ready runnable {} at interval {} (delay {})", runnable, interval, delay);
+        m_pending.add(new Task(runnable, interval, getCurrentTime() + delay));
+        m_scheduled.incrementAndGet();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of tasks waiting in the wheel
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the scheduling lag, keyed by the interval (rounded to the second)
+     * with which the tasks were scheduled.
+     *
+     * @return an unmodifiable view of the statistics
+     */
+    public Map<Long, LagStatistics> getLagStatistics() {
+        return Collections.unmodifiableMap(m_lagByInterval);
+    }
+
+    /**
+     * @return the largest scheduling lag across all of the intervals, in ms
+     */
+    public long getMaxLagMs() {
+        return m_lagByInterval.values().stream().mapToLong(LagStatistics::getMaxLagMs).max().orElse(0L);
+    }
+
+    /**
+     * @return the average scheduling lag across all of the tasks, in ms
+     */
+    public double getAverageLagMs() {
+        long count = 0;
+        long totalLagMs = 0;
+        for (LagStatistics stats : m_lagByInterval.values()) {
+            count += stats.getCount();
+            totalLagMs += stats.getTotalLagMs();
+        }
+        return count > 0 ? totalLagMs / (double) count : 0d;
+    }
+
+    /**
+     * The main method of the scheduler. Advances the wheel by one bucket every
+     * tick and hands the tasks that are due and ready to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+        m_startTime = getCurrentTime();
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+
+                // wait until the end of the current tick
+                final long sleepMs = m_startTime + (m_tick + 1) * m_tickMs - getCurrentTime();
+                if (sleepMs > 0) {
+                    try {
+                        wait(sleepMs);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+
+            transferPending();
+            if (!expireCurrentBucket()) {
+                break;
+            }
+            m_tick++;
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private void transferPending() {
+        Task task;
+        while ((task = m_pending.poll()) != null) {
+            place(task, Math.floorDiv(task.getDeadline() - m_startTime, m_tickMs));
+        }
+    }
+
+    private void place(Task task, long tick) {
+        final long target = Math.max(tick, m_tick);
+        task.setRemainingRounds((target - m_tick) / WHEEL_SIZE);
+        m_wheel[(int) (target % WHEEL_SIZE)].add(task);
+    }
+
+    /**
+     * @return false if the thread pool no longer accepts tasks
+     */
+    private boolean expireCurrentBucket() {
+        final Deque<Task> bucket = m_wheel[(int) (m_tick % WHEEL_SIZE)];
+        final List<Task> notReady = new ArrayList<>(0);
+        for (int n = bucket.size(); n > 0; n--) {
+            final Task task = bucket.poll();
+            if (task.getRemainingRounds() > 0) {
+                task.setRemainingRounds(task.getRemainingRounds() - 1);
+                bucket.add(task);
+                continue;
+            }
+
+            final boolean ready;
+            try {
+                ready = task.getRunnable().isReady();
+            } catch (RuntimeException e) {
+                LOG.error("run: failed to determine if {} is ready, it will not be rescheduled", task.getRunnable(), e);
+                m_scheduled.decrementAndGet();
+                continue;
+            }
+            if (!ready) {
+                notReady.add(task);
+                continue;
+            }
+
+            LOG.debug("run: found ready runnable {}", task.getRunnable());
+            m_scheduled.decrementAndGet();
+            m_numTasksExecuted.incrementAndGet();
+            recordLag(task);
+            try {
+                m_runner.execute(task.getRunnable());
+            } catch (RejectedExecutionException e) {
+                if (m_runner.isShutdown()) {
+                    return false;
+                }
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+        // Re-check the tasks that were not ready on the next tick
+        for (Task task : notReady) {
+            place(task, m_tick + 1);
+        }
+        return true;
+    }
+
+    private void recordLag(Task task) {
+        final long interval = Math.round(task.getInterval() / 1000d) * 1000L;
+        LagStatistics stats = m_lagByInterval.get(interval);
+        if (stats == null) {
+            if (m_lagByInterval.size() >= MAX_TRACKED_INTERVALS) {
+                return;
+            }
+            stats = new LagStatistics();
+            m_lagByInterval.put(interval, stats);
+        }
+        stats.record(Math.max(0, getCurrentTime() - task.getDeadline()));
+    }
+
+    /**
+     * Statistics on the delay between the deadline of the tasks and the time
+     * at which they were handed to the thread pool.
+     */
+    public static class LagStatistics {
+        private final AtomicLong m_count = new AtomicLong(0);
+        private final AtomicLong m_totalLagMs = new AtomicLong(0);
+        private final AtomicLong m_maxLagMs = new AtomicLong(0);
+
+        private void record(long lagMs) {
+            m_count.incrementAndGet();
+            m_totalLagMs.addAndGet(lagMs);
+            m_maxLagMs.accumulateAndGet(lagMs, Math::max);
+        }
+
+        public long getCount() {
+            return m_count.get();
+        }
+
+        public long getTotalLagMs() {
+            return m_totalLagMs.get();
+        }
+
+        public long getMaxLagMs() {
+            return m_maxLagMs.get();
+        }
+
+        public double getAverageLagMs() {
+            final long count = m_count.get();
+            return count > 0 ? m_totalLagMs.get() / (double) count : 0d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, avgLagMs=%.1f, maxLagMs=%d", getCount(), getAverageLagMs(), getMaxLagMs());
+        }
+    }
+
+    private static final class Task {
+        private final ReadyRunnable m_runnable;
+        private final long m_interval;
+        private final long m_deadline;
+        private long m_remainingRounds;
+
+        private Task(ReadyRunnable runnable, long interval, long deadline) {
+            m_runnable = runnable;
+            m_interval = interval;
+            m_deadline = deadline;
+        }
+
+        public ReadyRunnable getRunnable() {
+            return m_runnable;
+        }
+
+        public long getInterval() {
+            return m_interval;
+        }
+
+        public long getDeadline() {
+            return m_deadline;
+        }
+
+        public long getRemainingRounds() {
+            return m_remainingRounds;
+        }
+
+        public void setRemainingRounds(long remainingRounds) {
+            m_remainingRounds = remainingRounds;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 2, 10, 0);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void canRunTasksInDeadlineOrder() throws InterruptedException {
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        m_scheduler.schedule(300, new Task(() -> true, executed, "c", latch));
+        m_scheduler.schedule(0, new Task(() -> true, executed, "a", latch));
+        m_scheduler.schedule(150, new Task(() -> true, executed, "b", latch));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, executed.size());
+        assertEquals("a", executed.get(0));
+        assertEquals("b", executed.get(1));
+        assertEquals("c", executed.get(2));
+        assertEquals(3, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(1, m_scheduler.getLagStatistics().get(0L).getCount());
+        assertTrue(m_scheduler.getMaxLagMs() >= m_scheduler.getAverageLagMs());
+    }
+
+    @Test(timeout = 10000)
+    public void canRunTasksScheduledBeyondOneRotation() throws InterruptedException {
+        // 512 buckets of 10ms make for a rotation of ~5s
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+        m_scheduler.schedule(6000, new Task(() -> true, executed, "a", latch));
+
+        assertFalse(latch.await(5500, TimeUnit.MILLISECONDS));
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 6000);
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotBlockOnTasksThatAreNotReady() throws InterruptedException {
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final CountDownLatch blockedLatch = new CountDownLatch(1);
+        final CountDownLatch otherLatch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new Task(ready::get, executed, "blocked", blockedLatch));
+        m_scheduler.schedule(0, new Task(() -> true, executed, "other", otherLatch));
+
+        assertTrue(otherLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, m_scheduler.getScheduled());
+
+        ready.set(true);
+        assertTrue(blockedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals("other", executed.get(0));
+        assertEquals("blocked", executed.get(1));
+    }
+
+    @Test(timeout = 10000)
+    public void canPauseAndResume() throws InterruptedException {
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.pause();
+        m_scheduler.schedule(0, new Task(() -> true, executed, "a", latch));
+
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private interface Readiness {
+        boolean isReady();
+    }
+
+    private static class Task implements ReadyRunnable {
+        private final Readiness m_readiness;
+        private final List<String> m_executed;
+        private final String m_name;
+        private final CountDownLatch m_latch;
+
+        private Task(Readiness readiness, List<String> executed, String name, CountDownLatch latch) {
+            m_readiness = readiness;
+            m_executed = executed;
+            m_name = name;
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_readiness.isReady();
+        }
+
+        @Override
+        public void run() {
+            m_executed.add(m_name);
+            m_latch.countDown();
+        }
+    }
+}
@@ -38,7 +38,8 @@ public enum ParameterName {
     RETRY("retry"),
     FRIENDLY_NAME("friendly-name"),
     PORT("port"),
-    USE_MBEAN_NAME_FOR_RRDS("use-mbean-name-for-rrds");
+    USE_MBEAN_NAME_FOR_RRDS("use-mbean-name-for-rrds"),
+    CACHE_METADATA("cache-metadata");
 
     private final String m_value;
 
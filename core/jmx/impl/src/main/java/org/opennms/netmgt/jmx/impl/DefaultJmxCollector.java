@@ -29,16 +29,23 @@
 package org.opennms.netmgt.jmx.impl;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -60,10 +67,13 @@ import org.opennms.netmgt.config.jmx.MBeanServer;
 import org.opennms.netmgt.jmx.JmxCollector;
 import org.opennms.netmgt.jmx.JmxCollectorConfig;
 import org.opennms.netmgt.jmx.JmxSampleProcessor;
+import org.opennms.netmgt.jmx.ParameterName;
 import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
 import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionWrapper;
 import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
 import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
 import org.slf4j.Logger;
@@ -72,29 +82,91 @@ import org.slf4j.LoggerFactory;
 /**
  * A implementation of the JmxCollector.
  * It iterates over all configured MBeans, collects either attributes or composite members and creates a sample accordingly.
+ * <p/>
+ * If the <code>cache-metadata</code> parameter is set, the connections are pooled, the resolved ObjectNames and the
+ * MBeanInfos are reused between the collections and the attributes of every MBean are fetched in a single call.
  *
  * @see org.opennms.netmgt.jmx.JmxCollector
  */
 public class DefaultJmxCollector implements JmxCollector {
 
+    public static final String METADATA_CACHE_TTL_SYS_PROP = "org.opennms.netmgt.jmx.metadataCacheTtl";
+
+    private static final long METADATA_CACHE_TTL = Long.getLong(METADATA_CACHE_TTL_SYS_PROP, 600000L);
+
+    /**
+     * The metadata of the jmx servers, by pooled connection. The entries are
+     * removed along with their connections.
+     */
+    private static final Map<String, MBeanMetadataCache> METADATA_CACHES = new ConcurrentHashMap<>();
+
+    static {
+        JmxConnectionPool.getInstance().addInvalidationListener(METADATA_CACHES::remove);
+    }
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /**
+     * Number of calls made to the jmx server during the last collection.
+     */
+    private final AtomicInteger roundTrips = new AtomicInteger();
+
     @Override
     public void collect(JmxCollectorConfig config, MBeanServer mBeanServer, JmxSampleProcessor sampleProcessor) throws JmxServerConnectionException {
         Map<String, String> mergedStringMap = new HashMap<>(config.getServiceProperties());
         if (mBeanServer != null) {
             mergedStringMap.putAll(mBeanServer.getParameterMap());
         }
+        roundTrips.set(0);
         JmxConnectionManager connectionManager = new DefaultConnectionManager(config.getRetries());
-        try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), InetAddressUtils.addr(config.getAgentAddress()), mergedStringMap, null)) {
-            Objects.requireNonNull(connectionWrapper, "connectionWrapper should never be null");
-            Objects.requireNonNull(connectionWrapper.getMBeanServerConnection(), "connectionWrapper.getMBeanServerConnection() should never be null");
+        if (Boolean.parseBoolean(mergedStringMap.get(ParameterName.CACHE_METADATA.toString()))) {
+            collectWithCache(connectionManager, config, mergedStringMap, sampleProcessor);
+        } else {
+            try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), InetAddressUtils.addr(config.getAgentAddress()), mergedStringMap, null)) {
+                Objects.requireNonNull(connectionWrapper, "connectionWrapper should never be null");
+                Objects.requireNonNull(connectionWrapper.getMBeanServerConnection(), "connectionWrapper.getMBeanServerConnection() should never be null");
+
+                final MBeanServerConnection concreteConnection = countRoundTrips(connectionWrapper.getMBeanServerConnection());
+                collect(concreteConnection, config.getJmxCollection(), sampleProcessor);
+            }
+        }
+        logger.debug("Collected from {} in {} round-trips", config.getAgentAddress(), roundTrips.get());
+    }
 
-            final MBeanServerConnection concreteConnection = connectionWrapper.getMBeanServerConnection();
-            collect(concreteConnection, config.getJmxCollection(), sampleProcessor);
+    /**
+     * @return the number of calls made to the jmx server during the last collection
+     */
+    public int getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    private void collectWithCache(JmxConnectionManager connectionManager, JmxCollectorConfig config, Map<String, String> properties, JmxSampleProcessor sampleProcessor) throws JmxServerConnectionException {
+        final PooledConnectionWrapper connectionWrapper = JmxConnectionPool.getInstance().connect(connectionManager, config.getConnectionName(), InetAddressUtils.addr(config.getAgentAddress()), properties);
+        final MBeanMetadataCache metadataCache = METADATA_CACHES.computeIfAbsent(connectionWrapper.getKey(), k -> new MBeanMetadataCache(METADATA_CACHE_TTL));
+        try {
+            collect(countRoundTrips(connectionWrapper.getMBeanServerConnection()), config.getJmxCollection(), metadataCache, sampleProcessor);
+        } catch (IOException e) {
+            logger.error("Could not communicate with MBeanServer", e);
+            // Reconnect, and query the metadata again in case the server was restarted
+            connectionWrapper.invalidate();
+        } finally {
+            connectionWrapper.close();
         }
     }
 
+    private MBeanServerConnection countRoundTrips(MBeanServerConnection connection) {
+        return (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() != Object.class) {
+                roundTrips.incrementAndGet();
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
     private void collect(MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
         if (jmxCollection == null || jmxCollection.getMbeanCount() < 1) {
             logger.info("No MBeans to collect.");
@@ -114,18 +186,7 @@ public class DefaultJmxCollector implements JmxCollector {
                         List<Attribute> attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
 
                         for (Attribute eachAttribute : attributes) {
-                            if (eachAttribute.getValue() instanceof CompositeData) {
-                                CompositeData compositeData = (CompositeData) eachAttribute.getValue();
-                                for (CompMember eachCompositeMember : getCompositeMembers(eachMbean, eachAttribute.getName())) {
-                                    JmxCompositeSample sample = new JmxCompositeSample(eachMbean, eachAttribute, compositeData, eachCompositeMember);
-                                    logger.debug("Collected sample {}", sample);
-                                    sampleProcessor.process(sample, eachObjectName);
-                                }
-                            } else {
-                                JmxAttributeSample sample = new JmxAttributeSample(eachMbean, eachAttribute);
-                                logger.debug("Collected sample {}", sample);
-                                sampleProcessor.process(sample, eachObjectName);
-                            }
+                            process(eachMbean, eachObjectName, eachAttribute, sampleProcessor);
                         }
                     } else {
                         logger.debug("Skip ObjectName {}", eachObjectName);
@@ -139,6 +200,102 @@ public class DefaultJmxCollector implements JmxCollector {
         }
     }
 
+    /**
+     * Collects the configured MBeans using the cached metadata.
+     * <p/>
+     * The attributes of all of the configured MBeans that resolve to the same ObjectName
+     * are fetched in a single call, MBeans that are not registered or that have none of
+     * the configured attributes are skipped without querying the server.
+     *
+     * @throws IOException If an error while communicating with the MBeanServer occurs.
+     */
+    private void collect(MBeanServerConnection concreteConnection, JmxCollection jmxCollection, MBeanMetadataCache metadataCache, JmxSampleProcessor sampleProcessor) throws IOException {
+        if (jmxCollection == null || jmxCollection.getMbeanCount() < 1) {
+            logger.info("No MBeans to collect.");
+            return;
+        }
+
+        // Determine the attributes to fetch from each ObjectName
+        final List<Map.Entry<Mbean, ObjectName>> collectedMbeans = new ArrayList<>();
+        final Map<ObjectName, Set<String>> attributeNamesByObjectName = new LinkedHashMap<>();
+        for (Mbean eachMbean : jmxCollection.getMbeans()) {
+            final Set<ObjectName> objectNames;
+            try {
+                objectNames = metadataCache.getObjectNames(concreteConnection, eachMbean.getObjectname());
+            } catch (MalformedObjectNameException e) {
+                logger.error("Could not collect MBean (objectname={})", eachMbean.getObjectname(), e);
+                continue;
+            }
+            for (ObjectName eachObjectName : objectNames) {
+                if (isExcluded(eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude())) {
+                    logger.debug("ObjectName {} with key {} is in excludeList {}.", eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
+                    continue;
+                }
+                final Set<String> availableAttributeNames = metadataCache.getAttributeNames(concreteConnection, eachObjectName);
+                final List<String> attributeNames = new ArrayList<>(extractAttributeNames(eachMbean));
+                if (availableAttributeNames != null) {
+                    attributeNames.retainAll(availableAttributeNames);
+                }
+                if (attributeNames.isEmpty()) {
+                    logger.debug("Skip ObjectName {}", eachObjectName);
+                    continue;
+                }
+                collectedMbeans.add(new AbstractMap.SimpleImmutableEntry<>(eachMbean, eachObjectName));
+                attributeNamesByObjectName.computeIfAbsent(eachObjectName, k -> new LinkedHashSet<>()).addAll(attributeNames);
+            }
+        }
+
+        // Fetch all of the attributes of each MBean at once
+        final Map<ObjectName, Map<String, Attribute>> attributesByObjectName = new HashMap<>();
+        for (Map.Entry<ObjectName, Set<String>> eachEntry : attributeNamesByObjectName.entrySet()) {
+            final ObjectName objectName = eachEntry.getKey();
+            try {
+                final Map<String, Attribute> attributes = new HashMap<>();
+                for (Attribute eachAttribute : getAttributes(concreteConnection, objectName, new ArrayList<>(eachEntry.getValue()))) {
+                    attributes.put(eachAttribute.getName(), eachAttribute);
+                }
+                attributesByObjectName.put(objectName, attributes);
+            } catch (InstanceNotFoundException e) {
+                logger.debug("ObjectName {} is not registered.", objectName);
+                metadataCache.evict(objectName);
+            } catch (ReflectionException e) {
+                logger.error("Could not collect ObjectName {}", objectName, e);
+            }
+        }
+
+        // Process the samples in the configured order
+        for (Map.Entry<Mbean, ObjectName> eachEntry : collectedMbeans) {
+            final Map<String, Attribute> attributes = attributesByObjectName.get(eachEntry.getValue());
+            if (attributes == null) {
+                continue;
+            }
+            for (String eachAttributeName : extractAttributeNames(eachEntry.getKey())) {
+                final Attribute attribute = attributes.get(eachAttributeName);
+                if (attribute != null) {
+                    process(eachEntry.getKey(), eachEntry.getValue(), attribute, sampleProcessor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the samples of the given attribute and passes these to the sample processor.
+     */
+    private void process(Mbean mbean, ObjectName objectName, Attribute attribute, JmxSampleProcessor sampleProcessor) {
+        if (attribute.getValue() instanceof CompositeData) {
+            CompositeData compositeData = (CompositeData) attribute.getValue();
+            for (CompMember eachCompositeMember : getCompositeMembers(mbean, attribute.getName())) {
+                JmxCompositeSample sample = new JmxCompositeSample(mbean, attribute, compositeData, eachCompositeMember);
+                logger.debug("Collected sample {}", sample);
+                sampleProcessor.process(sample, objectName);
+            }
+        } else {
+            JmxAttributeSample sample = new JmxAttributeSample(mbean, attribute);
+            logger.debug("Collected sample {}", sample);
+            sampleProcessor.process(sample, objectName);
+        }
+    }
+
 
     /**
      * Checks if a given objectName can be collected.
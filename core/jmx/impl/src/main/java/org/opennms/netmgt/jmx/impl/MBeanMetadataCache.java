@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the <code>ObjectName</code>s matching the configured wildcards and the
+ * readable attributes of the MBeans of a jmx server, so that these don't have to be
+ * queried on every collection.
+ *
+ * The entries expire after the given time to live, so that MBeans registered later
+ * on are eventually collected.
+ */
+class MBeanMetadataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MBeanMetadataCache.class);
+
+    private final long ttl;
+
+    private final Map<String, Cached<Set<ObjectName>>> objectNames = new ConcurrentHashMap<>();
+
+    private final Map<ObjectName, Cached<Set<String>>> attributeNames = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl Time in milliseconds during which the metadata is reused.
+     */
+    MBeanMetadataCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
+     *
+     * @param objectName The objectName to query the server with. May contain wildcards.
+     */
+    Set<ObjectName> getObjectNames(MBeanServerConnection connection, String objectName) throws MalformedObjectNameException, IOException {
+        final Cached<Set<ObjectName>> cached = objectNames.get(objectName);
+        if (cached != null && !cached.isExpired()) {
+            return cached.value;
+        }
+
+        final Set<ObjectName> names;
+        if (objectName.contains("*")) {
+            names = Collections.unmodifiableSet(new HashSet<>(connection.queryNames(new ObjectName(objectName), null)));
+            LOG.debug("Resolved {} to {} ObjectNames", objectName, names.size());
+        } else {
+            names = Collections.singleton(new ObjectName(objectName));
+        }
+        objectNames.put(objectName, new Cached<>(names, System.currentTimeMillis() + ttl));
+        return names;
+    }
+
+    /**
+     * Returns the names of the readable attributes of the given MBean.
+     *
+     * @return the names of the attributes, an empty set if the MBean is not registered,
+     *   or null if the attributes could not be determined
+     */
+    Set<String> getAttributeNames(MBeanServerConnection connection, ObjectName objectName) throws IOException {
+        final Cached<Set<String>> cached = attributeNames.get(objectName);
+        if (cached != null && !cached.isExpired()) {
+            return cached.value;
+        }
+
+        Set<String> names;
+        try {
+            names = new HashSet<>();
+            for (MBeanAttributeInfo eachAttributeInfo : connection.getMBeanInfo(objectName).getAttributes()) {
+                if (eachAttributeInfo.isReadable()) {
+                    names.add(eachAttributeInfo.getName());
+                }
+            }
+            names = Collections.unmodifiableSet(names);
+        } catch (InstanceNotFoundException e) {
+            LOG.debug("ObjectName {} is not registered.", objectName);
+            names = Collections.emptySet();
+        } catch (IntrospectionException | ReflectionException e) {
+            LOG.debug("Could not retrieve the MBeanInfo of {}", objectName, e);
+            names = null;
+        }
+        attributeNames.put(objectName, new Cached<>(names, System.currentTimeMillis() + ttl));
+        return names;
+    }
+
+    /**
+     * Forgets the given MBean, and the wildcards that resolved to it.
+     */
+    void evict(ObjectName objectName) {
+        attributeNames.remove(objectName);
+        objectNames.values().removeIf(cached -> cached.value.contains(objectName));
+    }
+
+    private static class Cached<T> {
+        private final T value;
+        private final long expires;
+
+        private Cached(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+}
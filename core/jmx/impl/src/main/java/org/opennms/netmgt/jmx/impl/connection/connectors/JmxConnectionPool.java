@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connections to the jmx servers open between the collections.
+ *
+ * The connections are shared by the callers that use the same connector,
+ * address and properties, and are closed once they were not used for longer
+ * than the idle timeout or when they are invalidated. The callers using a
+ * connection are counted, so that an invalidated connection is only closed
+ * once the last of them released it, and a connection in use is never idle.
+ *
+ * The connections are identified by their connector, address, port and a hash
+ * of the remaining properties, so that the credentials don't appear in the keys.
+ */
+public class JmxConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    public static final String IDLE_TIMEOUT_SYS_PROP = "org.opennms.netmgt.jmx.connectionIdleTimeout";
+
+    private static final JmxConnectionPool INSTANCE = new JmxConnectionPool(Long.getLong(IDLE_TIMEOUT_SYS_PROP, 900000L));
+
+    private final Map<String, PooledConnectionWrapper> connections = new ConcurrentHashMap<>();
+
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Time in milliseconds after which unused connections are closed.
+     */
+    private final long idleTimeout;
+
+    public JmxConnectionPool(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public static JmxConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the pooled connection to the given <code>ipAddress</code>, the connection is
+     * established using the given connection manager if there is none.
+     *
+     * The connection must not be closed by the caller, closing the returned wrapper only
+     * releases it, and must be done exactly once. Use {@link PooledConnectionWrapper#invalidate()}
+     * if the connection failed, the wrapper must still be closed afterwards.
+     *
+     * @see JmxConnectionManager#connect(JmxConnectors, InetAddress, Map, JmxConnectionManager.RetryCallback)
+     */
+    public PooledConnectionWrapper connect(JmxConnectionManager connectionManager, JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> properties) throws JmxServerConnectionException {
+        closeIdleConnections();
+
+        final String key = getKey(connectionName, ipAddress, properties);
+        final PooledConnectionWrapper connection = connections.get(key);
+        if (connection != null && connection.acquire()) {
+            return connection;
+        }
+
+        LOG.debug("Creating a new pooled connection to {}", ipAddress);
+        final JmxServerConnectionWrapper delegate = connectionManager.connect(connectionName, ipAddress, properties, null);
+        final PooledConnectionWrapper created = new PooledConnectionWrapper(this, key, delegate);
+        created.acquire();
+        while (true) {
+            final PooledConnectionWrapper existing = connections.putIfAbsent(key, created);
+            if (existing == null) {
+                return created;
+            } else if (existing.acquire()) {
+                // Another caller connected in the meantime
+                delegate.close();
+                return existing;
+            }
+            // The other connection was invalidated in the meantime, and is about to be removed
+            connections.remove(key, existing);
+        }
+    }
+
+    /**
+     * Registers a listener that is called with the key of every connection that is
+     * removed from the pool, so that state kept per connection can be released.
+     */
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * Removes the given connection from the pool, it is closed once it is no longer in use.
+     */
+    protected void invalidate(PooledConnectionWrapper connection) {
+        connection.markInvalid();
+        if (connections.remove(connection.getKey(), connection)) {
+            LOG.debug("Removed pooled connection {}", connection.getKey());
+            invalidationListeners.forEach(listener -> listener.accept(connection.getKey()));
+        }
+    }
+
+    protected static String getKey(JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> properties) {
+        final Map<String, String> sortedProperties = new TreeMap<>(properties);
+        final String port = sortedProperties.remove("port");
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> entry : sortedProperties.entrySet()) {
+                digest.update(String.valueOf(entry.getKey()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '=');
+                digest.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            final StringBuilder key = new StringBuilder();
+            key.append(connectionName).append('|').append(ipAddress.getHostAddress()).append('|').append(port).append('|');
+            final byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                key.append(String.format("%02x", hash[i]));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void closeIdleConnections() {
+        final long now = System.currentTimeMillis();
+        for (PooledConnectionWrapper connection : connections.values()) {
+            if (!connection.isInUse() && now - connection.getLastUsed() > idleTimeout) {
+                invalidate(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes all of the pooled connections, the ones in use are closed once released.
+     */
+    public void closeAll() {
+        connections.values().forEach(this::invalidate);
+    }
+
+    public int size() {
+        return connections.size();
+    }
+}
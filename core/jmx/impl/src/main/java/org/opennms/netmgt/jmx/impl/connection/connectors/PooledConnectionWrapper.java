@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.util.Objects;
+
+import javax.management.MBeanServerConnection;
+
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+/**
+ * A connection kept open by the {@link JmxConnectionPool}.
+ *
+ * Closing this wrapper releases the connection, the underlying connection is
+ * only closed when invalidated or when it was idle for too long, and once none
+ * of the callers that acquired it are still using it.
+ */
+public class PooledConnectionWrapper implements JmxServerConnectionWrapper {
+
+    private final JmxConnectionPool pool;
+    private final String key;
+    private final JmxServerConnectionWrapper delegate;
+    private volatile long lastUsed;
+
+    // Guarded by this
+    private int users;
+    private boolean invalid;
+    private boolean closed;
+
+    protected PooledConnectionWrapper(JmxConnectionPool pool, String key, JmxServerConnectionWrapper delegate) {
+        this.pool = Objects.requireNonNull(pool);
+        this.key = Objects.requireNonNull(key);
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        touch();
+    }
+
+    @Override
+    public MBeanServerConnection getMBeanServerConnection() {
+        return delegate.getMBeanServerConnection();
+    }
+
+    /**
+     * Releases the connection, which stays open unless it was invalidated.
+     */
+    @Override
+    public void close() {
+        touch();
+        synchronized (this) {
+            if (users > 0) {
+                users--;
+            }
+        }
+        closeIfUnused();
+    }
+
+    /**
+     * Removes the connection from the pool, to be used when communicating with the server failed.
+     * The connection is closed once it is released by all of the callers.
+     */
+    public void invalidate() {
+        pool.invalidate(this);
+    }
+
+    /**
+     * @return identifies the connector, address, port and properties of the connection,
+     *         the properties are hashed so that the key can be logged
+     */
+    public String getKey() {
+        return key;
+    }
+
+    protected JmxServerConnectionWrapper getDelegate() {
+        return delegate;
+    }
+
+    protected long getLastUsed() {
+        return lastUsed;
+    }
+
+    protected void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Counts another caller using the connection.
+     *
+     * @return false if the connection was invalidated, and must not be used
+     */
+    protected synchronized boolean acquire() {
+        if (invalid) {
+            return false;
+        }
+        users++;
+        touch();
+        return true;
+    }
+
+    protected synchronized boolean isInUse() {
+        return users > 0;
+    }
+
+    /**
+     * Prevents the connection from being acquired again, and closes it if it is not in use.
+     */
+    protected void markInvalid() {
+        synchronized (this) {
+            invalid = true;
+        }
+        closeIfUnused();
+    }
+
+    private void closeIfUnused() {
+        synchronized (this) {
+            if (!invalid || users > 0 || closed) {
+                return;
+            }
+            closed = true;
+        }
+        delegate.close();
+    }
+}
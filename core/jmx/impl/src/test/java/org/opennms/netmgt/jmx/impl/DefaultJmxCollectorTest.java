@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.config.collectd.jmx.Attrib;
+import org.opennms.netmgt.config.collectd.jmx.JmxCollection;
+import org.opennms.netmgt.config.collectd.jmx.Mbean;
+import org.opennms.netmgt.jmx.JmxCollectorConfig;
+import org.opennms.netmgt.jmx.JmxSampleProcessor;
+import org.opennms.netmgt.jmx.ParameterName;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
+import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
+
+public class DefaultJmxCollectorTest {
+
+    @After
+    public void tearDown() {
+        JmxConnectionPool.getInstance().closeAll();
+    }
+
+    @Test
+    public void testCachedMetadataCollectsTheSameSamples() throws Exception {
+        final Set<String> samples = collect(createConfig(false), new DefaultJmxCollector());
+        assertTrue(samples.contains("java.lang:type=Threading|ThreadCount"));
+        assertTrue(samples.contains("java.lang:type=Threading|PeakThreadCount"));
+        assertFalse(samples.stream().anyMatch(s -> s.contains("DoesNotExist")));
+
+        assertEquals(samples, collect(createConfig(true), new DefaultJmxCollector()));
+        assertEquals(samples, collect(createConfig(true), new DefaultJmxCollector()));
+    }
+
+    @Test
+    public void testCachedMetadataReducesRoundTrips() throws Exception {
+        final int garbageCollectors = ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("java.lang:type=GarbageCollector,*"), null).size();
+
+        // One getAttributes call per MBean, including the two definitions of java.lang:type=Threading
+        DefaultJmxCollector collector = new DefaultJmxCollector();
+        collect(createConfig(false), collector);
+        final int uncachedRoundTrips = collector.getRoundTrips();
+
+        // The first collection fetches the metadata
+        collector = new DefaultJmxCollector();
+        collect(createConfig(true), collector);
+
+        // The following ones only fetch the attributes, once per ObjectName
+        collector = new DefaultJmxCollector();
+        collect(createConfig(true), collector);
+        assertEquals(2 + garbageCollectors, collector.getRoundTrips());
+        assertTrue(collector.getRoundTrips() < uncachedRoundTrips);
+
+        // The connection was pooled
+        assertEquals(1, JmxConnectionPool.getInstance().size());
+    }
+
+    private static Set<String> collect(JmxCollectorConfig config, DefaultJmxCollector collector) throws Exception {
+        final Set<String> samples = new HashSet<>();
+        collector.collect(config, null, new JmxSampleProcessor() {
+            @Override
+            public void process(JmxAttributeSample attributeSample, ObjectName objectName) {
+                samples.add(objectName.getCanonicalName() + "|" + attributeSample.getCollectedAttribute().getName());
+            }
+
+            @Override
+            public void process(JmxCompositeSample compositeSample, ObjectName objectName) {
+                samples.add(objectName.getCanonicalName() + "|" + compositeSample.getCollectedAttribute().getName() + "|" + compositeSample.getCompositeKey());
+            }
+        });
+        return samples;
+    }
+
+    private static JmxCollectorConfig createConfig(boolean cacheMetadata) {
+        final JmxCollection collection = new JmxCollection();
+        collection.setName("test");
+        collection.addMbean(createMbean("memory", "java.lang:type=Memory", "ObjectPendingFinalizationCount"));
+        collection.addMbean(createMbean("threads", "java.lang:type=Threading", "ThreadCount", "DaemonThreadCount"));
+        collection.addMbean(createMbean("peak-threads", "java.lang:type=Threading", "PeakThreadCount"));
+        collection.addMbean(createMbean("gc", "java.lang:type=GarbageCollector,*", "CollectionCount", "CollectionTime"));
+        collection.addMbean(createMbean("missing", "java.lang:type=DoesNotExist", "Count"));
+
+        final JmxCollectorConfig config = new JmxCollectorConfig();
+        config.setAgentAddress("127.0.0.1");
+        config.setConnectionName(JmxConnectors.platform);
+        config.setRetries(1);
+        config.setServiceProperties(Collections.singletonMap(ParameterName.CACHE_METADATA.toString(), Boolean.toString(cacheMetadata)));
+        config.setJmxCollection(collection);
+        return config;
+    }
+
+    private static Mbean createMbean(String name, String objectName, String... attributeNames) {
+        final Mbean mbean = new Mbean();
+        mbean.setName(name);
+        mbean.setObjectname(objectName);
+        for (String eachAttributeName : attributeNames) {
+            final Attrib attrib = new Attrib();
+            attrib.setName(eachAttributeName);
+            attrib.setAlias(eachAttributeName);
+            mbean.addAttrib(attrib);
+        }
+        return mbean;
+    }
+}
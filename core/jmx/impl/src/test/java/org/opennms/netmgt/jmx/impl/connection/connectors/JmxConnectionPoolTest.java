@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+
+import org.junit.Test;
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+public class JmxConnectionPoolTest {
+
+    private final AtomicInteger closed = new AtomicInteger();
+
+    private final JmxConnectionManager connectionManager = (connectionName, ipAddress, properties, retryCallback) -> new JmxServerConnectionWrapper() {
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return ManagementFactory.getPlatformMBeanServer();
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void testKeyDoesNotContainTheCredentials() throws Exception {
+        final InetAddress address = InetAddress.getLoopbackAddress();
+        final String key = JmxConnectionPool.getKey(JmxConnectors.jsr160, address, credentials("admin", "s3cret"));
+
+        assertFalse(key, key.contains("admin"));
+        assertFalse(key, key.contains("s3cret"));
+        assertEquals(key, JmxConnectionPool.getKey(JmxConnectors.jsr160, address, credentials("admin", "s3cret")));
+        assertNotEquals(key, JmxConnectionPool.getKey(JmxConnectors.jsr160, address, credentials("admin", "other")));
+    }
+
+    @Test
+    public void testInvalidationListenersAreNotified() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(60000L);
+        final List<String> invalidated = new ArrayList<>();
+        pool.addInvalidationListener(invalidated::add);
+
+        final PooledConnectionWrapper connection = pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "s3cret"));
+        connection.close();
+        assertEquals(1, pool.size());
+        assertEquals(0, invalidated.size());
+
+        connection.invalidate();
+        assertEquals(0, pool.size());
+        assertEquals(1, invalidated.size());
+        assertEquals(connection.getKey(), invalidated.get(0));
+
+        // The next caller gets a new connection
+        assertNotSame(connection, pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "s3cret")));
+    }
+
+    @Test
+    public void testInvalidatedConnectionIsClosedOnceReleased() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(60000L);
+        final PooledConnectionWrapper first = pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "s3cret"));
+        final PooledConnectionWrapper second = pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "s3cret"));
+        assertSame(first, second);
+
+        // The other caller is still using the connection
+        first.invalidate();
+        first.close();
+        assertEquals(0, pool.size());
+        assertEquals(0, closed.get());
+
+        second.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testConnectionInUseIsNotIdle() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(0L);
+        final PooledConnectionWrapper connection = pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "s3cret"));
+        Thread.sleep(10);
+
+        // Connecting to another server closes the idle connections
+        pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "other")).close();
+        assertEquals(2, pool.size());
+        assertEquals(0, closed.get());
+
+        connection.close();
+        Thread.sleep(10);
+        pool.connect(connectionManager, JmxConnectors.jsr160, InetAddress.getLoopbackAddress(), credentials("admin", "other")).close();
+        assertEquals(1, pool.size());
+        assertEquals(2, closed.get());
+    }
+
+    private static Map<String, String> credentials(String username, String password) {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("port", "1099");
+        properties.put("username", username);
+        properties.put("password", password);
+        return properties;
+    }
+}
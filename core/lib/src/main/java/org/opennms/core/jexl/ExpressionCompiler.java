@@ -0,0 +1,1208 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.jexl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compiles JEXL expressions into trees of typed operators, which are either
+ * evaluated against an array of values, one per variable, or over whole
+ * columns of values at a time.
+ *
+ * Only the subset of the JEXL syntax commonly found in threshold and graph
+ * definitions is supported: numeric literals, variables, arithmetic,
+ * comparison and logical operators, the ternary operator and the functions
+ * provided by the {@link Scope}. The JEXL 2 semantics for these are preserved,
+ * i.e. NaN == NaN, arithmetic on integers stays integral, floating point
+ * division by zero yields zero and float literals are floats.
+ *
+ * Anything else results in an {@link UnsupportedExpressionException}, in which
+ * case the caller is expected to evaluate the expression with JEXL instead.
+ */
+public final class ExpressionCompiler {
+
+    /**
+     * The JEXL type of the values produced by a node. Booleans are stored as 1 and 0.
+     */
+    public enum Kind {
+        /** java.lang.Double */
+        DOUBLE,
+        /** java.lang.Float, only produced by literals */
+        FLOAT,
+        /** java.lang.Integer or java.lang.Long */
+        INTEGRAL,
+        /** Either DOUBLE or INTEGRAL, depending on the values */
+        NUMBER,
+        /** java.lang.Boolean */
+        BOOLEAN,
+        /** java.lang.String, only produced by literals and only accepted as function arguments */
+        STRING;
+
+        public boolean isNumeric() {
+            return this != BOOLEAN && this != STRING;
+        }
+
+        public boolean isFloatingPoint() {
+            return this == DOUBLE || this == FLOAT;
+        }
+    }
+
+    /**
+     * Resolves the variables, properties and functions referenced by the expressions.
+     */
+    public interface Scope {
+        /**
+         * @param name the name of the variable, which may contain dots
+         * @return the node for the given variable, or null if it is undefined
+         */
+        Node resolve(String name) throws UnsupportedExpressionException;
+
+        /**
+         * Resolves <code>object['property']</code>.
+         *
+         * @return the node for the given property, or null if it is not supported
+         */
+        default Node property(String object, String property) throws UnsupportedExpressionException {
+            return null;
+        }
+
+        /**
+         * Resolves <code>namespace:name(args)</code> and <code>object.name(args)</code>.
+         *
+         * @return the node for the function call, or null if it is not supported
+         */
+        default Node function(String namespace, String name, List<Node> args) throws UnsupportedExpressionException {
+            return null;
+        }
+    }
+
+    /**
+     * A node in the compiled expression.
+     */
+    public static abstract class Node {
+        private final Kind m_kind;
+
+        protected Node(Kind kind) {
+            m_kind = kind;
+        }
+
+        public Kind getKind() {
+            return m_kind;
+        }
+
+        /**
+         * @return true if the array returned by {@link #eval(double[][], int)}
+         * is owned by someone else and must not be modified
+         */
+        public boolean isShared() {
+            return false;
+        }
+
+        /**
+         * Evaluates the node for a single set of values.
+         *
+         * @param slots the values of the variables, by slot
+         */
+        public abstract double eval(double[] slots) throws UnsupportedExpressionException;
+
+        /**
+         * Evaluates the node for all of the rows at once.
+         *
+         * @param columns the values of the variables, by slot and then by row
+         * @param numRows the number of rows
+         */
+        public abstract double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException;
+    }
+
+    /**
+     * A compiled expression with a numeric result.
+     */
+    public static final class CompiledExpression {
+        private final Node m_root;
+
+        private CompiledExpression(Node root) {
+            m_root = root;
+        }
+
+        public Kind getKind() {
+            return m_root.getKind();
+        }
+
+        /**
+         * Evaluates the expression for a single set of values.
+         *
+         * @param slots the values of the variables, by slot
+         * @return the same value that JEXL would have returned, converted to a double
+         * @throws UnsupportedExpressionException if the result would differ from the one returned by JEXL
+         */
+        public double evaluate(double[] slots) throws UnsupportedExpressionException {
+            final double value = m_root.eval(slots);
+            if (m_root.getKind() == Kind.FLOAT) {
+                // Floats are converted using their string representation
+                return Double.parseDouble(Float.toString((float)value));
+            }
+            return value;
+        }
+
+        /**
+         * Evaluates the expression for all of the rows at once.
+         *
+         * @param columns the values of the variables, by slot and then by row
+         * @param numRows the number of rows
+         * @return a new array holding the same values that JEXL would have returned, converted to doubles
+         * @throws UnsupportedExpressionException if the results would differ from the ones returned by JEXL
+         */
+        public double[] evaluate(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            double[] values = m_root.eval(columns, numRows);
+            if (m_root.isShared()) {
+                values = values.clone();
+            }
+            if (m_root.getKind() == Kind.FLOAT) {
+                for (int i = 0; i < numRows; i++) {
+                    values[i] = Double.parseDouble(Float.toString((float)values[i]));
+                }
+            }
+            return values;
+        }
+    }
+
+    /** Largest magnitude at which all integers can be represented exactly by a double. */
+    private static final long MAX_EXACT_INTEGRAL = 1L << 53;
+
+    private final Scope m_scope;
+    private final String m_expression;
+    private List<String> m_tokens;
+    private int m_pos;
+
+    private ExpressionCompiler(Scope scope, String expression) {
+        m_scope = scope;
+        m_expression = expression;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param expression the JEXL expression
+     * @param scope used to resolve the variables and functions
+     * @return the compiled expression
+     * @throws UnsupportedExpressionException if the expression cannot be compiled
+     */
+    public static CompiledExpression compile(String expression, Scope scope) throws UnsupportedExpressionException {
+        final ExpressionCompiler compiler = new ExpressionCompiler(scope, expression);
+        compiler.m_tokens = tokenize(expression);
+        compiler.m_pos = 0;
+        final Node root = compiler.parseExpression();
+        if (compiler.m_pos != compiler.m_tokens.size()) {
+            throw compiler.unsupported("unexpected '" + compiler.m_tokens.get(compiler.m_pos) + "'");
+        }
+        if (!root.getKind().isNumeric()) {
+            // JEXL would fail to convert the result to a double
+            throw compiler.unsupported("non-numeric result");
+        }
+        return new CompiledExpression(root);
+    }
+
+    //
+    // Tokenizer
+    //
+
+    private static List<String> tokenize(String expression) throws UnsupportedExpressionException {
+        final List<String> tokens = new ArrayList<>();
+        final int len = expression.length();
+        int i = 0;
+        while (i < len) {
+            final char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (isDigit(c)) {
+                int j = i;
+                while (j < len && (Character.isLetterOrDigit(expression.charAt(j)) || expression.charAt(j) == '.')) {
+                    j++;
+                }
+                tokens.add(expression.substring(i, j));
+                i = j;
+            } else if (isIdentifierStart(c)) {
+                int j = i + 1;
+                while (j < len) {
+                    final char d = expression.charAt(j);
+                    if (isIdentifierPart(d)) {
+                        j++;
+                    } else if (d == '.' && j + 1 < len && isIdentifierStart(expression.charAt(j + 1))) {
+                        // Dotted (antish) variable name, property access or method call
+                        j++;
+                    } else if (d == ':' && j + 1 < len && isIdentifierStart(expression.charAt(j + 1))) {
+                        // Namespaced function, the namespace and the name are kept together
+                        j++;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(expression.substring(i, j));
+                i = j;
+            } else if (c == '"' || c == '\'') {
+                final int end = expression.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new UnsupportedExpressionException("unterminated string");
+                }
+                final String literal = expression.substring(i, end + 1);
+                if (literal.indexOf('\\') >= 0) {
+                    throw new UnsupportedExpressionException("escaped string");
+                }
+                tokens.add(literal);
+                i = end + 1;
+            } else {
+                final String two = i + 1 < len ? expression.substring(i, i + 2) : null;
+                if ("==".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two)
+                        || "&&".equals(two) || "||".equals(two)) {
+                    tokens.add(two);
+                    i += 2;
+                } else if ("=~".equals(two) || "!~".equals(two) || "?:".equals(two)) {
+                    throw new UnsupportedExpressionException("operator " + two);
+                } else if ("+-*/%<>!?:(),[]".indexOf(c) >= 0) {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else {
+                    throw new UnsupportedExpressionException("character '" + c + "'");
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static boolean isQuoted(String token) {
+        return token != null && (token.startsWith("\"") || token.startsWith("'"));
+    }
+
+    /**
+     * @return true if the given name is a JEXL keyword, and can't be used as a variable or property
+     */
+    public static boolean isReserved(String name) {
+        switch (name) {
+            case "null": case "empty": case "size": case "new": case "var": case "return":
+            case "if": case "else": case "for": case "foreach": case "while": case "function": case "in":
+            case "and": case "or": case "not": case "eq": case "ne": case "lt": case "gt": case "le": case "ge":
+            case "div": case "mod": case "true": case "false":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //
+    // Parser, using the same precedence as the JEXL grammar
+    //
+
+    private String peek() {
+        return m_pos < m_tokens.size() ? m_tokens.get(m_pos) : null;
+    }
+
+    private boolean accept(String... candidates) {
+        final String token = peek();
+        for (String candidate : candidates) {
+            if (candidate.equals(token)) {
+                m_pos++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void expect(String token) throws UnsupportedExpressionException {
+        if (!accept(token)) {
+            throw unsupported("expected '" + token + "'");
+        }
+    }
+
+    private UnsupportedExpressionException unsupported(String reason) {
+        return new UnsupportedExpressionException(reason + " in '" + m_expression + "'");
+    }
+
+    private Node parseExpression() throws UnsupportedExpressionException {
+        final Node condition = parseOr();
+        if (accept("?")) {
+            final Node whenTrue = parseExpression();
+            expect(":");
+            final Node whenFalse = parseExpression();
+            return ternary(condition, whenTrue, whenFalse);
+        }
+        return condition;
+    }
+
+    private Node parseOr() throws UnsupportedExpressionException {
+        Node left = parseAnd();
+        while (accept("||", "or")) {
+            left = logical(false, left, parseAnd());
+        }
+        return left;
+    }
+
+    private Node parseAnd() throws UnsupportedExpressionException {
+        Node left = parseEquality();
+        while (accept("&&", "and")) {
+            left = logical(true, left, parseEquality());
+        }
+        return left;
+    }
+
+    private Node parseEquality() throws UnsupportedExpressionException {
+        Node left = parseRelational();
+        while (true) {
+            if (accept("==", "eq")) {
+                left = compare(Comparison.EQ, left, parseRelational());
+            } else if (accept("!=", "ne")) {
+                left = compare(Comparison.NE, left, parseRelational());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Node parseRelational() throws UnsupportedExpressionException {
+        Node left = parseAdditive();
+        while (true) {
+            if (accept("<", "lt")) {
+                left = compare(Comparison.LT, left, parseAdditive());
+            } else if (accept(">", "gt")) {
+                left = compare(Comparison.GT, left, parseAdditive());
+            } else if (accept("<=", "le")) {
+                left = compare(Comparison.LE, left, parseAdditive());
+            } else if (accept(">=", "ge")) {
+                left = compare(Comparison.GE, left, parseAdditive());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Node parseAdditive() throws UnsupportedExpressionException {
+        Node left = parseMultiplicative();
+        while (true) {
+            if (accept("+")) {
+                left = arithmetic('+', left, parseMultiplicative());
+            } else if (accept("-")) {
+                left = arithmetic('-', left, parseMultiplicative());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Node parseMultiplicative() throws UnsupportedExpressionException {
+        Node left = parseUnary();
+        while (true) {
+            if (accept("*")) {
+                left = arithmetic('*', left, parseUnary());
+            } else if (accept("/", "div")) {
+                left = arithmetic('/', left, parseUnary());
+            } else if (accept("%", "mod")) {
+                left = arithmetic('%', left, parseUnary());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Node parseUnary() throws UnsupportedExpressionException {
+        if (accept("-")) {
+            return negate(parseUnary());
+        } else if (accept("!", "not")) {
+            return not(parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary() throws UnsupportedExpressionException {
+        final String token = peek();
+        if (token == null) {
+            throw unsupported("unexpected end");
+        }
+        m_pos++;
+
+        if (token.equals("(")) {
+            final Node node = parseExpression();
+            expect(")");
+            return node;
+        } else if (isDigit(token.charAt(0))) {
+            return parseNumber(token);
+        } else if (token.equals("true") || token.equals("false")) {
+            return new Literal(Kind.BOOLEAN, token.equals("true") ? 1 : 0, false);
+        } else if (isQuoted(token)) {
+            return new StringLiteral(token.substring(1, token.length() - 1));
+        } else if (isIdentifierStart(token.charAt(0))) {
+            final int colon = token.indexOf(':');
+            if (colon > 0) {
+                expect("(");
+                return function(token.substring(0, colon), token.substring(colon + 1));
+            } else if (accept("[")) {
+                final String property = peek();
+                if (!isQuoted(property)) {
+                    throw unsupported(token + "[] requires a literal name");
+                }
+                m_pos++;
+                expect("]");
+                final Node node = m_scope.property(token, property.substring(1, property.length() - 1));
+                if (node == null) {
+                    throw unsupported("property access " + token + "[" + property + "]");
+                }
+                return node;
+            }
+            final int dot = token.lastIndexOf('.');
+            if (dot > 0 && accept("(")) {
+                final String object = token.substring(0, dot);
+                final String method = token.substring(dot + 1);
+                if (object.indexOf('.') >= 0 || isReserved(method)) {
+                    throw unsupported("method call " + token);
+                }
+                return function(object, method);
+            }
+            return variable(token);
+        }
+        throw unsupported("unexpected '" + token + "'");
+    }
+
+    private Node parseNumber(String token) throws UnsupportedExpressionException {
+        try {
+            final char last = token.charAt(token.length() - 1);
+            if (token.indexOf('.') >= 0) {
+                // JEXL treats real literals without a suffix as floats
+                if (!token.matches("[0-9]+\\.[0-9]+[dDfF]?")) {
+                    throw unsupported("number " + token);
+                }
+                if (last == 'd' || last == 'D') {
+                    return new Literal(Kind.DOUBLE, Double.parseDouble(token), false);
+                }
+                return new Literal(Kind.FLOAT, Float.parseFloat(token), false);
+            }
+            if (!token.matches("(0|[1-9][0-9]*)[lL]?")) {
+                // Octal, hexadecimal, big numbers and such
+                throw unsupported("number " + token);
+            }
+            final boolean isLong = last == 'l' || last == 'L';
+            final long value = Long.parseLong(isLong ? token.substring(0, token.length() - 1) : token);
+            if (Math.abs(value) > MAX_EXACT_INTEGRAL) {
+                throw unsupported("number " + token);
+            }
+            return new Literal(Kind.INTEGRAL, value, !isLong && value <= Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            throw unsupported("number " + token);
+        }
+    }
+
+    private Node variable(String name) throws UnsupportedExpressionException {
+        if (isReserved(name)) {
+            throw unsupported("keyword " + name);
+        }
+        // JEXL only resolves a dotted name as a whole if none of its prefixes are defined
+        for (int dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+            if (m_scope.resolve(name.substring(0, dot)) != null) {
+                throw unsupported("property access " + name);
+            }
+        }
+        final Node node = m_scope.resolve(name);
+        if (node == null) {
+            throw unsupported("undefined variable " + name);
+        }
+        return node;
+    }
+
+    private List<Node> parseArguments() throws UnsupportedExpressionException {
+        final List<Node> args = new ArrayList<>();
+        if (accept(")")) {
+            return args;
+        }
+        do {
+            args.add(parseExpression());
+        } while (accept(","));
+        expect(")");
+        return args;
+    }
+
+    private Node function(String namespace, String name) throws UnsupportedExpressionException {
+        final List<Node> args = parseArguments();
+        final Node node = m_scope.function(namespace, name, args);
+        if (node == null) {
+            throw unsupported("function " + namespace + ":" + name + " with " + args.size() + " argument(s)");
+        }
+        return node;
+    }
+
+    //
+    // Functions, for use by the scopes
+    //
+
+    /**
+     * Compiles a call to one of the {@link Math} or {@link StrictMath} functions
+     * that are not overloaded, or whose overload is determined by a double argument.
+     *
+     * @param strict true to use {@link StrictMath}
+     * @param name the name of the function
+     * @param args the arguments
+     * @return the node, or null if the function is not one of these
+     * @throws UnsupportedExpressionException if one of the arguments is not numeric
+     */
+    public static Node mathFunction(boolean strict, String name, List<Node> args) throws UnsupportedExpressionException {
+        for (Node arg : args) {
+            if (!arg.getKind().isNumeric()) {
+                throw new UnsupportedExpressionException("non-numeric argument to " + name);
+            }
+        }
+        if (args.size() == 1) {
+            final Node arg = args.get(0);
+            final DoubleUnaryOperator fn = unaryMathFunction(strict, name);
+            if (fn != null) {
+                return new UnaryFunction(Kind.DOUBLE, fn, arg);
+            }
+            // These are overloaded, so the types of the arguments must match what JEXL would pick
+            if (arg.getKind() == Kind.DOUBLE) {
+                switch (name) {
+                    case "abs":
+                        return new UnaryFunction(Kind.DOUBLE, strict ? StrictMath::abs : Math::abs, arg);
+                    case "signum":
+                        return new UnaryFunction(Kind.DOUBLE, strict ? StrictMath::signum : Math::signum, arg);
+                    case "round":
+                        return new UnaryFunction(Kind.INTEGRAL, v -> strict ? StrictMath.round(v) : Math.round(v), arg);
+                    default:
+                        break;
+                }
+            }
+        } else if (args.size() == 2) {
+            final DoubleBinaryOperator fn = binaryMathFunction(strict, name);
+            if (fn != null) {
+                return new BinaryFunction(fn, args.get(0), args.get(1));
+            }
+        }
+        return null;
+    }
+
+    private static DoubleUnaryOperator unaryMathFunction(boolean strict, String name) {
+        switch (name) {
+            case "sin": return strict ? StrictMath::sin : Math::sin;
+            case "cos": return strict ? StrictMath::cos : Math::cos;
+            case "tan": return strict ? StrictMath::tan : Math::tan;
+            case "asin": return strict ? StrictMath::asin : Math::asin;
+            case "acos": return strict ? StrictMath::acos : Math::acos;
+            case "atan": return strict ? StrictMath::atan : Math::atan;
+            case "sinh": return strict ? StrictMath::sinh : Math::sinh;
+            case "cosh": return strict ? StrictMath::cosh : Math::cosh;
+            case "tanh": return strict ? StrictMath::tanh : Math::tanh;
+            case "exp": return strict ? StrictMath::exp : Math::exp;
+            case "expm1": return strict ? StrictMath::expm1 : Math::expm1;
+            case "log": return strict ? StrictMath::log : Math::log;
+            case "log10": return strict ? StrictMath::log10 : Math::log10;
+            case "log1p": return strict ? StrictMath::log1p : Math::log1p;
+            case "sqrt": return strict ? StrictMath::sqrt : Math::sqrt;
+            case "cbrt": return strict ? StrictMath::cbrt : Math::cbrt;
+            case "ceil": return strict ? StrictMath::ceil : Math::ceil;
+            case "floor": return strict ? StrictMath::floor : Math::floor;
+            case "rint": return strict ? StrictMath::rint : Math::rint;
+            case "toDegrees": return strict ? StrictMath::toDegrees : Math::toDegrees;
+            case "toRadians": return strict ? StrictMath::toRadians : Math::toRadians;
+            default: return null;
+        }
+    }
+
+    private static DoubleBinaryOperator binaryMathFunction(boolean strict, String name) {
+        switch (name) {
+            case "atan2": return strict ? StrictMath::atan2 : Math::atan2;
+            case "pow": return strict ? StrictMath::pow : Math::pow;
+            case "hypot": return strict ? StrictMath::hypot : Math::hypot;
+            case "IEEEremainder": return strict ? StrictMath::IEEEremainder : Math::IEEEremainder;
+            default: return null;
+        }
+    }
+
+    /**
+     * @return a node applying the given function to the values of its argument
+     */
+    public static Node unaryFunction(Kind kind, DoubleUnaryOperator fn, Node arg) {
+        return new UnaryFunction(kind, fn, arg);
+    }
+
+    /**
+     * @return a node applying the given function to the values of its arguments, yielding doubles
+     */
+    public static Node binaryFunction(DoubleBinaryOperator fn, Node left, Node right) {
+        return new BinaryFunction(fn, left, right);
+    }
+
+    /**
+     * @return the given integer as a double
+     * @throws UnsupportedExpressionException if it can't be represented exactly
+     */
+    public static double exact(long value) throws UnsupportedExpressionException {
+        if (Math.abs(value) > MAX_EXACT_INTEGRAL) {
+            throw new UnsupportedExpressionException("integer out of range");
+        }
+        return value;
+    }
+
+    //
+    // Node factories, these verify that the operands are of types whose semantics we replicate
+    //
+
+    private Node ternary(Node condition, Node whenTrue, Node whenFalse) throws UnsupportedExpressionException {
+        if (condition.getKind() != Kind.BOOLEAN) {
+            throw unsupported("non-boolean condition");
+        }
+        final Kind a = whenTrue.getKind();
+        final Kind b = whenFalse.getKind();
+        final Kind kind;
+        if (a == Kind.STRING || b == Kind.STRING) {
+            throw unsupported("string result");
+        } else if (a == b) {
+            kind = a;
+        } else if (isDoubleOrIntegral(a) && isDoubleOrIntegral(b)) {
+            kind = Kind.NUMBER;
+        } else {
+            throw unsupported("mixed " + a + " and " + b + " results");
+        }
+        return new Ternary(kind, condition, whenTrue, whenFalse);
+    }
+
+    private static boolean isDoubleOrIntegral(Kind kind) {
+        return kind == Kind.DOUBLE || kind == Kind.INTEGRAL || kind == Kind.NUMBER;
+    }
+
+    private Node logical(boolean and, Node left, Node right) throws UnsupportedExpressionException {
+        if (left.getKind() != Kind.BOOLEAN || right.getKind() != Kind.BOOLEAN) {
+            throw unsupported("non-boolean operand");
+        }
+        return new Logical(and, left, right);
+    }
+
+    private Node not(Node operand) throws UnsupportedExpressionException {
+        if (operand.getKind() != Kind.BOOLEAN) {
+            throw unsupported("non-boolean operand");
+        }
+        return new Not(operand);
+    }
+
+    private Node negate(Node operand) throws UnsupportedExpressionException {
+        if (!operand.getKind().isNumeric()) {
+            throw unsupported("non-numeric operand");
+        }
+        if (operand instanceof Literal) {
+            final Literal literal = (Literal)operand;
+            return new Literal(literal.getKind(), -literal.m_value, literal.m_isInt);
+        }
+        return new Negate(operand);
+    }
+
+    private Node compare(Comparison op, Node left, Node right) throws UnsupportedExpressionException {
+        final Kind a = left.getKind();
+        final Kind b = right.getKind();
+        if (a == Kind.STRING || b == Kind.STRING) {
+            throw unsupported("comparison of " + a + " and " + b);
+        } else if (a == Kind.BOOLEAN || b == Kind.BOOLEAN) {
+            if (a != b || !(op == Comparison.EQ || op == Comparison.NE)) {
+                throw unsupported("comparison of " + a + " and " + b);
+            }
+        } else if ((a == Kind.NUMBER || b == Kind.NUMBER) && !(op == Comparison.LT || op == Comparison.GT)) {
+            // Equality depends on the type of the values
+            throw unsupported("comparison of " + a + " and " + b);
+        }
+        // Values of the same class are compared with equals(), others numerically
+        final boolean bitwise = a == b && (a.isFloatingPoint() || a == Kind.BOOLEAN);
+        return new Compare(op, bitwise, left, right);
+    }
+
+    private Node arithmetic(char op, Node left, Node right) throws UnsupportedExpressionException {
+        final Kind a = left.getKind();
+        final Kind b = right.getKind();
+        if (!a.isNumeric() || !b.isNumeric()) {
+            throw unsupported("non-numeric operand");
+        }
+        if (a.isFloatingPoint() || b.isFloatingPoint()) {
+            return new FloatingPointArithmetic(op, left, right);
+        } else if (a == Kind.INTEGRAL && b == Kind.INTEGRAL && op != '%') {
+            return new IntegralArithmetic(op, left, right);
+        }
+        throw unsupported("operator " + op + " on " + a + " and " + b);
+    }
+
+    //
+    // Nodes
+    //
+
+    public static final class Literal extends Node {
+        private final double m_value;
+        private final boolean m_isInt;
+
+        /**
+         * @param kind the type of the literal
+         * @param value its value
+         * @param isInt true if it is a java.lang.Integer
+         */
+        public Literal(Kind kind, double value, boolean isInt) {
+            super(kind);
+            m_value = value;
+            m_isInt = isInt;
+        }
+
+        public double getValue() {
+            return m_value;
+        }
+
+        public boolean isInt() {
+            return m_isInt;
+        }
+
+        @Override
+        public double eval(double[] slots) {
+            return m_value;
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) {
+            final double[] values = new double[numRows];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+    }
+
+    /**
+     * A string, which can only be passed to the functions of the scope.
+     */
+    public static final class StringLiteral extends Node {
+        private final String m_value;
+
+        private StringLiteral(String value) {
+            super(Kind.STRING);
+            m_value = value;
+        }
+
+        public String getValue() {
+            return m_value;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            throw new UnsupportedExpressionException("string value");
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            throw new UnsupportedExpressionException("string value");
+        }
+    }
+
+    /**
+     * A variable, whose values are given to the compiled expression in a slot.
+     */
+    public static final class Variable extends Node {
+        private final int m_slot;
+
+        /**
+         * @param kind the type of the values, either DOUBLE or INTEGRAL
+         * @param slot the index of the values
+         */
+        public Variable(Kind kind, int slot) {
+            super(kind);
+            m_slot = slot;
+        }
+
+        public int getSlot() {
+            return m_slot;
+        }
+
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
+        @Override
+        public double eval(double[] slots) {
+            return slots[m_slot];
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) {
+            return columns[m_slot];
+        }
+    }
+
+    private static final class FloatingPointArithmetic extends Node {
+        private final char m_op;
+        private final Node m_left;
+        private final Node m_right;
+
+        private FloatingPointArithmetic(char op, Node left, Node right) {
+            super(Kind.DOUBLE);
+            m_op = op;
+            m_left = left;
+            m_right = right;
+        }
+
+        private double apply(double l, double r) {
+            switch (m_op) {
+                case '+':
+                    return l + r;
+                case '-':
+                    return l - r;
+                case '*':
+                    return l * r;
+                case '/':
+                    // JEXL yields 0 instead of failing on division by zero
+                    return r == 0.0 ? 0.0 : l / r;
+                case '%':
+                    return r == 0.0 ? 0.0 : l % r;
+                default:
+                    throw new IllegalStateException("Unknown operator " + m_op);
+            }
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return apply(m_left.eval(slots), m_right.eval(slots));
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] l = m_left.eval(columns, numRows);
+            final double[] r = m_right.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            // Keep the loops free of the switch
+            switch (m_op) {
+                case '+':
+                    for (int i = 0; i < numRows; i++) {
+                        v[i] = l[i] + r[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < numRows; i++) {
+                        v[i] = l[i] - r[i];
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < numRows; i++) {
+                        v[i] = l[i] * r[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < numRows; i++) {
+                        v[i] = apply(l[i], r[i]);
+                    }
+                    break;
+            }
+            return v;
+        }
+    }
+
+    private static final class IntegralArithmetic extends Node {
+        private final char m_op;
+        private final Node m_left;
+        private final Node m_right;
+
+        private IntegralArithmetic(char op, Node left, Node right) {
+            super(Kind.INTEGRAL);
+            m_op = op;
+            m_left = left;
+            m_right = right;
+        }
+
+        private double apply(long a, long b) throws UnsupportedExpressionException {
+            try {
+                switch (m_op) {
+                    case '+':
+                        return exact(Math.addExact(a, b));
+                    case '-':
+                        return exact(Math.subtractExact(a, b));
+                    case '*':
+                        return exact(Math.multiplyExact(a, b));
+                    case '/':
+                        if (b == 0) {
+                            // JEXL yields a floating point 0 here, which would change the type of the result
+                            throw new UnsupportedExpressionException("integer division by zero");
+                        }
+                        return a / b;
+                    default:
+                        throw new IllegalStateException("Unknown operator " + m_op);
+                }
+            } catch (ArithmeticException e) {
+                throw new UnsupportedExpressionException("integer overflow");
+            }
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return apply((long)m_left.eval(slots), (long)m_right.eval(slots));
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] l = m_left.eval(columns, numRows);
+            final double[] r = m_right.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = apply((long)l[i], (long)r[i]);
+            }
+            return v;
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node m_operand;
+
+        private Negate(Node operand) {
+            super(operand.getKind());
+            m_operand = operand;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return -m_operand.eval(slots);
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] x = m_operand.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = -x[i];
+            }
+            return v;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node m_operand;
+
+        private Not(Node operand) {
+            super(Kind.BOOLEAN);
+            m_operand = operand;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return m_operand.eval(slots) != 0 ? 0 : 1;
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] x = m_operand.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = x[i] != 0 ? 0 : 1;
+            }
+            return v;
+        }
+    }
+
+    private static final class Logical extends Node {
+        private final boolean m_and;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Logical(boolean and, Node left, Node right) {
+            super(Kind.BOOLEAN);
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            // Short-circuits, like JEXL
+            final boolean a = m_left.eval(slots) != 0;
+            if (m_and ? !a : a) {
+                return a ? 1 : 0;
+            }
+            return m_right.eval(slots) != 0 ? 1 : 0;
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] l = m_left.eval(columns, numRows);
+            final double[] r = m_right.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                final boolean a = l[i] != 0;
+                final boolean b = r[i] != 0;
+                v[i] = (m_and ? a && b : a || b) ? 1 : 0;
+            }
+            return v;
+        }
+    }
+
+    private enum Comparison {
+        EQ, NE, LT, GT, LE, GE
+    }
+
+    private static final class Compare extends Node {
+        private final Comparison m_op;
+        private final boolean m_bitwise;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Compare(Comparison op, boolean bitwise, Node left, Node right) {
+            super(Kind.BOOLEAN);
+            m_op = op;
+            m_bitwise = bitwise;
+            m_left = left;
+            m_right = right;
+        }
+
+        private boolean equal(double a, double b) {
+            // Double.equals() considers NaN to be equal to itself
+            return m_bitwise ? Double.doubleToLongBits(a) == Double.doubleToLongBits(b) : a == b;
+        }
+
+        private double apply(double a, double b) {
+            final boolean result;
+            switch (m_op) {
+                case EQ: result = equal(a, b); break;
+                case NE: result = !equal(a, b); break;
+                case LT: result = a < b; break;
+                case GT: result = a > b; break;
+                // JEXL defines these as (a == b || a < b) and (a == b || a > b)
+                case LE: result = equal(a, b) || a < b; break;
+                case GE: result = equal(a, b) || a > b; break;
+                default: throw new IllegalStateException("Unknown comparison " + m_op);
+            }
+            return result ? 1 : 0;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return apply(m_left.eval(slots), m_right.eval(slots));
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] l = m_left.eval(columns, numRows);
+            final double[] r = m_right.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = apply(l[i], r[i]);
+            }
+            return v;
+        }
+    }
+
+    private static final class Ternary extends Node {
+        private final Node m_condition;
+        private final Node m_whenTrue;
+        private final Node m_whenFalse;
+
+        private Ternary(Kind kind, Node condition, Node whenTrue, Node whenFalse) {
+            super(kind);
+            m_condition = condition;
+            m_whenTrue = whenTrue;
+            m_whenFalse = whenFalse;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return m_condition.eval(slots) != 0 ? m_whenTrue.eval(slots) : m_whenFalse.eval(slots);
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] c = m_condition.eval(columns, numRows);
+            final double[] a = m_whenTrue.eval(columns, numRows);
+            final double[] b = m_whenFalse.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = c[i] != 0 ? a[i] : b[i];
+            }
+            return v;
+        }
+    }
+
+    private static final class UnaryFunction extends Node {
+        private final DoubleUnaryOperator m_fn;
+        private final Node m_arg;
+
+        private UnaryFunction(Kind kind, DoubleUnaryOperator fn, Node arg) {
+            super(kind);
+            m_fn = fn;
+            m_arg = arg;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return m_fn.applyAsDouble(m_arg.eval(slots));
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] x = m_arg.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = m_fn.applyAsDouble(x[i]);
+            }
+            return v;
+        }
+    }
+
+    private static final class BinaryFunction extends Node {
+        private final DoubleBinaryOperator m_fn;
+        private final Node m_left;
+        private final Node m_right;
+
+        private BinaryFunction(DoubleBinaryOperator fn, Node left, Node right) {
+            super(Kind.DOUBLE);
+            m_fn = fn;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            return m_fn.applyAsDouble(m_left.eval(slots), m_right.eval(slots));
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] l = m_left.eval(columns, numRows);
+            final double[] r = m_right.eval(columns, numRows);
+            final double[] v = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                v[i] = m_fn.applyAsDouble(l[i], r[i]);
+            }
+            return v;
+        }
+    }
+}
@@ -35,6 +35,8 @@ public abstract class TimeSeries {
     public static final String RRD_STRATEGY_CLASS_PROPERTY = "org.opennms.rrd.strategyClass";
     public static final String RRD_TIME_SERIES_STRATEGY_NAME = "rrd";
     public static final String DEFAULT_RRD_STRATEGY_CLASS = "org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy";
+    public static final String JROBIN_POOL_SIZE_PROPERTY = "org.opennms.rrd.jrobin.poolSize";
+    public static final int DEFAULT_JROBIN_POOL_SIZE = 256;
 
     private static final String NEWTS_TIME_SERIES_STRATEGY_NAME = "newts";
 
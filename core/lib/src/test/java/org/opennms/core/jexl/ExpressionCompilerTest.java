@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.jexl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.jexl.ExpressionCompiler.CompiledExpression;
+import org.opennms.core.jexl.ExpressionCompiler.Kind;
+import org.opennms.core.jexl.ExpressionCompiler.Node;
+import org.opennms.core.jexl.ExpressionCompiler.Variable;
+
+public class ExpressionCompilerTest {
+
+    /**
+     * Binds every variable to a slot, in order of appearance.
+     */
+    private static class SlotScope implements ExpressionCompiler.Scope {
+        private final List<String> m_names = new ArrayList<>();
+
+        @Override
+        public Node resolve(String name) {
+            if (name.indexOf('.') >= 0) {
+                return null;
+            }
+            int slot = m_names.indexOf(name);
+            if (slot < 0) {
+                slot = m_names.size();
+                m_names.add(name);
+            }
+            return new Variable(Kind.DOUBLE, slot);
+        }
+
+        @Override
+        public Node function(String namespace, String name, List<Node> args) throws UnsupportedExpressionException {
+            return "math".equals(namespace) ? ExpressionCompiler.mathFunction(false, name, args) : null;
+        }
+    }
+
+    @Test
+    public void canEvaluateRowsAndColumns() throws Exception {
+        final CompiledExpression expression = ExpressionCompiler.compile("a > b ? (a - b) / 2 : math:abs(b) * 2", new SlotScope());
+        assertEquals(Kind.DOUBLE, expression.getKind());
+
+        assertEquals(1.5, expression.evaluate(new double[] { 4, 1 }), 0.0);
+        assertEquals(6.0, expression.evaluate(new double[] { 1, 3 }), 0.0);
+
+        final double[][] columns = new double[][] { { 4, 1, Double.NaN }, { 1, 3, 0 } };
+        final double[] values = expression.evaluate(columns, 3);
+        assertEquals(1.5, values[0], 0.0);
+        assertEquals(6.0, values[1], 0.0);
+        assertEquals(0.0, values[2], 0.0);
+    }
+
+    @Test
+    public void keepsTheJexlSemantics() throws Exception {
+        // Division by zero yields zero
+        assertEquals(0.0, evaluate("a / 0.0d", 5), 0.0);
+        // Integers stay integral
+        assertEquals(3.0, evaluate("7 / 2"), 0.0);
+        // Float literals are floats, converted using their string representation
+        assertEquals(0.1, evaluate("0.1"), 0.0);
+        // NaN is equal to itself
+        assertEquals(1.0, evaluate("a == a ? 1 : 0", Double.NaN), 0.0);
+    }
+
+    @Test
+    public void doesNotModifyTheColumns() throws Exception {
+        final CompiledExpression expression = ExpressionCompiler.compile("a", new SlotScope());
+        final double[][] columns = new double[][] { { 1, 2 } };
+        assertNotSame(columns[0], expression.evaluate(columns, 2));
+    }
+
+    @Test
+    public void rejectsUnsupportedExpressions() {
+        for (String expression : new String[] { "a =~ 'x'", "a.b", "size(a)", "'x'", "a ? 1 : 2", "math:foo(a)",
+                "7 % 2", "0x10", "a[\"b\"]", "empty(a)" }) {
+            try {
+                ExpressionCompiler.compile(expression, new SlotScope());
+                fail("Compiled " + expression);
+            } catch (UnsupportedExpressionException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedExpressionException.class)
+    public void rejectsIntegerOverflows() throws Exception {
+        evaluate("4503599627370496 * 4");
+    }
+
+    private static double evaluate(String expression, double... slots) throws UnsupportedExpressionException {
+        return ExpressionCompiler.compile(expression, new SlotScope()).evaluate(slots);
+    }
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.Objects;
+
+/**
+ * What was learned about an SNMP agent from the previous walks.
+ *
+ * The number of repetitions and of variables per PDU are adapted after every walk:
+ * <ul>
+ * <li>they are increased by one while the agent responds well within the timeout,</li>
+ * <li>the repetitions are decreased by one when the responses get slow,</li>
+ * <li>and both are halved when the agent returns tooBig, or stops responding part way through a walk.</li>
+ * </ul>
+ * The values configured for the agent are used as a starting point, the variables
+ * per PDU are never increased past these, and the variables per PDU that led to a
+ * tooBig error are never tried again.
+ */
+public class SnmpAgentProfile {
+
+    /**
+     * Weight given to the latest walk in the average round trip time.
+     */
+    private static final double RTT_WEIGHT = 0.3;
+
+    private final InetAddress m_address;
+
+    private final int m_maxRepetitionsCeiling;
+
+    private int m_maxVarsPerPdu = 0;
+
+    private int m_maxRepetitions = 0;
+
+    private int m_tooBigMaxVarsPerPdu = 0;
+
+    private double m_rtt = Double.NaN;
+
+    private long m_numWalks = 0;
+
+    private long m_numPdus = 0;
+
+    private long m_numTimeouts = 0;
+
+    private long m_numTooBig = 0;
+
+    private long m_lastWalkDuration = 0;
+
+    private long m_totalWalkDuration = 0;
+
+    public SnmpAgentProfile(InetAddress address, int maxRepetitionsCeiling) {
+        m_address = Objects.requireNonNull(address);
+        m_maxRepetitionsCeiling = maxRepetitionsCeiling;
+    }
+
+    public InetAddress getAddress() {
+        return m_address;
+    }
+
+    /**
+     * @param configured the configured maximum number of variables per PDU
+     * @return the number of variables per PDU to use for the next walk
+     */
+    public synchronized int getMaxVarsPerPdu(int configured) {
+        return m_maxVarsPerPdu > 0 ? Math.min(m_maxVarsPerPdu, configured) : configured;
+    }
+
+    /**
+     * @param configured the configured number of repetitions
+     * @return the number of repetitions to use for the next walk
+     */
+    public synchronized int getMaxRepetitions(int configured) {
+        return m_maxRepetitions > 0 ? Math.min(m_maxRepetitions, Math.max(configured, m_maxRepetitionsCeiling)) : configured;
+    }
+
+    /**
+     * Updates the profile with the outcome of a walk.
+     */
+    public synchronized void recordWalk(Walk walk) {
+        m_numWalks++;
+        m_numPdus += walk.numPdus;
+        m_lastWalkDuration = walk.duration;
+        m_totalWalkDuration += walk.duration;
+        if (walk.numResponses > 0) {
+            final double rtt = (double)walk.totalRtt / walk.numResponses;
+            m_rtt = Double.isNaN(m_rtt) ? rtt : RTT_WEIGHT * rtt + (1 - RTT_WEIGHT) * m_rtt;
+        }
+
+        int maxVarsPerPdu = walk.maxVarsPerPdu;
+        int maxRepetitions = walk.maxRepetitions;
+        if (walk.tooBigMaxVarsPerPdu > 0) {
+            m_numTooBig++;
+            m_tooBigMaxVarsPerPdu = walk.tooBigMaxVarsPerPdu;
+            maxVarsPerPdu = Math.min(maxVarsPerPdu, Math.max(1, walk.tooBigMaxVarsPerPdu / 2));
+            maxRepetitions = Math.max(1, maxRepetitions / 2);
+        } else if (walk.timedOut) {
+            m_numTimeouts++;
+            // If the agent never responded, it is most likely down and there's nothing to learn
+            if (walk.numResponses > 0) {
+                maxVarsPerPdu = Math.max(1, maxVarsPerPdu / 2);
+                maxRepetitions = Math.max(1, maxRepetitions / 2);
+            }
+        } else if (!Double.isNaN(m_rtt) && walk.timeout > 0) {
+            if (m_rtt < walk.timeout / 4) {
+                maxRepetitions++;
+                if (m_tooBigMaxVarsPerPdu < 1 || maxVarsPerPdu + 1 < m_tooBigMaxVarsPerPdu) {
+                    maxVarsPerPdu++;
+                }
+            } else if (m_rtt > walk.timeout / 2) {
+                maxRepetitions = Math.max(1, maxRepetitions - 1);
+            }
+        }
+
+        m_maxVarsPerPdu = Math.min(maxVarsPerPdu, walk.configuredMaxVarsPerPdu);
+        m_maxRepetitions = Math.min(maxRepetitions, Math.max(walk.configuredMaxRepetitions, m_maxRepetitionsCeiling));
+    }
+
+    /**
+     * @return the learned number of variables per PDU, or 0 if unknown
+     */
+    public synchronized int getLearnedMaxVarsPerPdu() {
+        return m_maxVarsPerPdu;
+    }
+
+    /**
+     * @return the learned number of repetitions, or 0 if unknown
+     */
+    public synchronized int getLearnedMaxRepetitions() {
+        return m_maxRepetitions;
+    }
+
+    /**
+     * @return the average round trip time in milliseconds, or NaN if unknown
+     */
+    public synchronized double getRtt() {
+        return m_rtt;
+    }
+
+    public synchronized long getNumWalks() {
+        return m_numWalks;
+    }
+
+    public synchronized long getNumPdus() {
+        return m_numPdus;
+    }
+
+    public synchronized long getNumTimeouts() {
+        return m_numTimeouts;
+    }
+
+    public synchronized long getNumTooBig() {
+        return m_numTooBig;
+    }
+
+    public synchronized long getLastWalkDuration() {
+        return m_lastWalkDuration;
+    }
+
+    public synchronized long getTotalWalkDuration() {
+        return m_totalWalkDuration;
+    }
+
+    /**
+     * Encodes the learned values, but not the statistics, as a string.
+     */
+    synchronized String toProfileString() {
+        return m_maxVarsPerPdu + "," + m_maxRepetitions + "," + m_tooBigMaxVarsPerPdu + "," + m_rtt;
+    }
+
+    synchronized void fromProfileString(String profile) {
+        final String[] fields = profile.split(",");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Invalid profile: " + profile);
+        }
+        m_maxVarsPerPdu = Integer.parseInt(fields[0]);
+        m_maxRepetitions = Integer.parseInt(fields[1]);
+        m_tooBigMaxVarsPerPdu = Integer.parseInt(fields[2]);
+        m_rtt = Double.parseDouble(fields[3]);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SnmpAgentProfile[address=" + InetAddrUtils.str(m_address)
+                + ", maxVarsPerPdu=" + m_maxVarsPerPdu
+                + ", maxRepetitions=" + m_maxRepetitions
+                + ", tooBigMaxVarsPerPdu=" + m_tooBigMaxVarsPerPdu
+                + ", rtt=" + m_rtt
+                + ", numWalks=" + m_numWalks
+                + ", numPdus=" + m_numPdus
+                + ", numTimeouts=" + m_numTimeouts
+                + ", numTooBig=" + m_numTooBig
+                + ", lastWalkDuration=" + m_lastWalkDuration
+                + ", totalWalkDuration=" + m_totalWalkDuration + "]";
+    }
+
+    /**
+     * The outcome of a single walk.
+     */
+    public static class Walk {
+        int configuredMaxVarsPerPdu;
+        int configuredMaxRepetitions;
+        int maxVarsPerPdu;
+        int maxRepetitions;
+        int tooBigMaxVarsPerPdu;
+        long timeout;
+        int numPdus;
+        int numResponses;
+        long totalRtt;
+        long duration;
+        boolean timedOut;
+
+        public Walk(int configuredMaxVarsPerPdu, int configuredMaxRepetitions, long timeout) {
+            this.configuredMaxVarsPerPdu = configuredMaxVarsPerPdu;
+            this.configuredMaxRepetitions = configuredMaxRepetitions;
+            this.timeout = timeout;
+        }
+
+        public int getNumPdus() {
+            return numPdus;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The profiles of the SNMP agents that were walked, see {@link SnmpAgentProfile}.
+ *
+ * When enabled, the profiles are periodically saved to disk so that they
+ * don't need to be learned again after a restart.
+ */
+public class SnmpAgentProfiles {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpAgentProfiles.class);
+
+    public static final String ENABLED_SYS_PROP = "org.opennms.snmp.walker.adaptive";
+
+    public static final String MAX_REPETITIONS_SYS_PROP = "org.opennms.snmp.walker.adaptive.maxRepetitions";
+
+    public static final String FILE_SYS_PROP = "org.opennms.snmp.walker.adaptive.file";
+
+    public static final String SAVE_INTERVAL_SYS_PROP = "org.opennms.snmp.walker.adaptive.saveInterval";
+
+    public static final int DEFAULT_MAX_REPETITIONS = 25;
+
+    public static final long DEFAULT_SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String FILE_NAME = "snmp-agent-profiles.properties";
+
+    private static SnmpAgentProfiles s_instance;
+
+    private final boolean m_enabled;
+
+    private final int m_maxRepetitionsCeiling;
+
+    private final File m_file;
+
+    private final Map<InetAddress, SnmpAgentProfile> m_profiles = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean m_dirty = new AtomicBoolean(false);
+
+    private ScheduledExecutorService m_saveExecutor;
+
+    public static synchronized SnmpAgentProfiles getInstance() {
+        if (s_instance == null) {
+            s_instance = new SnmpAgentProfiles(Boolean.getBoolean(ENABLED_SYS_PROP),
+                    Integer.getInteger(MAX_REPETITIONS_SYS_PROP, DEFAULT_MAX_REPETITIONS),
+                    getDefaultFile());
+            s_instance.load();
+            s_instance.scheduleSaves(Long.getLong(SAVE_INTERVAL_SYS_PROP, DEFAULT_SAVE_INTERVAL));
+        }
+        return s_instance;
+    }
+
+    private static File getDefaultFile() {
+        final String file = System.getProperty(FILE_SYS_PROP);
+        if (file != null) {
+            return file.trim().isEmpty() ? null : new File(file);
+        }
+        if (System.getProperty("opennms.home") != null) {
+            return new File(new File(System.getProperty("opennms.home"), "data"), FILE_NAME);
+        }
+        if (System.getProperty("karaf.data") != null) {
+            return new File(System.getProperty("karaf.data"), FILE_NAME);
+        }
+        return null;
+    }
+
+    /**
+     * @param enabled whether or not the walkers should use and update the profiles
+     * @param maxRepetitionsCeiling the number of repetitions the profiles can grow up to
+     * @param file where the profiles are saved, or null if they should not be saved
+     */
+    public SnmpAgentProfiles(boolean enabled, int maxRepetitionsCeiling, File file) {
+        m_enabled = enabled;
+        m_maxRepetitionsCeiling = maxRepetitionsCeiling;
+        m_file = file;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * Returns the profile for the given agent, creating it if necessary.
+     */
+    public SnmpAgentProfile getProfile(InetAddress address) {
+        return m_profiles.computeIfAbsent(address, a -> new SnmpAgentProfile(a, m_maxRepetitionsCeiling));
+    }
+
+    /**
+     * Returns the profile for the given agent, or null if the agent has no profile.
+     */
+    public SnmpAgentProfile findProfile(InetAddress address) {
+        return m_profiles.get(address);
+    }
+
+    public Collection<SnmpAgentProfile> getProfiles() {
+        return Collections.unmodifiableCollection(m_profiles.values());
+    }
+
+    public void recordWalk(SnmpAgentProfile profile, SnmpAgentProfile.Walk walk) {
+        profile.recordWalk(walk);
+        m_dirty.set(true);
+    }
+
+    public synchronized void load() {
+        if (!m_enabled || m_file == null || !m_file.canRead()) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(m_file)) {
+            properties.load(is);
+        } catch (IOException e) {
+            LOG.warn("Failed to load the SNMP agent profiles from {}.", m_file, e);
+            return;
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                getProfile(InetAddrUtils.addr(key)).fromProfileString(properties.getProperty(key));
+            } catch (RuntimeException e) {
+                LOG.warn("Ignoring invalid SNMP agent profile for {}: {}", key, properties.getProperty(key), e);
+            }
+        }
+        LOG.info("Loaded {} SNMP agent profiles from {}.", m_profiles.size(), m_file);
+    }
+
+    public synchronized void save() {
+        if (m_file == null || !m_dirty.getAndSet(false)) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        for (SnmpAgentProfile profile : m_profiles.values()) {
+            properties.setProperty(InetAddrUtils.str(profile.getAddress()), profile.toProfileString());
+        }
+
+        // Write to a temporary file first so that a crash doesn't leave a partial file behind
+        final File tmpFile = new File(m_file.getPath() + ".tmp");
+        try {
+            if (m_file.getParentFile() != null) {
+                m_file.getParentFile().mkdirs();
+            }
+            try (OutputStream os = new FileOutputStream(tmpFile)) {
+                properties.store(os, "Learned SNMP agent profiles: maxVarsPerPdu,maxRepetitions,tooBigMaxVarsPerPdu,rtt");
+            }
+            Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LOG.debug("Saved {} SNMP agent profiles to {}.", properties.size(), m_file);
+        } catch (IOException e) {
+            m_dirty.set(true);
+            LOG.warn("Failed to save the SNMP agent profiles to {}.", m_file, e);
+        }
+    }
+
+    private synchronized void scheduleSaves(long interval) {
+        if (!m_enabled || m_file == null || interval <= 0 || m_saveExecutor != null) {
+            return;
+        }
+        m_saveExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "SNMP-Agent-Profile-Saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_saveExecutor.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.MILLISECONDS);
+    }
+}
@@ -32,8 +32,13 @@ import java.net.InetAddress;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public abstract class SnmpWalker implements AutoCloseable {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpWalker.class);
+
     protected abstract static class WalkerPduBuilder extends PduBuilder {
         protected WalkerPduBuilder(int maxVarsPerPdu) {
             super(maxVarsPerPdu);
@@ -57,12 +62,32 @@ public abstract class SnmpWalker implements AutoCloseable {
 
     private SnmpWalkCallback m_callback;
 
+    private final SnmpAgentProfile m_profile;
+    private final SnmpAgentProfile.Walk m_walk;
+    private long m_startedAt = 0;
+    private long m_lastSentAt = 0;
+    private boolean m_finished = false;
+
     protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
+        this(address, name, maxVarsPerPdu, maxRepetitions, maxRetries, SnmpConfiguration.DEFAULT_TIMEOUT, tracker);
+    }
+
+    protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, int timeout, CollectionTracker tracker) {
         m_address = address;
         m_signal = new CountDownLatch(1);
         
         m_name = name;
 
+        // Start from what was learned about the agent, if enabled
+        final SnmpAgentProfiles profiles = SnmpAgentProfiles.getInstance();
+        m_profile = profiles.isEnabled() && address != null ? profiles.getProfile(address) : null;
+        m_walk = new SnmpAgentProfile.Walk(maxVarsPerPdu, maxRepetitions, timeout);
+        if (m_profile != null) {
+            maxVarsPerPdu = m_profile.getMaxVarsPerPdu(maxVarsPerPdu);
+            maxRepetitions = m_profile.getMaxRepetitions(maxRepetitions);
+        }
+        m_walk.maxRepetitions = maxRepetitions;
+
         m_tracker = tracker;
         m_tracker.setMaxRepetitions(maxRepetitions);
         m_tracker.setMaxRetries(maxRetries);
@@ -83,6 +108,7 @@ public abstract class SnmpWalker implements AutoCloseable {
     protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
     
     public void start() {
+        m_startedAt = System.nanoTime();
         m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
         try {
             buildAndSendNextPdu();
@@ -96,11 +122,18 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     protected void buildAndSendNextPdu() throws SnmpException {
+        if (m_lastSentAt != 0) {
+            // We're called once the response to the previous PDU was processed
+            m_walk.numResponses++;
+            m_walk.totalRtt += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_lastSentAt);
+        }
         if (m_tracker.isFinished()) {
             handleDone();
         } else {
             m_pduBuilder.reset();
             m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            m_lastSentAt = System.nanoTime();
+            m_walk.numPdus++;
             sendNextPdu(m_pduBuilder);
         }
     }
@@ -162,6 +195,7 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     private void finish() {
+        recordWalk();
         signal();
         // Trigger the callback after the latch was decreased and the session was closed.
         if (m_callback != null) {
@@ -177,6 +211,36 @@ public abstract class SnmpWalker implements AutoCloseable {
         }
     }
 
+    private void recordWalk() {
+        if (m_finished) {
+            return;
+        }
+        m_finished = true;
+        m_walk.duration = m_startedAt != 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_startedAt) : 0;
+        m_walk.maxVarsPerPdu = getMaxVarsPerPdu();
+        m_walk.timedOut = m_tracker.timedOut();
+        LOG.debug("Walk {} of {} completed in {}ms using {} PDUs with maxVarsPerPdu={} and maxRepetitions={}.", m_name, m_address,
+                m_walk.duration, m_walk.numPdus, m_maxVarsPerPdu, m_walk.maxRepetitions);
+        if (m_profile != null) {
+            SnmpAgentProfiles.getInstance().recordWalk(m_profile, m_walk);
+            LOG.debug("Updated the profile of {}: {}", m_address, m_profile);
+        }
+    }
+
+    /**
+     * Returns the number of PDUs sent so far.
+     */
+    public final int getNumPdus() {
+        return m_walk.getNumPdus();
+    }
+
+    /**
+     * Returns the duration of the walk in milliseconds, once completed.
+     */
+    public final long getDuration() {
+        return m_walk.getDuration();
+    }
+
     @Override
     public abstract void close();
 
@@ -208,6 +272,9 @@ public abstract class SnmpWalker implements AutoCloseable {
     
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
+        if (errorStatus == ErrorStatus.TOO_BIG.ordinal() && m_walk.tooBigMaxVarsPerPdu == 0) {
+            m_walk.tooBigMaxVarsPerPdu = m_pduBuilder.getMaxVarsPerPdu();
+        }
         return m_responseProcessor.processErrors(errorStatus, errorIndex);
     }
     
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnmpAgentProfileTest {
+
+    private static final long TIMEOUT = 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void usesTheConfiguredValuesUntilSomethingIsLearned() throws Exception {
+        final SnmpAgentProfile profile = new SnmpAgentProfile(InetAddress.getByName("127.0.0.1"), 25);
+        assertEquals(10, profile.getMaxVarsPerPdu(10));
+        assertEquals(2, profile.getMaxRepetitions(2));
+    }
+
+    @Test
+    public void growsWhileTheAgentIsFast() throws Exception {
+        final SnmpAgentProfile profile = new SnmpAgentProfile(InetAddress.getByName("127.0.0.1"), 5);
+        for (int i = 0; i < 10; i++) {
+            profile.recordWalk(walk(profile, 10, 2, 10, false, 0));
+        }
+        // Bounded by the ceiling
+        assertEquals(5, profile.getMaxRepetitions(2));
+        // Never past the configured value
+        assertEquals(10, profile.getMaxVarsPerPdu(10));
+    }
+
+    @Test
+    public void shrinksWhenTheAgentIsSlow() throws Exception {
+        final SnmpAgentProfile profile = new SnmpAgentProfile(InetAddress.getByName("127.0.0.1"), 25);
+        profile.recordWalk(walk(profile, 10, 8, 800, false, 0));
+        assertEquals(7, profile.getMaxRepetitions(8));
+        assertEquals(10, profile.getMaxVarsPerPdu(10));
+    }
+
+    @Test
+    public void halvesOnTooBigAndDoesNotRetryTheSameSize() throws Exception {
+        final SnmpAgentProfile profile = new SnmpAgentProfile(InetAddress.getByName("127.0.0.1"), 25);
+        profile.recordWalk(walk(profile, 10, 8, 10, false, 10));
+        assertEquals(5, profile.getMaxVarsPerPdu(10));
+        assertEquals(4, profile.getMaxRepetitions(8));
+        assertEquals(1, profile.getNumTooBig());
+
+        for (int i = 0; i < 10; i++) {
+            profile.recordWalk(walk(profile, 10, 8, 10, false, 0));
+        }
+        assertEquals(9, profile.getMaxVarsPerPdu(10));
+    }
+
+    @Test
+    public void onlyHalvesOnTimeoutIfTheAgentResponded() throws Exception {
+        final SnmpAgentProfile profile = new SnmpAgentProfile(InetAddress.getByName("127.0.0.1"), 25);
+        final SnmpAgentProfile.Walk unreachable = walk(profile, 10, 8, 0, true, 0);
+        unreachable.numResponses = 0;
+        profile.recordWalk(unreachable);
+        assertEquals(8, profile.getMaxRepetitions(8));
+        assertEquals(1, profile.getNumTimeouts());
+
+        profile.recordWalk(walk(profile, 10, 8, 10, true, 0));
+        assertEquals(4, profile.getMaxRepetitions(8));
+        assertEquals(5, profile.getMaxVarsPerPdu(10));
+    }
+
+    @Test
+    public void canSaveAndLoadTheProfiles() throws Exception {
+        final File file = new File(tempFolder.getRoot(), "profiles.properties");
+        final InetAddress address = InetAddress.getByName("127.0.0.1");
+
+        final SnmpAgentProfiles profiles = new SnmpAgentProfiles(true, 25, file);
+        final SnmpAgentProfile profile = profiles.getProfile(address);
+        profiles.recordWalk(profile, walk(profile, 10, 8, 10, false, 10));
+        profiles.save();
+        assertTrue(file.canRead());
+
+        final SnmpAgentProfiles loadedProfiles = new SnmpAgentProfiles(true, 25, file);
+        assertNull(loadedProfiles.findProfile(address));
+        loadedProfiles.load();
+        final SnmpAgentProfile loadedProfile = loadedProfiles.findProfile(address);
+        assertNotNull(loadedProfile);
+        assertEquals(profile.getMaxVarsPerPdu(10), loadedProfile.getMaxVarsPerPdu(10));
+        assertEquals(profile.getMaxRepetitions(8), loadedProfile.getMaxRepetitions(8));
+        assertEquals(profile.getRtt(), loadedProfile.getRtt(), 0.001);
+    }
+
+    private static SnmpAgentProfile.Walk walk(SnmpAgentProfile profile, int configuredMaxVarsPerPdu, int configuredMaxRepetitions,
+            long rtt, boolean timedOut, int tooBigMaxVarsPerPdu) {
+        final SnmpAgentProfile.Walk walk = new SnmpAgentProfile.Walk(configuredMaxVarsPerPdu, configuredMaxRepetitions, TIMEOUT);
+        walk.maxVarsPerPdu = profile.getMaxVarsPerPdu(configuredMaxVarsPerPdu);
+        walk.maxRepetitions = profile.getMaxRepetitions(configuredMaxRepetitions);
+        if (tooBigMaxVarsPerPdu > 0) {
+            // The aggregate tracker halves the number of variables per PDU on its own
+            walk.tooBigMaxVarsPerPdu = tooBigMaxVarsPerPdu;
+            walk.maxVarsPerPdu = tooBigMaxVarsPerPdu / 2;
+        }
+        walk.numPdus = 4;
+        walk.numResponses = 4;
+        walk.totalRtt = 4 * rtt;
+        walk.duration = 4 * rtt;
+        walk.timedOut = timedOut;
+        return walk;
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.commands;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.netmgt.snmp.InetAddrUtils;
+import org.opennms.netmgt.snmp.SnmpAgentProfile;
+import org.opennms.netmgt.snmp.SnmpAgentProfiles;
+
+@Command(scope = "snmp", name = "show-profile", description = "Display what was learned about the SNMP agents from the previous walks.")
+@Service
+public class ShowProfileCommand implements Action {
+
+    @Argument(index = 0, name = "host", description = "Hostname or IP Address of the agent, all of the agents are listed when omitted", required = false, multiValued = false)
+    String m_host;
+
+    @Override
+    public Object execute() throws Exception {
+        final SnmpAgentProfiles profiles = SnmpAgentProfiles.getInstance();
+        if (!profiles.isEnabled()) {
+            System.out.printf("The adaptive walker is disabled, set %s=true to enable it.\n", SnmpAgentProfiles.ENABLED_SYS_PROP);
+            return null;
+        }
+
+        final Collection<SnmpAgentProfile> profilesToShow;
+        if (m_host != null) {
+            final SnmpAgentProfile profile = profiles.findProfile(InetAddress.getByName(m_host));
+            if (profile == null) {
+                System.out.printf("No profile found for %s.\n", m_host);
+                return null;
+            }
+            profilesToShow = Collections.singletonList(profile);
+        } else {
+            profilesToShow = profiles.getProfiles();
+        }
+
+        System.out.printf("%-40s %8s %8s %10s %8s %10s %8s %8s %12s\n", "Address", "MaxVars", "MaxReps", "RTT (ms)",
+                "Walks", "PDUs", "Timeouts", "TooBig", "Last (ms)");
+        profilesToShow.stream()
+            .sorted(Comparator.comparing(p -> InetAddrUtils.str(p.getAddress())))
+            .forEach(p -> System.out.printf("%-40s %8d %8d %10.1f %8d %10d %8d %8d %12d\n", InetAddrUtils.str(p.getAddress()),
+                    p.getLearnedMaxVarsPerPdu(), p.getLearnedMaxRepetitions(), p.getRtt(),
+                    p.getNumWalks(), p.getNumPdus(), p.getNumTimeouts(), p.getNumTooBig(), p.getLastWalkDuration()));
+        return null;
+    }
+}
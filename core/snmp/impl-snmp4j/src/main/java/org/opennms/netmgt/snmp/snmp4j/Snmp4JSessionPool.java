@@ -0,0 +1,474 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.UserTarget;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A small, fixed set of SNMP sessions shared by all of the requests made
+ * through the {@link Snmp4JStrategy}.
+ *
+ * Each session is bound to its own UDP transport, and responses are matched
+ * to their requests using the request ids, so the number of sockets and listener
+ * threads no longer grows with the number of requests in flight.
+ *
+ * A given agent is always sent to the same session. The SNMPv3 engine ids are
+ * discovered once per agent and cached, along with the users localized to them.
+ * The discovery blocks, so it is done on a separate set of threads rather than
+ * on the caller's, which may be one of the dispatcher threads.
+ *
+ * The USM can only hold one user per engine id and security name. When agents
+ * share both, but not the credentials, the conflicting users are added to an
+ * additional group of sessions with its own USM.
+ *
+ * The number of outstanding requests per agent can be limited, additional
+ * requests are queued and sent as the responses come in.
+ *
+ * The shared sessions are disabled by default, and are enabled by setting
+ * {@link #SHARED_SESSIONS_SYS_PROP} to true.
+ */
+public class Snmp4JSessionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    public static final String SHARED_SESSIONS_SYS_PROP = "org.opennms.snmp.snmp4j.sharedSessions";
+
+    public static final String NUM_SESSIONS_SYS_PROP = "org.opennms.snmp.snmp4j.sharedSessions.count";
+
+    public static final String DISPATCHER_THREADS_SYS_PROP = "org.opennms.snmp.snmp4j.sharedSessions.dispatcherThreads";
+
+    public static final String MAX_REQUESTS_PER_AGENT_SYS_PROP = "org.opennms.snmp.snmp4j.maxRequestsPerAgent";
+
+    public static final int DEFAULT_NUM_SESSIONS = 4;
+
+    public static final int DEFAULT_DISPATCHER_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_AGENT = 16;
+
+    private final int m_numSessions;
+
+    private final ThreadPool m_dispatcherThreads;
+
+    private final ExecutorService m_discoveryExecutor;
+
+    /**
+     * Groups of sessions sharing a USM, the first one is used for SNMPv1 and
+     * SNMPv2c and for all of the SNMPv3 users that don't conflict.
+     */
+    private final List<SessionGroup> m_sessionGroups = new CopyOnWriteArrayList<>();
+
+    private final int m_maxRequestsPerAgent;
+
+    private final Map<Address, AgentQueue> m_agents = new ConcurrentHashMap<>();
+
+    private final AtomicInteger m_numQueuedRequests = new AtomicInteger(0);
+
+    private final Map<Address, OctetString> m_engineIds = new ConcurrentHashMap<>();
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(SHARED_SESSIONS_SYS_PROP);
+    }
+
+    public static Snmp4JSessionPool createFromSystemProperties() throws IOException {
+        return new Snmp4JSessionPool(Integer.getInteger(NUM_SESSIONS_SYS_PROP, DEFAULT_NUM_SESSIONS),
+                Integer.getInteger(DISPATCHER_THREADS_SYS_PROP, DEFAULT_DISPATCHER_THREADS),
+                Integer.getInteger(MAX_REQUESTS_PER_AGENT_SYS_PROP, DEFAULT_MAX_REQUESTS_PER_AGENT));
+    }
+
+    /**
+     * @param numSessions number of sessions, and UDP transports, to create
+     * @param numDispatcherThreads number of threads used to process the responses
+     * @param maxRequestsPerAgent maximum number of outstanding requests per agent, or 0 for no limit
+     */
+    public Snmp4JSessionPool(int numSessions, int numDispatcherThreads, int maxRequestsPerAgent) throws IOException {
+        if (numSessions < 1) {
+            throw new IllegalArgumentException("numSessions must be strictly positive");
+        }
+        if (numDispatcherThreads < 1) {
+            throw new IllegalArgumentException("numDispatcherThreads must be strictly positive");
+        }
+        m_numSessions = numSessions;
+        m_maxRequestsPerAgent = maxRequestsPerAgent;
+        m_dispatcherThreads = ThreadPool.create("SNMP4J-Dispatcher", numDispatcherThreads);
+        final AtomicInteger discoveryThreadCount = new AtomicInteger(0);
+        m_discoveryExecutor = Executors.newFixedThreadPool(numDispatcherThreads, r -> {
+            final Thread thread = new Thread(r, "SNMP4J-Discovery-" + discoveryThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            m_sessionGroups.add(new SessionGroup());
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Created {} shared SNMP sessions with {} dispatcher threads and at most {} requests per agent.",
+                numSessions, numDispatcherThreads, maxRequestsPerAgent > 0 ? maxRequestsPerAgent : "unlimited");
+    }
+
+    /**
+     * Sends the given request.
+     *
+     * The listener is always notified asynchronously. If the request could not be sent,
+     * it is notified with an event that has no response and that holds the error.
+     *
+     * @return a handle that can be used to cancel the request
+     */
+    public Request send(Snmp4JAgentConfig agentConfig, Target target, PDU pdu, ResponseListener listener) {
+        final Request request = new Request(agentConfig, target, pdu, listener);
+        if (m_maxRequestsPerAgent < 1) {
+            request.send();
+            return request;
+        }
+
+        final AtomicBoolean sendNow = new AtomicBoolean(false);
+        m_agents.compute(request.getAddress(), (address, queue) -> {
+            if (queue == null) {
+                queue = new AgentQueue();
+            }
+            if (queue.inFlight < m_maxRequestsPerAgent) {
+                queue.inFlight++;
+                sendNow.set(true);
+            } else {
+                queue.pending.add(request);
+                m_numQueuedRequests.incrementAndGet();
+            }
+            return queue;
+        });
+
+        if (sendNow.get()) {
+            request.send();
+        } else {
+            LOG.debug("There are already {} requests in flight for {}. Queuing request.", m_maxRequestsPerAgent, request.getAddress());
+        }
+        return request;
+    }
+
+    public int getNumSessions() {
+        return m_numSessions;
+    }
+
+    /**
+     * Returns the number of requests that are waiting for other requests to the same agent to complete.
+     */
+    public int getNumQueuedRequests() {
+        return m_numQueuedRequests.get();
+    }
+
+    public void close() {
+        m_discoveryExecutor.shutdownNow();
+        for (final SessionGroup group : m_sessionGroups) {
+            group.close();
+        }
+        m_dispatcherThreads.stop();
+    }
+
+    /**
+     * Hands the slot held by a completed request over to the next request queued
+     * for the same agent, if any.
+     */
+    private void release(Address address) {
+        if (m_maxRequestsPerAgent < 1) {
+            return;
+        }
+
+        final AtomicReference<Request> next = new AtomicReference<>();
+        m_agents.computeIfPresent(address, (a, queue) -> {
+            final Request request = queue.pending.poll();
+            if (request != null) {
+                m_numQueuedRequests.decrementAndGet();
+                next.set(request);
+                return queue;
+            }
+            queue.inFlight--;
+            return queue.inFlight > 0 ? queue : null;
+        });
+
+        if (next.get() != null) {
+            next.get().send();
+        }
+    }
+
+    private boolean dequeue(Request request) {
+        final AtomicBoolean removed = new AtomicBoolean(false);
+        m_agents.computeIfPresent(request.getAddress(), (address, queue) -> {
+            if (queue.pending.remove(request)) {
+                m_numQueuedRequests.decrementAndGet();
+                removed.set(true);
+            }
+            return queue;
+        });
+        return removed.get();
+    }
+
+    /**
+     * Sets the authoritative engine id on the target, discovering it if allowed,
+     * and makes sure that the user is known to the USM of the returned group.
+     *
+     * @return the group of sessions to send the request with, or null if the
+     *         engine id is unknown and discovery isn't allowed
+     */
+    private SessionGroup prepareV3(Snmp4JAgentConfig agentConfig, UserTarget target, boolean discover) throws IOException {
+        final Address address = target.getAddress();
+        OctetString engineId = m_engineIds.get(address);
+        if (engineId == null) {
+            if (!discover) {
+                return null;
+            }
+            // Add the user without an engine id so that it can be used for the discovery
+            final SessionGroup group = getSessionGroup(agentConfig, null);
+            final byte[] discoveredEngineId = group.getSession(address).discoverAuthoritativeEngineID(address, agentConfig.getTimeout());
+            if (discoveredEngineId == null || discoveredEngineId.length < 1) {
+                LOG.debug("Failed to discover the engine id of {}.", address);
+                return group;
+            }
+            engineId = new OctetString(discoveredEngineId);
+            m_engineIds.put(address, engineId);
+            LOG.debug("Discovered engine id {} for {}.", engineId.toHexString(), address);
+        }
+        final SessionGroup group = getSessionGroup(agentConfig, engineId);
+        target.setAuthoritativeEngineID(engineId.getValue());
+        return group;
+    }
+
+    /**
+     * Returns the first group of sessions whose USM either already holds the user
+     * with the same credentials, or doesn't hold a user with that engine id and
+     * security name yet, in which case it is added.
+     */
+    private synchronized SessionGroup getSessionGroup(Snmp4JAgentConfig agentConfig, OctetString engineId) throws IOException {
+        final OctetString securityName = agentConfig.getSecurityName();
+        final String key = (engineId != null ? engineId.toHexString() : "") + "/" + securityName;
+        final String credentials = Objects.toString(agentConfig.getAuthProtocol()) + "/" + Objects.toString(agentConfig.getAuthPassPhrase())
+                + "/" + Objects.toString(agentConfig.getPrivProtocol()) + "/" + Objects.toString(agentConfig.getPrivPassPhrase());
+
+        for (final SessionGroup group : m_sessionGroups) {
+            final String existingCredentials = group.users.get(key);
+            if (credentials.equals(existingCredentials)) {
+                return group;
+            } else if (existingCredentials == null) {
+                group.addUser(agentConfig, engineId, key, credentials);
+                return group;
+            }
+        }
+
+        LOG.info("Agents with engine id {} use different credentials for {}, adding a group of {} sessions.",
+                engineId != null ? engineId.toHexString() : "(none)", securityName, m_numSessions);
+        final SessionGroup group = new SessionGroup();
+        m_sessionGroups.add(group);
+        group.addUser(agentConfig, engineId, key, credentials);
+        return group;
+    }
+
+    /**
+     * A set of sessions sharing the same USM.
+     */
+    private class SessionGroup {
+        private final USM usm;
+        private final Snmp[] sessions;
+
+        /**
+         * Credentials of the users added to the USM, keyed by engine id and security name.
+         */
+        private final Map<String, String> users = new ConcurrentHashMap<>();
+
+        private SessionGroup() throws IOException {
+            usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+            sessions = new Snmp[m_numSessions];
+            try {
+                for (int i = 0; i < sessions.length; i++) {
+                    final MessageDispatcher dispatcher = new MultiThreadedMessageDispatcher(m_dispatcherThreads, new MessageDispatcherImpl());
+                    dispatcher.addMessageProcessingModel(new MPv1());
+                    dispatcher.addMessageProcessingModel(new MPv2c());
+                    dispatcher.addMessageProcessingModel(new MPv3(usm));
+                    sessions[i] = new Snmp(dispatcher, new DefaultUdpTransportMapping());
+                    Snmp4JStrategy.trackSession(sessions[i]);
+                    sessions[i].listen();
+                }
+            } catch (final IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private Snmp getSession(Address address) {
+            return sessions[Math.floorMod(address.hashCode(), sessions.length)];
+        }
+
+        private void addUser(Snmp4JAgentConfig agentConfig, OctetString engineId, String key, String credentials) {
+            final OctetString securityName = agentConfig.getSecurityName();
+            final UsmUser user = new UsmUser(securityName, agentConfig.getAuthProtocol(), agentConfig.getAuthPassPhrase(),
+                    agentConfig.getPrivProtocol(), agentConfig.getPrivPassPhrase());
+            if (engineId != null) {
+                // The keys are localized to the engine id, so users with the same name
+                // but different credentials can coexist on different agents
+                usm.addUser(securityName, engineId, user);
+            } else {
+                usm.addUser(securityName, user);
+            }
+            users.put(key, credentials);
+        }
+
+        private void close() {
+            for (final Snmp session : sessions) {
+                if (session == null) {
+                    continue;
+                }
+                try {
+                    session.close();
+                } catch (IOException e) {
+                    LOG.error("Error closing shared SNMP session.", e);
+                } finally {
+                    Snmp4JStrategy.reapSession(session);
+                }
+            }
+        }
+    }
+
+    private static class AgentQueue {
+        private int inFlight = 0;
+        private final Deque<Request> pending = new ArrayDeque<>();
+    }
+
+    /**
+     * A request sent using one of the shared sessions.
+     */
+    public class Request implements ResponseListener {
+        private final Snmp4JAgentConfig m_agentConfig;
+        private final Target m_target;
+        private final PDU m_pdu;
+        private final ResponseListener m_listener;
+        private volatile Snmp m_session;
+        private final AtomicBoolean m_done = new AtomicBoolean(false);
+
+        private Request(Snmp4JAgentConfig agentConfig, Target target, PDU pdu, ResponseListener listener) {
+            m_agentConfig = Objects.requireNonNull(agentConfig);
+            m_target = Objects.requireNonNull(target);
+            m_pdu = Objects.requireNonNull(pdu);
+            m_listener = Objects.requireNonNull(listener);
+            m_session = m_sessionGroups.get(0).getSession(target.getAddress());
+        }
+
+        public Address getAddress() {
+            return m_target.getAddress();
+        }
+
+        private void send() {
+            send(false);
+        }
+
+        private void send(boolean discover) {
+            if (m_done.get()) {
+                // Cancelled while queued
+                return;
+            }
+            try {
+                if (m_agentConfig.isSnmpV3() && m_target instanceof UserTarget) {
+                    final SessionGroup group = prepareV3(m_agentConfig, (UserTarget)m_target, discover);
+                    if (group == null) {
+                        // We may be on a dispatcher thread, which must not wait for the discovery
+                        m_discoveryExecutor.execute(() -> send(true));
+                        return;
+                    }
+                    m_session = group.getSession(getAddress());
+                }
+                m_session.send(m_pdu, m_target, null, this);
+            } catch (final IOException|RuntimeException e) {
+                LOG.debug("Failed to send request to {}.", getAddress(), e);
+                if (m_done.compareAndSet(false, true)) {
+                    release(getAddress());
+                    m_listener.onResponse(new ResponseEvent(m_session, null, m_pdu, null, null, e));
+                }
+            }
+        }
+
+        @Override
+        public void onResponse(ResponseEvent event) {
+            // The session holds on to the request until it is cancelled
+            m_session.cancel(event.getRequest(), this);
+            if (!m_done.compareAndSet(false, true)) {
+                return;
+            }
+            release(getAddress());
+            if (m_agentConfig.isSnmpV3() && event.getResponse() != null && event.getResponse().getType() == PDU.REPORT) {
+                // The engine id may have changed, discover it again on the next request
+                m_engineIds.remove(getAddress());
+            }
+            m_listener.onResponse(event);
+        }
+
+        /**
+         * Cancels the request, the listener will not be notified.
+         */
+        public void cancel() {
+            if (!m_done.compareAndSet(false, true)) {
+                return;
+            }
+            if (!dequeue(this)) {
+                m_session.cancel(m_pdu, this);
+                release(getAddress());
+            }
+        }
+    }
+}
@@ -108,6 +108,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private static USM m_usm;
 
+    private static Snmp4JSessionPool s_sessionPool;
+
     private Snmp4JValueFactory m_valueFactory;
 
     private static ScheduledExecutorService s_sessionStatsExecutor;
@@ -153,6 +155,25 @@ public class Snmp4JStrategy implements SnmpStrategy {
         initialize();
     }
     
+    /**
+     * Returns the sessions shared by the requests made to the agents, creating them if necessary.
+     *
+     * @return the shared sessions, or null if these are disabled
+     */
+    static synchronized Snmp4JSessionPool getSessionPool() throws IOException {
+        if (s_sessionPool == null && Snmp4JSessionPool.isEnabled()) {
+            s_sessionPool = Snmp4JSessionPool.createFromSystemProperties();
+        }
+        return s_sessionPool;
+    }
+
+    static synchronized void closeSessionPool() {
+        if (s_sessionPool != null) {
+            s_sessionPool.close();
+            s_sessionPool = null;
+        }
+    }
+
     public void clearUsers() {
         if (m_usm != null) {
             m_usm.removeAllUsers();
@@ -240,6 +261,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
         final PDU pdu = buildPdu(snmp4jAgentConfig, PDU.GET, oids, null);
         if (pdu == null) {
             future.completeExceptionally(new Exception("Invalid PDU for OIDs: " + Arrays.toString(oids)));
+            return future;
         }
         send(snmp4jAgentConfig, pdu, true, future);
         return future;
@@ -303,6 +325,36 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        // Traps and informs keep using a dedicated session
+        if (expectResponse && pdu.getType() != PDU.INFORM) {
+            final Snmp4JSessionPool sessionPool;
+            try {
+                sessionPool = getSessionPool();
+            } catch (final IOException e) {
+                LOG.error("send: Could not create the shared SNMP sessions", e);
+                future.completeExceptionally(new SnmpException("Could not create the shared SNMP sessions", e));
+                return;
+            }
+            if (sessionPool != null) {
+                sessionPool.send(agentConfig, agentConfig.getTarget(), pdu, new ResponseListener() {
+                    @Override
+                    public void onResponse(final ResponseEvent responseEvent) {
+                        if (responseEvent.getResponse() == null && responseEvent.getError() != null) {
+                            LOG.error("send: error during SNMP operation", responseEvent.getError());
+                            future.completeExceptionally(new SnmpException(responseEvent.getError()));
+                            return;
+                        }
+                        try {
+                            future.complete(processResponse(agentConfig, responseEvent));
+                        } catch (final Exception e) {
+                            future.completeExceptionally(new SnmpException(e));
+                        }
+                    }
+                });
+                return;
+            }
+        }
+
         Snmp session;
 
         try {
@@ -163,17 +163,20 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            // (the shared sessions take care of this on their own)
+            if (m_session != null) {
+                m_session.cancel(responseEvent.getRequest(), this);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
                 LOG.debug("Interruption event.  We have probably tried to close the session due to an error", responseEvent.getError());
-            // Check to see if the response is null, indicating a timeout
-            } else if (responseEvent.getResponse() == null) {
-                handleTimeout(getName()+": snmpTimeoutError for: " + getAddress());
             // Check to see if we got any kind of error
             } else if (responseEvent.getError() != null){
                 handleError(getName()+": snmpInternalError: " + responseEvent.getError() + " for: " + getAddress(), responseEvent.getError());
+            // Check to see if the response is null, indicating a timeout
+            } else if (responseEvent.getResponse() == null) {
+                handleTimeout(getName()+": snmpTimeoutError for: " + getAddress());
             // If we have a PDU in the response, process it
             } else {
                 try {
@@ -189,12 +192,14 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    private Snmp4JSessionPool m_sessionPool;
+    private Snmp4JSessionPool.Request m_request;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
-        super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+        super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), agentConfig.getTimeout(), tracker);
         
         m_agentConfig = agentConfig;
         
@@ -221,6 +226,14 @@ public class Snmp4JWalker extends SnmpWalker {
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
+            if (m_sessionPool == null && m_session == null) {
+                m_sessionPool = Snmp4JStrategy.getSessionPool();
+            }
+            if (m_sessionPool != null) {
+                LOG.debug("Sending tracker pdu of size {} using the shared sessions", snmp4JPduBuilder.getPdu().size());
+                m_request = m_sessionPool.send(m_agentConfig, m_tgt, snmp4JPduBuilder.getPdu(), m_listener);
+                return;
+            }
             if (m_session == null) {
                 m_session = m_agentConfig.createSnmpSession();
                 Snmp4JStrategy.trackSession(m_session);
@@ -247,6 +260,10 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() {
+        if (m_request != null) {
+            m_request.cancel();
+            m_request = null;
+        }
         if (m_session != null) {
             try {
                 m_session.close();
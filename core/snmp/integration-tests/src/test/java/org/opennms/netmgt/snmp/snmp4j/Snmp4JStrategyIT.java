@@ -32,6 +32,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 import org.junit.Ignore;
@@ -217,6 +219,35 @@ public class Snmp4JStrategyIT extends MockSnmpAgentITCase {
         assertSnmpValueEquals("values[1]", SnmpValue.SNMP_GAUGE32, 42, values[1]);
     }
 
+    @Test
+    public void testConcurrentAsyncGetsShareSessions() throws Exception {
+        SnmpObjId[] oids = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+        System.setProperty(Snmp4JSessionPool.SHARED_SESSIONS_SYS_PROP, "true");
+        try {
+            // Issue more requests than are allowed to be in flight for a single agent
+            List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 4 * Snmp4JSessionPool.DEFAULT_MAX_REQUESTS_PER_AGENT; i++) {
+                futures.add(m_strategy.getAsync(getAgentConfig(), oids));
+            }
+
+            for (CompletableFuture<SnmpValue[]> future : futures) {
+                SnmpValue[] values = future.get();
+                assertNotNull("values should not be null", values);
+                assertEquals("values list size", 1, values.length);
+                assertSnmpValueEquals("values[0]", SnmpValue.SNMP_INT32, 42, values[0]);
+            }
+
+            Snmp4JSessionPool sessionPool = Snmp4JStrategy.getSessionPool();
+            assertNotNull("shared sessions should be enabled", sessionPool);
+            assertEquals(Snmp4JSessionPool.DEFAULT_NUM_SESSIONS, sessionPool.getNumSessions());
+            assertEquals(0, sessionPool.getNumQueuedRequests());
+        } finally {
+            System.clearProperty(Snmp4JSessionPool.SHARED_SESSIONS_SYS_PROP);
+            Snmp4JStrategy.closeSessionPool();
+        }
+    }
+
     @Test
     public void testGetNextSingleValue() throws Exception {
         SnmpObjId[] oids = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
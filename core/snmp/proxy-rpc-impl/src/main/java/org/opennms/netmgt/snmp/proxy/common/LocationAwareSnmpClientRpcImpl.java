@@ -59,6 +59,8 @@ public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient,
 
     private RpcClient<SnmpRequestDTO, SnmpMultiResponseDTO> delegate;
 
+    private final SnmpRequestCache requestCache = new SnmpRequestCache();
+
     public LocationAwareSnmpClientRpcImpl() { }
 
     public LocationAwareSnmpClientRpcImpl(RpcClientFactory rpcClientFactory) {
@@ -123,6 +125,10 @@ public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient,
     }
 
     public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
-        return delegate.execute(request);
+        return requestCache.execute(request, delegate::execute);
+    }
+
+    public SnmpRequestCache getRequestCache() {
+        return requestCache;
     }
 }
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.proxy.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces identical SNMP requests that are issued by different daemons
+ * (i.e. Collectd, Pollerd and Provisiond walking the same tables on the same agent)
+ * so that only one of them is actually sent to the agent.
+ *
+ * Two requests are considered identical when they target the same agent, at the
+ * same location and system, with the same gets, walks and time-to-live, so that a
+ * caller never fails with the timeout of another. The description and correlation ids
+ * are not part of the key: every caller receives its own copy of the response with the
+ * correlation ids mapped back to the ones it used in its request.
+ *
+ * When enabled, requests that are in flight are shared. Successful responses can
+ * optionally be kept for a short period of time so that requests that arrive shortly
+ * after also reuse them. Both are disabled by default, since callers such as the pollers
+ * expect fresh values.
+ */
+public class SnmpRequestCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpRequestCache.class);
+
+    public static final String COALESCE_SYS_PROP = "org.opennms.netmgt.snmp.proxy.coalesce";
+
+    public static final String TTL_SYS_PROP = "org.opennms.netmgt.snmp.proxy.cache.ttl";
+
+    public static final String MAX_ENTRIES_SYS_PROP = "org.opennms.netmgt.snmp.proxy.cache.maxEntries";
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final boolean m_coalesce;
+
+    private final long m_ttlMs;
+
+    private final int m_maxEntries;
+
+    private final Map<Key, InFlight> m_inFlight = new ConcurrentHashMap<>();
+
+    private final Map<Key, Cached> m_cache = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_coalesced = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    public SnmpRequestCache() {
+        this(Boolean.getBoolean(COALESCE_SYS_PROP),
+                Long.getLong(TTL_SYS_PROP, 0L),
+                Integer.getInteger(MAX_ENTRIES_SYS_PROP, DEFAULT_MAX_ENTRIES));
+    }
+
+    public SnmpRequestCache(boolean coalesce, long ttlMs, int maxEntries) {
+        m_coalesce = coalesce;
+        m_ttlMs = ttlMs;
+        m_maxEntries = maxEntries;
+    }
+
+    /**
+     * Executes the given request, or attaches to an identical request that is
+     * already in flight or was recently answered.
+     *
+     * @param request the request
+     * @param executor used to execute the request when it cannot be shared
+     * @return the response, with the correlation ids used in the given request
+     */
+    public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request,
+            Function<SnmpRequestDTO, CompletableFuture<SnmpMultiResponseDTO>> executor) {
+        if (!m_coalesce && m_ttlMs <= 0) {
+            return executor.apply(request);
+        }
+        final List<String> correlationIds = getCorrelationIds(request);
+        if (correlationIds == null) {
+            // The responses can't be mapped back unambiguously
+            return executor.apply(request);
+        }
+        final Key key = new Key(request);
+
+        if (m_ttlMs > 0) {
+            final Cached cached = m_cache.get(key);
+            if (cached != null) {
+                if (cached.isFresh(System.currentTimeMillis())) {
+                    m_hits.incrementAndGet();
+                    return CompletableFuture.completedFuture(relabel(cached.response, cached.correlationIds, correlationIds));
+                }
+                m_cache.remove(key, cached);
+            }
+        }
+
+        if (!m_coalesce) {
+            m_misses.incrementAndGet();
+            return executor.apply(request).thenApply(response -> {
+                store(key, correlationIds, response);
+                return response;
+            });
+        }
+
+        final InFlight inFlight = new InFlight(correlationIds);
+        final InFlight existing = m_inFlight.putIfAbsent(key, inFlight);
+        if (existing != null) {
+            m_coalesced.incrementAndGet();
+            LOG.debug("Sharing the response of an identical request that is already in flight for: {}", request.getAgent());
+            return existing.future.thenApply(response -> relabel(response, existing.correlationIds, correlationIds));
+        }
+
+        m_misses.incrementAndGet();
+        final CompletableFuture<SnmpMultiResponseDTO> future;
+        try {
+            future = executor.apply(request);
+        } catch (RuntimeException e) {
+            m_inFlight.remove(key, inFlight);
+            inFlight.future.completeExceptionally(e);
+            throw e;
+        }
+        future.whenComplete((response, ex) -> {
+            if (ex == null) {
+                // Store before removing the request from the in-flight map, so that
+                // a request arriving in between always finds one or the other
+                store(key, correlationIds, response);
+            }
+            m_inFlight.remove(key, inFlight);
+            if (ex != null) {
+                inFlight.future.completeExceptionally(ex);
+            } else {
+                inFlight.future.complete(response);
+            }
+        });
+        return inFlight.future.thenApply(response -> relabel(response, correlationIds, correlationIds));
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getCoalesced() {
+        return m_coalesced.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    private void store(Key key, List<String> correlationIds, SnmpMultiResponseDTO response) {
+        if (m_ttlMs <= 0 || response == null || response.getErrorMessage() != null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (m_cache.size() >= m_maxEntries) {
+            m_cache.values().removeIf(cached -> !cached.isFresh(now));
+            if (m_cache.size() >= m_maxEntries) {
+                return;
+            }
+        }
+        m_cache.put(key, new Cached(correlationIds, response, now + m_ttlMs));
+    }
+
+    /**
+     * @return the correlation ids of the gets followed by those of the walks,
+     *   or null if they are not unique
+     */
+    private static List<String> getCorrelationIds(SnmpRequestDTO request) {
+        final List<String> correlationIds = new ArrayList<>(request.getGetRequests().size() + request.getWalkRequest().size());
+        request.getGetRequests().forEach(get -> correlationIds.add(get.getCorrelationId()));
+        request.getWalkRequest().forEach(walk -> correlationIds.add(walk.getCorrelationId()));
+        if (new HashSet<>(correlationIds).size() != correlationIds.size()) {
+            return null;
+        }
+        return correlationIds;
+    }
+
+    /**
+     * Copies the response, replacing the correlation ids of the request that
+     * was executed with those of the request at the same position in the caller's request.
+     */
+    private static SnmpMultiResponseDTO relabel(SnmpMultiResponseDTO response, List<String> from, List<String> to) {
+        if (response == null || response.getErrorMessage() != null) {
+            return response;
+        }
+        final Map<String, String> correlationIds = new HashMap<>();
+        for (int i = 0; i < from.size(); i++) {
+            correlationIds.put(from.get(i), to.get(i));
+        }
+        final SnmpMultiResponseDTO copy = new SnmpMultiResponseDTO();
+        for (SnmpResponseDTO res : response.getResponses()) {
+            final SnmpResponseDTO resCopy = new SnmpResponseDTO();
+            resCopy.setCorrelationId(correlationIds.getOrDefault(res.getCorrelationId(), res.getCorrelationId()));
+            resCopy.setResults(new ArrayList<>(res.getResults()));
+            copy.getResponses().add(resCopy);
+        }
+        return copy;
+    }
+
+    private static class InFlight {
+        private final List<String> correlationIds;
+        private final CompletableFuture<SnmpMultiResponseDTO> future = new CompletableFuture<>();
+
+        private InFlight(List<String> correlationIds) {
+            this.correlationIds = correlationIds;
+        }
+    }
+
+    private static class Cached {
+        private final List<String> correlationIds;
+        private final SnmpMultiResponseDTO response;
+        private final long expiresAt;
+
+        private Cached(List<String> correlationIds, SnmpMultiResponseDTO response, long expiresAt) {
+            this.correlationIds = correlationIds;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+    }
+
+    /**
+     * The parts of the request that determine its response.
+     */
+    private static final class Key {
+        private final String location;
+        private final String systemId;
+        private final Map<String, String> agent;
+        private final List<List<?>> gets;
+        private final List<List<?>> walks;
+        private final Long timeToLive;
+        private final int hashCode;
+
+        private Key(SnmpRequestDTO request) {
+            location = request.getLocation();
+            systemId = request.getSystemId();
+            // Use a snapshot, the agent config is mutable
+            agent = request.getAgent() != null ? request.getAgent().toMap() : null;
+            gets = request.getGetRequests().stream()
+                    .map(get -> Arrays.<Object>asList(get.getOids()))
+                    .collect(Collectors.toList());
+            walks = request.getWalkRequest().stream()
+                    .map(walk -> Arrays.<Object>asList(walk.getOids(), walk.getMaxRepetitions(), walk.getInstance()))
+                    .collect(Collectors.toList());
+            timeToLive = request.getTimeToLive();
+            hashCode = Objects.hash(location, systemId, agent, gets, walks, timeToLive);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(location, other.location)
+                    && Objects.equals(systemId, other.systemId)
+                    && Objects.equals(agent, other.agent)
+                    && Objects.equals(gets, other.gets)
+                    && Objects.equals(walks, other.walks)
+                    && Objects.equals(timeToLive, other.timeToLive);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.proxy.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+
+public class SnmpRequestCacheTest {
+
+    private final List<CompletableFuture<SnmpMultiResponseDTO>> executed = new ArrayList<>();
+
+    @Test
+    public void canCoalesceRequestsInFlight() throws Exception {
+        final SnmpRequestCache cache = new SnmpRequestCache(true, 0, 10);
+
+        final CompletableFuture<SnmpMultiResponseDTO> first = cache.execute(getWalkRequest("a"), this::execute);
+        final CompletableFuture<SnmpMultiResponseDTO> second = cache.execute(getWalkRequest("b"), this::execute);
+        assertEquals(1, executed.size());
+        assertFalse(second.isDone());
+
+        executed.get(0).complete(getWalkResponse("a"));
+        assertEquals("a", first.get().getResponses().get(0).getCorrelationId());
+        assertEquals("b", second.get().getResponses().get(0).getCorrelationId());
+        assertEquals(first.get().getResponses().get(0).getResults(), second.get().getResponses().get(0).getResults());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getCoalesced());
+
+        // Nothing is kept once the response was received
+        cache.execute(getWalkRequest("c"), this::execute);
+        assertEquals(2, executed.size());
+    }
+
+    @Test
+    public void canReuseRecentResponses() throws Exception {
+        final SnmpRequestCache cache = new SnmpRequestCache(true, 60000, 10);
+
+        cache.execute(getWalkRequest("a"), this::execute);
+        executed.get(0).complete(getWalkResponse("a"));
+
+        final CompletableFuture<SnmpMultiResponseDTO> second = cache.execute(getWalkRequest("b"), this::execute);
+        assertEquals(1, executed.size());
+        assertTrue(second.isDone());
+        assertEquals("b", second.get().getResponses().get(0).getCorrelationId());
+        assertEquals(1, cache.getHits());
+
+        // A different walk is not shared
+        final SnmpRequestDTO other = getWalkRequest("c");
+        other.getWalkRequest().get(0).setMaxRepetitions(5);
+        cache.execute(other, this::execute);
+        assertEquals(2, executed.size());
+    }
+
+    @Test
+    public void doesNotCacheFailures() throws Exception {
+        final SnmpRequestCache cache = new SnmpRequestCache(true, 60000, 10);
+
+        final CompletableFuture<SnmpMultiResponseDTO> first = cache.execute(getWalkRequest("a"), this::execute);
+        final CompletableFuture<SnmpMultiResponseDTO> second = cache.execute(getWalkRequest("b"), this::execute);
+        executed.get(0).completeExceptionally(new IllegalStateException("Oups"));
+        for (CompletableFuture<SnmpMultiResponseDTO> future : new CompletableFuture[] { first, second }) {
+            try {
+                future.get();
+                fail("did not throw!");
+            } catch (ExecutionException e) {
+                assertEquals("Oups", e.getCause().getMessage());
+            }
+        }
+
+        cache.execute(getWalkRequest("c"), this::execute);
+        assertEquals(2, executed.size());
+    }
+
+    @Test
+    public void doesNotShareRequestsWithAmbiguousCorrelationIds() throws Exception {
+        final SnmpRequestCache cache = new SnmpRequestCache(true, 60000, 10);
+
+        final SnmpRequestDTO request = getWalkRequest("a");
+        request.getWalkRequest().add(request.getWalkRequest().get(0));
+        cache.execute(request, this::execute);
+        cache.execute(request, this::execute);
+        assertEquals(2, executed.size());
+    }
+
+    @Test
+    public void doesNotShareRequestsWithDifferentTimeToLive() throws Exception {
+        final SnmpRequestCache cache = new SnmpRequestCache(true, 60000, 10);
+
+        final SnmpRequestDTO shortLived = getWalkRequest("a");
+        shortLived.setTimeToLive(100L);
+        final CompletableFuture<SnmpMultiResponseDTO> first = cache.execute(shortLived, this::execute);
+        final CompletableFuture<SnmpMultiResponseDTO> second = cache.execute(getWalkRequest("b"), this::execute);
+        assertEquals(2, executed.size());
+
+        // The request with the short time-to-live times out on its own
+        executed.get(0).completeExceptionally(new IllegalStateException("Timeout"));
+        assertTrue(first.isCompletedExceptionally());
+        assertFalse(second.isDone());
+        assertEquals(0, cache.getCoalesced());
+    }
+
+    @Test
+    public void doesNotShareRequestsByDefault() throws Exception {
+        final SnmpRequestCache cache = new SnmpRequestCache();
+
+        cache.execute(getWalkRequest("a"), this::execute);
+        cache.execute(getWalkRequest("b"), this::execute);
+        assertEquals(2, executed.size());
+    }
+
+    private CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
+        final CompletableFuture<SnmpMultiResponseDTO> future = new CompletableFuture<>();
+        executed.add(future);
+        return future;
+    }
+
+    private static SnmpRequestDTO getWalkRequest(String correlationId) {
+        final SnmpWalkRequestDTO walk = new SnmpWalkRequestDTO();
+        walk.setCorrelationId(correlationId);
+        walk.setOids(Collections.singletonList(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2")));
+        walk.setMaxRepetitions(10);
+
+        final SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setLocation("Default");
+        request.setAgent(new SnmpAgentConfig(InetAddress.getLoopbackAddress()));
+        request.setDescription("walk " + correlationId);
+        request.getWalkRequest().add(walk);
+        return request;
+    }
+
+    private static SnmpMultiResponseDTO getWalkResponse(String correlationId) {
+        final SnmpResponseDTO response = new SnmpResponseDTO();
+        response.setCorrelationId(correlationId);
+        response.getResults().add(new SnmpResult(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2"), new SnmpInstId(1), null));
+
+        final SnmpMultiResponseDTO multiResponse = new SnmpMultiResponseDTO();
+        multiResponse.getResponses().add(response);
+        return multiResponse;
+    }
+}
@@ -269,11 +269,24 @@ public class CollectionSpecification {
      * @throws org.opennms.netmgt.collection.api.CollectionException if any.
      */
     public CollectionSet collect(CollectionAgent agent) throws CollectionException {
+        return collect(agent, Collections.emptyMap());
+    }
+
+    /**
+     * <p>collect</p>
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @param attributes additional attributes passed to the collector along with the service parameters
+     * @return a {@link org.opennms.netmgt.collection.api.CollectionSet} object.
+     * @throws org.opennms.netmgt.collection.api.CollectionException if any.
+     */
+    public CollectionSet collect(CollectionAgent agent, Map<String, Object> attributes) throws CollectionException {
         m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
         try {
             final CollectionSet set = m_locationAwareCollectorClient.collect()
                 .withAgent(agent)
                 .withAttributes(getPropertyMap())
+                .withAttributes(attributes)
                 .withCollector(getCollector())
                 // Use the service interval as the TTL
                 .withTimeToLive(getService().getInterval())
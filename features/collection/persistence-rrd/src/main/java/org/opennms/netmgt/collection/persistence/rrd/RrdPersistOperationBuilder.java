@@ -33,7 +33,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -57,6 +56,7 @@ import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUpdateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -214,20 +214,8 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         }
     }
 
-    private String getValues() {
-        boolean first = true;
-        final StringBuilder values = new StringBuilder();
-        for (Iterator<CollectionAttributeType> iter = m_declarations.keySet().iterator(); iter.hasNext();) {
-        	CollectionAttributeType attrDef = iter.next();
-            Number value = m_declarations.get(attrDef);
-            if (!first) {
-                values.append(':');
-            } else {
-                first = false;
-            }
-            values.append(mapValue(value));
-        }
-        return values.toString();
+    private Number[] getValues() {
+        return m_declarations.values().toArray(new Number[m_declarations.size()]);
     }
 
     private List<RrdDataSource> getDataSources() {
@@ -291,25 +279,30 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
      * @param rrdName the name for the rrd file.
      * @param timestamp the timestamp in millis to use for the rrd update (this
      * gets rounded to the nearest second)
-     * @param val a colon separated list of values representing the updates for
-     * datasources for this rrd
+     * @param values the values representing the updates for the datasources
+     * for this rrd, null for unknown values
      * @throws org.opennms.netmgt.rrd.RrdException if any.
      */
-    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, String val) throws RrdException {
+    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, Number[] values) throws RrdException {
         // Issue the RRD update
         String rrdFile = repositoryDir + File.separator + rrdName + rrdStrategy.getDefaultFileExtension();
         long time = (timestamp + 500L) / 1000L;
 
-        String updateVal = Long.toString(time) + ":" + val;
-
-        LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, updateVal);
+        LOG.info("updateRRD: updating RRD file {} at {} with values {}", rrdFile, time, values);
 
         RrdStrategy<Object, Object> strategy = toGenericType(rrdStrategy);
         Object rrd = null;
         try {
             rrd = strategy.openFile(rrdFile);
-            strategy.updateFile(rrd, owner, updateVal);
+            final double[] numericValues = RrdUpdateUtils.toDoubles(values);
+            if (numericValues != null) {
+                strategy.updateFile(rrd, owner, time, numericValues);
+            } else {
+                // Counters beyond 2^53 would lose precision as doubles
+                strategy.updateFile(rrd, owner, RrdUpdateUtils.formatUpdate(time, values));
+            }
         } catch (Throwable e) {
+            final String updateVal = RrdUpdateUtils.formatUpdate(time, values);
             LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, updateVal, e);
             throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + updateVal + "': " + e, e);
         } finally {
@@ -75,6 +75,8 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
 
     private NodeDao m_nodeDao;
 
+    private EventFloodFilter m_eventFloodFilter;
+
     /**
      * <p>Constructor for DefaultEventHandlerImpl.</p>
      */
@@ -85,12 +87,12 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
 
     @Override
     public EventHandlerRunnable createRunnable(Log eventLog) {
-        return new EventHandlerRunnable(eventLog, false);
+        return new EventHandlerRunnable(eventLog, false, true);
     }
 
     @Override
     public EventHandlerRunnable createRunnable(Log eventLog, boolean synchronous) {
-        return new EventHandlerRunnable(eventLog, synchronous);
+        return new EventHandlerRunnable(eventLog, synchronous, true);
     }
 
     private class EventHandlerRunnable implements Runnable {
@@ -101,11 +103,14 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
 
         private final boolean m_synchronous;
 
-        public EventHandlerRunnable(Log eventLog, boolean synchronous) {
+        private final boolean m_filter;
+
+        public EventHandlerRunnable(Log eventLog, boolean synchronous, boolean filter) {
             Assert.notNull(eventLog, "eventLog argument must not be null");
             
             m_eventLog = eventLog;
             m_synchronous = synchronous;
+            m_filter = filter;
         }
         
         /**
@@ -122,6 +127,14 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
                 return;
             }
 
+            if (m_filter && m_eventFloodFilter != null) {
+                m_eventFloodFilter.filter(events, System.currentTimeMillis());
+                if (events.getEventCount() <= 0) {
+                    // all of the events were suppressed
+                    return;
+                }
+            }
+
             for (final Event event : events.getEventCollection()) {
                 if (event.getNodeid() == 0) {
                     final Parm foreignSource = event.getParm("_foreignSource");
@@ -202,6 +215,14 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
     @Override
     public void afterPropertiesSet() throws IllegalStateException {
         Assert.state(m_eventProcessors != null, "property eventPersisters must be set");
+        if (m_eventFloodFilter != null) {
+            // The flood summaries were already accounted for by the filter
+            m_eventFloodFilter.setSummaryHandler(events -> {
+                final Log eventLog = new Log();
+                eventLog.setEvents(events);
+                new EventHandlerRunnable(eventLog, false, false).run();
+            });
+        }
     }
 
     /**
@@ -237,4 +258,12 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
     public NodeDao getNodeDao() {
         return m_nodeDao;
     }
+
+    public EventFloodFilter getEventFloodFilter() {
+        return m_eventFloodFilter;
+    }
+
+    public void setEventFloodFilter(EventFloodFilter eventFloodFilter) {
+        m_eventFloodFilter = eventFloodFilter;
+    }
 }
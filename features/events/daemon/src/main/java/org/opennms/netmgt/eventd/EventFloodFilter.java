@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Logmsg;
+import org.opennms.netmgt.xml.event.Parm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Ingress stage used to deduplicate and rate-limit floods of identical events.
+ *
+ * Events are identified by their UEI, node, interface, service and ifIndex, a digest of their
+ * log message when {@link #isKeyLogmsg()} is set, and the values of the parameters listed in
+ * {@link #getKeyParms()}, if any. Other parameters are ignored since many sources, syslog among
+ * them, add parameters such as timestamps that differ for every event.
+ * Once more than {@link #getThreshold()} identical events are received within a window
+ * of {@link #getWindowMs()} milliseconds, the remaining events in that window are handled
+ * according to the configured {@link Policy}.
+ *
+ * The number of events that were suppressed is added as a {@link #SUPPRESSED_COUNT_PARM}
+ * parameter to the next event with the same identity that is let through. With the
+ * {@link Policy#AGGREGATE} policy, the windows are also swept once they elapse, and the last
+ * suppressed event of each window is handed to the summary handler with the count, so that
+ * the flood is reported even if no other identical event follows.
+ *
+ * A bounded number of identities are tracked, the least recently used ones are evicted first.
+ * Internal events are never filtered.
+ */
+public class EventFloodFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventFloodFilter.class);
+
+    public static final String SUPPRESSED_COUNT_PARM = "suppressedCount";
+
+    private static final String INTERNAL_UEI_PREFIX = "uei.opennms.org/internal/";
+
+    public enum Policy {
+        /**
+         * Drop all of the events past the threshold, and
+         * report the count with the next event let through.
+         */
+        AGGREGATE,
+        /**
+         * Drop all of the events past the threshold without reporting the count.
+         */
+        DROP,
+        /**
+         * Let one event in every {@link EventFloodFilter#getSampleRate()} through
+         * past the threshold.
+         */
+        SAMPLE
+    }
+
+    private final MetricRegistry m_registry;
+
+    private int m_threshold = Integer.getInteger("org.opennms.eventd.flood.threshold", 0);
+
+    private long m_windowMs = Long.getLong("org.opennms.eventd.flood.windowMs", 60000);
+
+    private Policy m_policy = Policy.valueOf(System.getProperty("org.opennms.eventd.flood.policy", Policy.AGGREGATE.name()));
+
+    private int m_sampleRate = Integer.getInteger("org.opennms.eventd.flood.sampleRate", 100);
+
+    private Set<String> m_keyParms = parseKeyParms(System.getProperty("org.opennms.eventd.flood.parms", ""));
+
+    private boolean m_keyLogmsg = Boolean.parseBoolean(System.getProperty("org.opennms.eventd.flood.logmsg", "true"));
+
+    private final Map<String, Window> m_windows;
+
+    private final Meter m_receivedMeter;
+
+    private final Meter m_suppressedMeter;
+
+    private Consumer<Events> m_summaryHandler;
+
+    private ScheduledExecutorService m_sweeper;
+
+    public EventFloodFilter(MetricRegistry registry) {
+        this(registry, Integer.getInteger("org.opennms.eventd.flood.maxTracked", 10000));
+    }
+
+    public EventFloodFilter(MetricRegistry registry, int maxTracked) {
+        m_registry = Objects.requireNonNull(registry);
+        m_receivedMeter = registry.meter(MetricRegistry.name("eventlogs", "flood", "received"));
+        m_suppressedMeter = registry.meter(MetricRegistry.name("eventlogs", "flood", "suppressed"));
+        m_windows = new LinkedHashMap<String, Window>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                return size() > maxTracked;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return m_threshold > 0 && m_windowMs > 0;
+    }
+
+    /**
+     * Starts sweeping the elapsed windows when enabled with the {@link Policy#AGGREGATE} policy.
+     */
+    public synchronized void start() {
+        if (m_sweeper != null || !isEnabled() || m_policy != Policy.AGGREGATE) {
+            return;
+        }
+        try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Eventd.LOG4J_CATEGORY)) {
+            m_sweeper = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("EventFloodSweeper", 1));
+        }
+        m_sweeper.scheduleWithFixedDelay(this::sweep, m_windowMs, m_windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (m_sweeper != null) {
+            m_sweeper.shutdown();
+            m_sweeper = null;
+        }
+    }
+
+    /**
+     * Tracks the rate of events per UEI and removes the events that are part
+     * of a flood from the given collection. Only the rates are tracked when disabled.
+     *
+     * @param events the events to filter, modified in place
+     * @param now the current time in ms
+     */
+    public void filter(Events events, long now) {
+        final boolean enabled = isEnabled();
+        for (Iterator<Event> it = events.iterateEvent(); it.hasNext(); ) {
+            final Event event = it.next();
+            if (event.getUei() == null) {
+                continue;
+            }
+            m_receivedMeter.mark();
+            m_registry.meter(MetricRegistry.name("eventlogs", "uei", event.getUei(), "received")).mark();
+            if (!enabled || event.getUei().startsWith(INTERNAL_UEI_PREFIX)) {
+                continue;
+            }
+            if (shouldSuppress(event, now)) {
+                m_suppressedMeter.mark();
+                m_registry.meter(MetricRegistry.name("eventlogs", "uei", event.getUei(), "suppressed")).mark();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes the windows that have elapsed.
+     *
+     * With the {@link Policy#AGGREGATE} policy, the last event suppressed in each of these
+     * windows is returned with the number of events that were suppressed in the window.
+     *
+     * @param now the current time in ms
+     * @return the events summarizing the floods that ended
+     */
+    public synchronized Events expire(long now) {
+        final Events summaries = new Events();
+        for (Iterator<Window> it = m_windows.values().iterator(); it.hasNext(); ) {
+            final Window window = it.next();
+            if (now - window.start < m_windowMs) {
+                continue;
+            }
+            it.remove();
+            if (m_policy == Policy.AGGREGATE && window.suppressed > 0) {
+                addSuppressedCount(window.lastSuppressed, window.suppressed);
+                summaries.addEvent(window.lastSuppressed);
+            }
+        }
+        return summaries;
+    }
+
+    private void sweep() {
+        try {
+            final Events summaries = expire(System.currentTimeMillis());
+            if (summaries.getEventCount() > 0 && m_summaryHandler != null) {
+                LOG.debug("Reporting {} floods of events that ended.", summaries.getEventCount());
+                m_summaryHandler.accept(summaries);
+            }
+        } catch (Exception e) {
+            LOG.error("Unexpected error while reporting floods of events.", e);
+        }
+    }
+
+    protected synchronized boolean shouldSuppress(Event event, long now) {
+        final String key = getKey(event);
+        Window window = m_windows.get(key);
+        if (window == null || now - window.start >= m_windowMs) {
+            final long suppressed = window != null ? window.suppressed : 0;
+            window = new Window(now);
+            m_windows.put(key, window);
+            if (suppressed > 0) {
+                addSuppressedCount(event, suppressed);
+            }
+        }
+
+        window.count++;
+        if (window.count <= m_threshold) {
+            return false;
+        }
+
+        if (m_policy == Policy.SAMPLE && (window.count - m_threshold) % m_sampleRate == 0) {
+            addSuppressedCount(event, window.suppressed);
+            window.suppressed = 0;
+            return false;
+        }
+
+        if (window.suppressed == 0) {
+            LOG.info("Suppressing flood of events with UEI {} on node {}. Policy: {}", event.getUei(), event.getNodeid(), m_policy);
+        }
+        window.suppressed++;
+        window.lastSuppressed = event;
+        return true;
+    }
+
+    private void addSuppressedCount(Event event, long suppressed) {
+        if (m_policy != Policy.DROP && suppressed > 0) {
+            event.addParm(new Parm(SUPPRESSED_COUNT_PARM, Long.toString(suppressed)));
+        }
+    }
+
+    private String getKey(Event event) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(event.getUei())
+            .append('|').append(event.getNodeid())
+            .append('|').append(event.getInterface())
+            .append('|').append(event.getService())
+            .append('|').append(event.getIfIndex());
+        final Logmsg logmsg = event.getLogmsg();
+        if (m_keyLogmsg && logmsg != null && logmsg.getContent() != null) {
+            sb.append('|').append(Integer.toHexString(logmsg.getContent().hashCode()));
+        }
+        if (!m_keyParms.isEmpty()) {
+            for (Parm parm : event.getParmCollection()) {
+                if (m_keyParms.contains(parm.getParmName())) {
+                    sb.append('|').append(parm.getParmName())
+                        .append('=').append(parm.getValue() != null ? parm.getValue().getContent() : null);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> parseKeyParms(String parms) {
+        return Collections.unmodifiableSet(Arrays.stream(parms.split(","))
+                .map(String::trim)
+                .filter(parm -> !parm.isEmpty())
+                .collect(Collectors.toSet()));
+    }
+
+    public int getThreshold() {
+        return m_threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        m_threshold = threshold;
+    }
+
+    public long getWindowMs() {
+        return m_windowMs;
+    }
+
+    public void setWindowMs(long windowMs) {
+        m_windowMs = windowMs;
+    }
+
+    public Policy getPolicy() {
+        return m_policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        m_policy = Objects.requireNonNull(policy);
+    }
+
+    public int getSampleRate() {
+        return m_sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("The sample rate must be strictly positive.");
+        }
+        m_sampleRate = sampleRate;
+    }
+
+    public boolean isKeyLogmsg() {
+        return m_keyLogmsg;
+    }
+
+    /**
+     * Sets whether or not a digest of the log message is used to identify the events.
+     */
+    public void setKeyLogmsg(boolean keyLogmsg) {
+        m_keyLogmsg = keyLogmsg;
+    }
+
+    /**
+     * Sets the handler to which the events summarizing the floods that ended are handed.
+     */
+    public void setSummaryHandler(Consumer<Events> summaryHandler) {
+        m_summaryHandler = summaryHandler;
+    }
+
+    public Set<String> getKeyParms() {
+        return m_keyParms;
+    }
+
+    /**
+     * Sets the names of the parameters whose values are used, along with the UEI,
+     * node, interface, service and ifIndex, to identify the events.
+     */
+    public void setKeyParms(Set<String> keyParms) {
+        m_keyParms = Collections.unmodifiableSet(new HashSet<>(keyParms));
+    }
+
+    private static class Window {
+        private final long start;
+        private long count = 0;
+        private long suppressed = 0;
+        private Event lastSuppressed;
+
+        private Window(long start) {
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Logmsg;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class EventFloodFilterTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void canAggregateFloods() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.setThreshold(2);
+        filter.setWindowMs(1000);
+
+        final Events events = createEvents("uei.opennms.org/test/flood", 5);
+        filter.filter(events, 0);
+        assertEquals(2, events.getEventCount());
+
+        // The next event after the window carries the number of suppressed events
+        final Events next = createEvents("uei.opennms.org/test/flood", 1);
+        filter.filter(next, 1000);
+        assertEquals(1, next.getEventCount());
+        assertEquals("3", next.getEvent(0).getParm(EventFloodFilter.SUPPRESSED_COUNT_PARM).getValue().getContent());
+
+        assertEquals(6, registry.meter("eventlogs.uei.uei.opennms.org/test/flood.received").getCount());
+        assertEquals(3, registry.meter("eventlogs.uei.uei.opennms.org/test/flood.suppressed").getCount());
+    }
+
+    @Test
+    public void canSampleFloods() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.setThreshold(1);
+        filter.setWindowMs(1000);
+        filter.setPolicy(EventFloodFilter.Policy.SAMPLE);
+        filter.setSampleRate(3);
+
+        final Events events = createEvents("uei.opennms.org/test/flood", 7);
+        filter.filter(events, 0);
+        // The first event, then one in every 3
+        assertEquals(3, events.getEventCount());
+        assertNull(events.getEvent(0).getParm(EventFloodFilter.SUPPRESSED_COUNT_PARM));
+        assertEquals("2", events.getEvent(1).getParm(EventFloodFilter.SUPPRESSED_COUNT_PARM).getValue().getContent());
+    }
+
+    @Test
+    public void doesNotFilterInternalEventsOrWhenDisabled() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.setWindowMs(1000);
+
+        Events events = createEvents("uei.opennms.org/test/flood", 5);
+        filter.filter(events, 0);
+        assertEquals(5, events.getEventCount());
+
+        filter.setThreshold(1);
+        events = createEvents("uei.opennms.org/internal/reloadDaemonConfig", 5);
+        filter.filter(events, 0);
+        assertEquals(5, events.getEventCount());
+    }
+
+    @Test
+    public void onlyUsesTheConfiguredParmsToIdentifyEvents() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.setThreshold(1);
+        filter.setWindowMs(1000);
+
+        // The timestamps differ, the events are still identical
+        Events events = createEvents("uei.opennms.org/test/flood", 3);
+        filter.filter(events, 0);
+        assertEquals(1, events.getEventCount());
+
+        filter.setKeyParms(Collections.singleton("timestamp"));
+        events = createEvents("uei.opennms.org/test/otherFlood", 3);
+        filter.filter(events, 0);
+        assertEquals(3, events.getEventCount());
+    }
+
+    @Test
+    public void usesTheLogmsgToIdentifyEvents() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.setThreshold(1);
+        filter.setWindowMs(1000);
+
+        Events events = createEvents("uei.opennms.org/test/flood", 3);
+        for (int i = 0; i < events.getEventCount(); i++) {
+            final Logmsg logmsg = new Logmsg();
+            logmsg.setContent("interface " + i + " is down");
+            events.getEvent(i).setLogmsg(logmsg);
+        }
+        filter.filter(events, 0);
+        assertEquals(3, events.getEventCount());
+
+        filter.setKeyLogmsg(false);
+        filter.filter(events, 0);
+        assertEquals(1, events.getEventCount());
+    }
+
+    @Test
+    public void canSummarizeFloodsThatEnded() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.setThreshold(1);
+        filter.setWindowMs(1000);
+
+        final Events events = createEvents("uei.opennms.org/test/flood", 4);
+        final Event lastSuppressed = events.getEvent(3);
+        filter.filter(events, 0);
+        assertEquals(1, events.getEventCount());
+
+        // Nothing has elapsed yet
+        assertEquals(0, filter.expire(999).getEventCount());
+
+        // The last suppressed event is reported with the number of suppressed events
+        final Events summaries = filter.expire(1000);
+        assertEquals(1, summaries.getEventCount());
+        assertSame(lastSuppressed, summaries.getEvent(0));
+        assertEquals("3", lastSuppressed.getParm(EventFloodFilter.SUPPRESSED_COUNT_PARM).getValue().getContent());
+
+        // The window is closed, so the next event doesn't report the count again
+        final Events next = createEvents("uei.opennms.org/test/flood", 1);
+        filter.filter(next, 1500);
+        assertEquals(1, next.getEventCount());
+        assertNull(next.getEvent(0).getParm(EventFloodFilter.SUPPRESSED_COUNT_PARM));
+    }
+
+    @Test
+    public void metersEvenWhenDisabled() {
+        final EventFloodFilter filter = new EventFloodFilter(registry, 100);
+        filter.filter(createEvents("uei.opennms.org/test/disabled", 3), 0);
+        assertEquals(3, registry.meter("eventlogs.flood.received").getCount());
+        assertEquals(0, registry.meter("eventlogs.flood.suppressed").getCount());
+        assertEquals(3, registry.meter("eventlogs.uei.uei.opennms.org/test/disabled.received").getCount());
+    }
+
+    private static Events createEvents(String uei, int count) {
+        final Events events = new Events();
+        for (int i = 0; i < count; i++) {
+            final Event event = new EventBuilder(uei, "test")
+                    .setNodeid(1)
+                    .addParam("message", "link down")
+                    .addParam("timestamp", Integer.toString(i))
+                    .getEvent();
+            events.addEvent(event);
+        }
+        return events;
+    }
+}
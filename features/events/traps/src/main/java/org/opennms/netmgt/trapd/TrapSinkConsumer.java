@@ -30,8 +30,21 @@ package org.opennms.netmgt.trapd;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.ipc.sink.api.MessageConsumer;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
 import org.opennms.core.ipc.sink.api.SinkModule;
@@ -65,6 +78,19 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	 */
 	private static final String LOCALHOST_ADDRESS = InetAddressUtils.getLocalHostName();
 
+	/**
+	 * Number of threads used to convert traps to events. The conversion
+	 * is done on the consumer thread when this is set to 1 or less.
+	 */
+	private static final int CONVERSION_THREADS = Integer.getInteger("org.opennms.netmgt.trapd.conversionThreads",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Identical traps from the same agent received within this many ms
+	 * of each other are collapsed into a single event. Disabled when 0.
+	 */
+	private static final long STORM_SUPPRESSION_MS = Long.getLong("org.opennms.netmgt.trapd.stormSuppressionMs", 0);
+
 	@Autowired
 	private MessageConsumerManager messageConsumerManager;
 
@@ -86,10 +112,46 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 
 	private EventCreator eventCreator;
 
+	private ExecutorService conversionExecutor;
+
+	private final TrapStormSuppressor stormSuppressor = new TrapStormSuppressor(STORM_SUPPRESSION_MS);
+
+	private ScheduledExecutorService stormSweeper;
+
+	/**
+	 * Held shared while the traps are run through the storm suppressor and forwarded, and
+	 * exclusively while the storm summaries are forwarded, so that a summary is never
+	 * forwarded ahead of the traps that were let through before the storm ended.
+	 */
+	private final ReadWriteLock forwardingLock = new ReentrantReadWriteLock();
+
 	@PostConstruct
 	public void init() throws Exception {
-		messageConsumerManager.registerConsumer(this);
 		eventCreator = new EventCreator(interfaceToNodeCache, eventConfDao);
+		try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Trapd.LOG4J_CATEGORY)) {
+			if (CONVERSION_THREADS > 1) {
+				conversionExecutor = Executors.newFixedThreadPool(CONVERSION_THREADS,
+						new LogPreservingThreadFactory("TrapEventCreator", CONVERSION_THREADS));
+			}
+			if (stormSuppressor.isEnabled()) {
+				stormSweeper = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("TrapStormSweeper", 1));
+				stormSweeper.scheduleWithFixedDelay(this::sendStormSummaries, stormSuppressor.getWindowMs(),
+						stormSuppressor.getWindowMs(), TimeUnit.MILLISECONDS);
+			}
+		}
+		messageConsumerManager.registerConsumer(this);
+	}
+
+	@PreDestroy
+	public void destroy() throws Exception {
+		if (conversionExecutor != null) {
+			conversionExecutor.shutdown();
+		}
+		if (stormSweeper != null) {
+			stormSweeper.shutdown();
+			// Report the storms that are still in progress
+			sendStormSummaries(Long.MAX_VALUE);
+		}
 	}
 
 	@Override
@@ -100,60 +162,141 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	@Override
 	public void handleMessage(TrapLogDTO messageLog) {
 		try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Trapd.LOG4J_CATEGORY)) {
-			final Log eventLog = toLog(messageLog);
+			final List<Event> converted = convert(messageLog);
 
-			eventForwarder.sendNowSync(eventLog);
+			final Log eventLog;
+			forwardingLock.readLock().lock();
+			try {
+				eventLog = toLog(converted);
+				eventForwarder.sendNowSync(eventLog);
+			} finally {
+				forwardingLock.readLock().unlock();
+			}
 
 			// If configured, also send events for new suspects
 			if (config.getNewSuspectOnTrap()) {
+				final Log newSuspectLog = new Log();
+				final Events newSuspectEvents = new Events();
+				newSuspectLog.setEvents(newSuspectEvents);
 				eventLog.getEvents().getEventCollection().stream()
 						.filter(e -> !e.hasNodeid())
 						.forEach(e -> {
-							sendNewSuspectEvent(e.getInterface(), e.getDistPoller());
-							LOG.debug("Sent newSuspectEvent for interface {}", e.getInterface());
+							newSuspectEvents.addEvent(createNewSuspectEvent(e.getInterface(), e.getDistPoller()));
+							LOG.debug("Sending newSuspectEvent for interface {}", e.getInterface());
 						});
+				if (newSuspectEvents.getEventCount() > 0) {
+					eventForwarder.sendNow(newSuspectLog);
+				}
+			}
+		}
+	}
+
+	private void sendStormSummaries() {
+		sendStormSummaries(System.currentTimeMillis());
+	}
+
+	/**
+	 * Forwards an event for each trap storm that ended, so that the suppressed
+	 * traps are accounted for even when no identical trap follows.
+	 */
+	private void sendStormSummaries(long now) {
+		try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Trapd.LOG4J_CATEGORY)) {
+			forwardingLock.writeLock().lock();
+			try {
+				final List<Event> summaries = stormSuppressor.expire(now);
+				if (summaries.isEmpty()) {
+					return;
+				}
+				final Log log = new Log();
+				final Events events = new Events();
+				log.setEvents(events);
+				summaries.forEach(events::addEvent);
+				LOG.debug("Sending {} events for trap storms that ended", summaries.size());
+				eventForwarder.sendNowSync(log);
+			} finally {
+				forwardingLock.writeLock().unlock();
 			}
+		} catch (Exception e) {
+			LOG.error("Unexpected error while reporting trap storms.", e);
 		}
 	}
 
-	private Log toLog(TrapLogDTO messageLog) {
+	/**
+	 * Converts the traps, keeping the results in the order in which they were received.
+	 */
+	private List<Event> convert(TrapLogDTO messageLog) {
+		final List<Event> converted;
+		if (conversionExecutor != null && messageLog.getMessages().size() > 1) {
+			final List<CompletableFuture<Event>> futures = messageLog.getMessages().stream()
+					.map(eachMessage -> CompletableFuture.supplyAsync(() -> toEvent(messageLog, eachMessage), conversionExecutor))
+					.collect(Collectors.toList());
+			converted = futures.stream()
+					.map(CompletableFuture::join)
+					.collect(Collectors.toList());
+		} else {
+			converted = new ArrayList<>(messageLog.getMessages().size());
+			for (TrapDTO eachMessage : messageLog.getMessages()) {
+				converted.add(toEvent(messageLog, eachMessage));
+			}
+		}
+		return converted;
+	}
+
+	private Log toLog(List<Event> converted) {
 		final Log log = new Log();
 		final Events events = new Events();
 		log.setEvents(events);
 
-		for (TrapDTO eachMessage : messageLog.getMessages()) {
-			try {
-				final Event event = eventCreator.createEventFrom(
-						eachMessage,
-						messageLog.getSystemId(),
-						messageLog.getLocation(),
-						messageLog.getTrapAddress());
-				if (!shouldDiscard(event)) {
-					if (event.getSnmp() != null) {
-						trapdInstrumentation.incTrapsReceivedCount(event.getSnmp().getVersion());
-					}
-					events.addEvent(event);
-				} else {
-					LOG.debug("Trap discarded due to matching event having logmsg dest == discardtraps");
-					trapdInstrumentation.incDiscardCount();
-				}
-			} catch (Throwable e) {
-				LOG.error("Unexpected error processing trap: {}", eachMessage, e);
-				trapdInstrumentation.incErrorCount();
+		final long now = System.currentTimeMillis();
+		for (Event event : converted) {
+			if (event == null) {
+				continue;
 			}
+			if (stormSuppressor.suppress(event, now)) {
+				LOG.debug("Trap suppressed as part of a storm of identical traps from {}", event.getInterface());
+				trapdInstrumentation.incSuppressedCount();
+				continue;
+			}
+			events.addEvent(event);
 		}
 		return log;
 	}
 
-	private void sendNewSuspectEvent(String trapInterface, String distPoller) {
+	/**
+	 * Converts a single trap to an event.
+	 *
+	 * @return the event, or null if the trap was discarded or could not be converted
+	 */
+	private Event toEvent(TrapLogDTO messageLog, TrapDTO eachMessage) {
+		try {
+			final Event event = eventCreator.createEventFrom(
+					eachMessage,
+					messageLog.getSystemId(),
+					messageLog.getLocation(),
+					messageLog.getTrapAddress());
+			if (!shouldDiscard(event)) {
+				if (event.getSnmp() != null) {
+					trapdInstrumentation.incTrapsReceivedCount(event.getSnmp().getVersion());
+				}
+				return event;
+			} else {
+				LOG.debug("Trap discarded due to matching event having logmsg dest == discardtraps");
+				trapdInstrumentation.incDiscardCount();
+			}
+		} catch (Throwable e) {
+			LOG.error("Unexpected error processing trap: {}", eachMessage, e);
+			trapdInstrumentation.incErrorCount();
+		}
+		return null;
+	}
+
+	private static Event createNewSuspectEvent(String trapInterface, String distPoller) {
 		// construct event with 'trapd' as source
 		EventBuilder bldr = new EventBuilder(org.opennms.netmgt.events.api.EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI, "trapd");
 		bldr.setInterface(addr(trapInterface));
 		bldr.setHost(LOCALHOST_ADDRESS);
 		bldr.setDistPoller(distPoller);
-
-		// send the event to eventd
-		eventForwarder.sendNow(bldr.getEvent());
+		return bldr.getEvent();
 	}
 
 	private boolean shouldDiscard(Event event) {
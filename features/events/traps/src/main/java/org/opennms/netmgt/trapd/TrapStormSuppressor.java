@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses storms of identical traps.
+ *
+ * The first trap received from an agent starts a suppression window. Identical traps
+ * (same agent, location, trap identity and varbinds) received within the window are
+ * dropped and counted. The next identical trap received after the window has elapsed
+ * is forwarded with a {@link #SUPPRESSED_COUNT_PARM} parameter holding the number of
+ * traps that were dropped.
+ *
+ * If no identical trap follows, the storm is reported by {@link #expire(long)} once the
+ * window has elapsed: the last dropped trap is returned in its place, with the same
+ * {@link #SUPPRESSED_COUNT_PARM} parameter. In both cases, the parameter holds the number
+ * of traps that were suppressed during the window.
+ */
+class TrapStormSuppressor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrapStormSuppressor.class);
+
+    public static final String SUPPRESSED_COUNT_PARM = "suppressedCount";
+
+    /**
+     * Upper bound on the number of windows we track. When reached, the oldest windows
+     * are closed before they expire.
+     */
+    private static final int MAX_WINDOWS = Integer.getInteger("org.opennms.netmgt.trapd.storm.maxWindows", 100000);
+
+    private final long windowMs;
+
+    private final int maxWindows;
+
+    /**
+     * Windows in the order in which they were opened, which is also the order in which they expire.
+     */
+    private final Map<String, Window> windows = new LinkedHashMap<>();
+
+    /**
+     * Summaries for the windows that were closed early, reported on the next call to {@link #expire(long)}.
+     */
+    private final List<Event> pendingSummaries = new ArrayList<>();
+
+    TrapStormSuppressor(long windowMs) {
+        this(windowMs, MAX_WINDOWS);
+    }
+
+    TrapStormSuppressor(long windowMs, int maxWindows) {
+        this.windowMs = windowMs;
+        this.maxWindows = maxWindows;
+    }
+
+    public boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * Determines whether or not the given event is part of a storm.
+     *
+     * Should be called in the order in which the traps were received. If the event is not
+     * suppressed, and identical traps were previously suppressed, the count is added
+     * to the event as a parameter.
+     *
+     * @param event the event created from the trap
+     * @param now the current time in ms
+     * @return true if the event should be dropped
+     */
+    public synchronized boolean suppress(Event event, long now) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        final String key = getKey(event);
+        final Window window = windows.get(key);
+        if (window != null && now - window.start < windowMs) {
+            window.suppressed++;
+            window.lastSuppressed = event;
+            return true;
+        }
+
+        if (window != null) {
+            // Re-open the window at the tail so that the map stays ordered by start time
+            windows.remove(key);
+            if (window.suppressed > 0) {
+                event.addParm(new Parm(SUPPRESSED_COUNT_PARM, Long.toString(window.suppressed)));
+            }
+        }
+        windows.put(key, new Window(now));
+
+        if (windows.size() > maxWindows) {
+            final Iterator<Window> it = windows.values().iterator();
+            final Window oldest = it.next();
+            it.remove();
+            if (oldest.suppressed > 0) {
+                pendingSummaries.add(oldest.toSummary());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the windows that have elapsed.
+     *
+     * @param now the current time in ms
+     * @return the events summarizing the storms that ended, in the order in which they started
+     */
+    public synchronized List<Event> expire(long now) {
+        if (windows.isEmpty() && pendingSummaries.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<Event> summaries = new ArrayList<>(pendingSummaries);
+        pendingSummaries.clear();
+        int numExpired = 0;
+        for (Iterator<Window> it = windows.values().iterator(); it.hasNext(); ) {
+            final Window window = it.next();
+            if (now - window.start < windowMs) {
+                // All of the remaining windows were opened later
+                break;
+            }
+            it.remove();
+            numExpired++;
+            if (window.suppressed > 0) {
+                summaries.add(window.toSummary());
+            }
+        }
+        if (numExpired > 0) {
+            LOG.debug("Closed {} expired trap storm windows, {} of which suppressed traps.", numExpired, summaries.size());
+        }
+        return summaries;
+    }
+
+    private static String getKey(Event event) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(event.getUei()).append('|')
+            .append(event.getDistPoller()).append('|')
+            .append(event.getInterface()).append('|')
+            .append(event.getHost());
+        final Snmp snmp = event.getSnmp();
+        if (snmp != null) {
+            sb.append('|').append(snmp.getId())
+                .append('|').append(snmp.getGeneric())
+                .append('|').append(snmp.getSpecific());
+        }
+        for (Parm parm : event.getParmCollection()) {
+            sb.append('|').append(parm.getParmName())
+                .append('=').append(parm.getValue() != null ? parm.getValue().getContent() : null);
+        }
+        return sb.toString();
+    }
+
+    private static class Window {
+        private final long start;
+        private long suppressed = 0;
+        private Event lastSuppressed;
+
+        private Window(long start) {
+            this.start = start;
+        }
+
+        private Event toSummary() {
+            lastSuppressed.addParm(new Parm(SUPPRESSED_COUNT_PARM, Long.toString(suppressed)));
+            return lastSuppressed;
+        }
+    }
+}
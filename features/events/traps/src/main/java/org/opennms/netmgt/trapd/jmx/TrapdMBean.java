@@ -57,4 +57,7 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The number of traps collapsed by the storm suppression since Trapd was last started */
+    public long getTrapsSuppressed();
 }
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+public class TrapStormSuppressorTest {
+
+    @Test
+    public void canCollapseIdenticalTraps() {
+        final TrapStormSuppressor suppressor = new TrapStormSuppressor(1000);
+
+        assertFalse(suppressor.suppress(createEvent("10.0.0.1", "up"), 0));
+        assertTrue(suppressor.suppress(createEvent("10.0.0.1", "up"), 10));
+        assertTrue(suppressor.suppress(createEvent("10.0.0.1", "up"), 999));
+
+        // Different agent or different varbinds are not part of the storm
+        assertFalse(suppressor.suppress(createEvent("10.0.0.2", "up"), 20));
+        assertFalse(suppressor.suppress(createEvent("10.0.0.1", "down"), 30));
+
+        // Once the window elapses, the next trap is forwarded with the number of suppressed traps
+        final Event event = createEvent("10.0.0.1", "up");
+        assertFalse(suppressor.suppress(event, 1000));
+        assertEquals("2", event.getParm(TrapStormSuppressor.SUPPRESSED_COUNT_PARM).getValue().getContent());
+    }
+
+    @Test
+    public void doesNothingWhenDisabled() {
+        final TrapStormSuppressor suppressor = new TrapStormSuppressor(0);
+        for (int i = 0; i < 3; i++) {
+            final Event event = createEvent("10.0.0.1", "up");
+            assertFalse(suppressor.suppress(event, i));
+            assertNull(event.getParm(TrapStormSuppressor.SUPPRESSED_COUNT_PARM));
+        }
+    }
+
+    @Test
+    public void canSummarizeStormsThatEnded() {
+        final TrapStormSuppressor suppressor = new TrapStormSuppressor(1000);
+
+        assertFalse(suppressor.suppress(createEvent("10.0.0.1", "up"), 0));
+        assertTrue(suppressor.suppress(createEvent("10.0.0.1", "up"), 10));
+        final Event lastSuppressed = createEvent("10.0.0.1", "up");
+        assertTrue(suppressor.suppress(lastSuppressed, 20));
+        // No storm from this one
+        assertFalse(suppressor.suppress(createEvent("10.0.0.2", "up"), 500));
+
+        // Nothing has elapsed yet
+        assertTrue(suppressor.expire(999).isEmpty());
+
+        // The last suppressed trap is forwarded with the number of suppressed traps
+        final List<Event> summaries = suppressor.expire(1000);
+        assertEquals(1, summaries.size());
+        assertTrue(lastSuppressed == summaries.get(0));
+        assertEquals("2", lastSuppressed.getParm(TrapStormSuppressor.SUPPRESSED_COUNT_PARM).getValue().getContent());
+
+        // The window is closed, so the next trap doesn't report the count again
+        assertTrue(suppressor.expire(1500).isEmpty());
+        final Event event = createEvent("10.0.0.1", "up");
+        assertFalse(suppressor.suppress(event, 1600));
+        assertNull(event.getParm(TrapStormSuppressor.SUPPRESSED_COUNT_PARM));
+    }
+
+    @Test
+    public void canBoundTheNumberOfWindows() {
+        final TrapStormSuppressor suppressor = new TrapStormSuppressor(1000, 2);
+
+        assertFalse(suppressor.suppress(createEvent("10.0.0.1", "up"), 0));
+        final Event suppressed = createEvent("10.0.0.1", "up");
+        assertTrue(suppressor.suppress(suppressed, 1));
+        assertFalse(suppressor.suppress(createEvent("10.0.0.2", "up"), 2));
+        // Closes the oldest window
+        assertFalse(suppressor.suppress(createEvent("10.0.0.3", "up"), 3));
+
+        final List<Event> summaries = suppressor.expire(4);
+        assertEquals(1, summaries.size());
+        assertTrue(suppressed == summaries.get(0));
+        assertEquals("1", suppressed.getParm(TrapStormSuppressor.SUPPRESSED_COUNT_PARM).getValue().getContent());
+        assertFalse(suppressor.suppress(createEvent("10.0.0.1", "up"), 5));
+    }
+
+    private static Event createEvent(String address, String state) {
+        final EventBuilder builder = new EventBuilder("uei.opennms.org/test/trap", "trapd");
+        builder.setInterface(InetAddressUtils.addr(address));
+        builder.setGeneric(6);
+        builder.setSpecific(1);
+        builder.setEnterpriseId(".1.3.6.1.4.1.5813");
+        builder.addParam("state", state);
+        return builder.getEvent();
+    }
+}
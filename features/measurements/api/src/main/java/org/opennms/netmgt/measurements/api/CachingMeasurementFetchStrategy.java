@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.measurements.model.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the fetch results by query and resolution, independently of the
+ * position of the requested window.
+ *
+ * The resolution is derived from the window like the fetch strategies do, so
+ * a narrower window is never served the coarser rows of a wider one.
+ *
+ * Dashboards typically refresh the same queries over a sliding window. When
+ * the requested window starts within the cached rows, only the tail that was
+ * not yet settled when the rows were cached is fetched again from the delegate,
+ * and the result is stitched to the cached rows.
+ *
+ * Rows are considered settled once they are older than the configured settle time,
+ * which should account for the collection interval and any queuing done by the
+ * RRD strategy.
+ *
+ * The expressions, filters and downsampling are applied after the fetch, so
+ * caching the raw rows does not alter their results.
+ */
+public class CachingMeasurementFetchStrategy implements MeasurementFetchStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingMeasurementFetchStrategy.class);
+
+    public static final String ENABLED_SYS_PROP = "org.opennms.netmgt.measurements.cache.enabled";
+
+    public static final String MAX_VALUES_SYS_PROP = "org.opennms.netmgt.measurements.cache.maxValues";
+
+    public static final String TTL_SYS_PROP = "org.opennms.netmgt.measurements.cache.ttl";
+
+    public static final String SETTLE_TIME_SYS_PROP = "org.opennms.netmgt.measurements.cache.settleTime";
+
+    private final MeasurementFetchStrategy m_delegate;
+
+    private final boolean m_enabled;
+
+    private final long m_settleTime;
+
+    private final Cache<Key, CachedResults> m_cache;
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_partialHits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+
+    public CachingMeasurementFetchStrategy(MeasurementFetchStrategy delegate) {
+        this(delegate, Boolean.getBoolean(ENABLED_SYS_PROP),
+                Long.getLong(MAX_VALUES_SYS_PROP, 5000000L),
+                Long.getLong(TTL_SYS_PROP, TimeUnit.MINUTES.toMillis(5)),
+                Long.getLong(SETTLE_TIME_SYS_PROP, TimeUnit.MINUTES.toMillis(15)));
+    }
+
+    public CachingMeasurementFetchStrategy(MeasurementFetchStrategy delegate, boolean enabled, long maxValues, long ttl, long settleTime) {
+        m_delegate = Preconditions.checkNotNull(delegate);
+        m_enabled = enabled;
+        m_settleTime = settleTime;
+        m_cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxValues)
+                .weigher((Key key, CachedResults results) -> results.getTimestamps().length * (results.getColumns().size() + 1))
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                              List<Source> sources, boolean relaxed) throws Exception {
+        if (!m_enabled) {
+            return m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+        }
+
+        final long now = System.currentTimeMillis();
+        final Key key = new Key(getResolution(start, end, step, maxrows), interval, heartbeat, sources, relaxed);
+        final CachedResults cached = m_cache.getIfPresent(key);
+        if (cached != null && cached.getTimestamps().length > 0) {
+            final long[] timestamps = cached.getTimestamps();
+            final long cachedStep = cached.getStep();
+            final long settledUntil = cached.getFetchedAt() - Math.max(m_settleTime, 2 * cachedStep);
+
+            if (start > timestamps[0] - cachedStep) {
+                if (end <= settledUntil && end <= timestamps[timestamps.length - 1]) {
+                    m_hits.incrementAndGet();
+                    return slice(cached, start, end);
+                }
+
+                // Fetch everything after the last settled row
+                int settled = 0;
+                while (settled < timestamps.length && timestamps[settled] <= settledUntil) {
+                    settled++;
+                }
+                if (settled > 0) {
+                    final FetchResults tail = m_delegate.fetch(timestamps[settled - 1], end, cachedStep, 0, interval, heartbeat, sources, relaxed);
+                    final CachedResults stitched = stitch(cached, tail, start, now);
+                    if (stitched != null) {
+                        m_partialHits.incrementAndGet();
+                        m_cache.put(key, stitched);
+                        return slice(stitched, start, end);
+                    }
+                    LOG.debug("The tail of the query does not line up with the cached rows, fetching the complete window.");
+                }
+            }
+        }
+
+        m_misses.incrementAndGet();
+        final FetchResults results = m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+        if (results == null) {
+            return null;
+        }
+        m_cache.put(key, new CachedResults(results.getTimestamps(), results.getColumns(), results.getStep(), results.getConstants(), now));
+        return copy(results, 0, results.getTimestamps().length);
+    }
+
+    /**
+     * Derives the step that the fetch strategies consolidate the window to, in
+     * whole seconds like the RRD files, before it is rounded up to the step of
+     * the archive that they pick.
+     */
+    private static long getResolution(long start, long end, long step, int maxrows) {
+        final long resolution = maxrows > 0 ? Math.max(step, (end - start) / maxrows) : step;
+        return TimeUnit.MILLISECONDS.toSeconds(resolution);
+    }
+
+    /**
+     * Appends the rows of the tail to the cached rows that precede it, dropping the
+     * rows before the requested start.
+     *
+     * @return the combined rows, or null if the tail is not aligned with the cached rows
+     */
+    private static CachedResults stitch(FetchResults cached, FetchResults tail, long start, long now) {
+        if (tail == null || tail.getTimestamps().length < 1
+                || tail.getStep() != cached.getStep()
+                || !tail.getColumns().keySet().equals(cached.getColumns().keySet())) {
+            return null;
+        }
+
+        final long[] cachedTimestamps = cached.getTimestamps();
+        final long[] tailTimestamps = tail.getTimestamps();
+        final long step = cached.getStep();
+        if ((tailTimestamps[0] - cachedTimestamps[0]) % step != 0
+                || tailTimestamps[0] < cachedTimestamps[0]
+                || tailTimestamps[0] > cachedTimestamps[cachedTimestamps.length - 1] + step) {
+            return null;
+        }
+
+        int from = 0;
+        while (from < cachedTimestamps.length && cachedTimestamps[from] < start) {
+            from++;
+        }
+        int to = from;
+        while (to < cachedTimestamps.length && cachedTimestamps[to] < tailTimestamps[0]) {
+            to++;
+        }
+
+        final int numCached = to - from;
+        final long[] timestamps = new long[numCached + tailTimestamps.length];
+        System.arraycopy(cachedTimestamps, from, timestamps, 0, numCached);
+        System.arraycopy(tailTimestamps, 0, timestamps, numCached, tailTimestamps.length);
+
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, double[]> column : cached.getColumns().entrySet()) {
+            final double[] tailValues = tail.getColumns().get(column.getKey());
+            final double[] values = new double[timestamps.length];
+            System.arraycopy(column.getValue(), from, values, 0, numCached);
+            System.arraycopy(tailValues, 0, values, numCached, tailValues.length);
+            columns.put(column.getKey(), values);
+        }
+        return new CachedResults(timestamps, columns, step, tail.getConstants(), now);
+    }
+
+    /**
+     * Copies the cached rows that fall within the window. Like a fetch, this
+     * includes the row that ends the interval containing the end of the window.
+     */
+    private static FetchResults slice(FetchResults results, long start, long end) {
+        final long[] timestamps = results.getTimestamps();
+        final long step = results.getStep();
+        int from = 0;
+        while (from < timestamps.length && timestamps[from] < start) {
+            from++;
+        }
+        int to = from;
+        while (to < timestamps.length && timestamps[to] < end + step) {
+            to++;
+        }
+        return copy(results, from, to);
+    }
+
+    /**
+     * The later phases add and remove columns, so the cached rows are never handed out.
+     */
+    private static FetchResults copy(FetchResults results, int from, int to) {
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            columns.put(column.getKey(), Arrays.copyOfRange(column.getValue(), from, to));
+        }
+        return new FetchResults(Arrays.copyOfRange(results.getTimestamps(), from, to), columns,
+                results.getStep(), Maps.newHashMap(results.getConstants()));
+    }
+
+    public void invalidateAll() {
+        m_cache.invalidateAll();
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getPartialHits() {
+        return m_partialHits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    private static class CachedResults extends FetchResults {
+        private final long m_fetchedAt;
+
+        private CachedResults(long[] timestamps, Map<String, double[]> columns, long step, Map<String, Object> constants, long fetchedAt) {
+            super(timestamps, columns, step, constants);
+            m_fetchedAt = fetchedAt;
+        }
+
+        public long getFetchedAt() {
+            return m_fetchedAt;
+        }
+    }
+
+    /**
+     * Identifies a query by its resolution, regardless of the position of its window.
+     */
+    private static final class Key {
+        private final long resolution;
+        private final Long interval;
+        private final Long heartbeat;
+        private final List<List<Object>> sources;
+        private final boolean relaxed;
+
+        private Key(long resolution, Long interval, Long heartbeat, List<Source> sources, boolean relaxed) {
+            this.resolution = resolution;
+            this.interval = interval;
+            this.heartbeat = heartbeat;
+            this.relaxed = relaxed;
+            final ImmutableList.Builder<List<Object>> builder = ImmutableList.builder();
+            for (final Source source : sources) {
+                // The attributes are snapshot since the fetch may replace the attribute by its fallback
+                builder.add(Arrays.asList(source.getLabel(), source.getResourceId(), source.getAttribute(),
+                        source.getFallbackAttribute(), source.getDataSource(), source.getAggregation()));
+            }
+            this.sources = builder.build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key that = (Key) o;
+            return resolution == that.resolution &&
+                    relaxed == that.relaxed &&
+                    Objects.equals(interval, that.interval) &&
+                    Objects.equals(heartbeat, that.heartbeat) &&
+                    Objects.equals(sources, that.sources);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resolution, interval, heartbeat, sources, relaxed);
+        }
+    }
+}
@@ -30,6 +30,9 @@ package org.opennms.netmgt.measurements.api;
 
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.opennms.netmgt.measurements.api.exceptions.FetchException;
 import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
 import org.opennms.netmgt.measurements.api.exceptions.ResourceNotFoundException;
@@ -40,17 +43,30 @@ import org.opennms.netmgt.measurements.model.Source;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.RowSortedTable;
 
 @Component("measurementsService")
 public class DefaultMeasurementsService implements MeasurementsService {
 
+    public static final String METRICS_DOMAIN = "org.opennms.netmgt.measurements";
+
     private final MeasurementFetchStrategy fetchStrategy;
     private final ExpressionEngine expressionEngine;
     private final FilterEngine filterEngine;
     private final QueryRequestValidator queryRequestValidator = new QueryRequestValidator();
 
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Timer queryTimer = metrics.timer("query");
+    private final Timer fetchTimer = metrics.timer("fetch");
+    private final Timer expressionsTimer = metrics.timer("expressions");
+    private final Timer filtersTimer = metrics.timer("filters");
+    private final Timer downsamplingTimer = metrics.timer("downsampling");
+    private JmxReporter reporter;
+
     @Autowired
     public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine) {
         this.fetchStrategy = Preconditions.checkNotNull(fetchStrategy);
@@ -58,13 +74,39 @@ public class DefaultMeasurementsService implements MeasurementsService {
         this.filterEngine = Preconditions.checkNotNull(filterEngine);
     }
 
+    @PostConstruct
+    public void start() {
+        reporter = JmxReporter.forRegistry(metrics)
+                .inDomain(METRICS_DOMAIN)
+                .build();
+        reporter.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metrics;
+    }
+
     @Override
     public QueryResponse query(QueryRequest request) throws MeasurementException {
+        try (Timer.Context ctx = queryTimer.time()) {
+            return doQuery(request);
+        }
+    }
+
+    private QueryResponse doQuery(QueryRequest request) throws MeasurementException {
         validate(request);
 
         // Fetch the measurements
         FetchResults results;
-        try {
+        try (Timer.Context ctx = fetchTimer.time()) {
             results = fetchStrategy.fetch(
                     request.getStart(),
                     request.getEnd(),
@@ -82,13 +124,15 @@ public class DefaultMeasurementsService implements MeasurementsService {
         }
 
         // Apply the expression to the fetch results
-        expressionEngine.applyExpressions(request, results);
+        try (Timer.Context ctx = expressionsTimer.time()) {
+            expressionEngine.applyExpressions(request, results);
+        }
 
-        // Apply the filters
+        // Apply the filters, these are chained and must run one after the other
         if (!request.getFilters().isEmpty()) {
-            RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
-            filterEngine.filter(request.getFilters(), table);
-            results = new FetchResults(table, results.getStep(), results.getConstants());
+            try (Timer.Context ctx = filtersTimer.time()) {
+                results = applyFilters(request, results);
+            }
         }
 
         // Remove any transient values belonging to sources
@@ -99,6 +143,14 @@ public class DefaultMeasurementsService implements MeasurementsService {
             }
         }
 
+        // Reduce the number of rows to what the client can display
+        if (request.getMaxDataPoints() != null && request.getMaxDataPoints() > 0) {
+            try (Timer.Context ctx = downsamplingTimer.time()) {
+                results = Downsampler.downsample(results, request.getMaxDataPoints(),
+                        Downsampler.Method.fromString(request.getDownsampling()));
+            }
+        }
+
         // Build the response
         final QueryResponse response = new QueryResponse();
         response.setStart(request.getStart());
@@ -110,6 +162,12 @@ public class DefaultMeasurementsService implements MeasurementsService {
         return response;
     }
 
+    private FetchResults applyFilters(QueryRequest request, FetchResults results) throws MeasurementException {
+        final RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
+        filterEngine.filter(request.getFilters(), table);
+        return new FetchResults(table, results.getStep(), results.getConstants());
+    }
+
     private void validate(QueryRequest request) throws ValidationException {
         queryRequestValidator.validate(request);
     }
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reduces the number of rows in the fetch results to a maximum
+ * number of data points, i.e. the number of pixels available to
+ * the client rendering the graph.
+ *
+ * All of the columns share the same timestamps, so the same rows are
+ * picked or merged in every column.
+ */
+public class Downsampler {
+
+    public enum Method {
+        /**
+         * Largest-Triangle-Three-Buckets, keeps the rows that contribute
+         * the most to the visual shape of the series.
+         */
+        LTTB,
+        /**
+         * Average of the values in each bucket.
+         */
+        AVERAGE,
+        /**
+         * Minimum of the values in each bucket.
+         */
+        MIN,
+        /**
+         * Maximum of the values in each bucket.
+         */
+        MAX;
+
+        /**
+         * Parses the method, defaulting to {@link #LTTB} when none is given.
+         *
+         * @throws IllegalArgumentException if there is no method with the given name
+         */
+        public static Method fromString(String method) {
+            if (method == null || method.isEmpty()) {
+                return LTTB;
+            }
+            return valueOf(method.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private Downsampler() {}
+
+    /**
+     * Downsamples the results to at most maxDataPoints rows.
+     *
+     * @return the given results if they already have no more than
+     *         maxDataPoints rows, or new results otherwise
+     */
+    public static FetchResults downsample(FetchResults results, int maxDataPoints, Method method) {
+        final int numRows = results.getTimestamps().length;
+        if (maxDataPoints <= 0 || numRows <= maxDataPoints) {
+            return results;
+        }
+        // LTTB always keeps the first and last rows, and needs at least one bucket in between
+        if (method == Method.LTTB && maxDataPoints >= 3) {
+            return largestTriangleThreeBuckets(results, maxDataPoints);
+        }
+        return decimate(results, maxDataPoints, method == Method.LTTB ? Method.AVERAGE : method);
+    }
+
+    private static FetchResults decimate(FetchResults results, int maxDataPoints, Method method) {
+        final long[] timestamps = results.getTimestamps();
+        final int bucketSize = (timestamps.length + maxDataPoints - 1) / maxDataPoints;
+        final int numBuckets = (timestamps.length + bucketSize - 1) / bucketSize;
+
+        // Use the timestamp of the last row in each bucket, rows are stamped at the end of their interval
+        final long[] downsampledTimestamps = new long[numBuckets];
+        for (int b = 0; b < numBuckets; b++) {
+            downsampledTimestamps[b] = timestamps[Math.min(timestamps.length, (b + 1) * bucketSize) - 1];
+        }
+
+        final Map<String, double[]> downsampledColumns = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            final double[] values = column.getValue();
+            final double[] downsampled = new double[numBuckets];
+            for (int b = 0; b < numBuckets; b++) {
+                downsampled[b] = aggregate(values, b * bucketSize, Math.min(values.length, (b + 1) * bucketSize), method);
+            }
+            downsampledColumns.put(column.getKey(), downsampled);
+        }
+
+        return new FetchResults(downsampledTimestamps, downsampledColumns, results.getStep() * bucketSize, results.getConstants());
+    }
+
+    /**
+     * Aggregates the values in [from, to), ignoring NaNs.
+     */
+    private static double aggregate(double[] values, int from, int to, Method method) {
+        double aggregate = Double.NaN;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            final double value = values[i];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            if (count++ == 0) {
+                aggregate = value;
+            } else if (method == Method.MIN) {
+                aggregate = Math.min(aggregate, value);
+            } else if (method == Method.MAX) {
+                aggregate = Math.max(aggregate, value);
+            } else {
+                aggregate += value;
+            }
+        }
+        if (method == Method.AVERAGE && count > 0) {
+            aggregate /= count;
+        }
+        return aggregate;
+    }
+
+    /**
+     * Picks the rows using the Largest-Triangle-Three-Buckets algorithm.
+     *
+     * The area of the triangle is computed for every column and normalized by the
+     * range of the column so that series of different magnitude weigh the same.
+     */
+    private static FetchResults largestTriangleThreeBuckets(FetchResults results, int maxDataPoints) {
+        final long[] timestamps = results.getTimestamps();
+        final int numRows = timestamps.length;
+        final double[][] columns = results.getColumns().values().toArray(new double[0][]);
+
+        final double[] scales = new double[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (double value : columns[c]) {
+                if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+            scales[c] = max > min ? 1 / (max - min) : 0;
+        }
+
+        final int[] rows = new int[maxDataPoints];
+        rows[0] = 0;
+        rows[maxDataPoints - 1] = numRows - 1;
+
+        // Every bucket but the first and last, which only hold the first and last rows
+        final double bucketSize = (double) (numRows - 2) / (maxDataPoints - 2);
+        final double[] averages = new double[columns.length];
+        int a = 0;
+        for (int b = 0; b < maxDataPoints - 2; b++) {
+            final int from = (int) (b * bucketSize) + 1;
+            final int to = (int) ((b + 1) * bucketSize) + 1;
+
+            // Average of the next bucket, or the last row
+            final int nextFrom = to;
+            final int nextTo = Math.min(numRows, (int) ((b + 2) * bucketSize) + 1);
+            final double nextX = (nextFrom + nextTo - 1) / 2d;
+            for (int c = 0; c < columns.length; c++) {
+                averages[c] = aggregate(columns[c], nextFrom, Math.max(nextTo, nextFrom + 1), Method.AVERAGE);
+            }
+
+            int picked = from;
+            double maxArea = -1;
+            for (int i = from; i < to; i++) {
+                double area = 0;
+                for (int c = 0; c < columns.length; c++) {
+                    final double ya = columns[c][a], yb = columns[c][i], yc = averages[c];
+                    final double columnArea = Math.abs((a - nextX) * (yb - ya) - (a - i) * (yc - ya)) * scales[c];
+                    if (!Double.isNaN(columnArea) && !Double.isInfinite(columnArea)) {
+                        area += columnArea;
+                    }
+                }
+                if (area > maxArea) {
+                    maxArea = area;
+                    picked = i;
+                }
+            }
+            rows[b + 1] = picked;
+            a = picked;
+        }
+
+        final long[] downsampledTimestamps = new long[maxDataPoints];
+        for (int r = 0; r < maxDataPoints; r++) {
+            downsampledTimestamps[r] = timestamps[rows[r]];
+        }
+        final Map<String, double[]> downsampledColumns = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            final double[] values = column.getValue();
+            final double[] downsampled = new double[maxDataPoints];
+            for (int r = 0; r < maxDataPoints; r++) {
+                downsampled[r] = values[rows[r]];
+            }
+            downsampledColumns.put(column.getKey(), downsampled);
+        }
+
+        final long step = results.getStep() * ((numRows + maxDataPoints - 1) / maxDataPoints);
+        return new FetchResults(downsampledTimestamps, downsampledColumns, step, results.getConstants());
+    }
+}
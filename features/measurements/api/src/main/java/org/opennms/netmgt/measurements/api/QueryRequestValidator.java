@@ -27,6 +27,7 @@
  *******************************************************************************/
 package org.opennms.netmgt.measurements.api;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,15 @@ public class QueryRequestValidator {
         if (request.getStep() <= 0) {
             throw new ValidationException("Query step must be > 0: {}", request.getStep());
         }
+        if (request.getMaxDataPoints() != null && request.getMaxDataPoints() < 0) {
+            throw new ValidationException("Max data points must be >= 0: {}", request.getMaxDataPoints());
+        }
+        try {
+            Downsampler.Method.fromString(request.getDownsampling());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Unsupported downsampling method '{}', must be one of: {}",
+                    request.getDownsampling(), Arrays.toString(Downsampler.Method.values()));
+        }
         if ((request.getHeartbeat() == null && request.getInterval() != null)
                 || (request.getHeartbeat() != null && request.getInterval() == null)) {
             throw new ValidationException("If either the heartbeat or the interval are set, then both must be set.");
@@ -70,6 +70,16 @@ public class QueryRequest {
      */
     private int maxrows = 0;
 
+    /**
+     * Maximum number of data points to return, the rows are downsampled when exceeded.
+     */
+    private Integer maxDataPoints;
+
+    /**
+     * Method used to downsample the rows, one of LTTB, AVERAGE, MIN or MAX.
+     */
+    private String downsampling;
+
     /**
      * Interval in ms.
      */
@@ -128,6 +138,24 @@ public class QueryRequest {
         this.maxrows = maxrows;
     }
 
+    @XmlAttribute(name = "maxDataPoints")
+    public Integer getMaxDataPoints() {
+        return maxDataPoints;
+    }
+
+    public void setMaxDataPoints(Integer maxDataPoints) {
+        this.maxDataPoints = maxDataPoints;
+    }
+
+    @XmlAttribute(name = "downsampling")
+    public String getDownsampling() {
+        return downsampling;
+    }
+
+    public void setDownsampling(String downsampling) {
+        this.downsampling = downsampling;
+    }
+
     @XmlAttribute(name = "interval")
     public Long getInterval() {
         return interval;
@@ -198,6 +226,8 @@ public class QueryRequest {
              && com.google.common.base.Objects.equal(this.start, other.start)
              && com.google.common.base.Objects.equal(this.end, other.end)
              && com.google.common.base.Objects.equal(this.maxrows, other.maxrows)
+             && com.google.common.base.Objects.equal(this.maxDataPoints, other.maxDataPoints)
+             && com.google.common.base.Objects.equal(this.downsampling, other.downsampling)
              && com.google.common.base.Objects.equal(this.interval, other.interval)
              && com.google.common.base.Objects.equal(this.heartbeat, other.heartbeat)
              && com.google.common.base.Objects.equal(this.sources, other.sources)
@@ -209,7 +239,7 @@ public class QueryRequest {
     @Override
     public int hashCode() {
        return com.google.common.base.Objects.hashCode(
-                 this.step, this.start, this.end, this.relaxed, this.maxrows, this.interval,
+                 this.step, this.start, this.end, this.relaxed, this.maxrows, this.maxDataPoints, this.downsampling, this.interval,
                  this.heartbeat ,this.sources, this.expressions, this.filters);
     }
 
@@ -221,6 +251,8 @@ public class QueryRequest {
                  .add("End", this.end)
                  .add("Relaxed", this.relaxed)
                  .add("Max Rows", this.maxrows)
+                 .add("Max Data Points", this.maxDataPoints)
+                 .add("Downsampling", this.downsampling)
                  .add("Interval", this.interval)
                  .add("Heartbeat", this.heartbeat)
                  .add("Sources", this.sources)
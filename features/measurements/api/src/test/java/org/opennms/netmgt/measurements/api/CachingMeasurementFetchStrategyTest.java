@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class CachingMeasurementFetchStrategyTest {
+
+    private static final long STEP = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long WINDOW = TimeUnit.HOURS.toMillis(6);
+
+    private final List<Source> sources = Lists.newArrayList(new Source("in", "node[1].interfaceSnmp[eth0]", "ifHCInOctets", null, false));
+
+    private final List<long[]> windows = Lists.newArrayList();
+
+    private long tailStep = STEP;
+
+    /**
+     * Returns one row per step, valued by its timestamp, stamped
+     * at the end of each step like the JRobin strategy. The step
+     * is widened to fit the window in the maximum number of rows.
+     */
+    private final MeasurementFetchStrategy delegate = new MeasurementFetchStrategy() {
+        @Override
+        public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat, List<Source> sources, boolean relaxed) {
+            windows.add(new long[] { start, end });
+            long resultStep = windows.size() > 1 ? tailStep : STEP;
+            if (maxrows > 0) {
+                final long stepsPerRow = ((end - start) / maxrows + resultStep - 1) / resultStep;
+                resultStep *= Math.max(1, stepsPerRow);
+            }
+            final long first = (start + resultStep - 1) / resultStep * resultStep;
+            final long last = (end + resultStep - 1) / resultStep * resultStep;
+            final int numRows = (int) ((last - first) / resultStep) + 1;
+            final long[] timestamps = new long[numRows];
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                timestamps[i] = first + i * resultStep;
+                values[i] = timestamps[i] / 1000d;
+            }
+            final Map<String, double[]> columns = Maps.newHashMap();
+            columns.put("in", values);
+            return new FetchResults(timestamps, columns, resultStep, Collections.emptyMap());
+        }
+    };
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void doesNotCacheWhenDisabled() throws Exception {
+        final CachingMeasurementFetchStrategy cache = new CachingMeasurementFetchStrategy(delegate, false, 1000000, 60000, 0);
+        cache.fetch(now - WINDOW, now, STEP, 0, null, null, sources, false);
+        cache.fetch(now - WINDOW, now, STEP, 0, null, null, sources, false);
+        assertEquals(2, windows.size());
+    }
+
+    @Test
+    public void canServeSettledWindowFromCache() throws Exception {
+        final CachingMeasurementFetchStrategy cache = new CachingMeasurementFetchStrategy(delegate, true, 1000000, 60000, 0);
+        final long end = now - TimeUnit.HOURS.toMillis(1);
+        final FetchResults expected = cache.fetch(end - WINDOW, end, STEP, 0, null, null, sources, false);
+
+        final FetchResults actual = cache.fetch(end - WINDOW, end, STEP, 0, null, null, sources, false);
+        assertEquals(1, windows.size());
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertArrayEquals(expected.getColumns().get("in"), actual.getColumns().get("in"), 0.0d);
+
+        // The results handed out are copies
+        actual.getColumns().get("in")[0] = Double.NaN;
+        actual.getColumns().remove("in");
+        assertArrayEquals(expected.getColumns().get("in"), cache.fetch(end - WINDOW, end, STEP, 0, null, null, sources, false).getColumns().get("in"), 0.0d);
+    }
+
+    @Test
+    public void canFetchTailOfSlidingWindow() throws Exception {
+        final CachingMeasurementFetchStrategy cache = new CachingMeasurementFetchStrategy(delegate, true, 1000000, 60000, 0);
+        cache.fetch(now - WINDOW, now, STEP, 0, null, null, sources, false);
+
+        final long start = now - WINDOW + STEP + 30000;
+        final long end = now + STEP + 30000;
+        final FetchResults actual = cache.fetch(start, end, STEP, 0, null, null, sources, false);
+        assertEquals(1, cache.getPartialHits());
+        assertEquals(2, windows.size());
+
+        // Only the rows that were not settled are fetched again
+        assertEquals(end, windows.get(1)[1]);
+        assertTrue(end - windows.get(1)[0] <= 5 * STEP);
+
+        final FetchResults expected = delegate.fetch(start, end, STEP, 0, null, null, sources, false);
+        assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertArrayEquals(expected.getColumns().get("in"), actual.getColumns().get("in"), 0.0d);
+    }
+
+    @Test
+    public void fetchesCompleteWindowWhenTailIsNotAligned() throws Exception {
+        final CachingMeasurementFetchStrategy cache = new CachingMeasurementFetchStrategy(delegate, true, 1000000, 60000, 0);
+        cache.fetch(now - WINDOW, now, STEP, 0, null, null, sources, false);
+
+        tailStep = STEP * 2;
+        final FetchResults actual = cache.fetch(now - WINDOW + 30000, now + 30000, STEP, 0, null, null, sources, false);
+        assertEquals(0, cache.getPartialHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(3, windows.size());
+        assertEquals(STEP * 2, actual.getStep());
+    }
+
+    @Test
+    public void doesNotServeCoarseRowsForNarrowerWindow() throws Exception {
+        final CachingMeasurementFetchStrategy cache = new CachingMeasurementFetchStrategy(delegate, true, 1000000, 60000, 0);
+        final long end = now - TimeUnit.HOURS.toMillis(2);
+        final FetchResults wide = cache.fetch(end - TimeUnit.DAYS.toMillis(1), end, STEP, 48, null, null, sources, false);
+        assertEquals(TimeUnit.MINUTES.toMillis(30), wide.getStep());
+
+        // The narrower window fits in the rows at the native step
+        final FetchResults narrow = cache.fetch(end - TimeUnit.HOURS.toMillis(2), end, STEP, 48, null, null, sources, false);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, windows.size());
+        assertEquals(STEP, narrow.getStep());
+        assertEquals(25, narrow.getTimestamps().length);
+    }
+}
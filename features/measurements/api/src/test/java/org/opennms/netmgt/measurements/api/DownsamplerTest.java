@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class DownsamplerTest {
+
+    @Test
+    public void doesNotDownsampleSmallResults() {
+        final FetchResults results = createResults(10);
+        assertSame(results, Downsampler.downsample(results, 10, Downsampler.Method.LTTB));
+        assertSame(results, Downsampler.downsample(results, 0, Downsampler.Method.LTTB));
+    }
+
+    @Test
+    public void canDecimate() {
+        final FetchResults results = createResults(10);
+        results.getColumns().get("x")[1] = Double.NaN;
+
+        FetchResults downsampled = Downsampler.downsample(results, 4, Downsampler.Method.AVERAGE);
+        assertArrayEquals(new long[] { 3000, 6000, 9000, 10000 }, downsampled.getTimestamps());
+        assertArrayEquals(new double[] { 1, 4, 7, 9 }, downsampled.getColumns().get("x"), 0.0d);
+        assertEquals(3000, downsampled.getStep());
+
+        downsampled = Downsampler.downsample(results, 4, Downsampler.Method.MIN);
+        assertArrayEquals(new double[] { 0, 3, 6, 9 }, downsampled.getColumns().get("x"), 0.0d);
+
+        downsampled = Downsampler.downsample(results, 4, Downsampler.Method.MAX);
+        assertArrayEquals(new double[] { 2, 5, 8, 9 }, downsampled.getColumns().get("x"), 0.0d);
+    }
+
+    @Test
+    public void canKeepPeaksWithLttb() {
+        final FetchResults results = createResults(100);
+        final double[] values = results.getColumns().get("x");
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i == 42 ? 1000 : i % 2;
+        }
+        results.getColumns().put("y", new double[100]);
+
+        final FetchResults downsampled = Downsampler.downsample(results, 10, Downsampler.Method.LTTB);
+        assertEquals(10, downsampled.getTimestamps().length);
+        assertEquals(1000L, downsampled.getTimestamps()[0]);
+        assertEquals(100000L, downsampled.getTimestamps()[9]);
+
+        // The rows are picked, not merged
+        boolean foundPeak = false;
+        for (int i = 0; i < 10; i++) {
+            final int row = (int) (downsampled.getTimestamps()[i] / 1000) - 1;
+            assertEquals(values[row], downsampled.getColumns().get("x")[i], 0.0d);
+            foundPeak |= row == 42;
+        }
+        assertTrue(foundPeak);
+        assertArrayEquals(new double[10], downsampled.getColumns().get("y"), 0.0d);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void failsOnUnknownMethod() {
+        Downsampler.Method.fromString("median");
+    }
+
+    private static FetchResults createResults(int numRows) {
+        final long[] timestamps = new long[numRows];
+        final double[] values = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = (i + 1) * 1000L;
+            values[i] = i;
+        }
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        columns.put("x", values);
+        return new FetchResults(timestamps, columns, 1000, Collections.emptyMap());
+    }
+}
@@ -29,8 +29,22 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.jrobin.core.RrdException;
 import org.opennms.netmgt.dao.api.ResourceDao;
@@ -45,21 +59,82 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Used to fetch measurements from RRD files.
  *
+ * When the sources of a request are spread over several files, and the
+ * strategy can tell up front that the files consolidate to the same step and
+ * timestamps, the files are read in parallel on a bounded pool, one call per
+ * file, and the resulting columns are merged. Otherwise, all of the files are
+ * read with a single call.
+ *
  * @author Jesse White <jesse@opennms.org>
  */
 public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchStrategy {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractRrdBasedFetchStrategy.class);
 
+    public static final String FETCH_THREADS_SYS_PROP = "org.opennms.netmgt.measurements.fetchThreads";
+
+    public static final int DEFAULT_FETCH_THREADS = 8;
+
+    public static final String METRICS_DOMAIN = "org.opennms.netmgt.measurements.fetch";
+
     @Autowired
     private ResourceDao m_resourceDao;
 
+    /**
+     * Number of threads used to read the files of a single request in parallel,
+     * a value of 1 or less reads all of the files with a single call.
+     */
+    private final int m_fetchThreads = Integer.getInteger(FETCH_THREADS_SYS_PROP, DEFAULT_FETCH_THREADS);
+
+    private ExecutorService m_executor;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Timer m_resolveTimer = m_metrics.timer("resolve");
+    private final Timer m_fetchTimer = m_metrics.timer("fetch");
+    private final Timer m_fileFetchTimer = m_metrics.timer("fetch-file");
+    private final Histogram m_filesPerRequest = m_metrics.histogram("files-per-request");
+    private final Counter m_parallelRequests = m_metrics.counter("parallel-requests");
+    private final Counter m_misalignedRequests = m_metrics.counter("misaligned-requests");
+
+    private JmxReporter m_reporter;
+
+    @PostConstruct
+    public void start() {
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(METRICS_DOMAIN)
+                .build();
+        m_reporter.start();
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (m_reporter != null) {
+            m_reporter.stop();
+            m_reporter = null;
+        }
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+            m_executor = null;
+        }
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return m_metrics;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -69,54 +144,74 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
 
         final Map<String, Object> constants = Maps.newHashMap();
 
-        final Map<Source, String> rrdsBySource = Maps.newHashMap();
-        
-        for (final Source source : sources) {
-            final ResourceId resourceId;
-            try {
-                resourceId = ResourceId.fromString(source.getResourceId());
-            } catch (final IllegalArgumentException ex) {
-                if (relaxed) continue;
-                LOG.error("Ill-formed resource id: {}", source.getResourceId(), ex);
-                return null;
-            }
+        final Map<Source, String> rrdsBySource = Maps.newLinkedHashMap();
 
-            // Grab the resource
-            final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
-            if (resource == null) {
-                if (relaxed) continue;
-                LOG.error("No resource with id: {}", source.getResourceId());
-                return null;
-            }
+        // Graphs typically reference the same resource many times, only resolve each of them once
+        final Map<ResourceId, OnmsResource> resourcesById = Maps.newHashMap();
 
-            // Grab the attribute
-            RrdGraphAttribute rrdGraphAttribute = resource.getRrdGraphAttributes().get(source.getAttribute());
+        final Timer.Context resolveContext = m_resolveTimer.time();
+        try {
+            for (final Source source : sources) {
+                final ResourceId resourceId;
+                try {
+                    resourceId = ResourceId.fromString(source.getResourceId());
+                } catch (final IllegalArgumentException ex) {
+                    if (relaxed) continue;
+                    LOG.error("Ill-formed resource id: {}", source.getResourceId(), ex);
+                    return null;
+                }
 
-            if (rrdGraphAttribute == null && !Strings.isNullOrEmpty(source.getFallbackAttribute())) {
-                LOG.error("No attribute with name '{}', using fallback-attribute with name '{}'", source.getAttribute(), source.getFallbackAttribute());
-                source.setAttribute(source.getFallbackAttribute());
-                source.setFallbackAttribute(null);
-                rrdGraphAttribute = resource.getRrdGraphAttributes().get(source.getAttribute());
-            }
+                // Grab the resource
+                final OnmsResource resource;
+                if (resourcesById.containsKey(resourceId)) {
+                    resource = resourcesById.get(resourceId);
+                } else {
+                    resource = m_resourceDao.getResourceById(resourceId);
+                    resourcesById.put(resourceId, resource);
+                }
+                if (resource == null) {
+                    if (relaxed) continue;
+                    LOG.error("No resource with id: {}", source.getResourceId());
+                    return null;
+                }
 
-            if (rrdGraphAttribute == null) {
-                if (relaxed) continue;
-                LOG.error("No attribute with name: {}", source.getAttribute());
-                return null;
-            }
+                // Grab the attribute
+                RrdGraphAttribute rrdGraphAttribute = resource.getRrdGraphAttributes().get(source.getAttribute());
+
+                if (rrdGraphAttribute == null && !Strings.isNullOrEmpty(source.getFallbackAttribute())) {
+                    LOG.error("No attribute with name '{}', using fallback-attribute with name '{}'", source.getAttribute(), source.getFallbackAttribute());
+                    source.setAttribute(source.getFallbackAttribute());
+                    source.setFallbackAttribute(null);
+                    rrdGraphAttribute = resource.getRrdGraphAttributes().get(source.getAttribute());
+                }
 
-            // Gather the values from strings.properties
-            Utils.convertStringAttributesToConstants(source.getLabel(), resource.getStringPropertyAttributes(), constants);
+                if (rrdGraphAttribute == null) {
+                    if (relaxed) continue;
+                    LOG.error("No attribute with name: {}", source.getAttribute());
+                    return null;
+                }
 
-            // Build the path to the archive
-            final String rrdFile = System.getProperty("rrd.base.dir")
-                    + File.separator + rrdGraphAttribute.getRrdRelativePath();
+                // Gather the values from strings.properties
+                Utils.convertStringAttributesToConstants(source.getLabel(), resource.getStringPropertyAttributes(), constants);
 
-            rrdsBySource.put(source, rrdFile);
+                // Build the path to the archive
+                final String rrdFile = System.getProperty("rrd.base.dir")
+                        + File.separator + rrdGraphAttribute.getRrdRelativePath();
+
+                rrdsBySource.put(source, rrdFile);
+            }
+        } finally {
+            resolveContext.stop();
         }
 
         // Fetch
-        return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants, sources, relaxed);
+        final Timer.Context fetchContext = m_fetchTimer.time();
+        try {
+            return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants, sources, relaxed);
+        } finally {
+            final long elapsed = fetchContext.stop();
+            LOG.debug("Fetched {} sources in {}ms.", rrdsBySource.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
     }
 
     /**
@@ -136,13 +231,135 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             return Utils.createEmtpyFetchResults(step, constants);
         }
 
-        FetchResults fetchResults = fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        final Map<String, Map<Source, String>> rrdsBySourceByFile = groupByFile(rrdsBySource);
+        m_filesPerRequest.update(rrdsBySourceByFile.size());
+
+        FetchResults fetchResults = null;
+        if (rrdsBySourceByFile.size() > 1 && m_fetchThreads > 1) {
+            if (isAligned(rrdsBySourceByFile.keySet())) {
+                fetchResults = fetchInParallel(start, end, step, maxrows, rrdsBySourceByFile, constants);
+            } else {
+                m_misalignedRequests.inc();
+            }
+        }
+        if (fetchResults == null) {
+            fetchResults = fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        }
         if (relaxed) {
             Utils.fillMissingValues(fetchResults, sources);
         }
         return fetchResults;
     }
 
+    /**
+     * Fetches each of the files on the pool and merges the columns.
+     *
+     * @return the merged results, or null if the files were not consolidated
+     *         to the same step and timestamps after all
+     */
+    private FetchResults fetchInParallel(long start, long end, long step, int maxrows,
+                                         Map<String, Map<Source, String>> rrdsBySourceByFile,
+                                         Map<String, Object> constants) throws RrdException {
+        m_parallelRequests.inc();
+
+        final List<Callable<FetchResults>> tasks = Lists.newArrayListWithCapacity(rrdsBySourceByFile.size());
+        for (final Map<Source, String> rrdsBySourceInFile : rrdsBySourceByFile.values()) {
+            tasks.add(() -> {
+                try (Timer.Context ctx = m_fileFetchTimer.time()) {
+                    return fetchMeasurements(start, end, step, maxrows, rrdsBySourceInFile, constants);
+                }
+            });
+        }
+
+        final List<Future<FetchResults>> futures;
+        try {
+            futures = getExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RrdException("Interrupted while fetching measurements.", e);
+        }
+
+        final List<FetchResults> results = Lists.newArrayListWithCapacity(futures.size());
+        try {
+            for (final Future<FetchResults> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RrdException("Interrupted while fetching measurements.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RrdException) {
+                throw (RrdException)e.getCause();
+            }
+            throw new RrdException("Fetch failed.", e.getCause());
+        }
+
+        final FetchResults merged = merge(results, constants);
+        if (merged == null) {
+            LOG.warn("The files {} were not aligned to the same step and timestamps, fetching them together.", rrdsBySourceByFile.keySet());
+            m_misalignedRequests.inc();
+        }
+        return merged;
+    }
+
+    /**
+     * Merges the columns of results that share the same step and timestamps.
+     *
+     * @return the merged results, or null if the results are not aligned
+     */
+    protected static FetchResults merge(List<FetchResults> results, Map<String, Object> constants) {
+        final FetchResults first = results.get(0);
+        final Map<String, double[]> columns = new LinkedHashMap<>();
+        for (final FetchResults result : results) {
+            if (result.getStep() != first.getStep()
+                    || !Arrays.equals(result.getTimestamps(), first.getTimestamps())) {
+                return null;
+            }
+            columns.putAll(result.getColumns());
+        }
+        return new FetchResults(first.getTimestamps(), columns, first.getStep(), constants);
+    }
+
+    /**
+     * Groups the sources by the file they are stored in, so that each file
+     * is only opened once per request.
+     */
+    protected static Map<String, Map<Source, String>> groupByFile(Map<Source, String> rrdsBySource) {
+        final Map<String, Map<Source, String>> rrdsBySourceByFile = new LinkedHashMap<>();
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            rrdsBySourceByFile.computeIfAbsent(entry.getValue(), f -> new HashMap<>())
+                .put(entry.getKey(), entry.getValue());
+        }
+        return rrdsBySourceByFile;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (m_executor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(m_fetchThreads, m_fetchThreads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder()
+                        .setNameFormat("MeasurementsFetch-%d")
+                        .setDaemon(true)
+                        .build());
+            executor.allowCoreThreadTimeOut(true);
+            m_executor = executor;
+        }
+        return m_executor;
+    }
+
+    /**
+     * Used to determine, before fetching them, whether or not the given files
+     * are consolidated to the same step and timestamps when they are fetched
+     * with separate calls to {@link #fetchMeasurements(long, long, long, int, Map, Map)},
+     * in which case the calls are made in parallel.
+     *
+     * Defaults to false, so that all of the files are fetched with a single call.
+     */
+    protected boolean isAligned(Collection<String> rrdFiles) throws RrdException {
+        return false;
+    }
+
     /**
      * Performs the actual retrieval of the values from the RRD/JRB files.
      */
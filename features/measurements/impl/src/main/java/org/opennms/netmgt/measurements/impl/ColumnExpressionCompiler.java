@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.core.jexl.ExpressionCompiler;
+import org.opennms.core.jexl.ExpressionCompiler.CompiledExpression;
+import org.opennms.core.jexl.ExpressionCompiler.Kind;
+import org.opennms.core.jexl.ExpressionCompiler.Literal;
+import org.opennms.core.jexl.ExpressionCompiler.Node;
+import org.opennms.core.jexl.ExpressionCompiler.StringLiteral;
+import org.opennms.core.jexl.ExpressionCompiler.Variable;
+import org.opennms.core.jexl.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.api.FetchResults;
+
+/**
+ * Compiles the expressions of a single query using the {@link ExpressionCompiler},
+ * so that they are evaluated over whole columns instead of row by row.
+ *
+ * The variables are resolved in the same order of precedence as the context
+ * used by the {@link JEXLExpressionEngine}, and bound to the columns returned
+ * by {@link #getColumns()}. Besides the variables, the math: and strictmath:
+ * functions and the fn: sample array functions are supported.
+ */
+class ColumnExpressionCompiler implements ExpressionCompiler.Scope {
+
+    private final FetchResults m_results;
+    private final Map<String, Integer> m_indexByLabel;
+    private final double[][] m_values;
+    private int m_current;
+
+    private final List<double[]> m_columns = new ArrayList<>();
+    private final Map<String, Node> m_nodesByName = new HashMap<>();
+
+    /**
+     * @param results the fetched columns and constants
+     * @param indexByLabel the index of each expression, by label
+     * @param values the results of the expressions, by index, as they are evaluated
+     */
+    ColumnExpressionCompiler(FetchResults results, Map<String, Integer> indexByLabel, double[][] values) {
+        m_results = results;
+        m_indexByLabel = indexByLabel;
+        m_values = values;
+    }
+
+    /**
+     * Compiles the expression at the given index, which may reference the
+     * results of the expressions before it.
+     *
+     * @param expression the JEXL expression
+     * @param index the index of the expression
+     * @return the compiled expression
+     * @throws UnsupportedExpressionException if the expression cannot be compiled
+     */
+    CompiledExpression compile(String expression, int index) throws UnsupportedExpressionException {
+        m_current = index;
+        return ExpressionCompiler.compile(expression, this);
+    }
+
+    /**
+     * @return the columns bound to the compiled expressions, by slot
+     */
+    double[][] getColumns() {
+        return m_columns.toArray(new double[m_columns.size()][]);
+    }
+
+    private Node bind(String name, Kind kind, double[] column) {
+        final Node node = new Variable(kind, m_columns.size());
+        m_columns.add(column);
+        m_nodesByName.put(name, node);
+        return node;
+    }
+
+    @Override
+    public Node resolve(String name) throws UnsupportedExpressionException {
+        final Node bound = m_nodesByName.get(name);
+        if (bound != null) {
+            return bound;
+        }
+
+        final long timestamps[] = m_results.getTimestamps();
+        final Map<String, double[]> columns = m_results.getColumns();
+
+        if (columns.containsKey(name)) {
+            return bind(name, Kind.DOUBLE, columns.get(name));
+        } else if (name.startsWith("__") && columns.containsKey(name.substring(2))) {
+            throw new UnsupportedExpressionException("reference to the complete column " + name);
+        } else if ("timestamp".equals(name)) {
+            final double[] column = new double[timestamps.length];
+            for (int i = 0; i < timestamps.length; i++) {
+                column[i] = ExpressionCompiler.exact(timestamps[i]);
+            }
+            return bind(name, Kind.INTEGRAL, column);
+        } else if ("__i".equals(name)) {
+            final double[] column = new double[timestamps.length];
+            for (int i = 0; i < timestamps.length; i++) {
+                column[i] = i;
+            }
+            return bind(name, Kind.INTEGRAL, column);
+        }
+
+        final Integer index = m_indexByLabel.get(name);
+        if (index != null) {
+            if (index < m_current) {
+                return bind(name, Kind.DOUBLE, m_values[index]);
+            }
+            // JEXL would use the value from the previous row
+            throw new UnsupportedExpressionException("reference to '" + name + "' before it is evaluated");
+        }
+
+        switch (name) {
+            case "__inf":
+                return new Literal(Kind.DOUBLE, Double.POSITIVE_INFINITY, false);
+            case "__neg_inf":
+                return new Literal(Kind.DOUBLE, Double.NEGATIVE_INFINITY, false);
+            case "NaN":
+                return new Literal(Kind.DOUBLE, Double.NaN, false);
+            case "__E":
+                return new Literal(Kind.DOUBLE, Math.E, false);
+            case "__PI":
+                return new Literal(Kind.DOUBLE, Math.PI, false);
+            case "__diff_time":
+                final int numRows = timestamps.length;
+                return new Literal(Kind.DOUBLE, numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0], false);
+            default:
+                break;
+        }
+
+        final Object constant = m_results.getConstants().get(name);
+        if (constant == null) {
+            return null;
+        } else if (constant instanceof Double) {
+            return new Literal(Kind.DOUBLE, (Double)constant, false);
+        } else if (constant instanceof Float) {
+            return new Literal(Kind.FLOAT, (Float)constant, false);
+        } else if (constant instanceof Integer || constant instanceof Short || constant instanceof Byte) {
+            return new Literal(Kind.INTEGRAL, ((Number)constant).intValue(), true);
+        } else if (constant instanceof Long && Math.abs((Long)constant) <= 1L << 53) {
+            return new Literal(Kind.INTEGRAL, (Long)constant, false);
+        }
+        throw new UnsupportedExpressionException("constant '" + name + "' of type " + constant.getClass().getSimpleName());
+    }
+
+    @Override
+    public Node function(String namespace, String name, List<Node> args) throws UnsupportedExpressionException {
+        switch (namespace) {
+            case "math":
+                return mathFunction(false, name, args);
+            case "strictmath":
+                return mathFunction(true, name, args);
+            case "fn":
+                return sampleArrayFunction(name, args);
+            default:
+                return null;
+        }
+    }
+
+    private static Node mathFunction(boolean strict, String name, List<Node> args) throws UnsupportedExpressionException {
+        final Node node = ExpressionCompiler.mathFunction(strict, name, args);
+        if (node != null) {
+            return node;
+        }
+        // The namespace maps to the class, whose float, int and long overloads would be picked otherwise
+        if (args.size() == 2 && args.get(0).getKind() == Kind.DOUBLE && args.get(1).getKind() == Kind.DOUBLE) {
+            switch (name) {
+                case "min":
+                    return ExpressionCompiler.binaryFunction(strict ? StrictMath::min : Math::min, args.get(0), args.get(1));
+                case "max":
+                    return ExpressionCompiler.binaryFunction(strict ? StrictMath::max : Math::max, args.get(0), args.get(1));
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see SampleArrayFunctions
+     */
+    private Node sampleArrayFunction(String name, List<Node> args) throws UnsupportedExpressionException {
+        final SampleArray.Mode mode;
+        switch (name) {
+            case "arrayZero": mode = SampleArray.Mode.ZERO; break;
+            case "arrayFirst": mode = SampleArray.Mode.FIRST; break;
+            case "arrayNaN": mode = SampleArray.Mode.NAN; break;
+            case "arrayStart": mode = SampleArray.Mode.START; break;
+            default: return null;
+        }
+
+        if (args.size() != (mode == SampleArray.Mode.START ? 3 : 2)) {
+            return null;
+        } else if (!(args.get(0) instanceof StringLiteral)) {
+            throw new UnsupportedExpressionException("fn:" + name + " requires a literal sample name");
+        } else if (!(args.get(1) instanceof Literal) || !((Literal)args.get(1)).isInt()) {
+            throw new UnsupportedExpressionException("fn:" + name + " requires a literal offset");
+        }
+        Node start = null;
+        if (mode == SampleArray.Mode.START) {
+            start = args.get(2);
+            if (!start.getKind().isNumeric()) {
+                throw new UnsupportedExpressionException("fn:" + name + " requires a numeric start value");
+            }
+        }
+
+        // The function looks up the whole column, which is only available for the sources
+        final double[] samples = m_results.getColumns().get(((StringLiteral)args.get(0)).getValue());
+        return new SampleArray(mode, samples, (int)((Literal)args.get(1)).getValue(), start);
+    }
+
+    /**
+     * Shifted copies of a source column, as returned by {@link SampleArrayFunctions}.
+     */
+    private static final class SampleArray extends Node {
+        private enum Mode {
+            ZERO, FIRST, NAN, START
+        }
+
+        private final Mode m_mode;
+        private final double[] m_samples;
+        private final int m_offset;
+        private final Node m_start;
+
+        private SampleArray(Mode mode, double[] samples, int offset, Node start) {
+            super(Kind.DOUBLE);
+            m_mode = mode;
+            m_samples = samples;
+            m_offset = offset;
+            m_start = start;
+        }
+
+        @Override
+        public double eval(double[] slots) throws UnsupportedExpressionException {
+            throw new UnsupportedExpressionException("fn: functions are only evaluated over columns");
+        }
+
+        @Override
+        public double[] eval(double[][] columns, int numRows) throws UnsupportedExpressionException {
+            final double[] start = m_start != null ? m_start.eval(columns, numRows) : null;
+            final double[] v = new double[numRows];
+            if (m_samples == null) {
+                // Unknown samples yield NaN
+                Arrays.fill(v, Double.NaN);
+                return v;
+            }
+            for (int i = 0; i < numRows; i++) {
+                final int j = i - m_offset;
+                if (j < 0) {
+                    switch (m_mode) {
+                        case ZERO: v[i] = 0; break;
+                        case FIRST: v[i] = m_samples[0]; break;
+                        case NAN: v[i] = Double.NaN; break;
+                        case START: v[i] = start[i]; break;
+                        default: throw new IllegalStateException("Unknown mode " + m_mode);
+                    }
+                } else if (j < m_samples.length) {
+                    v[i] = m_samples[j];
+                } else {
+                    v[i] = Double.NaN;
+                }
+            }
+            return v;
+        }
+    }
+}
@@ -29,8 +29,11 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 
+import org.jrobin.core.Archive;
+import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
 import org.opennms.netmgt.measurements.api.FetchResults;
@@ -46,6 +49,49 @@ import com.google.common.collect.Maps;
  */
 public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
+    /**
+     * The {@link DataProcessor} picks the archive of each file by the range it
+     * covers, and consolidates the values to the step of the finest archive
+     * picked. Files whose archives are defined alike, and cover the same range,
+     * are therefore consolidated to the same step and timestamps.
+     */
+    @Override
+    protected boolean isAligned(Collection<String> rrdFiles) throws RrdException {
+        String layout = null;
+        for (final String rrdFile : rrdFiles) {
+            final String fileLayout;
+            try {
+                fileLayout = getArchiveLayout(rrdFile);
+            } catch (IOException e) {
+                // Let the single call report the failure
+                return false;
+            }
+            if (layout == null) {
+                layout = fileLayout;
+            } else if (!layout.equals(fileLayout)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getArchiveLayout(String rrdFile) throws IOException, RrdException {
+        final RrdDb rrdDb = new RrdDb(rrdFile, true);
+        try {
+            final StringBuilder layout = new StringBuilder();
+            for (int i = 0; i < rrdDb.getArcCount(); i++) {
+                final Archive archive = rrdDb.getArchive(i);
+                layout.append(archive.getConsolFun()).append(':')
+                    .append(archive.getArcStep()).append(':')
+                    .append(archive.getStartTime()).append(':')
+                    .append(archive.getEndTime()).append(';');
+            }
+            return layout.toString();
+        } finally {
+            rrdDb.close();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.jexl.ExpressionCompiler.CompiledExpression;
+import org.opennms.core.jexl.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * An expression engine that evaluates the expressions over whole columns
+ * at a time, instead of evaluating them row by row like the {@link JEXLExpressionEngine}.
+ *
+ * The expressions are compiled once per request using the {@link ColumnExpressionCompiler}
+ * and yield the same results as JEXL would. Requests containing any expression that uses
+ * constructs which are not supported by the compiler are delegated to the fallback engine.
+ */
+public class VectorizedExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorizedExpressionEngine.class);
+
+    public static final String ENABLED_SYS_PROP = "org.opennms.netmgt.measurements.vectorizedExpressions";
+
+    private boolean m_enabled = Boolean.parseBoolean(System.getProperty(ENABLED_SYS_PROP, "true"));
+
+    private final ExpressionEngine m_fallback;
+
+    private final AtomicLong m_vectorizedRequests = new AtomicLong(0);
+
+    private final AtomicLong m_fallbackRequests = new AtomicLong(0);
+
+    public VectorizedExpressionEngine() {
+        this(new JEXLExpressionEngine());
+    }
+
+    public VectorizedExpressionEngine(ExpressionEngine fallback) {
+        m_fallback = Preconditions.checkNotNull(fallback, "fallback argument");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        // Don't do anything if there are no expressions
+        if (request.getExpressions().isEmpty()) {
+            return;
+        }
+
+        if (m_enabled) {
+            try {
+                final Map<String, double[]> derived = evaluate(request.getExpressions(), results);
+                results.getColumns().putAll(derived);
+                m_vectorizedRequests.incrementAndGet();
+                return;
+            } catch (UnsupportedExpressionException e) {
+                LOG.debug("Evaluating the expressions with JEXL: {}", e.getMessage());
+            }
+        }
+
+        m_fallbackRequests.incrementAndGet();
+        m_fallback.applyExpressions(request, results);
+    }
+
+    /**
+     * Evaluates all of the expressions, in the order in which they appear in the query.
+     *
+     * @return the values of the non-transient expressions, by label
+     */
+    private static Map<String, double[]> evaluate(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        final long timestamps[] = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+            if (column.getValue() == null || column.getValue().length != numRows) {
+                throw new UnsupportedExpressionException("column '" + column.getKey() + "' does not match the timestamps");
+            }
+        }
+
+        // Later expressions may reference the results of the earlier ones by label
+        final Map<String, Integer> indexByLabel = Maps.newHashMap();
+        for (final Expression e : expressions) {
+            if (e.getLabel() == null || e.getExpression() == null) {
+                throw new UnsupportedExpressionException("missing label or expression");
+            }
+            if (indexByLabel.put(e.getLabel(), indexByLabel.size()) != null) {
+                throw new UnsupportedExpressionException("duplicate label '" + e.getLabel() + "'");
+            }
+        }
+
+        final double[][] values = new double[expressions.size()][];
+        final ColumnExpressionCompiler compiler = new ColumnExpressionCompiler(results, indexByLabel, values);
+        for (int k = 0; k < expressions.size(); k++) {
+            final CompiledExpression compiled = compiler.compile(expressions.get(k).getExpression(), k);
+            values[k] = compiled.evaluate(compiler.getColumns(), numRows);
+        }
+
+        final Map<String, double[]> derivedByLabel = Maps.newLinkedHashMap();
+        for (int k = 0; k < expressions.size(); k++) {
+            final Expression e = expressions.get(k);
+            if (!e.getTransient()) {
+                derivedByLabel.put(e.getLabel(), values[k]);
+            }
+        }
+        return derivedByLabel;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        m_enabled = enabled;
+    }
+
+    /**
+     * @return the number of requests that were evaluated over whole columns
+     */
+    public long getVectorizedRequests() {
+        return m_vectorizedRequests.get();
+    }
+
+    /**
+     * @return the number of requests that were delegated to the fallback engine
+     */
+    public long getFallbackRequests() {
+        return m_fallbackRequests.get();
+    }
+}
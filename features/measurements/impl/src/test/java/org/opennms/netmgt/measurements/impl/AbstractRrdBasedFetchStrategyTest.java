@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class AbstractRrdBasedFetchStrategyTest {
+
+    @Test
+    public void canGroupSourcesByFile() {
+        final Source in = new Source("in", "node[1].interfaceSnmp[eth0]", "ifHCInOctets", null, false);
+        final Source out = new Source("out", "node[1].interfaceSnmp[eth0]", "ifHCOutOctets", null, false);
+        final Source cpu = new Source("cpu", "node[1].nodeSnmp[]", "cpuPercentBusy", null, false);
+
+        final Map<Source, String> rrdsBySource = Maps.newLinkedHashMap();
+        rrdsBySource.put(in, "/rrd/1/eth0/mib2-X-interfaces.jrb");
+        rrdsBySource.put(cpu, "/rrd/1/cpu.jrb");
+        rrdsBySource.put(out, "/rrd/1/eth0/mib2-X-interfaces.jrb");
+
+        final Map<String, Map<Source, String>> rrdsBySourceByFile = AbstractRrdBasedFetchStrategy.groupByFile(rrdsBySource);
+
+        assertEquals(Arrays.asList("/rrd/1/eth0/mib2-X-interfaces.jrb", "/rrd/1/cpu.jrb"),
+                Arrays.asList(rrdsBySourceByFile.keySet().toArray()));
+        assertEquals(2, rrdsBySourceByFile.get("/rrd/1/eth0/mib2-X-interfaces.jrb").size());
+        assertEquals(Collections.singleton(cpu), rrdsBySourceByFile.get("/rrd/1/cpu.jrb").keySet());
+    }
+
+    @Test
+    public void canMergeAlignedResults() {
+        final Map<String, Object> constants = Collections.emptyMap();
+        final FetchResults a = new FetchResults(new long[] { 300000, 600000 }, ImmutableMap.of("a", new double[] { 1, 2 }), 300000, constants);
+        final FetchResults b = new FetchResults(new long[] { 300000, 600000 }, ImmutableMap.of("b", new double[] { 3, 4 }), 300000, constants);
+
+        final FetchResults merged = AbstractRrdBasedFetchStrategy.merge(Arrays.asList(a, b), constants);
+
+        assertEquals(300000, merged.getStep());
+        assertArrayEquals(new long[] { 300000, 600000 }, merged.getTimestamps());
+        assertArrayEquals(new double[] { 1, 2 }, merged.getColumns().get("a"), 0.0d);
+        assertArrayEquals(new double[] { 3, 4 }, merged.getColumns().get("b"), 0.0d);
+    }
+
+    @Test
+    public void doesNotMergeMisalignedResults() {
+        final Map<String, Object> constants = Collections.emptyMap();
+        final FetchResults a = new FetchResults(new long[] { 300000, 600000 }, ImmutableMap.of("a", new double[] { 1, 2 }), 300000, constants);
+        final FetchResults b = new FetchResults(new long[] { 600000 }, ImmutableMap.of("b", new double[] { 3 }), 600000, constants);
+        final FetchResults c = new FetchResults(new long[] { 0, 300000 }, ImmutableMap.of("c", new double[] { 3, 4 }), 300000, constants);
+
+        assertNull(AbstractRrdBasedFetchStrategy.merge(Arrays.asList(a, b), constants));
+        assertNull(AbstractRrdBasedFetchStrategy.merge(Arrays.asList(a, c), constants));
+    }
+}
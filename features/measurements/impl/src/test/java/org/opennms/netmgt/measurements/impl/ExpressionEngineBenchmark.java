@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the {@link JEXLExpressionEngine} and the {@link VectorizedExpressionEngine}
+ * using expressions typical of the graphs shown on dashboards, over 10 series.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.measurements.impl.ExpressionEngineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpressionEngineBenchmark {
+
+    private static final int NUM_SERIES = 10;
+
+    @Param({"1000", "50000"})
+    public int numRows;
+
+    @Param({"traffic", "limits", "deltas"})
+    public String query;
+
+    private final ExpressionEngine jexlEngine = new JEXLExpressionEngine();
+
+    private final ExpressionEngine vectorizedEngine = new VectorizedExpressionEngine(new JEXLExpressionEngine());
+
+    private long[] timestamps;
+
+    private Map<String, double[]> columns;
+
+    private QueryRequest request;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        timestamps = new long[numRows];
+        columns = Maps.newHashMap();
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = 1500000000000L + i * 300000L;
+        }
+        for (int s = 0; s < NUM_SERIES; s++) {
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                // Include some unknown values, like in real data
+                values[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 1e6;
+            }
+            columns.put("s" + s, values);
+        }
+
+        final List<Expression> expressions = Lists.newArrayList();
+        for (int s = 0; s < NUM_SERIES; s += 2) {
+            final String in = "s" + s;
+            final String out = "s" + (s + 1);
+            switch (query) {
+                case "traffic":
+                    // Bits in and out, as in the mib2.HCbits graph
+                    expressions.add(expression(in + "Bits", in + " * 8"));
+                    expressions.add(expression(out + "Bits", "-1.0d * " + out + " * 8"));
+                    expressions.add(expression(in + "Total", "(" + in + " + " + out + ") * 8"));
+                    break;
+                case "limits":
+                    // LIMIT and ADDNAN, as converted from rrdtool RPN expressions
+                    expressions.add(expression(in + "Limit", "( ( (" + in + " == __inf) || (" + in + " == __neg_inf) || ("
+                            + in + " < 0) || (" + in + " > 500000) ) ? NaN : " + in + " )"));
+                    expressions.add(expression(in + "Sum", "( ( ( " + in + " == NaN ) && ( " + out + " == NaN ) ) ? NaN : ( ( "
+                            + in + " == NaN ) ? " + out + " : ( ( " + out + " == NaN ) ? " + in + " : ( " + in + " + " + out + " ) ) ) )"));
+                    break;
+                case "deltas":
+                    // Differences between consecutive samples
+                    expressions.add(expression(in + "Delta", in + " - fn:arrayNaN(\"" + in + "\", 1)"));
+                    expressions.add(expression(out + "Max", "math:max(" + in + ", " + out + ")"));
+                    break;
+                default:
+                    throw new IllegalArgumentException(query);
+            }
+        }
+        request = new QueryRequest();
+        request.setExpressions(expressions);
+    }
+
+    private static Expression expression(String label, String expression) {
+        final Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        return exp;
+    }
+
+    private FetchResults fetchResults() {
+        // The engines add their results to the columns
+        return new FetchResults(timestamps, Maps.newHashMap(columns), 300, Maps.newHashMap());
+    }
+
+    @Benchmark
+    public FetchResults jexl() throws ExpressionException {
+        final FetchResults results = fetchResults();
+        jexlEngine.applyExpressions(request, results);
+        return results;
+    }
+
+    @Benchmark
+    public FetchResults vectorized() throws ExpressionException {
+        final FetchResults results = fetchResults();
+        vectorizedEngine.applyExpressions(request, results);
+        return results;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ExpressionEngineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
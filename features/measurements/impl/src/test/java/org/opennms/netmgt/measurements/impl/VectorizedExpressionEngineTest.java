@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the {@link VectorizedExpressionEngine} yields the same
+ * results as the {@link JEXLExpressionEngine}.
+ */
+public class VectorizedExpressionEngineTest {
+
+    private static final double[] A = new double[] { 1, -2.5, 0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 7, 100, 0.1 };
+    private static final double[] B = new double[] { 3, 0, Double.NaN, 0, Double.NaN, 2, Double.POSITIVE_INFINITY, 7, -100, 0.2 };
+
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    @Test
+    public void canEvaluateArithmetic() throws ExpressionException {
+        assertSameResults("a * 8");
+        assertSameResults("a + b * 2 - 1");
+        assertSameResults("(a + b) / 2");
+        assertSameResults("a / b");
+        assertSameResults("a % b");
+        assertSameResults("a div 3 + b mod 2");
+        assertSameResults("-a");
+        assertSameResults("a * 0.1");
+        assertSameResults("a * 0.1d");
+        assertSameResults("0.1");
+        assertSameResults("timestamp / 125");
+        assertSameResults("timestamp * 1000 + 1");
+        assertSameResults("__i * 2");
+        assertSameResults("1 * __diff_time");
+        assertSameResults("speed / 0.62137");
+        assertSameResults("eth0.ifSpeed * 1000000");
+    }
+
+    @Test
+    public void canEvaluateComparisons() throws ExpressionException {
+        assertSameResults("a == b ? 1 : 0");
+        assertSameResults("a != b ? 1 : 0");
+        assertSameResults("a < b ? 1 : 0");
+        assertSameResults("a > b ? 1 : 0");
+        assertSameResults("a <= b ? 1 : 0");
+        assertSameResults("a >= b ? 1 : 0");
+        assertSameResults("a == NaN ? b : a");
+        assertSameResults("a == 0 ? 1 : 0");
+        assertSameResults("a > 0 ? a : 0");
+        assertSameResults("(a == __inf || a == __neg_inf) ? NaN : a");
+        assertSameResults("!(a lt b) && not (b eq 0) ? 1.5d : 2.5d");
+        assertSameResults("( ( ( a == NaN ) && ( b == NaN ) ) ? NaN : ( ( a == NaN ) ? b : ( ( b == NaN ) ? a : ( a + b ) ) ) )");
+    }
+
+    @Test
+    public void canEvaluateFunctions() throws ExpressionException {
+        assertSameResults("math:sin(a)");
+        assertSameResults("strictmath:log(a) + math:sqrt(b)");
+        assertSameResults("math:min(a, b)");
+        assertSameResults("math:max(a, b)");
+        assertSameResults("math:abs(a)");
+        assertSameResults("math:round(a)");
+        assertSameResults("math:pow(a, 2)");
+        assertSameResults("math:atan2(a, b)");
+        assertSameResults("fn:arrayNaN(\"a\", 2)");
+        assertSameResults("fn:arrayZero(\"a\", 3)");
+        assertSameResults("fn:arrayFirst(\"b\", 1)");
+        assertSameResults("fn:arrayStart(\"b\", 4, 10)");
+        assertSameResults("fn:arrayNaN(\"a\", -2)");
+        assertSameResults("a - fn:arrayNaN(\"a\", 1)");
+        assertSameResults("fn:arrayNaN(\"unknown\", 1)");
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                expression("sum", "a + b", true),
+                expression("avg", "sum / 2", false),
+                expression("b", "a * 2", false),
+                expression("c", "b + avg", false));
+
+        final VectorizedExpressionEngine engine = new VectorizedExpressionEngine();
+        final FetchResults expected = fetchResults();
+        final FetchResults actual = fetchResults();
+        jexlExpressionEngine.applyExpressions(request(expressions), expected);
+        engine.applyExpressions(request(expressions), actual);
+
+        assertEquals(1, engine.getVectorizedRequests());
+        assertEquals(expected.getColumns().keySet(), actual.getColumns().keySet());
+        assertFalse(actual.getColumns().containsKey("sum"));
+        for (String label : expected.getColumns().keySet()) {
+            assertArrayEquals(label, expected.getColumns().get(label), actual.getColumns().get(label), 0.0d);
+        }
+    }
+
+    @Test
+    public void fallsBackOnUnsupportedExpressions() throws ExpressionException {
+        assertFallsBack("jexl:evaluate(__formula)");
+        assertFallsBack("__a[1]");
+        assertFallsBack("a > 0 ? a : 0.5");
+        assertFallsBack("timestamp % 7");
+        assertFallsBack("math:abs(speed)");
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        new VectorizedExpressionEngine().applyExpressions(request(Lists.newArrayList(expression("y", "/", false))), fetchResults());
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        new VectorizedExpressionEngine().applyExpressions(request(Lists.newArrayList(expression("y", "a < b", false))), fetchResults());
+    }
+
+    private void assertSameResults(String expression) throws ExpressionException {
+        final VectorizedExpressionEngine engine = new VectorizedExpressionEngine();
+        final List<Expression> expressions = Lists.newArrayList(expression("y", expression, false));
+
+        final FetchResults expected = fetchResults();
+        jexlExpressionEngine.applyExpressions(request(expressions), expected);
+        final FetchResults actual = fetchResults();
+        engine.applyExpressions(request(expressions), actual);
+
+        assertEquals(expression, 1, engine.getVectorizedRequests());
+        assertArrayEquals(expression, expected.getColumns().get("y"), actual.getColumns().get("y"), 0.0d);
+    }
+
+    private void assertFallsBack(String expression) throws ExpressionException {
+        final VectorizedExpressionEngine engine = new VectorizedExpressionEngine();
+        final FetchResults results = fetchResults();
+        engine.applyExpressions(request(Lists.newArrayList(expression("y", expression, false))), results);
+        assertEquals(expression, 1, engine.getFallbackRequests());
+        assertTrue(results.getColumns().containsKey("y"));
+    }
+
+    private static Expression expression(String label, String expression, boolean isTransient) {
+        final Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        exp.setTransient(isTransient);
+        return exp;
+    }
+
+    private static QueryRequest request(List<Expression> expressions) {
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+        return request;
+    }
+
+    private static FetchResults fetchResults() {
+        final long[] timestamps = new long[A.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1500000000000L + i * 300000L;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("a", A.clone());
+        columns.put("b", B.clone());
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("eth0.ifSpeed", 1000.0d);
+        constants.put("__formula", "a + 1");
+        return new FetchResults(timestamps, columns, 300, constants);
+    }
+}
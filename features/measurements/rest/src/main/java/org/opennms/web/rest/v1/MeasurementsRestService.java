@@ -129,6 +129,8 @@ public class MeasurementsRestService {
             @DefaultValue("0") @QueryParam("end") final long end,
             @DefaultValue("300000") @QueryParam("step") final long step,
             @DefaultValue("0") @QueryParam("maxrows") final int maxrows,
+            @DefaultValue("0") @QueryParam("maxDataPoints") final int maxDataPoints,
+            @QueryParam("downsampling") final String downsampling,
             @DefaultValue("") @QueryParam("fallback-attribute") final String fallbackAttribute,
             @DefaultValue("AVERAGE") @QueryParam("aggregation") final String aggregation,
             @DefaultValue("false") @QueryParam("relaxed") final boolean relaxed) {
@@ -145,6 +147,10 @@ public class MeasurementsRestService {
 
         request.setStep(step);
         request.setMaxRows(maxrows);
+        if (maxDataPoints > 0) {
+            request.setMaxDataPoints(maxDataPoints);
+            request.setDownsampling(downsampling);
+        }
         request.setRelaxed(relaxed);
 
         // Use the attribute name as the datasource and label
@@ -28,7 +28,10 @@
 
 package org.opennms.netmgt.newts;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -55,6 +58,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventTranslatorOneArg;
@@ -70,6 +74,10 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The number of samples waiting to be persisted can optionally be bounded,
+ * in addition to the number of batches held by the ring buffer, since the
+ * batches vary in size.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -97,6 +105,8 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final int m_numWriterThreads;
 
+    private final int m_maxSamplesInFlight;
+
     private final Meter m_droppedSamples;
 
     /**
@@ -105,18 +115,30 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
      */
     private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
 
+    /**
+     * Number of samples that were published and are not yet persisted.
+     */
+    private final AtomicLong m_numSamplesInFlight = new AtomicLong();
+
+    public NewtsWriter(Integer maxBatchSize, Integer ringBufferSize, Integer numWriterThreads, MetricRegistry registry) {
+        this(maxBatchSize, ringBufferSize, numWriterThreads, 0, registry);
+    }
+
     @Inject
     public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
-            @Named("newts.writer_threads") Integer numWriterThreads, MetricRegistry registry) {
+            @Named("newts.writer_threads") Integer numWriterThreads, @Named("newts.max_samples_in_flight") Integer maxSamplesInFlight,
+            MetricRegistry registry) {
         Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be strictly positive");
         Preconditions.checkArgument(ringBufferSize > 0, "ringBufferSize must be positive");
         Preconditions.checkArgument(DoubleMath.isMathematicalInteger(Math.log(ringBufferSize) / Math.log(2)), "ringBufferSize must be a power of two");
         Preconditions.checkArgument(numWriterThreads > 0, "numWriterThreads must be positive");
+        Preconditions.checkArgument(maxSamplesInFlight >= 0, "maxSamplesInFlight must be positive, or 0 to disable the limit");
         Preconditions.checkNotNull(registry, "metric registry");
 
         m_maxBatchSize = maxBatchSize;
         m_ringBufferSize = ringBufferSize;
         m_numWriterThreads = numWriterThreads;
+        m_maxSamplesInFlight = maxSamplesInFlight;
         m_numEntriesOnRingBuffer.set(0L);
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
@@ -134,9 +156,25 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                     }
                 });
 
+        registry.register(MetricRegistry.name("ring-buffer", "samples-in-flight"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_numSamplesInFlight.get();
+                    }
+                });
+        registry.register(MetricRegistry.name("ring-buffer", "max-samples-in-flight"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return Long.valueOf(m_maxSamplesInFlight);
+                    }
+                });
+
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
 
-        LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
+        LOG.debug("Using max_batch_size: {}, ring_buffer_size: {} and max_samples_in_flight: {}",
+                maxBatchSize, m_ringBufferSize, m_maxSamplesInFlight);
         setUpWorkerPool();
     }
 
@@ -179,8 +217,24 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     }
 
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+        if (samples.isEmpty()) {
+            // Don't waste a slot on the ring buffer
+            return;
+        }
+
+        // Reserve room for the samples
+        final long numSamplesInFlight = m_numSamplesInFlight.addAndGet(samples.size());
+        if (m_maxSamplesInFlight > 0 && numSamplesInFlight > m_maxSamplesInFlight) {
+            m_numSamplesInFlight.addAndGet(-samples.size());
+            RATE_LIMITED_LOGGER.error("There are already {} samples waiting to be persisted. {} samples will be dropped.",
+                    numSamplesInFlight - samples.size(), samples.size());
+            m_droppedSamples.mark(samples.size());
+            return;
+        }
+
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
+            m_numSamplesInFlight.addAndGet(-samples.size());
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
                     samples.size(), new Object() {
                         @Override
@@ -209,10 +263,27 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
+        try {
+            if (event.isIndexOnly()) {
+                write(samples, true);
+            } else {
+                // Keep the samples of a batch within a single partition
+                for (List<Sample> samplesForResource : groupByResource(samples)) {
+                    write(samplesForResource, false);
+                }
+            }
+        } finally {
+            m_numSamplesInFlight.addAndGet(-samples.size());
+            // Don't hold on to the samples until the slot is reused
+            event.setSamples(null);
+        }
+    }
+
+    private void write(List<Sample> samples, boolean indexOnly) {
         // Partition the samples into collections smaller then max_batch_size
         for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
             try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
+                if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
                     LOG.debug("Indexing {} samples", batch.size());
                     m_indexer.update(batch);
                 } else {
@@ -233,6 +304,36 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         }
     }
 
+    /**
+     * Groups the samples by context and resource, which along with the time, form the partition key.
+     */
+    @VisibleForTesting
+    static Collection<List<Sample>> groupByResource(List<Sample> samples) {
+        if (samples.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Sample first = samples.get(0);
+        boolean singleResource = true;
+        for (Sample sample : samples) {
+            if (!sample.getResource().getId().equals(first.getResource().getId())
+                    || !sample.getContext().equals(first.getContext())) {
+                singleResource = false;
+                break;
+            }
+        }
+        if (singleResource) {
+            // This is typically the case, since the persister publishes the samples one resource at a time
+            return Collections.singletonList(samples);
+        }
+
+        final Map<String, List<Sample>> samplesByResource = Maps.newLinkedHashMap();
+        for (Sample sample : samples) {
+            final String key = sample.getContext().getId() + ":" + sample.getResource().getId();
+            samplesByResource.computeIfAbsent(key, k -> Lists.newArrayList()).add(sample);
+        }
+        return samplesByResource.values();
+    }
+
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
             new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
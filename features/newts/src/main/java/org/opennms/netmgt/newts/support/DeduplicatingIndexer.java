@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts.support;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.search.Indexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Skips the samples that were already indexed before handing them to the {@link Indexer}.
+ *
+ * The {@link org.opennms.newts.cassandra.search.CassandraIndexer} already avoids re-indexing
+ * the resources found in its meta-data cache, but once the number of resources outgrows the
+ * cache, evicted resources are re-indexed on every collection cycle.
+ *
+ * The samples are tracked by a fingerprint of their context, resource, attributes and metric
+ * name in a bloom filter, which is replaced by an empty one at the start of every generation.
+ * A sample is skipped if it was already indexed in the current generation, so every index
+ * entry is written once per generation. A false positive can delay the indexing of a new
+ * sample by up to one generation.
+ *
+ * Entries can't be removed from the filter, so the resources deleted during the current
+ * generation are tracked apart, along with the fingerprints indexed since their deletion.
+ *
+ * Each generation is sized for the expected number of series, 3M by default, which takes
+ * about 11MB with the false positive probability used here.
+ *
+ * The filters are not persisted, after a restart the samples are indexed once more and
+ * deduplicated by the meta-data cache primed by the {@link CachePrimer}.
+ */
+public class DeduplicatingIndexer implements Indexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeduplicatingIndexer.class);
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.000001;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Indexer m_delegate;
+    private final boolean m_disabled;
+    private final long m_expectedEntries;
+    private final long m_generationMs;
+
+    private BloomFilter<Long> m_generation;
+    private final Map<String, Set<Long>> m_indexedSinceDelete = new HashMap<>();
+    private long m_generationStartedAt;
+    private long m_numEntriesInGeneration;
+
+    private final Meter m_indexedSamples;
+    private final Meter m_skippedSamples;
+    private final Counter m_generations;
+
+    @Inject
+    public DeduplicatingIndexer(@Named("cassandraIndexer") Indexer delegate,
+            @Named("index_dedup.disable") Boolean disabled,
+            @Named("index_dedup.expected_entries") Long expectedEntries,
+            @Named("index_dedup.generation_ms") Long generationMs,
+            MetricRegistry registry) {
+        Preconditions.checkArgument(expectedEntries > 0, "expectedEntries must be strictly positive");
+        Preconditions.checkArgument(generationMs > 0, "generationMs must be strictly positive");
+        m_delegate = Preconditions.checkNotNull(delegate, "delegate");
+        m_disabled = disabled;
+        m_expectedEntries = expectedEntries;
+        m_generationMs = generationMs;
+
+        m_indexedSamples = registry.meter(name("index-dedup", "indexed-samples"));
+        m_skippedSamples = registry.meter(name("index-dedup", "skipped-samples"));
+        m_generations = registry.counter(name("index-dedup", "generations"));
+
+        if (!m_disabled) {
+            LOG.info("Deduplicating index updates ({} entries per generation of {}ms)", expectedEntries, generationMs);
+            newGeneration(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void update(Collection<Sample> samples) {
+        if (m_disabled) {
+            m_delegate.update(samples);
+            return;
+        }
+
+        final List<Sample> samplesToIndex = Lists.newArrayListWithCapacity(samples.size());
+        final long[] fingerprints = new long[samples.size()];
+        synchronized (this) {
+            maybeRotate();
+            for (final Sample sample : samples) {
+                final long fingerprint = fingerprint(sample);
+                final Set<Long> indexedSinceDelete = getIndexedSinceDelete(sample);
+                if (indexedSinceDelete != null ? indexedSinceDelete.contains(fingerprint) : m_generation.mightContain(fingerprint)) {
+                    continue;
+                }
+                fingerprints[samplesToIndex.size()] = fingerprint;
+                samplesToIndex.add(sample);
+            }
+        }
+
+        m_skippedSamples.mark(samples.size() - samplesToIndex.size());
+        if (samplesToIndex.isEmpty()) {
+            return;
+        }
+
+        m_delegate.update(samplesToIndex);
+        m_indexedSamples.mark(samplesToIndex.size());
+
+        // Only remember the samples once they were successfully indexed
+        synchronized (this) {
+            for (int i = 0; i < samplesToIndex.size(); i++) {
+                put(fingerprints[i]);
+                final Set<Long> indexedSinceDelete = getIndexedSinceDelete(samplesToIndex.get(i));
+                if (indexedSinceDelete != null) {
+                    indexedSinceDelete.add(fingerprints[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_delegate.delete(context, resource);
+        if (!m_disabled) {
+            // Ignore the entries of the resource until the next generation, so that it is indexed again
+            synchronized (this) {
+                m_indexedSinceDelete.put(key(context, resource), new HashSet<>());
+            }
+        }
+    }
+
+    private Set<Long> getIndexedSinceDelete(Sample sample) {
+        if (m_indexedSinceDelete.isEmpty()) {
+            return null;
+        }
+        return m_indexedSinceDelete.get(key(sample.getContext(), sample.getResource()));
+    }
+
+    private void put(long fingerprint) {
+        if (m_generation.put(fingerprint)) {
+            m_numEntriesInGeneration++;
+        }
+    }
+
+    /**
+     * Starts a new generation when the current one is too old, or when it holds
+     * more entries than it was sized for.
+     */
+    private void maybeRotate() {
+        final long now = System.currentTimeMillis();
+        if (now - m_generationStartedAt < m_generationMs && m_numEntriesInGeneration < m_expectedEntries) {
+            return;
+        }
+        LOG.debug("Starting a new index generation after {} entries.", m_numEntriesInGeneration);
+        newGeneration(now);
+        m_generations.inc();
+    }
+
+    private void newGeneration(long now) {
+        m_generation = BloomFilter.create(Funnels.longFunnel(), m_expectedEntries, FALSE_POSITIVE_PROBABILITY);
+        m_indexedSinceDelete.clear();
+        m_generationStartedAt = now;
+        m_numEntriesInGeneration = 0;
+    }
+
+    private static String key(Context context, Resource resource) {
+        return context.getId() + ":" + resource.getId();
+    }
+
+    private static long fingerprint(Sample sample) {
+        final Hasher hasher = HASH_FUNCTION.newHasher()
+                .putString(sample.getContext().getId(), StandardCharsets.UTF_8)
+                .putChar(':')
+                .putString(sample.getResource().getId(), StandardCharsets.UTF_8)
+                .putChar(':')
+                .putString(sample.getName(), StandardCharsets.UTF_8);
+        if (sample.getResource().getAttributes().isPresent()) {
+            // Sort the attributes so that the fingerprint doesn't depend on the iteration order
+            for (final Map.Entry<String, String> attribute : new TreeMap<>(sample.getResource().getAttributes().get()).entrySet()) {
+                hasher.putChar(':')
+                    .putString(attribute.getKey(), StandardCharsets.UTF_8)
+                    .putChar('=')
+                    .putString(String.valueOf(attribute.getValue()), StandardCharsets.UTF_8);
+            }
+        }
+        return hasher.hash().asLong();
+    }
+}
@@ -31,6 +31,8 @@ package org.opennms.netmgt.newts;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -119,6 +121,62 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Locks all of the writer threads to verify that samples are dropped
+     * once the limit on the number of samples in flight is reached.
+     */
+    @Test
+    public void samplesAreDroppedWhenTooManyAreInFlight() throws Exception {
+        Resource x = new Resource("x");
+        int ringBufferSize = 1024;
+        int numWriterThreads = 8;
+        int maxSamplesInFlight = 10;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(4, ringBufferSize, numWriterThreads, maxSamplesInFlight, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        lock.lock();
+        for (int i = 0; i < 3; i++) {
+            List<Sample> samples = Lists.newArrayList();
+            for (int j = 0; j < 4; j++) {
+                samples.add(new Sample(Timestamp.now(), x, "y" + j, MetricType.COUNTER, new Counter(i)));
+            }
+            writer.insert(samples);
+        }
+
+        // Empty lists aren't published
+        writer.insert(Lists.newArrayList());
+        writer.index(Lists.newArrayList());
+
+        lock.unlock();
+        writer.destroy();
+
+        assertEquals(8, sampleRepo.getNumSamplesInserted());
+        assertEquals(4, registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples")).getCount());
+    }
+
+    @Test
+    public void canGroupSamplesByResource() {
+        Resource x = new Resource("x");
+        Resource y = new Resource("y");
+        List<Sample> samples = Lists.newArrayList(
+                new Sample(Timestamp.now(), x, "a", MetricType.COUNTER, new Counter(1)),
+                new Sample(Timestamp.now(), y, "a", MetricType.COUNTER, new Counter(2)),
+                new Sample(Timestamp.now(), x, "b", MetricType.COUNTER, new Counter(3)));
+
+        List<List<Sample>> groups = Lists.newArrayList(NewtsWriter.groupByResource(samples));
+        assertEquals(2, groups.size());
+        assertEquals(Lists.newArrayList(samples.get(0), samples.get(2)), groups.get(0));
+        assertEquals(Lists.newArrayList(samples.get(1)), groups.get(1));
+
+        // Samples from a single resource are kept as-is
+        List<Sample> samplesForX = Lists.newArrayList(samples.get(0), samples.get(2));
+        assertEquals(Collections.singletonList(samplesForX), Lists.newArrayList(NewtsWriter.groupByResource(samplesForX)));
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.search.Indexer;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class DeduplicatingIndexerTest {
+
+    private final List<Sample> m_indexed = Lists.newArrayList();
+
+    private boolean m_failing = false;
+
+    private final Indexer m_delegate = new Indexer() {
+        @Override
+        public void update(Collection<Sample> samples) {
+            if (m_failing) {
+                throw new IllegalStateException("Indexing failed.");
+            }
+            m_indexed.addAll(samples);
+        }
+
+        @Override
+        public void delete(Context context, Resource resource) {
+            // pass
+        }
+    };
+
+    @Test
+    public void canSkipSamplesThatWereAlreadyIndexed() {
+        final DeduplicatingIndexer indexer = new DeduplicatingIndexer(m_delegate, false, 1000L, 60000L, new MetricRegistry());
+
+        indexer.update(Lists.newArrayList(sample("a", "x", 1), sample("a", "y", 1), sample("b", "x", 1)));
+        assertEquals(3, m_indexed.size());
+
+        // Same resources and metrics, with different values
+        indexer.update(Lists.newArrayList(sample("a", "x", 2), sample("a", "y", 2), sample("b", "x", 2)));
+        assertEquals(3, m_indexed.size());
+
+        // New metric
+        indexer.update(Lists.newArrayList(sample("a", "x", 3), sample("a", "z", 3)));
+        assertEquals(4, m_indexed.size());
+
+        // Changed attributes
+        final Resource resource = new Resource("a", Optional.<Map<String, String>>of(ImmutableMap.of("ifName", "eth0")));
+        indexer.update(Lists.newArrayList(new Sample(Timestamp.now(), resource, "x", MetricType.COUNTER, new Counter(4))));
+        assertEquals(5, m_indexed.size());
+        indexer.update(Lists.newArrayList(new Sample(Timestamp.now(), resource, "x", MetricType.COUNTER, new Counter(5))));
+        assertEquals(5, m_indexed.size());
+    }
+
+    @Test
+    public void canIndexAgainAfterDelete() {
+        final DeduplicatingIndexer indexer = new DeduplicatingIndexer(m_delegate, false, 1000L, 60000L, new MetricRegistry());
+
+        indexer.update(Lists.newArrayList(sample("a", "x", 1), sample("a", "y", 1), sample("b", "x", 1)));
+        indexer.delete(Context.DEFAULT_CONTEXT, new Resource("a"));
+
+        // Only the deleted resource is indexed again, once
+        indexer.update(Lists.newArrayList(sample("a", "x", 2), sample("b", "x", 2)));
+        assertEquals(4, m_indexed.size());
+        indexer.update(Lists.newArrayList(sample("a", "x", 3), sample("a", "y", 3), sample("b", "x", 3)));
+        assertEquals(5, m_indexed.size());
+        indexer.update(Lists.newArrayList(sample("a", "x", 4), sample("a", "y", 4), sample("b", "x", 4)));
+        assertEquals(5, m_indexed.size());
+    }
+
+    @Test
+    public void canIndexAgainAfterFailure() {
+        final DeduplicatingIndexer indexer = new DeduplicatingIndexer(m_delegate, false, 1000L, 60000L, new MetricRegistry());
+
+        m_failing = true;
+        try {
+            indexer.update(Lists.newArrayList(sample("a", "x", 1)));
+            fail("Expected the update to fail.");
+        } catch (IllegalStateException e) {
+            // pass
+        }
+        assertEquals(0, m_indexed.size());
+
+        m_failing = false;
+        indexer.update(Lists.newArrayList(sample("a", "x", 2)));
+        assertEquals(1, m_indexed.size());
+    }
+
+    @Test
+    public void canIndexAgainInTheNextGeneration() throws InterruptedException {
+        // Start a new generation after every 3 entries
+        final DeduplicatingIndexer indexer = new DeduplicatingIndexer(m_delegate, false, 3L, 60000L, new MetricRegistry());
+
+        indexer.update(Lists.newArrayList(sample("a", "x", 1), sample("b", "x", 1)));
+        indexer.update(Lists.newArrayList(sample("c", "x", 1)));
+        assertEquals(3, m_indexed.size());
+
+        // a and b are indexed once more in the new generation
+        indexer.update(Lists.newArrayList(sample("a", "x", 2), sample("b", "x", 2)));
+        assertEquals(5, m_indexed.size());
+        indexer.update(Lists.newArrayList(sample("a", "x", 3), sample("b", "x", 3)));
+        assertEquals(5, m_indexed.size());
+
+        // As is c
+        indexer.update(Lists.newArrayList(sample("c", "x", 2)));
+        assertEquals(6, m_indexed.size());
+    }
+
+    @Test
+    public void canBeDisabled() {
+        final DeduplicatingIndexer indexer = new DeduplicatingIndexer(m_delegate, true, 1000L, 60000L, new MetricRegistry());
+
+        indexer.update(Lists.newArrayList(sample("a", "x", 1)));
+        indexer.update(Lists.newArrayList(sample("a", "x", 2)));
+        assertEquals(2, m_indexed.size());
+    }
+
+    private static Sample sample(String resourceId, String metric, long value) {
+        return new Sample(Timestamp.now(), new Resource(resourceId), metric, MetricType.COUNTER, new Counter(value));
+    }
+}
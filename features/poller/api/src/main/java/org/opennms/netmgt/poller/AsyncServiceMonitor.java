@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ServiceMonitor} that can perform polls without blocking the
+ * calling thread while waiting for the I/O to complete.
+ *
+ * Monitors that only support non-blocking polls for some configurations
+ * can return false from {@link #canPollAsync(Map)}, in which case the
+ * blocking {@link #poll(MonitoredService, Map)} method is used instead.
+ *
+ * Asynchronous polling is only used when the {@value #ASYNC_POLLING_SYS_PROP}
+ * system property is set to true.
+ */
+public interface AsyncServiceMonitor extends ServiceMonitor {
+
+    public static final String ASYNC_POLLING_SYS_PROP = "org.opennms.netmgt.poller.async";
+
+    /**
+     * @param parameters
+     *            the service parameters, as passed to {@link #pollAsync(MonitoredService, Map)}
+     * @return true if the poll can be performed using {@link #pollAsync(MonitoredService, Map)}
+     */
+    public boolean canPollAsync(Map<String, Object> parameters);
+
+    /**
+     * Asynchronous variant of {@link #poll(MonitoredService, Map)}.
+     *
+     * The returned future should not complete exceptionally, failures are
+     * expected to be reported using the poll status.
+     *
+     * @param svc
+     *            Includes details about to the service being monitored.
+     * @param parameters
+     *            Includes the service parameters defined in <EM>poller-configuration.xml</EM> and those
+     *            returned by {@link #getRuntimeAttributes(MonitoredService, Map)}.
+     * @return a future that completes with the availability of the service
+     */
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+
+}
@@ -34,6 +34,7 @@ import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.ServiceMonitorRegistry;
@@ -51,6 +52,8 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
     @Qualifier("pollerExecutor")
     private Executor executor;
 
+    private boolean asyncPollingEnabled = Boolean.getBoolean(AsyncServiceMonitor.ASYNC_POLLING_SYS_PROP);
+
     public PollerClientRpcModule() {
         super(PollerRequestDTO.class, PollerResponseDTO.class);
     }
@@ -68,6 +71,22 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
             return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown("No monitor found with class name '" + className + "'.")));
         }
 
+        if (asyncPollingEnabled && monitor instanceof AsyncServiceMonitor) {
+            final AsyncServiceMonitor asyncMonitor = (AsyncServiceMonitor) monitor;
+            final Map<String, Object> parameters = request.getMonitorParameters();
+            if (asyncMonitor.canPollAsync(parameters)) {
+                // The monitor performs the I/O without holding on to one of our threads
+                CompletableFuture<PollStatus> future;
+                try {
+                    future = asyncMonitor.pollAsync(request, parameters);
+                } catch (RuntimeException e) {
+                    future = CompletableFuture.completedFuture(PollStatus.unknown(e.getMessage()));
+                }
+                // Complete on our executor, the adaptors and the callers must not run on the monitor's I/O threads
+                return future.handleAsync((pollStatus, ex) -> new PollerResponseDTO(ex == null ? pollStatus : PollStatus.unknown(ex.getMessage())), executor);
+            }
+        }
+
         return CompletableFuture.supplyAsync(new Supplier<PollerResponseDTO>() {
             @Override
             public PollerResponseDTO get() {
@@ -91,6 +110,10 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
         this.executor = executor;
     }
 
+    public void setAsyncPollingEnabled(boolean asyncPollingEnabled) {
+        this.asyncPollingEnabled = asyncPollingEnabled;
+    }
+
     @Override
     public PollerResponseDTO createResponseWithException(Throwable ex) {
         return new PollerResponseDTO(ex);
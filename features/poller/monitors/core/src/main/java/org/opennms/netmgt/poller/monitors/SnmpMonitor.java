@@ -32,11 +32,13 @@ import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.PropertiesUtils;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.DistributionContext;
 import org.opennms.netmgt.poller.MonitoredService;
@@ -64,7 +66,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable(DistributionContext.DAEMON)
-public class SnmpMonitor extends SnmpMonitorStrategy {
+public class SnmpMonitor extends SnmpMonitorStrategy implements AsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(SnmpMonitor.class);
 
@@ -110,28 +112,13 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
         String reasonTemplate = ParameterMap.getKeyedString(parameters, "reason-template", DEFAULT_REASON_TEMPLATE);
         String hexstr = ParameterMap.getKeyedString(parameters, "hex", "false");
 
-        hex = "true".equalsIgnoreCase(hexstr);
+        final boolean hex = "true".equalsIgnoreCase(hexstr);
         // set timeout and retries on SNMP peer object
         //
-        agentConfig.setTimeout(ParameterMap.getKeyedInteger(parameters, "timeout", agentConfig.getTimeout()));
-        agentConfig.setRetries(ParameterMap.getKeyedInteger(parameters, "retry", ParameterMap.getKeyedInteger(parameters, "retries", agentConfig.getRetries())));
-        agentConfig.setPort(ParameterMap.getKeyedInteger(parameters, "port", agentConfig.getPort()));
+        configureAgent(agentConfig, parameters);
 
         // Squirrel the configuration parameters away in a Properties for later expansion if service is down
-        Properties svcParams = new Properties();
-        svcParams.setProperty("oid", oid);
-        svcParams.setProperty("operator", String.valueOf(operator));
-        svcParams.setProperty("operand", String.valueOf(operand));
-        svcParams.setProperty("walk", walkstr);
-        svcParams.setProperty("matchAll", matchstr);
-        svcParams.setProperty("minimum", String.valueOf(countMin));
-        svcParams.setProperty("maximum", String.valueOf(countMax));
-        svcParams.setProperty("timeout", String.valueOf(agentConfig.getTimeout()));
-        svcParams.setProperty("retry", String.valueOf(agentConfig.getRetries()));
-        svcParams.setProperty("retries", svcParams.getProperty("retry"));
-        svcParams.setProperty("ipaddr", hostAddress);
-        svcParams.setProperty("port", String.valueOf(agentConfig.getPort()));
-        svcParams.setProperty("hex", hexstr);
+        Properties svcParams = getServiceParameters(parameters, agentConfig, hostAddress);
 
 
         // Establish SNMP session with interface
@@ -157,7 +144,7 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
 
                     if (result != null) {
                         LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                        if (meetsCriteria(result, operator, operand)) {
+                        if (meetsCriteria(result, operator, operand, hex)) {
                             matchCount++;
                         }
                     }
@@ -179,8 +166,8 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
                 List<SnmpValue> results = SnmpUtils.getColumns(agentConfig, "snmpPoller", snmpObjectId);
                 for(SnmpValue result : results) {
                     if (result != null) {
-                        svcParams.setProperty("observedValue", getStringValue(result));
-                        if (meetsCriteria(result, operator, operand)) {
+                        svcParams.setProperty("observedValue", getStringValue(result, hex));
+                        if (meetsCriteria(result, operator, operand, hex)) {
                             status = PollStatus.available(tracker.elapsedTimeInMillis());
                             if ("false".equals(matchstr)) {
                                 return status;
@@ -195,47 +182,130 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
                 }
 
             } else {
-                if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
-                    if (operator != null) {
-                        reasonTemplate = "Observed value '${observedValue}' does not meet criteria '${operator} ${operand}'";
-                    } else {
-                        reasonTemplate = "Observed value '${observedValue}' was null";
-                    }
-                }
-
                 SnmpValue result = SnmpUtils.get(agentConfig, snmpObjectId);
+                status = getStatusForValue(result, operator, operand, hex, getReasonTemplateForGet(reasonTemplate, operator), svcParams, tracker);
+            }
 
-                if (result != null) {
-                    svcParams.setProperty("observedValue", getStringValue(result));
-                    LOG.debug("poll: SNMP poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                    
-                    if (meetsCriteria(result, operator, operand)) {
-                        status = PollStatus.available(tracker.elapsedTimeInMillis());
-                    } else {
-                        status = PollStatus.unavailable(PropertiesUtils.substitute(reasonTemplate, svcParams));
-                    }
-                } else {
-                    String reason = "SNMP poll failed, addr=" + hostAddress + " oid=" + oid;
-                    LOG.debug(reason);
-                    status = PollStatus.unavailable(reason);
+        } catch (Throwable t) {
+            status = getStatusForException(t, hostAddress);
+        }
+
+        return status;
+    }
+
+    /**
+     * Only polls that retrieve a single value can be performed asynchronously,
+     * walks are still performed using {@link #poll(MonitoredService, Map)}.
+     */
+    @Override
+    public boolean canPollAsync(Map<String, Object> parameters) {
+        return !"count".equals(ParameterMap.getKeyedString(parameters, "match-all", "true"))
+                && !"true".equals(ParameterMap.getKeyedString(parameters, "walk", "false"));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        final String hostAddress = InetAddressUtils.str(svc.getAddress());
+        try {
+            final SnmpAgentConfig agentConfig = getAgentConfig(svc, parameters);
+            final String oid = ParameterMap.getKeyedString(parameters, "oid", DEFAULT_OBJECT_IDENTIFIER);
+            final String operator = ParameterMap.getKeyedString(parameters, "operator", null);
+            final String operand = ParameterMap.getKeyedString(parameters, "operand", null);
+            final String reasonTemplate = getReasonTemplateForGet(ParameterMap.getKeyedString(parameters, "reason-template", DEFAULT_REASON_TEMPLATE), operator);
+
+            final boolean hex = "true".equalsIgnoreCase(ParameterMap.getKeyedString(parameters, "hex", "false"));
+            configureAgent(agentConfig, parameters);
+            final Properties svcParams = getServiceParameters(parameters, agentConfig, hostAddress);
+
+            final TimeoutTracker tracker = new TimeoutTracker(parameters, agentConfig.getRetries(), agentConfig.getTimeout());
+            tracker.reset();
+            tracker.startAttempt();
+
+            return SnmpUtils.getAsync(agentConfig, new SnmpObjId[] { SnmpObjId.get(oid) }).handle((results, ex) -> {
+                if (ex != null) {
+                    return getStatusForException(ex, hostAddress);
+                }
+                try {
+                    final SnmpValue result = results != null && results.length > 0 ? results[0] : null;
+                    return getStatusForValue(result, operator, operand, hex, reasonTemplate, svcParams, tracker);
+                } catch (Throwable t) {
+                    return getStatusForException(t, hostAddress);
                 }
+            });
+        } catch (Throwable t) {
+            return CompletableFuture.completedFuture(getStatusForException(t, hostAddress));
+        }
+    }
+
+    private PollStatus getStatusForValue(SnmpValue result, String operator, String operand, boolean hex, String reasonTemplate, Properties svcParams, TimeoutTracker tracker) {
+        final String hostAddress = svcParams.getProperty("ipaddr");
+        final String oid = svcParams.getProperty("oid");
+        if (result != null) {
+            svcParams.setProperty("observedValue", getStringValue(result, hex));
+            LOG.debug("poll: SNMP poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
+
+            if (meetsCriteria(result, operator, operand, hex)) {
+                return PollStatus.available(tracker.elapsedTimeInMillis());
+            } else {
+                return PollStatus.unavailable(PropertiesUtils.substitute(reasonTemplate, svcParams));
             }
+        } else {
+            String reason = "SNMP poll failed, addr=" + hostAddress + " oid=" + oid;
+            LOG.debug(reason);
+            return PollStatus.unavailable(reason);
+        }
+    }
 
-        } catch (NumberFormatException e) {
-            String reason = "Number operator used on a non-number " + e.getMessage();
+    private static PollStatus getStatusForException(Throwable t, String hostAddress) {
+        if (t instanceof NumberFormatException) {
+            String reason = "Number operator used on a non-number " + t.getMessage();
             LOG.debug(reason);
-            status = PollStatus.unavailable(reason);
-        } catch (IllegalArgumentException e) {
-            String reason = "Invalid SNMP Criteria: " + e.getMessage();
+            return PollStatus.unavailable(reason);
+        } else if (t instanceof IllegalArgumentException) {
+            String reason = "Invalid SNMP Criteria: " + t.getMessage();
             LOG.debug(reason);
-            status = PollStatus.unavailable(reason);
-        } catch (Throwable t) {
+            return PollStatus.unavailable(reason);
+        } else {
             String reason = "Unexpected exception during SNMP poll of interface " + hostAddress;
             LOG.debug(reason, t);
-            status = PollStatus.unavailable(reason);
+            return PollStatus.unavailable(reason);
         }
+    }
 
-        return status;
+    private static String getReasonTemplateForGet(String reasonTemplate, String operator) {
+        if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
+            if (operator != null) {
+                return "Observed value '${observedValue}' does not meet criteria '${operator} ${operand}'";
+            } else {
+                return "Observed value '${observedValue}' was null";
+            }
+        }
+        return reasonTemplate;
+    }
+
+    private static void configureAgent(SnmpAgentConfig agentConfig, Map<String, Object> parameters) {
+        agentConfig.setTimeout(ParameterMap.getKeyedInteger(parameters, "timeout", agentConfig.getTimeout()));
+        agentConfig.setRetries(ParameterMap.getKeyedInteger(parameters, "retry", ParameterMap.getKeyedInteger(parameters, "retries", agentConfig.getRetries())));
+        agentConfig.setPort(ParameterMap.getKeyedInteger(parameters, "port", agentConfig.getPort()));
+    }
+
+    private static Properties getServiceParameters(Map<String, Object> parameters, SnmpAgentConfig agentConfig, String hostAddress) {
+        Properties svcParams = new Properties();
+        svcParams.setProperty("oid", ParameterMap.getKeyedString(parameters, "oid", DEFAULT_OBJECT_IDENTIFIER));
+        svcParams.setProperty("operator", String.valueOf(ParameterMap.getKeyedString(parameters, "operator", null)));
+        svcParams.setProperty("operand", String.valueOf(ParameterMap.getKeyedString(parameters, "operand", null)));
+        svcParams.setProperty("walk", ParameterMap.getKeyedString(parameters, "walk", "false"));
+        svcParams.setProperty("matchAll", ParameterMap.getKeyedString(parameters, "match-all", "true"));
+        svcParams.setProperty("minimum", String.valueOf(ParameterMap.getKeyedInteger(parameters, "minimum", 0)));
+        svcParams.setProperty("maximum", String.valueOf(ParameterMap.getKeyedInteger(parameters, "maximum", 0)));
+        svcParams.setProperty("timeout", String.valueOf(agentConfig.getTimeout()));
+        svcParams.setProperty("retry", String.valueOf(agentConfig.getRetries()));
+        svcParams.setProperty("retries", svcParams.getProperty("retry"));
+        svcParams.setProperty("ipaddr", hostAddress);
+        svcParams.setProperty("port", String.valueOf(agentConfig.getPort()));
+        svcParams.setProperty("hex", ParameterMap.getKeyedString(parameters, "hex", "false"));
+        return svcParams;
     }
 
 }
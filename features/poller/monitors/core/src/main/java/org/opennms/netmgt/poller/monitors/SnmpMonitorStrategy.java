@@ -70,8 +70,6 @@ public abstract class SnmpMonitorStrategy extends AbstractServiceMonitor {
     /** Constant <code>MATCHES="~"</code> */
     public static final String MATCHES = "~";
     
-    protected boolean hex = false;
-
     @Override
     public Map<String, Object> getRuntimeAttributes(MonitoredService svc, Map<String, Object> parameters) {
         try {
@@ -87,6 +85,18 @@ public abstract class SnmpMonitorStrategy extends AbstractServiceMonitor {
     }
 
     public String getStringValue(SnmpValue result) {
+        return getStringValue(result, false);
+    }
+
+    /**
+     * Returns the value of the result as a string, or as a hex string when
+     * the <code>hex</code> parameter of the service is set.
+     *
+     * @param result a {@link org.opennms.netmgt.snmp.SnmpValue} object.
+     * @param hex a boolean.
+     * @return a {@link java.lang.String} object.
+     */
+    public String getStringValue(SnmpValue result, boolean hex) {
     	if (hex)
     		return result.toHexString();
     	return result.toString();
@@ -102,13 +112,28 @@ public abstract class SnmpMonitorStrategy extends AbstractServiceMonitor {
      * @return a boolean.
      */
     public boolean meetsCriteria(SnmpValue result, String operator, String operand) {
+        return meetsCriteria(result, operator, operand, false);
+    }
+
+    /**
+     * Verifies that the result of the SNMP query meets the criteria specified
+     * by the operator and the operand from the configuration file, comparing
+     * string values as hex strings when <code>hex</code> is set.
+     *
+     * @param result a {@link org.opennms.netmgt.snmp.SnmpValue} object.
+     * @param operator a {@link java.lang.String} object.
+     * @param operand a {@link java.lang.String} object.
+     * @param hex a boolean.
+     * @return a boolean.
+     */
+    public boolean meetsCriteria(SnmpValue result, String operator, String operand, boolean hex) {
 
         Boolean retVal = null;
         
         retVal = isCriteriaNull(result, operator, operand);
         
         if (retVal == null) {
-        	String value = getStringValue(result);
+        	String value = getStringValue(result, hex);
             retVal = checkStringCriteria(operator, operand, value);
             
             if (retVal == null) {
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.poller.monitors;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.poller.MonitoredService;
@@ -50,6 +51,20 @@ public class Win32ServiceMonitor extends SnmpMonitor {
 	/** {@inheritDoc} */
 	@Override
 	public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+		return super.poll(svc, getServiceParameters(parameters));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+		return super.pollAsync(svc, getServiceParameters(parameters));
+	}
+
+	/**
+	 * Points the SNMP poll at the operating state of the configured Windows
+	 * service. Both the synchronous and the asynchronous poll go through here.
+	 */
+	protected Map<String, Object> getServiceParameters(Map<String, Object> parameters) {
 		String serviceName = ParameterMap.getKeyedString(parameters, "service-name", DEFAULT_SERVICE_NAME);
 		int snLength = serviceName.length();
 		
@@ -65,6 +80,6 @@ public class Win32ServiceMonitor extends SnmpMonitor {
 		parameters.put("operator", "=");
 		parameters.put("operand", "1");
 		
-		return super.poll(svc, parameters);
+		return parameters;
 	}
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.snmp.annotations.JUnitSnmpAgent;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.SnmpPeerFactory;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-proxy-snmp.xml"
+})
+@JUnitSnmpAgent(port=Win32ServiceMonitorTest.TEST_SNMP_PORT,host=Win32ServiceMonitorTest.TEST_IP_ADDRESS, resource="classpath:/org/opennms/netmgt/snmp/win32-services.properties")
+public class Win32ServiceMonitorTest implements InitializingBean {
+    static final int TEST_SNMP_PORT = 9161;
+    static final String TEST_IP_ADDRESS = "127.0.0.1";
+
+    @Autowired
+    private SnmpPeerFactory m_snmpPeerFactory;
+
+    private Win32ServiceMonitor monitor;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        BeanUtils.assertAutowiring(this);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+        monitor = new Win32ServiceMonitor();
+        SnmpPeerFactory.setInstance(m_snmpPeerFactory);
+    }
+
+    @Test
+    public void testRunningService() throws Exception {
+        Assert.assertTrue(monitor.poll(createMonitor(), createParams("Server")).isAvailable());
+    }
+
+    @Test
+    public void testPausedService() throws Exception {
+        Assert.assertFalse(monitor.poll(createMonitor(), createParams("Alerter")).isAvailable());
+    }
+
+    /**
+     * The asynchronous poll must check the same OID, operator and operand as
+     * the synchronous one instead of falling back to the SnmpMonitor defaults.
+     */
+    @Test
+    public void testRunningServiceAsync() throws Exception {
+        final Map<String, Object> parameters = createParams("Server");
+        Assert.assertTrue(monitor.canPollAsync(parameters));
+        final PollStatus status = monitor.pollAsync(createMonitor(), parameters).get();
+        Assert.assertTrue(status.isAvailable());
+    }
+
+    @Test
+    public void testPausedServiceAsync() throws Exception {
+        final PollStatus status = monitor.pollAsync(createMonitor(), createParams("Alerter")).get();
+        Assert.assertFalse(status.isAvailable());
+    }
+
+    @Test
+    public void testMissingServiceAsync() throws Exception {
+        final PollStatus status = monitor.pollAsync(createMonitor(), createParams("Messenger")).get();
+        Assert.assertFalse(status.isAvailable());
+    }
+
+    private Map<String, Object> createParams(String serviceName) {
+        Map<String, Object> parameters = new HashMap<String,Object>();
+        parameters.put("port", m_snmpPeerFactory.getAgentConfig(InetAddressUtils.getInetAddress(TEST_IP_ADDRESS)).getPort());
+        parameters.put("service-name", serviceName);
+        parameters.put("agent", m_snmpPeerFactory.getAgentConfig(InetAddressUtils.getInetAddress(TEST_IP_ADDRESS)));
+        return parameters;
+    }
+
+    private MonitoredService createMonitor() throws UnknownHostException {
+        return new MockMonitoredService(1, "test-server", InetAddressUtils.getInetAddress(TEST_IP_ADDRESS), "Windows-Server");
+    }
+
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the alarms known to alarmd, keyed by reduction key.
+ *
+ * The index is kept in sync using the {@link AlarmLifecycleListener} callbacks:
+ * it is (re)built from every snapshot and updated incrementally as alarms
+ * are created, reduced, archived, acknowledged and deleted.
+ *
+ * Only the alarm ids and reduction keys are retained, the entities are always
+ * loaded by primary key through the session of the caller.
+ */
+public class AlarmCache implements AlarmLifecycleListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmCache.class);
+
+    public static final String AUTHORITATIVE_SYS_PROP = "org.opennms.alarmd.cache.authoritative";
+
+    /**
+     * When set, a miss in the reduction key index is trusted and the database lookup is skipped.
+     * This is only safe if alarms are never inserted or modified in the database by any other process.
+     */
+    private boolean m_authoritative = Boolean.getBoolean(AUTHORITATIVE_SYS_PROP);
+
+    private final Map<Integer, String> m_reductionKeysById = new ConcurrentHashMap<>();
+    private final Map<String, Integer> m_alarmIdsByReductionKey = new ConcurrentHashMap<>();
+
+    /**
+     * Alarms indexed through the callbacks since the last snapshot. The callbacks are issued
+     * before the transaction commits, so these may be missing from a snapshot that was read
+     * concurrently and must survive it.
+     */
+    private final Map<Integer, String> m_indexedSinceSnapshot = new HashMap<>();
+
+    private volatile boolean m_loaded = false;
+
+    @Override
+    public synchronized void handleAlarmSnapshot(List<OnmsAlarm> alarms) {
+        m_reductionKeysById.clear();
+        m_alarmIdsByReductionKey.clear();
+        for (OnmsAlarm alarm : alarms) {
+            index(alarm.getId(), alarm.getReductionKey());
+        }
+
+        int numCarriedOver = 0;
+        for (Map.Entry<Integer, String> entry : m_indexedSinceSnapshot.entrySet()) {
+            if (!m_reductionKeysById.containsKey(entry.getKey()) && !m_alarmIdsByReductionKey.containsKey(entry.getValue())) {
+                // Not committed yet when the snapshot was read, we'll drop it on the next snapshot if it never was
+                index(entry.getKey(), entry.getValue());
+                numCarriedOver++;
+            }
+        }
+        m_indexedSinceSnapshot.clear();
+
+        m_loaded = true;
+        LOG.debug("Rebuilt the alarm index from a snapshot of {} alarms, carried over {} alarms indexed during the snapshot.",
+                alarms.size(), numCarriedOver);
+    }
+
+    @Override
+    public synchronized void handleNewOrUpdatedAlarm(OnmsAlarm alarm) {
+        final Integer alarmId = alarm.getId();
+        if (alarmId == null) {
+            // Not yet saved, we'll pick it up on the next callback or snapshot
+            return;
+        }
+        reindex(alarmId, alarm.getReductionKey());
+        m_indexedSinceSnapshot.put(alarmId, alarm.getReductionKey());
+    }
+
+    @Override
+    public synchronized void handleDeletedAlarm(int alarmId, String reductionKey) {
+        final String indexedReductionKey = m_reductionKeysById.remove(alarmId);
+        if (indexedReductionKey != null) {
+            m_alarmIdsByReductionKey.remove(indexedReductionKey, alarmId);
+        } else if (reductionKey != null) {
+            m_alarmIdsByReductionKey.remove(reductionKey, alarmId);
+        }
+        m_indexedSinceSnapshot.remove(alarmId);
+    }
+
+    /**
+     * Returns the id of the alarm with the given reduction key.
+     *
+     * @param reductionKey the reduction key
+     * @return the id of the alarm, or null if no such alarm is indexed
+     */
+    public Integer getAlarmIdForReductionKey(String reductionKey) {
+        if (reductionKey == null) {
+            return null;
+        }
+        return m_alarmIdsByReductionKey.get(reductionKey);
+    }
+
+    /**
+     * Used to determine whether or not a miss on {@link #getAlarmIdForReductionKey(String)}
+     * can be trusted to mean that no such alarm exists.
+     *
+     * @return true if the index was loaded and is configured to be authoritative
+     */
+    public boolean isAuthoritative() {
+        return m_authoritative && m_loaded;
+    }
+
+    public boolean isLoaded() {
+        return m_loaded;
+    }
+
+    public int size() {
+        return m_reductionKeysById.size();
+    }
+
+    public void setAuthoritative(boolean authoritative) {
+        m_authoritative = authoritative;
+    }
+
+    private void reindex(Integer alarmId, String reductionKey) {
+        final String previousReductionKey = m_reductionKeysById.get(alarmId);
+        if (previousReductionKey != null && !previousReductionKey.equals(reductionKey)) {
+            m_alarmIdsByReductionKey.remove(previousReductionKey, alarmId);
+        }
+        index(alarmId, reductionKey);
+    }
+
+    private void index(Integer alarmId, String reductionKey) {
+        if (alarmId == null || reductionKey == null) {
+            return;
+        }
+        m_reductionKeysById.put(alarmId, reductionKey);
+        m_alarmIdsByReductionKey.put(reductionKey, alarmId);
+    }
+}
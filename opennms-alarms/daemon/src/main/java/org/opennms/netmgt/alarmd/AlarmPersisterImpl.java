@@ -90,6 +90,9 @@ public class AlarmPersisterImpl implements AlarmPersister {
     @Autowired
     private AlarmEntityNotifier m_alarmEntityNotifier;
 
+    @Autowired(required=false)
+    private AlarmCache m_alarmCache;
+
     private Striped<Lock> lockStripes = StripedExt.fairLock(NUM_STRIPE_LOCKS);
 
     private final Set<AlarmPersisterExtension> extensions = Sets.newConcurrentHashSet();
@@ -144,11 +147,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
             didSwapReductionKeyWithClearKey = true;
         }
 
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(key);
+        OnmsAlarm alarm = findByReductionKey(key);
 
         if (alarm == null && didSwapReductionKeyWithClearKey) {
             // if the clearKey returns null, still need to check the reductionKey
-            alarm = m_alarmDao.findByReductionKey(reductionKey);
+            alarm = findByReductionKey(reductionKey);
         }
 
         if (alarm == null || (m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()))) {
@@ -376,7 +379,31 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
         Set<String> reductionKeys = list.stream().filter(AlarmPersisterImpl::isRelatedReductionKeyWithContent).map(p -> p.getValue().getContent()).collect(Collectors.toSet());
         // Only existing alarms are returned. Reduction Keys for non-existing alarms are dropped.
-        return reductionKeys.stream().map(reductionKey -> m_alarmDao.findByReductionKey(reductionKey)).filter(Objects::nonNull).collect(Collectors.toSet());
+        return reductionKeys.stream().map(this::findByReductionKey).filter(Objects::nonNull).collect(Collectors.toSet());
+    }
+
+    /**
+     * Looks up the alarm with the given reduction key, using the in-memory index
+     * to avoid querying the alarms table by reduction key when possible. The alarm
+     * itself is always loaded by primary key through the current session.
+     */
+    private OnmsAlarm findByReductionKey(String reductionKey) {
+        if (m_alarmCache == null || !m_alarmCache.isLoaded()) {
+            return m_alarmDao.findByReductionKey(reductionKey);
+        }
+
+        final Integer alarmId = m_alarmCache.getAlarmIdForReductionKey(reductionKey);
+        if (alarmId != null) {
+            final OnmsAlarm alarm = m_alarmDao.get(alarmId);
+            if (alarm != null && Objects.equals(reductionKey, alarm.getReductionKey())) {
+                return alarm;
+            }
+            // The index is stale, fall back to the query
+            LOG.debug("findByReductionKey: index entry for reductionKey:{} is stale, querying the database.", reductionKey);
+        } else if (m_alarmCache.isAuthoritative()) {
+            return null;
+        }
+        return m_alarmDao.findByReductionKey(reductionKey);
     }
 
     private static boolean isRelatedReductionKeyWithContent(Parm param) {
@@ -487,6 +514,14 @@ public class AlarmPersisterImpl implements AlarmPersister {
         m_alarmEntityNotifier = alarmEntityNotifier;
     }
 
+    public AlarmCache getAlarmCache() {
+        return m_alarmCache;
+    }
+
+    public void setAlarmCache(AlarmCache alarmCache) {
+        m_alarmCache = alarmCache;
+    }
+
     public void onExtensionRegistered(final AlarmPersisterExtension ext, final Map<String,String> properties) {
         LOG.debug("onExtensionRegistered: {} with properties: {}", ext, properties);
         extensions.add(ext);
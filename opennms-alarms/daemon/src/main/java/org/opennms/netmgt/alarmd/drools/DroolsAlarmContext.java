@@ -29,9 +29,11 @@
 package org.opennms.netmgt.alarmd.drools;
 
 import java.nio.file.Paths;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -51,6 +53,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.Sets;
 
 /**
@@ -61,6 +65,9 @@ import com.google.common.collect.Sets;
  * We use a lock updating alarms in the context in order to avoid triggering the rules while an incomplete
  * view of the alarms is present in the working memory.
  *
+ * Snapshots are reconciled incrementally: only the alarms that were added, removed or whose state differs
+ * from the fact in the working memory are touched.
+ *
  * @author jwhite
  */
 public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLifecycleListener {
@@ -105,6 +112,8 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             LOG.debug("Ignoring alarm snapshot. Drools session is stopped.");
             return;
         }
+        final MetricRegistry metrics = getMetricRegistry();
+        final Timer.Context snapshotContext = metrics.timer(MetricRegistry.name(DroolsAlarmContext.class, "snapshot")).time();
         lockIfNotFiring();
         try {
             LOG.debug("Handling snapshot for {} alarms.", alarms.size());
@@ -117,7 +126,9 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
 
             final Set<Integer> alarmIdsToAdd = Sets.difference(alarmIdsInDb, alarmIdsInWorkingMem).immutableCopy();
             final Set<Integer> alarmIdsToRemove = Sets.difference(alarmIdsInWorkingMem, alarmIdsInDb).immutableCopy();
-            final Set<Integer> alarmIdsToUpdate = Sets.intersection(alarmIdsInWorkingMem, alarmIdsInDb).immutableCopy();
+            final Set<Integer> alarmIdsToUpdate = Sets.intersection(alarmIdsInWorkingMem, alarmIdsInDb).stream()
+                    .filter(alarmId -> hasChanged(alarmsById.get(alarmId).getAlarm(), alarmsInDbById.get(alarmId)))
+                    .collect(Collectors.toSet());
 
             for (Integer alarmIdToRemove : alarmIdsToRemove) {
                 handleDeletedAlarmNoLock(alarmIdToRemove);
@@ -128,8 +139,14 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             for (Integer alarmIdToUpdate : alarmIdsToUpdate) {
                 handleNewOrUpdatedAlarmNoLock(alarmsInDbById.get(alarmIdToUpdate));
             }
+
+            final int numChanges = alarmIdsToAdd.size() + alarmIdsToRemove.size() + alarmIdsToUpdate.size();
+            metrics.histogram(MetricRegistry.name(DroolsAlarmContext.class, "snapshot", "changes")).update(numChanges);
+            LOG.debug("Reconciled snapshot: {} added, {} removed, {} updated, {} unchanged.", alarmIdsToAdd.size(),
+                    alarmIdsToRemove.size(), alarmIdsToUpdate.size(), alarmIdsInDb.size() - alarmIdsToAdd.size() - alarmIdsToUpdate.size());
         } finally {
             unlockIfNotFiring();
+            snapshotContext.stop();
         }
     }
 
@@ -164,6 +181,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             // Reinsert
             LOG.trace("Re-inserting alarm into session: {}", alarm);
             final FactHandle fact = kieSession.insert(alarm);
+            alarmAndFact.setAlarm(alarm);
             alarmAndFact.setFact(fact);
         }
         handleRelatedAlarms(alarm);
@@ -184,6 +202,37 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         }
     }
 
+    /**
+     * Determines whether or not the alarm from the snapshot differs from the
+     * one in the working memory in any of the fields that are used by the rules.
+     *
+     * If both references point to the same instance, we can't tell whether or not
+     * it was modified, so we treat it as changed.
+     */
+    protected static boolean hasChanged(OnmsAlarm alarmInSession, OnmsAlarm alarmInDb) {
+        if (alarmInSession == alarmInDb) {
+            return true;
+        }
+        return !(Objects.equals(alarmInSession.getReductionKey(), alarmInDb.getReductionKey())
+                && Objects.equals(alarmInSession.getSeverity(), alarmInDb.getSeverity())
+                && Objects.equals(alarmInSession.getCounter(), alarmInDb.getCounter())
+                && sameTime(alarmInSession.getLastEventTime(), alarmInDb.getLastEventTime())
+                && sameTime(alarmInSession.getLastAutomationTime(), alarmInDb.getLastAutomationTime())
+                && Objects.equals(alarmInSession.getAlarmAckUser(), alarmInDb.getAlarmAckUser())
+                && sameTime(alarmInSession.getAlarmAckTime(), alarmInDb.getAlarmAckTime())
+                && Objects.equals(alarmInSession.getTTicketId(), alarmInDb.getTTicketId())
+                && Objects.equals(alarmInSession.getTTicketState(), alarmInDb.getTTicketState())
+                && Objects.equals(alarmInSession.getRelatedAlarmIds(), alarmInDb.getRelatedAlarmIds()));
+    }
+
+    private static boolean sameTime(Date a, Date b) {
+        // Compare the instants, java.sql.Timestamp and java.util.Date are not equal to one another
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getTime() == b.getTime();
+    }
+
     private void handleRelatedAlarms(OnmsAlarm situation) {
         if (!situation.isSituation()) {
             return;
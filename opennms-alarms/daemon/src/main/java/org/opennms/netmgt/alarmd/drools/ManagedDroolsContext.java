@@ -36,7 +36,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
-import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -63,6 +62,10 @@ import org.kie.internal.io.ResourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * This class focuses on providing a Drools context which loads a set of rules
  * from the filesystem and can be dynamically reloaded.
@@ -88,9 +91,9 @@ public class ManagedDroolsContext {
 
     private KieContainer kieContainer;
 
-    private KieSession kieSession;
+    private volatile KieSession kieSession;
 
-    private Timer timer;
+    private java.util.Timer timer;
 
     private SessionPseudoClock clock;
 
@@ -100,6 +103,10 @@ public class ManagedDroolsContext {
 
     private Consumer<KieSession> onNewKiewSessionCallback;
 
+    private MetricRegistry metrics = new MetricRegistry();
+
+    private Timer rulesFiringTimer;
+
     public ManagedDroolsContext(File rulesFolder, String kbaseName, String kSessionSuffixName) {
         this.rulesFolder = Objects.requireNonNull(rulesFolder);
         this.kbaseName = Objects.requireNonNull(kbaseName);
@@ -119,6 +126,8 @@ public class ManagedDroolsContext {
     }
 
     private void startWithModuleAndFacts(ReleaseId releaseId, List<Object> factObjects) {
+        registerMetrics();
+
         final KieServices ks = KieServices.Factory.get();
         kieContainer = ks.newKieContainer(releaseId);
         kieSession = kieContainer.newKieSession(kSessionName);
@@ -137,7 +146,7 @@ public class ManagedDroolsContext {
         }
 
         if (!useManualTick) {
-            timer = new Timer();
+            timer = new java.util.Timer();
             timer.scheduleAtFixedRate(new TimerTask() {
                 @Override
                 public void run() {
@@ -145,7 +154,7 @@ public class ManagedDroolsContext {
                     lock.lock();
                     try {
                         LOG.debug("Firing rules.");
-                        kieSession.fireAllRules();
+                        fireAllRules();
                     } catch (Exception e) {
                         LOG.error("Error occurred while firing rules.", e);
                     } finally {
@@ -263,11 +272,28 @@ public class ManagedDroolsContext {
         return ks.newReleaseId(ManagedDroolsContext.class.getPackage().getName(), moduleName, "1.0.0");
     }
 
+    private void registerMetrics() {
+        if (rulesFiringTimer != null) {
+            return;
+        }
+        rulesFiringTimer = metrics.timer(MetricRegistry.name(kSessionName, "rules", "firing"));
+        metrics.register(MetricRegistry.name(kSessionName, "facts"), (Gauge<Long>) () -> {
+            final KieSession session = kieSession;
+            return session != null ? session.getFactCount() : 0L;
+        });
+    }
+
+    private void fireAllRules() {
+        try (Timer.Context context = rulesFiringTimer.time()) {
+            kieSession.fireAllRules();
+        }
+    }
+
     public void tick() {
         firing.set(true);
         lock.lock();
         try {
-            kieSession.fireAllRules();
+            fireAllRules();
         } finally {
             lock.unlock();
             firing.set(false);
@@ -321,6 +347,18 @@ public class ManagedDroolsContext {
         this.onNewKiewSessionCallback = onNewKiewSessionCallback;
     }
 
+    /**
+     * Sets the registry used to track the rule firing latency and the number
+     * of facts in the session. Must be called before the context is started.
+     */
+    public void setMetricRegistry(MetricRegistry metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metrics;
+    }
+
     public KieSession getKieSession() {
         return kieSession;
     }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSeverity;
+
+public class AlarmCacheTest {
+
+    @Test
+    public void canIndexAlarmsFromSnapshotAndCallbacks() {
+        final AlarmCache cache = new AlarmCache();
+        final OnmsAlarm a1 = createAlarm(1, "rk1", null, 10, OnmsSeverity.MAJOR);
+        final OnmsAlarm a2 = createAlarm(2, "rk2", "rk1", 10, OnmsSeverity.NORMAL);
+
+        cache.handleAlarmSnapshot(Arrays.asList(a1, a2));
+        assertThat(cache.isLoaded(), equalTo(true));
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.getAlarmIdForReductionKey("rk1"), equalTo(1));
+        assertThat(cache.getAlarmIdForReductionKey("rk2"), equalTo(2));
+
+        // Archive the first alarm, changing the reduction key
+        a1.setReductionKey("rk1:ID:1");
+        cache.handleNewOrUpdatedAlarm(a1);
+        assertThat(cache.getAlarmIdForReductionKey("rk1"), nullValue());
+        assertThat(cache.getAlarmIdForReductionKey("rk1:ID:1"), equalTo(1));
+
+        // Delete the second alarm
+        cache.handleDeletedAlarm(2, "rk2");
+        assertThat(cache.getAlarmIdForReductionKey("rk2"), nullValue());
+        assertThat(cache.size(), equalTo(1));
+    }
+
+    @Test
+    public void isOnlyAuthoritativeWhenLoaded() {
+        final AlarmCache cache = new AlarmCache();
+        cache.setAuthoritative(true);
+        assertThat(cache.isAuthoritative(), equalTo(false));
+        cache.handleAlarmSnapshot(Arrays.asList());
+        assertThat(cache.isAuthoritative(), equalTo(true));
+    }
+
+    @Test
+    public void keepsAlarmsIndexedWhileTheSnapshotWasRead() {
+        final AlarmCache cache = new AlarmCache();
+        cache.handleAlarmSnapshot(Collections.emptyList());
+
+        // The callback is issued before the transaction commits, so the snapshot may not include it
+        final OnmsAlarm a1 = createAlarm(1, "rk1", null, 10, OnmsSeverity.MAJOR);
+        cache.handleNewOrUpdatedAlarm(a1);
+        cache.handleAlarmSnapshot(Collections.emptyList());
+        assertThat(cache.getAlarmIdForReductionKey("rk1"), equalTo(1));
+
+        // Still missing from the next snapshot, so it was never committed
+        cache.handleAlarmSnapshot(Collections.emptyList());
+        assertThat(cache.getAlarmIdForReductionKey("rk1"), nullValue());
+    }
+
+    private static OnmsAlarm createAlarm(int id, String reductionKey, String clearKey, int nodeId, OnmsSeverity severity) {
+        final OnmsNode node = new OnmsNode();
+        node.setId(nodeId);
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setReductionKey(reductionKey);
+        alarm.setClearKey(clearKey);
+        alarm.setNode(node);
+        alarm.setSeverity(severity);
+        return alarm;
+    }
+}
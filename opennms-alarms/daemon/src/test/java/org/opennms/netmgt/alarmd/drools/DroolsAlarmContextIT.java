@@ -40,6 +40,7 @@ import static org.opennms.netmgt.alarmd.AlarmMatchers.hasSeverity;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -144,6 +145,43 @@ public class DroolsAlarmContextIT {
         assertThat(trigger, hasSeverity(OnmsSeverity.CLEARED));
     }
 
+    @Test
+    public void canSkipUnchangedAlarmsInSnapshot() {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(1);
+        alarm.setAlarmType(1);
+        alarm.setSeverity(OnmsSeverity.WARNING);
+        alarm.setReductionKey("n1:oops");
+        alarm.setLastEventTime(new Date(100));
+        dac.handleNewOrUpdatedAlarm(alarm);
+
+        // A snapshot containing an equivalent copy of the alarm should leave the fact untouched
+        final OnmsAlarm unchanged = new OnmsAlarm();
+        unchanged.setId(1);
+        unchanged.setAlarmType(1);
+        unchanged.setSeverity(OnmsSeverity.WARNING);
+        unchanged.setReductionKey("n1:oops");
+        unchanged.setLastEventTime(new Date(100));
+        dac.handleAlarmSnapshot(Collections.singletonList(unchanged));
+        assertThat(isInSession(alarm), equalTo(true));
+        assertThat(isInSession(unchanged), equalTo(false));
+
+        // A snapshot containing a modified copy should replace it
+        final OnmsAlarm changed = new OnmsAlarm();
+        changed.setId(1);
+        changed.setAlarmType(1);
+        changed.setSeverity(OnmsSeverity.MAJOR);
+        changed.setReductionKey("n1:oops");
+        changed.setLastEventTime(new Date(100));
+        dac.handleAlarmSnapshot(Collections.singletonList(changed));
+        assertThat(isInSession(alarm), equalTo(false));
+        assertThat(isInSession(changed), equalTo(true));
+    }
+
+    private boolean isInSession(Object object) {
+        return dac.getKieSession().getObjects().stream().anyMatch(o -> o == object);
+    }
+
     @Test
     public void canDeleteAlarm() {
         final OnmsAlarm toDelete = new OnmsAlarm();
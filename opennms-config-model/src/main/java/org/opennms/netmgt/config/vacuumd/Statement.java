@@ -52,6 +52,8 @@ public class Statement implements Serializable {
 
     private final static boolean DEFAULT_TRANSACTIONAL_FLAG = true;
 
+    private final static boolean DEFAULT_REPEAT_FLAG = false;
+
     // --------------------------/
     // - Class/Member Variables -/
     // --------------------------/
@@ -68,6 +70,12 @@ public class Statement implements Serializable {
     @XmlAttribute(name = "transactional")
     private Boolean _transactional;
 
+    /**
+     * Field _repeat.
+     */
+    @XmlAttribute(name = "repeat")
+    private Boolean _repeat;
+
     // ----------------/
     // - Constructors -/
     // ----------------/
@@ -111,6 +119,11 @@ public class Statement implements Serializable {
                 return false;
         } else if (!_transactional.equals(other._transactional))
             return false;
+        if (_repeat == null) {
+            if (other._repeat != null)
+                return false;
+        } else if (!_repeat.equals(other._repeat))
+            return false;
         return true;
     }
 
@@ -134,6 +147,15 @@ public class Statement implements Serializable {
                                      : _transactional;
     }
 
+    /**
+     * Returns the value of field 'repeat'.
+     *
+     * @return the value of field 'Repeat'.
+     */
+    public boolean getRepeat() {
+        return _repeat == null ? DEFAULT_REPEAT_FLAG : _repeat;
+    }
+
     /**
      * Overrides the Object.hashCode method.
      * <p>
@@ -150,6 +172,8 @@ public class Statement implements Serializable {
                 + ((_content == null) ? 0 : _content.hashCode());
         result = prime * result
                 + ((_transactional == null) ? 0 : _transactional.hashCode());
+        result = prime * result
+                + ((_repeat == null) ? 0 : _repeat.hashCode());
         return result;
     }
 
@@ -163,6 +187,15 @@ public class Statement implements Serializable {
                                      : _transactional;
     }
 
+    /**
+     * Returns the value of field 'repeat'.
+     *
+     * @return the value of field 'Repeat'.
+     */
+    public boolean isRepeat() {
+        return _repeat == null ? DEFAULT_REPEAT_FLAG : _repeat;
+    }
+
     /**
      * Sets the value of field 'content'. The field 'content' has the
      * following description: internal content storage
@@ -183,4 +216,14 @@ public class Statement implements Serializable {
     public void setTransactional(final boolean transactional) {
         this._transactional = transactional;
     }
+
+    /**
+     * Sets the value of field 'repeat'.
+     *
+     * @param repeat
+     *            the value of field 'repeat'.
+     */
+    public void setRepeat(final boolean repeat) {
+        this._repeat = repeat;
+    }
 }
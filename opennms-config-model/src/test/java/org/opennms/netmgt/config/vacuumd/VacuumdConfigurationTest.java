@@ -80,6 +80,13 @@ public class VacuumdConfigurationTest extends
                                                  triggers, actions,
                                                  autoEvents, actionEvents);
 
+        // A config with a statement that is repeated until it affects no rows
+        VacuumdConfiguration repeatingVacuumdConfig = new VacuumdConfiguration();
+        repeatingVacuumdConfig.setPeriod(1);
+        Statement repeatingStatement = new Statement("SELECT purge_events(interval '6 weeks', interval '1 hour');", true);
+        repeatingStatement.setRepeat(true);
+        repeatingVacuumdConfig.setStatements(Arrays.asList(repeatingStatement));
+
         return Arrays.asList(new Object[][] {
                 {
                         minimalistVacuumdConfig,
@@ -118,6 +125,15 @@ public class VacuumdConfigurationTest extends
                                 + "        <assignment type=\"field\" name=\"uei\" value=\"testUei\"/>"
                                 + "    </action-event>" + "</action-events>"
                                 + "</VacuumdConfiguration>",
+                        "target/classes/xsds/vacuumd-configuration.xsd" },
+                {
+                        repeatingVacuumdConfig,
+                        "<VacuumdConfiguration period=\"1\">"
+                                + "<statement transactional=\"true\" repeat=\"true\">SELECT purge_events(interval '6 weeks', interval '1 hour');</statement>"
+                                + "<automations/>" + "<triggers/>"
+                                + "<actions/>" + "<auto-events/>"
+                                + "<action-events/>"
+                                + "</VacuumdConfiguration>",
                         "target/classes/xsds/vacuumd-configuration.xsd" } });
     }
 }
@@ -124,6 +124,29 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with the given values, avoiding
+     * the need to format the update as a string and parse it again.
+     *
+     * The default implementation formats the values and delegates to
+     * {@link #updateFile(Object, String, String)}.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param timestamp
+     *            the time of the update in seconds since the epoch
+     * @param values
+     *            the values, in the same order as the data sources of the
+     *            rrd; NaN is used for unknown values
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     */
+    public default void updateFile(F rrd, String owner, long timestamp, double[] values) throws Exception {
+        updateFile(rrd, owner, RrdUpdateUtils.formatUpdate(timestamp, values));
+    }
+
     /**
      * This closes the supplied round robin database
      *
@@ -35,7 +35,8 @@ import org.springframework.context.ApplicationContextAware;
  * Constructs the appropriate RRD strategy based on the
  * configured system properties.
  *
- * Optionally wraps the strategy with a queue and/or
+ * Optionally wraps the strategy with a queue (either the legacy
+ * {@link QueuingRrdStrategy} or the {@link ShardedQueuingRrdStrategy}) and/or
  * outputs the metrics to a TCP stream.
  *
  */
@@ -46,8 +47,10 @@ public class RrdStrategyFactory implements ApplicationContextAware {
     private static enum StrategyName {
         basicRrdStrategy,
         queuingRrdStrategy,
+        shardedQueuingRrdStrategy,
         tcpAndBasicRrdStrategy,
-        tcpAndQueuingRrdStrategy
+        tcpAndQueuingRrdStrategy,
+        tcpAndShardedQueuingRrdStrategy
     }
 
     @Override
@@ -65,8 +68,15 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         RrdStrategy<D, F> rrdStrategy = null;
         Boolean useQueue = (Boolean) m_context.getBean("useQueue");
         Boolean useTcp = (Boolean) m_context.getBean("useTcp");
+        Boolean useShardedQueue = m_context.containsBean("useShardedQueue") && (Boolean) m_context.getBean("useShardedQueue");
 
-        if (useQueue) {
+        if (useQueue && useShardedQueue) {
+            if (useTcp) {
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndShardedQueuingRrdStrategy.toString());
+            } else {
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.shardedQueuingRrdStrategy.toString());
+            }
+        } else if (useQueue) {
             if (useTcp) {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndQueuingRrdStrategy.toString());
             } else {
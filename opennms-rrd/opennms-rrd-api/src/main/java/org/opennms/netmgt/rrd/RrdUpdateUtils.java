@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Provides static methods for converting numeric updates to and from the colon
+ * separated form used by {@link RrdStrategy#updateFile(Object, String, String)}.
+ */
+public abstract class RrdUpdateUtils {
+
+    /**
+     * Integral values with a magnitude up to this limit can be stored in a
+     * double without losing precision.
+     */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    /**
+     * Formats the given update as &lt;timestamp&gt;:&lt;value&gt;[:&lt;value&gt;...]
+     *
+     * @param timestamp the timestamp of the update in seconds
+     * @param values the values, NaN and infinite values are written as 'U'
+     * @return the formatted update
+     */
+    public static String formatUpdate(final long timestamp, final double[] values) {
+        final StringBuilder sb = new StringBuilder(20 + values.length * 12);
+        sb.append(timestamp);
+        for (final double value : values) {
+            sb.append(':');
+            appendValue(sb, value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats the given update as &lt;timestamp&gt;:&lt;value&gt;[:&lt;value&gt;...]
+     * keeping integral values exact, even when they can't be represented
+     * as a double.
+     *
+     * @param timestamp the timestamp of the update in seconds
+     * @param values the values, null, NaN and infinite values are written as 'U'
+     * @return the formatted update
+     */
+    public static String formatUpdate(final long timestamp, final Number[] values) {
+        final StringBuilder sb = new StringBuilder(20 + values.length * 12);
+        sb.append(timestamp);
+        for (final Number value : values) {
+            sb.append(':');
+            appendValue(sb, value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Converts the values to doubles for {@link RrdStrategy#updateFile(Object, String, long, double[])}.
+     *
+     * @param values the values, null, NaN and infinite values are converted to NaN
+     * @return the values, or null if one of them is an integer that can't be
+     *         represented exactly as a double, in which case the update should
+     *         be formatted with {@link #formatUpdate(long, Number[])} instead
+     */
+    public static double[] toDoubles(final Number[] values) {
+        final double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final Number value = values[i];
+            if (value == null) {
+                doubles[i] = Double.NaN;
+            } else if (value instanceof BigInteger) {
+                if (((BigInteger) value).bitLength() > 53) {
+                    return null;
+                }
+                doubles[i] = value.doubleValue();
+            } else if (isIntegral(value)) {
+                final long l = value.longValue();
+                if (l > MAX_EXACT_LONG || l < -MAX_EXACT_LONG) {
+                    return null;
+                }
+                doubles[i] = l;
+            } else {
+                final double d = value.doubleValue();
+                doubles[i] = Double.isFinite(d) ? d : Double.NaN;
+            }
+        }
+        return doubles;
+    }
+
+    /**
+     * Parses an update of the form &lt;timestamp&gt;:&lt;value&gt;[:&lt;value&gt;...],
+     * where the timestamp may be N for the current time.
+     *
+     * @param data the update
+     * @return the timestamp in seconds
+     * @throws NumberFormatException if the timestamp is invalid
+     */
+    public static long parseTimestamp(final String data) {
+        final int colon = data.indexOf(':');
+        final String timestamp = colon < 0 ? data : data.substring(0, colon);
+        if ("N".equals(timestamp)) {
+            return System.currentTimeMillis() / 1000L;
+        }
+        return Long.parseLong(timestamp);
+    }
+
+    /**
+     * Parses the values of an update of the form &lt;timestamp&gt;:&lt;value&gt;[:&lt;value&gt;...]
+     *
+     * @param data the update
+     * @return the values, 'U' is returned as NaN
+     * @throws NumberFormatException if one of the values is invalid
+     */
+    public static double[] parseValues(final String data) {
+        final String[] tokens = data.split(":");
+        final double[] values = new double[tokens.length - 1];
+        for (int i = 1; i < tokens.length; i++) {
+            values[i - 1] = "U".equals(tokens[i]) ? Double.NaN : Double.parseDouble(tokens[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Appends a single value using the notation understood by both rrdtool and JRobin.
+     * Values are never written in scientific notation, since rrdtool only
+     * accepts plain integers for COUNTER and DERIVE data sources.
+     *
+     * @param sb the builder to append to
+     * @param value the value, NaN and infinite values are written as 'U'
+     */
+    public static void appendValue(final StringBuilder sb, final double value) {
+        if (!Double.isFinite(value)) {
+            sb.append('U');
+        } else if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            sb.append((long) value);
+        } else if (Math.abs(value) >= 1e-3 && Math.abs(value) < 1e7) {
+            // Double.toString() only uses scientific notation outside of this range
+            sb.append(value);
+        } else {
+            sb.append(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+        }
+    }
+
+    /**
+     * Appends a single value using the notation understood by both rrdtool and JRobin,
+     * keeping integral values exact.
+     *
+     * @param sb the builder to append to
+     * @param value the value, null, NaN and infinite values are written as 'U'
+     */
+    public static void appendValue(final StringBuilder sb, final Number value) {
+        if (value == null) {
+            sb.append('U');
+        } else if (isIntegral(value)) {
+            sb.append(value.longValue());
+        } else if (value instanceof BigInteger) {
+            sb.append(value);
+        } else if (value instanceof BigDecimal) {
+            sb.append(((BigDecimal) value).toPlainString());
+        } else {
+            appendValue(sb, value.doubleValue());
+        }
+    }
+
+    private static boolean isIntegral(final Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+}
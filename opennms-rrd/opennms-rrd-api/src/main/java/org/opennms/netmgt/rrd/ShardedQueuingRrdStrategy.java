@@ -0,0 +1,724 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Queues updates in memory and writes them to the delegate strategy from a
+ * fixed set of writer threads.
+ *
+ * The files are partitioned into shards, each of which is drained by a single
+ * writer thread, so all of the updates for a given file are written in order
+ * by the same thread. The pending samples for each file are kept in primitive
+ * arrays and are all written using a single open of the file.
+ *
+ * A file is written once its oldest pending sample is older than the flush
+ * deadline, giving the samples that arrive in the meantime a chance to be
+ * written along with it. Files are written in path order to improve locality.
+ * Files promoted using {@link #promoteEnqueuedFiles(Collection)}, and all of
+ * the files when more than half of the queue capacity is in use, are written
+ * without waiting for the deadline. The promotion is passed on to the delegate
+ * by the writer thread once the pending samples for the file were written.
+ *
+ * Updates given in their string form are written in that form, so that
+ * integers that can't be represented exactly as doubles are not rounded.
+ *
+ * When the queue is full, the threads calling updateFile are blocked until
+ * there is room for their samples, up to the backpressure timeout, after which
+ * the samples are dropped.
+ *
+ * The following metrics are exposed over JMX: queue depth (files and samples),
+ * age of the oldest pending sample, samples enqueued, written and dropped,
+ * errors and file flush timings.
+ */
+public class ShardedQueuingRrdStrategy implements RrdStrategy<Object, String> {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedQueuingRrdStrategy.class);
+
+    private static final long IDLE_WAIT_MS = 1000;
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private int m_writeThreads = 2;
+    private long m_flushDeadline = 1000;
+    private int m_maxPendingValues = 5000000;
+    private long m_backpressureTimeout = 10000;
+
+    private Shard[] m_shards;
+    private Semaphore m_capacity;
+    private volatile boolean m_started = false;
+    private volatile boolean m_stopped = false;
+    private final List<Thread> m_writers = new ArrayList<>();
+
+    private final AtomicLong m_pendingSamples = new AtomicLong(0);
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Meter m_samplesEnqueued = m_metrics.meter("samples-enqueued");
+    private final Meter m_samplesWritten = m_metrics.meter("samples-written");
+    private final Counter m_samplesDropped = m_metrics.counter("samples-dropped");
+    private final Counter m_errors = m_metrics.counter("errors");
+    private final Timer m_flushes = m_metrics.timer("flushes");
+    private final Timer m_backpressure = m_metrics.timer("backpressure-waits");
+    private JmxReporter m_reporter;
+
+    /**
+     * The samples waiting to be written to a single file.
+     */
+    private static final class PendingFile {
+        private final String m_fileName;
+        private final int m_width;
+        private long[] m_timestamps = new long[2];
+        private double[] m_values;
+        /**
+         * The updates that were given in their string form, allocated on first use.
+         */
+        private String[] m_data;
+        private int m_count = 0;
+        private boolean m_removed = false;
+        private volatile long m_oldestNanos = System.nanoTime();
+
+        private PendingFile(String fileName, int width) {
+            m_fileName = fileName;
+            m_width = width;
+            m_values = new double[2 * width];
+        }
+
+        /**
+         * @return false if the file was removed from its shard and the sample
+         * must be added to a new instance
+         */
+        private synchronized boolean add(long timestamp, double[] values, String data) {
+            if (m_removed) {
+                return false;
+            }
+            if (m_count == m_timestamps.length) {
+                final int capacity = m_count * 2;
+                final long[] timestamps = new long[capacity];
+                System.arraycopy(m_timestamps, 0, timestamps, 0, m_count);
+                m_timestamps = timestamps;
+                final double[] vals = new double[capacity * m_width];
+                System.arraycopy(m_values, 0, vals, 0, m_count * m_width);
+                m_values = vals;
+                if (m_data != null) {
+                    final String[] strings = new String[capacity];
+                    System.arraycopy(m_data, 0, strings, 0, m_count);
+                    m_data = strings;
+                }
+            }
+            if (data != null) {
+                if (m_data == null) {
+                    m_data = new String[m_timestamps.length];
+                }
+                m_data[m_count] = data;
+            }
+            if (m_count == 0) {
+                m_oldestNanos = System.nanoTime();
+            }
+            m_timestamps[m_count] = timestamp;
+            System.arraycopy(values, 0, m_values, m_count * m_width, m_width);
+            m_count++;
+            return true;
+        }
+
+        /**
+         * Prevents any further samples from being added, the caller is
+         * responsible for removing this instance from its shard.
+         */
+        private synchronized void markRemoved() {
+            m_removed = true;
+        }
+    }
+
+    private static final class Shard {
+        private final ConcurrentHashMap<String, PendingFile> m_files = new ConcurrentHashMap<>();
+        private final Set<String> m_promoted = ConcurrentHashMap.newKeySet();
+        private volatile long m_oldestAgeNanos = 0;
+        private boolean m_signaled = false;
+
+        private synchronized void signal() {
+            m_signaled = true;
+            notifyAll();
+        }
+
+        private synchronized void await(long timeoutMs) throws InterruptedException {
+            if (!m_signaled && timeoutMs > 0) {
+                wait(timeoutMs);
+            }
+            m_signaled = false;
+        }
+    }
+
+    /**
+     * <p>Constructor for ShardedQueuingRrdStrategy.</p>
+     *
+     * @param delegate the strategy used to write the files
+     */
+    public ShardedQueuingRrdStrategy(RrdStrategy<Object, Object> delegate) {
+        m_delegate = delegate;
+    }
+
+    /**
+     * <p>getDelegate</p>
+     *
+     * @return a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConfigurationProperties(Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    public void setWriteThreads(int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    public long getFlushDeadline() {
+        return m_flushDeadline;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the oldest sample for a file is held
+     * before the file is written.
+     *
+     * @param flushDeadline a long.
+     */
+    public void setFlushDeadline(long flushDeadline) {
+        m_flushDeadline = flushDeadline;
+    }
+
+    public int getMaxPendingValues() {
+        return m_maxPendingValues;
+    }
+
+    /**
+     * Sets the number of values that can be queued before the callers are blocked.
+     *
+     * @param maxPendingValues an int.
+     */
+    public void setMaxPendingValues(int maxPendingValues) {
+        m_maxPendingValues = maxPendingValues;
+    }
+
+    public long getBackpressureTimeout() {
+        return m_backpressureTimeout;
+    }
+
+    /**
+     * Sets how long, in milliseconds, callers are blocked waiting for room in
+     * the queue before their samples are dropped.
+     *
+     * @param backpressureTimeout a long.
+     */
+    public void setBackpressureTimeout(long backpressureTimeout) {
+        m_backpressureTimeout = backpressureTimeout;
+    }
+
+    /**
+     * Starts the writer threads, this is done automatically on the first update.
+     */
+    public synchronized void start() {
+        if (m_started) {
+            return;
+        }
+
+        final int numShards = Math.max(1, m_writeThreads);
+        m_capacity = new Semaphore(Math.max(1, m_maxPendingValues));
+        final Shard[] shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard();
+        }
+        m_shards = shards;
+
+        m_metrics.register("queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getPendingFiles();
+            }
+        });
+        m_metrics.register("pending-samples", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return m_pendingSamples.get();
+            }
+        });
+        m_metrics.register("oldest-pending-age-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getOldestPendingAge();
+            }
+        });
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(ShardedQueuingRrdStrategy.class.getPackage().getName() + ".queue")
+                .build();
+        m_reporter.start();
+
+        for (int i = 0; i < numShards; i++) {
+            final Shard shard = shards[i];
+            final Thread writer = new Thread(() -> runWriter(shard), "RrdWriter-" + i);
+            writer.setDaemon(true);
+            m_writers.add(writer);
+            writer.start();
+        }
+        m_started = true;
+        LOG.info("Started {} writer threads with a flush deadline of {}ms and room for {} values.",
+                numShards, m_flushDeadline, m_maxPendingValues);
+    }
+
+    /**
+     * Writes all of the pending samples and stops the writer threads.
+     */
+    public void destroy() {
+        if (!m_started || m_stopped) {
+            return;
+        }
+        m_stopped = true;
+        for (Shard shard : m_shards) {
+            shard.signal();
+        }
+        for (Thread writer : m_writers) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Promotions that raced with the shutdown
+        for (Shard shard : m_shards) {
+            promote(shard, Collections.emptyList());
+        }
+        m_reporter.stop();
+    }
+
+    //
+    // RrdStrategy Implementation
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public Object createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) throws Exception {
+        return m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The files are created immediately, so that they exist before any of their
+     * updates are written.
+     */
+    @Override
+    public void createFile(Object rrdDef) throws Exception {
+        m_delegate.createFile(rrdDef);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String openFile(String fileName) throws Exception {
+        return fileName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(String rrd) throws Exception {
+        // no need to do anything here
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, String data) throws Exception {
+        // Keep the original update, the values may not be representable as doubles
+        enqueue(rrdFile, RrdUpdateUtils.parseTimestamp(data), RrdUpdateUtils.parseValues(data), data);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        enqueue(rrdFile, timestamp, values, null);
+    }
+
+    private void enqueue(String rrdFile, long timestamp, double[] values, String data) throws Exception {
+        if (!m_started) {
+            start();
+        }
+        if (m_stopped) {
+            throw new IllegalStateException("The queue is stopped.");
+        }
+
+        final int permits = getPermits(values.length);
+        if (!m_capacity.tryAcquire(permits)) {
+            // The queue is full, make the caller wait for the writers
+            try (Timer.Context ctx = m_backpressure.time()) {
+                if (!m_capacity.tryAcquire(permits, m_backpressureTimeout, TimeUnit.MILLISECONDS)) {
+                    m_samplesDropped.inc();
+                    LOG.warn("The queue is full, dropping an update for {} after waiting {}ms.", rrdFile, m_backpressureTimeout);
+                    return;
+                }
+            }
+        }
+
+        final Shard shard = getShard(rrdFile);
+        while (true) {
+            final PendingFile file = shard.m_files.computeIfAbsent(rrdFile, f -> new PendingFile(f, values.length));
+            if (file.m_width != values.length) {
+                m_capacity.release(permits);
+                m_errors.inc();
+                throw new IllegalArgumentException(String.format("Expected %d values for %s, but got %d.", file.m_width, rrdFile, values.length));
+            }
+            if (file.add(timestamp, values, data)) {
+                break;
+            }
+            // The file is being written, retry with a new entry
+            shard.m_files.remove(rrdFile, file);
+        }
+        m_pendingSamples.incrementAndGet();
+        m_samplesEnqueued.mark();
+
+        if (m_flushDeadline <= 0 || isUnderPressure()) {
+            shard.signal();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The given files are written without waiting for the flush deadline,
+     * and are promoted in the delegate once their pending samples were written.
+     */
+    @Override
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        if (!m_started || m_stopped) {
+            m_delegate.promoteEnqueuedFiles(rrdFiles);
+            return;
+        }
+        for (String rrdFile : rrdFiles) {
+            // Let the writer promote the file, even if nothing is pending,
+            // since it may be in the middle of writing it
+            final Shard shard = getShard(rrdFile);
+            shard.m_promoted.add(rrdFile);
+            shard.signal();
+        }
+    }
+
+    private int getPermits(int numValues) {
+        return Math.max(1, Math.min(numValues, m_maxPendingValues));
+    }
+
+    private Shard getShard(String rrdFile) {
+        return m_shards[(rrdFile.hashCode() & Integer.MAX_VALUE) % m_shards.length];
+    }
+
+    private boolean isUnderPressure() {
+        return m_capacity.availablePermits() < m_maxPendingValues / 2;
+    }
+
+    //
+    // Writers
+    //
+
+    private void runWriter(final Shard shard) {
+        final long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(m_flushDeadline);
+        final List<PendingFile> ready = new ArrayList<>();
+        while (true) {
+            final boolean stopping = m_stopped;
+            final boolean flushAll = stopping || isUnderPressure();
+
+            // Pick the files that are due
+            final long now = System.nanoTime();
+            long nextDueNanos = Long.MAX_VALUE;
+            long oldestAgeNanos = 0;
+            ready.clear();
+            for (PendingFile file : shard.m_files.values()) {
+                final long age = now - file.m_oldestNanos;
+                oldestAgeNanos = Math.max(oldestAgeNanos, age);
+                final boolean promoted = shard.m_promoted.contains(file.m_fileName);
+                if (flushAll || promoted || age >= deadlineNanos) {
+                    ready.add(file);
+                } else {
+                    nextDueNanos = Math.min(nextDueNanos, deadlineNanos - age);
+                }
+            }
+            shard.m_oldestAgeNanos = oldestAgeNanos;
+
+            // Write the files in path order
+            ready.sort(Comparator.comparing(f -> f.m_fileName));
+            for (PendingFile file : ready) {
+                shard.m_files.remove(file.m_fileName, file);
+                file.markRemoved();
+                write(file);
+            }
+            promote(shard, ready);
+
+            if (ready.isEmpty()) {
+                if (stopping) {
+                    return;
+                }
+                final long waitMs = nextDueNanos == Long.MAX_VALUE ? IDLE_WAIT_MS : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextDueNanos));
+                try {
+                    shard.await(waitMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the promotion of the files that were written, or that have
+     * nothing pending, on to the delegate. Files with samples that arrived
+     * since the last pass stay promoted until the next one.
+     */
+    private void promote(final Shard shard, final List<PendingFile> written) {
+        if (shard.m_promoted.isEmpty()) {
+            return;
+        }
+        final Set<String> writtenFiles = new HashSet<>();
+        for (PendingFile file : written) {
+            writtenFiles.add(file.m_fileName);
+        }
+        final List<String> promoted = new ArrayList<>();
+        for (String rrdFile : shard.m_promoted) {
+            if ((writtenFiles.contains(rrdFile) || !shard.m_files.containsKey(rrdFile)) && shard.m_promoted.remove(rrdFile)) {
+                promoted.add(rrdFile);
+            }
+        }
+        if (!promoted.isEmpty()) {
+            try {
+                m_delegate.promoteEnqueuedFiles(promoted);
+            } catch (Throwable e) {
+                m_errors.inc();
+                LOG.warn("Error promoting files {}: {}", promoted, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void write(final PendingFile file) {
+        if (file.m_count == 0) {
+            return;
+        }
+        final int width = file.m_width;
+        final double[] values = new double[width];
+        int written = 0;
+        Object rrd = null;
+        try (Timer.Context ctx = m_flushes.time()) {
+            rrd = m_delegate.openFile(file.m_fileName);
+            for (int i = 0; i < file.m_count; i++) {
+                try {
+                    if (file.m_data != null && file.m_data[i] != null) {
+                        m_delegate.updateFile(rrd, "", file.m_data[i]);
+                    } else {
+                        System.arraycopy(file.m_values, i * width, values, 0, width);
+                        m_delegate.updateFile(rrd, "", file.m_timestamps[i], values);
+                    }
+                    written++;
+                } catch (Throwable e) {
+                    m_errors.inc();
+                    LOG.debug("Error updating file {} at {}: {}", file.m_fileName, file.m_timestamps[i], e.getMessage(), e);
+                }
+            }
+        } catch (Throwable e) {
+            m_errors.inc();
+            LOG.warn("Error opening file {}, {} updates were lost: {}", file.m_fileName, file.m_count, e.getMessage());
+            LOG.debug("Error opening file {}", file.m_fileName, e);
+        } finally {
+            if (rrd != null) {
+                try {
+                    m_delegate.closeFile(rrd);
+                } catch (Throwable e) {
+                    m_errors.inc();
+                    LOG.debug("Error closing file {}: {}", file.m_fileName, e.getMessage(), e);
+                }
+            }
+            m_pendingSamples.addAndGet(-file.m_count);
+            m_capacity.release(file.m_count * getPermits(width));
+            m_samplesWritten.mark(written);
+        }
+    }
+
+    //
+    // Statistics
+    //
+
+    /**
+     * <p>getPendingFiles</p>
+     *
+     * @return the number of files with pending samples
+     */
+    public int getPendingFiles() {
+        final Shard[] shards = m_shards;
+        int count = 0;
+        if (shards != null) {
+            for (Shard shard : shards) {
+                count += shard.m_files.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>getPendingSamples</p>
+     *
+     * @return the number of samples waiting to be written
+     */
+    public long getPendingSamples() {
+        return m_pendingSamples.get();
+    }
+
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return the age in milliseconds of the oldest pending sample, as of the last pass of the writers
+     */
+    public long getOldestPendingAge() {
+        final Shard[] shards = m_shards;
+        long oldest = 0;
+        if (shards != null) {
+            for (Shard shard : shards) {
+                oldest = Math.max(oldest, shard.m_oldestAgeNanos);
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(oldest);
+    }
+
+    public long getSamplesWritten() {
+        return m_samplesWritten.getCount();
+    }
+
+    public long getSamplesDropped() {
+        return m_samplesDropped.getCount();
+    }
+
+    public long getErrors() {
+        return m_errors.getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStats() {
+        return String.format("pendingFiles=%d, pendingSamples=%d, oldestPendingAgeMs=%d, samplesEnqueued=%d, samplesWritten=%d (%.1f/s), samplesDropped=%d, errors=%d",
+                getPendingFiles(), getPendingSamples(), getOldestPendingAge(), m_samplesEnqueued.getCount(),
+                getSamplesWritten(), m_samplesWritten.getOneMinuteRate(), getSamplesDropped(), getErrors());
+    }
+
+    //
+    // Reads and graphs are passed through to the delegate
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, String consolidationFunction, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(String rrdFile, String ds, int interval, int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+}
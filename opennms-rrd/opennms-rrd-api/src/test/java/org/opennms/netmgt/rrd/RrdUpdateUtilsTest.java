@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class RrdUpdateUtilsTest {
+
+    @Test
+    public void canFormatDoubles() {
+        assertEquals("1:2:2.0001:U:U", RrdUpdateUtils.formatUpdate(1, new double[] { 2.0d, 2.0001d, Double.NaN, Double.POSITIVE_INFINITY }));
+        assertEquals("1:1000000000000000:-1000000000000000", RrdUpdateUtils.formatUpdate(1, new double[] { 1e15, -1e15 }));
+        assertEquals("1:100000000000000000000:0.00001", RrdUpdateUtils.formatUpdate(1, new double[] { 1e20, 1e-5 }));
+    }
+
+    @Test
+    public void keepsCountersAboveTwoToTheFiftyThirdExact() {
+        // 2^53 + 1 can't be represented as a double
+        final long counter = 9007199254740993L;
+        final Number[] values = new Number[] { counter, 1, null };
+
+        assertNull(RrdUpdateUtils.toDoubles(values));
+        assertEquals("1:9007199254740993:1:U", RrdUpdateUtils.formatUpdate(1, values));
+        assertEquals("1:9223372036854775807", RrdUpdateUtils.formatUpdate(1, new Number[] { Long.MAX_VALUE }));
+        assertEquals("1:18446744073709551615", RrdUpdateUtils.formatUpdate(1, new Number[] { new BigInteger("18446744073709551615") }));
+    }
+
+    @Test
+    public void convertsExactValuesToDoubles() {
+        assertArrayEquals(new double[] { 9007199254740992d, 1.5d, Double.NaN, Double.NaN },
+                RrdUpdateUtils.toDoubles(new Number[] { 9007199254740992L, 1.5d, null, Double.NEGATIVE_INFINITY }), 0.0d);
+    }
+}
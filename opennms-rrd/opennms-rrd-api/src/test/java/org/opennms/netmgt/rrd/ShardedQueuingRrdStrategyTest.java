@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedQueuingRrdStrategyTest {
+
+    private RecordingRrdStrategy m_delegate;
+    private ShardedQueuingRrdStrategy m_strategy;
+
+    /**
+     * Records the files that were opened and the updates written to them.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final List<String> m_opens = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> m_updates = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> m_promoted = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Object openFile(String fileName) {
+            m_opens.add(fileName);
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, long timestamp, double[] values) {
+            m_updates.add(rrd + "@" + RrdUpdateUtils.formatUpdate(timestamp, values));
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            m_updates.add(rrd + "@" + data);
+        }
+
+        @Override
+        public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+            // The samples must have been written by the time the files are promoted
+            for (String rrdFile : rrdFiles) {
+                m_promoted.add(rrdFile + "@" + m_updates.size());
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+        m_strategy = new ShardedQueuingRrdStrategy(m_delegate);
+        m_strategy.setWriteThreads(2);
+        // Long enough that nothing is written until we ask for it
+        m_strategy.setFlushDeadline(TimeUnit.MINUTES.toMillis(5));
+    }
+
+    @After
+    public void tearDown() {
+        m_strategy.destroy();
+    }
+
+    @Test
+    public void canCoalesceUpdatesToTheSameFile() throws Exception {
+        final String rrd = m_strategy.openFile("/tmp/a.jrb");
+        m_strategy.updateFile(rrd, "test", 1000L, new double[] { 1, 2 });
+        m_strategy.updateFile(rrd, "test", 1300L, new double[] { 3, Double.NaN });
+        m_strategy.updateFile(rrd, "test", "1600:5:6");
+        m_strategy.closeFile(rrd);
+        assertEquals(3, m_strategy.getPendingSamples());
+
+        m_strategy.destroy();
+
+        assertEquals(Collections.singletonList("/tmp/a.jrb"), m_delegate.m_opens);
+        assertEquals(3, m_delegate.m_updates.size());
+        assertEquals("/tmp/a.jrb@1000:1:2", m_delegate.m_updates.get(0));
+        assertEquals("/tmp/a.jrb@1300:3:U", m_delegate.m_updates.get(1));
+        assertEquals("/tmp/a.jrb@1600:5:6", m_delegate.m_updates.get(2));
+        assertEquals(0, m_strategy.getPendingSamples());
+        assertEquals(3, m_strategy.getSamplesWritten());
+    }
+
+    @Test
+    public void canPromoteFiles() throws Exception {
+        m_strategy.updateFile("/tmp/a.jrb", "test", 1000L, new double[] { 1 });
+        m_strategy.updateFile("/tmp/b.jrb", "test", 1000L, new double[] { 2 });
+
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList("/tmp/b.jrb"));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (m_delegate.m_updates.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList("/tmp/b.jrb@1000:2"), m_delegate.m_updates);
+        assertEquals(1, m_strategy.getPendingSamples());
+
+        while (m_delegate.m_promoted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList("/tmp/b.jrb@1"), m_delegate.m_promoted);
+    }
+
+    @Test
+    public void canPromoteFilesWithNothingPending() throws Exception {
+        m_strategy.updateFile("/tmp/a.jrb", "test", 1000L, new double[] { 1 });
+
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList("/tmp/b.jrb"));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (m_delegate.m_promoted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList("/tmp/b.jrb@0"), m_delegate.m_promoted);
+        assertEquals(1, m_strategy.getPendingSamples());
+    }
+
+    @Test
+    public void keepsStringUpdatesIntact() throws Exception {
+        // Can't be represented exactly as a double
+        m_strategy.updateFile("/tmp/a.jrb", "test", "1000:9007199254740993:U");
+        m_strategy.updateFile("/tmp/a.jrb", "test", 1300L, new double[] { 1, 2 });
+        m_strategy.destroy();
+
+        assertEquals(2, m_delegate.m_updates.size());
+        assertEquals("/tmp/a.jrb@1000:9007199254740993:U", m_delegate.m_updates.get(0));
+        assertEquals("/tmp/a.jrb@1300:1:2", m_delegate.m_updates.get(1));
+    }
+
+    @Test
+    public void canWriteUpdatesFromManyThreadsInOrder() throws Exception {
+        m_strategy.setFlushDeadline(5);
+        final int numFiles = 20;
+        final int numUpdates = 500;
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int f = 0; f < numFiles; f++) {
+            final String rrd = "/tmp/" + f + ".jrb";
+            executor.execute(() -> {
+                for (int i = 0; i < numUpdates; i++) {
+                    try {
+                        m_strategy.updateFile(rrd, "test", i, new double[] { i });
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        m_strategy.destroy();
+
+        assertEquals(numFiles * numUpdates, m_delegate.m_updates.size());
+        assertEquals(numFiles * numUpdates, m_strategy.getSamplesWritten());
+        // The updates for each file must be written in the order in which they were enqueued
+        final int[] next = new int[numFiles];
+        for (String update : m_delegate.m_updates) {
+            final int f = Integer.parseInt(update.substring("/tmp/".length(), update.indexOf('.')));
+            assertEquals(update, String.format("/tmp/%d.jrb@%d:%d", f, next[f], next[f]), update);
+            next[f]++;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUpdatesWithADifferentNumberOfValues() throws Exception {
+        m_strategy.updateFile("/tmp/a.jrb", "test", 1000L, new double[] { 1, 2 });
+        m_strategy.updateFile("/tmp/a.jrb", "test", 1300L, new double[] { 1 });
+    }
+}
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of open {@link RrdDb} instances, shared by updates and reads.
+ *
+ * Opening a JRobin file requires opening the file and parsing its header, so
+ * keeping the most recently used files open avoids doing this on every update
+ * and every fetch. Files that are not in use are closed in least recently used
+ * order once the pool grows past its capacity. Files that are in use are never
+ * closed underneath their users: if they are evicted or invalidated while in
+ * use, they are closed when they are released.
+ *
+ * Pools that are used for updates open the files in read-write mode. Fetches
+ * are served from a separate read-only pool, so that reading a file never
+ * requires write access to it.
+ */
+public class JRobinRrdDbPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPool.class);
+
+    private final int m_capacity;
+
+    private final boolean m_readOnly;
+
+    /**
+     * Pooled entries by path, in access order.
+     */
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * All of the entries handed out by the pool, including the ones that were
+     * evicted or invalidated while in use.
+     */
+    private final Map<RrdDb, Entry> m_entriesByRrdDb = new IdentityHashMap<>();
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    private static class Entry {
+        private final File m_file;
+        private final RrdDb m_rrdDb;
+        private int m_usageCount = 0;
+        private boolean m_closePending = false;
+
+        private Entry(String path, RrdDb rrdDb) {
+            m_file = new File(path);
+            m_rrdDb = rrdDb;
+        }
+    }
+
+    /**
+     * <p>Constructor for JRobinRrdDbPool.</p>
+     *
+     * @param capacity the number of unused files to keep open
+     */
+    public JRobinRrdDbPool(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * <p>Constructor for JRobinRrdDbPool.</p>
+     *
+     * @param capacity the number of unused files to keep open
+     * @param readOnly whether the files are opened in read-only mode
+     */
+    public JRobinRrdDbPool(int capacity, boolean readOnly) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        m_capacity = capacity;
+        m_readOnly = readOnly;
+    }
+
+    /**
+     * Retrieves an open {@link RrdDb} for the given path, opening the file if
+     * it is not already open. The instance must be returned using {@link #release(RrdDb)}.
+     *
+     * @param path the path of the file
+     * @return an open {@link RrdDb}
+     * @throws java.io.IOException if the file cannot be opened
+     * @throws org.jrobin.core.RrdException if the file cannot be opened
+     */
+    public RrdDb requestRrdDb(final String path) throws IOException, RrdException {
+        final List<RrdDb> toClose = new ArrayList<>(1);
+        try {
+            synchronized (this) {
+                final Entry entry = m_entries.get(path);
+                if (entry != null) {
+                    if (entry.m_file.exists()) {
+                        entry.m_usageCount++;
+                        m_hits.incrementAndGet();
+                        return entry.m_rrdDb;
+                    }
+                    // The file was removed, don't keep writing to the stale handle
+                    LOG.debug("requestRrdDb: {} no longer exists, discarding the pooled instance", path);
+                    m_entries.remove(path);
+                    discard(entry, toClose);
+                }
+            }
+
+            m_misses.incrementAndGet();
+            final RrdDb rrdDb = new RrdDb(path, m_readOnly);
+
+            synchronized (this) {
+                final Entry existing = m_entries.get(path);
+                if (existing != null) {
+                    // Opened concurrently by another thread, use the pooled instance
+                    existing.m_usageCount++;
+                    toClose.add(rrdDb);
+                    return existing.m_rrdDb;
+                }
+
+                final Entry entry = new Entry(path, rrdDb);
+                entry.m_usageCount = 1;
+                m_entries.put(path, entry);
+                m_entriesByRrdDb.put(rrdDb, entry);
+                evict(toClose);
+                return rrdDb;
+            }
+        } finally {
+            close(toClose);
+        }
+    }
+
+    /**
+     * Returns an {@link RrdDb} retrieved using {@link #requestRrdDb(String)} to the pool.
+     * Instances that do not belong to the pool are closed.
+     *
+     * @param rrdDb the instance to release
+     * @throws java.io.IOException if an error occurs closing the file
+     */
+    public void release(final RrdDb rrdDb) throws IOException {
+        final List<RrdDb> toClose = new ArrayList<>(1);
+        synchronized (this) {
+            final Entry entry = m_entriesByRrdDb.get(rrdDb);
+            if (entry == null) {
+                toClose.add(rrdDb);
+            } else {
+                entry.m_usageCount--;
+                if (entry.m_usageCount <= 0) {
+                    entry.m_usageCount = 0;
+                    if (entry.m_closePending) {
+                        m_entriesByRrdDb.remove(rrdDb);
+                        toClose.add(rrdDb);
+                    } else {
+                        evict(toClose);
+                    }
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * <p>isPooled</p>
+     *
+     * @param rrdDb an {@link RrdDb} instance
+     * @return true if the instance was handed out by this pool and is still tracked by it
+     */
+    public synchronized boolean isPooled(final RrdDb rrdDb) {
+        return m_entriesByRrdDb.containsKey(rrdDb);
+    }
+
+    /**
+     * Closes the given files if they are open, so that any pending changes are
+     * written out and the files are opened again on their next use. Files that
+     * are in use are closed as soon as they are released.
+     *
+     * @param paths the paths of the files
+     */
+    public void invalidate(final Collection<String> paths) {
+        final List<RrdDb> toClose = new ArrayList<>(paths.size());
+        synchronized (this) {
+            for (final String path : paths) {
+                final Entry entry = m_entries.remove(path);
+                if (entry != null) {
+                    discard(entry, toClose);
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Closes all of the files that are not in use, and the others as soon as
+     * they are released.
+     */
+    public void close() {
+        final List<RrdDb> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (final Entry entry : m_entries.values()) {
+                discard(entry, toClose);
+            }
+            m_entries.clear();
+        }
+        close(toClose);
+    }
+
+    private void discard(final Entry entry, final List<RrdDb> toClose) {
+        if (entry.m_usageCount == 0) {
+            m_entriesByRrdDb.remove(entry.m_rrdDb);
+            toClose.add(entry.m_rrdDb);
+        } else {
+            entry.m_closePending = true;
+        }
+    }
+
+    private void evict(final List<RrdDb> toClose) {
+        final Iterator<Entry> it = m_entries.values().iterator();
+        while (m_entries.size() > m_capacity && it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.m_usageCount == 0) {
+                it.remove();
+                m_entriesByRrdDb.remove(entry.m_rrdDb);
+                toClose.add(entry.m_rrdDb);
+                m_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static void close(final List<RrdDb> toClose) {
+        for (final RrdDb rrdDb : toClose) {
+            try {
+                rrdDb.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close rrd file: {}", rrdDb.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * <p>getCapacity</p>
+     *
+     * @return the number of unused files kept open
+     */
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /**
+     * <p>isReadOnly</p>
+     *
+     * @return true if the files are opened in read-only mode
+     */
+    public boolean isReadOnly() {
+        return m_readOnly;
+    }
+
+    /**
+     * <p>getOpenFileCount</p>
+     *
+     * @return the number of files currently held open by the pool
+     */
+    public synchronized int getOpenFileCount() {
+        return m_entriesByRrdDb.size();
+    }
+
+    public long getHitCount() {
+        return m_hits.get();
+    }
+
+    public long getMissCount() {
+        return m_misses.get();
+    }
+
+    public long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /**
+     * <p>getHitRatio</p>
+     *
+     * @return the ratio of requests served by an already open file
+     */
+    public double getHitRatio() {
+        final long hits = m_hits.get();
+        final long requests = hits + m_misses.get();
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("JRobinRrdDbPool[capacity=%d, readOnly=%b, open=%d, hits=%d, misses=%d, evictions=%d]",
+                m_capacity, m_readOnly, getOpenFileCount(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
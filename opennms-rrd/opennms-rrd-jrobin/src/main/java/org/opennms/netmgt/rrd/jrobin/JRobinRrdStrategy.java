@@ -36,12 +36,14 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.function.Supplier;
 
 import org.jrobin.core.FetchData;
 import org.jrobin.core.RrdDb;
@@ -52,12 +54,17 @@ import org.jrobin.data.DataProcessor;
 import org.jrobin.data.Plottable;
 import org.jrobin.graph.RrdGraph;
 import org.jrobin.graph.RrdGraphDef;
+import org.opennms.core.utils.TimeSeries;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdGraphDetails;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
 
 /**
  * Provides a JRobin based implementation of RrdStrategy. It uses JRobin 1.4 in
@@ -71,6 +78,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String POOL_SIZE_PROPERTY = TimeSeries.JROBIN_POOL_SIZE_PROPERTY;
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -80,6 +88,20 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    /**
+     * Keeps recently updated files open, null if disabled.
+     */
+    private volatile JRobinRrdDbPool m_pool;
+
+    /**
+     * Keeps recently fetched files open in read-only mode, null if disabled.
+     */
+    private volatile JRobinRrdDbPool m_readPool;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private JmxReporter m_reporter;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -136,6 +158,114 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+
+        int poolSize = 0;
+        if (m_configurationProperties != null) {
+            try {
+                poolSize = Integer.parseInt(m_configurationProperties.getProperty(POOL_SIZE_PROPERTY,
+                        Integer.toString(TimeSeries.DEFAULT_JROBIN_POOL_SIZE)).trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value for {}, the pool of open files will be disabled", POOL_SIZE_PROPERTY, e);
+            }
+        }
+        setPoolSize(poolSize);
+    }
+
+    /**
+     * Sets the number of files kept open between updates and reads.
+     *
+     * @param poolSize the number of files, 0 to open and close the files on every use
+     */
+    public synchronized void setPoolSize(int poolSize) {
+        final JRobinRrdDbPool previousPool = m_pool;
+        final JRobinRrdDbPool previousReadPool = m_readPool;
+        if (previousPool != null && previousPool.getCapacity() == poolSize) {
+            return;
+        }
+        m_pool = poolSize > 0 ? new JRobinRrdDbPool(poolSize) : null;
+        m_readPool = poolSize > 0 ? new JRobinRrdDbPool(poolSize, true) : null;
+        if (previousPool != null) {
+            previousPool.close();
+            previousReadPool.close();
+        }
+
+        if (poolSize > 0 && m_reporter == null) {
+            registerPoolMetrics("pool", () -> m_pool);
+            registerPoolMetrics("read-pool", () -> m_readPool);
+            m_reporter = JmxReporter.forRegistry(m_metrics)
+                    .inDomain(JRobinRrdStrategy.class.getPackage().getName())
+                    .build();
+            m_reporter.start();
+        } else if (poolSize <= 0 && m_reporter != null) {
+            m_reporter.stop();
+            m_reporter = null;
+            m_metrics.removeMatching((name, metric) -> true);
+        }
+    }
+
+    private void registerPoolMetrics(final String prefix, final Supplier<JRobinRrdDbPool> pool) {
+        m_metrics.register(prefix + ".open-files", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                final JRobinRrdDbPool p = pool.get();
+                return p == null ? 0 : p.getOpenFileCount();
+            }
+        });
+        m_metrics.register(prefix + ".hits", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final JRobinRrdDbPool p = pool.get();
+                return p == null ? 0L : p.getHitCount();
+            }
+        });
+        m_metrics.register(prefix + ".misses", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final JRobinRrdDbPool p = pool.get();
+                return p == null ? 0L : p.getMissCount();
+            }
+        });
+        m_metrics.register(prefix + ".evictions", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final JRobinRrdDbPool p = pool.get();
+                return p == null ? 0L : p.getEvictionCount();
+            }
+        });
+        m_metrics.register(prefix + ".hit-ratio", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                final JRobinRrdDbPool p = pool.get();
+                return p == null ? 0.0 : p.getHitRatio();
+            }
+        });
+    }
+
+    /**
+     * <p>getPool</p>
+     *
+     * @return the pool of files open for updates, or null if disabled
+     */
+    public JRobinRrdDbPool getPool() {
+        return m_pool;
+    }
+
+    /**
+     * <p>getReadPool</p>
+     *
+     * @return the pool of files open for fetches, or null if disabled
+     */
+    public JRobinRrdDbPool getReadPool() {
+        return m_readPool;
+    }
+
+    /**
+     * <p>getMetrics</p>
+     *
+     * @return the registry holding the pool metrics
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
     }
 
     /**
@@ -146,7 +276,40 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        release(rrdFile);
+    }
+
+    private RrdDb open(final String fileName, final boolean readOnly) throws IOException, RrdException {
+        final JRobinRrdDbPool pool = readOnly ? m_readPool : m_pool;
+        if (pool != null) {
+            return pool.requestRrdDb(fileName);
+        }
+        return new RrdDb(fileName, readOnly);
+    }
+
+    private void release(final RrdDb rrdFile) throws IOException {
+        final JRobinRrdDbPool readPool = m_readPool;
+        if (readPool != null && readPool.isPooled(rrdFile)) {
+            readPool.release(rrdFile);
+            return;
+        }
+        final JRobinRrdDbPool pool = m_pool;
+        if (pool != null) {
+            pool.release(rrdFile);
+        } else {
+            rrdFile.close();
+        }
+    }
+
+    private void invalidate(final Collection<String> fileNames) {
+        final JRobinRrdDbPool pool = m_pool;
+        if (pool != null) {
+            pool.invalidate(fileNames);
+        }
+        final JRobinRrdDbPool readPool = m_readPool;
+        if (readPool != null) {
+            readPool.invalidate(fileNames);
+        }
     }
 
     /** {@inheritDoc} */
@@ -201,6 +364,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        // Don't keep using a handle to a file that was replaced
+        invalidate(Collections.singletonList(rrdDef.getPath()));
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -212,7 +378,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
-        return new RrdDb(fileName);
+        return open(fileName, false);
     }
 
     /**
@@ -226,6 +392,19 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         sample.setAndUpdate(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Creates a sample from the JRobin RrdDb and sets the values directly,
+     * without formatting and parsing them.
+     */
+    @Override
+    public void updateFile(final RrdDb rrdFile, final String owner, final long timestamp, final double[] values) throws Exception {
+        Sample sample = rrdFile.createSample(timestamp);
+        sample.setValues(values);
+        sample.update();
+    }
+
     /**
      * Initialized the RrdDb to use the FILE factory because the NIO factory
      * uses too much memory for our implementation.
@@ -255,7 +434,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
+            rrd = open(fileName, true);
             FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
@@ -270,7 +449,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    release(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -283,7 +462,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = open(fileName, true);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
@@ -312,7 +491,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    release(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -390,7 +569,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     /** {@inheritDoc} */
     @Override
     public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        // no need to do anything since this strategy doesn't queue
+        // this strategy doesn't queue, but close the files so that any pending
+        // changes are written out before they are read by someone else
+        invalidate(rrdFiles);
     }
 
 
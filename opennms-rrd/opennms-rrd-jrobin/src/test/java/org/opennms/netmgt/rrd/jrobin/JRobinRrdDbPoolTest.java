@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.test.FileAnticipator;
+
+public class JRobinRrdDbPoolTest {
+
+    private JRobinRrdStrategy m_strategy;
+    private FileAnticipator m_fileAnticipator;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "DEBUG");
+        m_strategy = new JRobinRrdStrategy();
+        m_fileAnticipator = new FileAnticipator();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testReusesOpenFiles() throws Exception {
+        final File rrdFile = createRrdFile("foo");
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(2);
+
+        final RrdDb first = pool.requestRrdDb(rrdFile.getAbsolutePath());
+        pool.release(first);
+        final RrdDb second = pool.requestRrdDb(rrdFile.getAbsolutePath());
+        pool.release(second);
+
+        assertSame(first, second);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getOpenFileCount());
+        pool.close();
+        assertEquals(0, pool.getOpenFileCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(2);
+        final List<String> paths = new ArrayList<>();
+        for (String name : new String[] { "a", "b", "c" }) {
+            paths.add(createRrdFile(name).getAbsolutePath());
+        }
+
+        final RrdDb a = pool.requestRrdDb(paths.get(0));
+        pool.release(a);
+        pool.release(pool.requestRrdDb(paths.get(1)));
+        // Use 'a' again so that 'b' becomes the least recently used
+        pool.release(pool.requestRrdDb(paths.get(0)));
+        pool.release(pool.requestRrdDb(paths.get(2)));
+
+        assertEquals(2, pool.getOpenFileCount());
+        assertEquals(1, pool.getEvictionCount());
+
+        final RrdDb a2 = pool.requestRrdDb(paths.get(0));
+        assertSame(a, a2);
+        pool.release(a2);
+        pool.close();
+    }
+
+    @Test
+    public void testFilesInUseAreNotClosed() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(1);
+        final String a = createRrdFile("a").getAbsolutePath();
+        final String b = createRrdFile("b").getAbsolutePath();
+
+        final RrdDb rrdA = pool.requestRrdDb(a);
+        final RrdDb rrdB = pool.requestRrdDb(b);
+        assertEquals(2, pool.getOpenFileCount());
+
+        // Invalidated while in use, closed on release
+        pool.invalidate(Collections.singletonList(a));
+        assertEquals(2, pool.getOpenFileCount());
+        final Sample sample = rrdA.createSample(System.currentTimeMillis() / 1000L);
+        sample.setValues(new double[] { 1.0 });
+        sample.update();
+        pool.release(rrdA);
+        assertEquals(1, pool.getOpenFileCount());
+
+        final RrdDb rrdA2 = pool.requestRrdDb(a);
+        assertNotSame(rrdA, rrdA2);
+        pool.release(rrdA2);
+        pool.release(rrdB);
+        assertEquals(1, pool.getOpenFileCount());
+        pool.close();
+    }
+
+    @Test
+    public void testStrategyUsesPool() throws Exception {
+        m_strategy.setPoolSize(4);
+        final File rrdFile = createRrdFile("foo");
+        final long now = System.currentTimeMillis() / 1000L;
+
+        for (int i = 0; i < 3; i++) {
+            final RrdDb rrdDb = m_strategy.openFile(rrdFile.getAbsolutePath());
+            m_strategy.updateFile(rrdDb, "test", now - 300 * (3 - i), new double[] { i });
+            m_strategy.closeFile(rrdDb);
+        }
+
+        assertEquals(2, m_strategy.getPool().getHitCount());
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList(rrdFile.getAbsolutePath()));
+        assertEquals(0, m_strategy.getPool().getOpenFileCount());
+    }
+
+    @Test
+    public void testFetchesUseReadOnlyPool() throws Exception {
+        m_strategy.setPoolSize(4);
+        final File rrdFile = createRrdFile("foo");
+        final long now = System.currentTimeMillis() / 1000L;
+
+        final RrdDb rrdDb = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(rrdDb, "test", now - 300, new double[] { 1.0 });
+        m_strategy.closeFile(rrdDb);
+
+        m_strategy.fetchLastValue(rrdFile.getAbsolutePath(), "bar", 300000);
+        m_strategy.fetchLastValue(rrdFile.getAbsolutePath(), "bar", 300000);
+
+        assertTrue(m_strategy.getReadPool().isReadOnly());
+        assertEquals(1, m_strategy.getReadPool().getMissCount());
+        assertEquals(1, m_strategy.getReadPool().getHitCount());
+        assertEquals(1, m_strategy.getReadPool().getOpenFileCount());
+        assertEquals(0, m_strategy.getPool().getHitCount());
+        assertEquals(1L, m_strategy.getMetrics().getGauges().get("read-pool.hits").getValue());
+
+        // Both pools let go of the file once it is promoted
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList(rrdFile.getAbsolutePath()));
+        assertEquals(0, m_strategy.getPool().getOpenFileCount());
+        assertEquals(0, m_strategy.getReadPool().getOpenFileCount());
+        m_strategy.setPoolSize(0);
+    }
+
+    private File createRrdFile(String name) throws Exception {
+        final List<RrdDataSource> dataSources = new ArrayList<>();
+        dataSources.add(new RrdDataSource("bar", RrdAttributeType.GAUGE, 3000, "U", "U"));
+        final List<String> rraList = new ArrayList<>();
+        rraList.add("RRA:AVERAGE:0.5:1:2016");
+        final RrdDef def = m_strategy.createDefinition("hello!", m_fileAnticipator.getTempDir().getAbsolutePath(), name, 300, dataSources, rraList);
+        m_strategy.createFile(def);
+        return m_fileAnticipator.expecting(name + m_strategy.getDefaultFileExtension());
+    }
+}
@@ -175,6 +175,24 @@ public class JRobinRrdStrategyTest {
         m_strategy.closeFile(openedFile);
     }
 
+    @Test
+    public void testUpdateWithValues() throws Exception {
+        File rrdFile = createRrdFile();
+        long now = System.currentTimeMillis() / 1000L;
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", now, new double[] { 1.234234 });
+        m_strategy.closeFile(openedFile);
+
+        RrdDb rrdDb = new RrdDb(rrdFile.getAbsolutePath(), true);
+        try {
+            assertEquals("last update time", now, rrdDb.getLastUpdateTime());
+            assertEquals("last value", 1.234234, rrdDb.getDatasource(0).getLastValue(), 0.0);
+        } finally {
+            rrdDb.close();
+        }
+    }
+
     @Test
     public void testSampleSetFloatingPointValueGood() throws Exception {
         File rrdFile = createRrdFile();
@@ -30,10 +30,14 @@ package org.opennms.netmgt.collectd;
 
 import java.io.File;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.collectd.Collectd.SchedulingCompletedFlag;
 import org.opennms.netmgt.collection.api.AttributeGroup;
 import org.opennms.netmgt.collection.api.CollectionAgent;
@@ -60,6 +64,7 @@ import org.opennms.netmgt.collection.support.ConstantTimeKeeper;
 import org.opennms.netmgt.config.CollectdConfigFactory;
 import org.opennms.netmgt.config.DataCollectionConfigFactory;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationUtils;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventIpcManagerFactory;
@@ -108,6 +113,11 @@ class CollectableService implements ReadyRunnable {
      */
     private volatile long m_lastScheduledCollectionTime;
 
+    /**
+     * The time at which the next collection is due.
+     */
+    private volatile long m_nextCollectionTime;
+
     /**
      * The scheduler for collectd
      */
@@ -145,6 +155,11 @@ class CollectableService implements ReadyRunnable {
 
     private final ResourceStorageDao m_resourceStorageDao;
 
+    /**
+     * Whether or not the interval of the package can be stretched when the collections are late
+     */
+    private final boolean m_lowPriority;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -175,11 +190,13 @@ class CollectableService implements ReadyRunnable {
         m_updates = new CollectorUpdates();
 
         m_lastScheduledCollectionTime = 0L;
+        m_nextCollectionTime = System.currentTimeMillis();
 
         m_spec.initialize(m_agent);
 
         m_params = m_spec.getServiceParameters();
         m_repository=m_spec.getRrdRepository(m_params.getCollectionName());
+        m_lowPriority = CollectionPacer.LOW_PRIORITY.equalsIgnoreCase(ParameterMap.getKeyedString(m_params.getParameters(), CollectionPacer.PRIORITY_PARAMETER, null));
 
         try {
             m_thresholdVisitor = ThresholdingVisitor.create(m_nodeId, getHostAddress(), m_spec.getServiceName(), m_repository, m_params, m_resourceStorageDao);
@@ -352,6 +369,23 @@ class CollectableService implements ReadyRunnable {
             return;
         }
 
+        // Postpone the collection if too many are already running against the agent or its location
+        final CollectionPacer pacer = CollectionPacer.getInstance();
+        final String location = m_agent.getLocationName();
+        final String agentKey = getAgentKey();
+        if (!pacer.tryAcquire(location, agentKey)) {
+            m_scheduler.schedule(CollectionPacer.POSTPONE_DELAY, getReadyRunnable());
+            return;
+        }
+        try {
+            pacer.collectionStarted(m_spec.getPackageName(), m_spec.getInterval(), System.currentTimeMillis() - m_nextCollectionTime);
+            doCollectionAndReschedule(pacer);
+        } finally {
+            pacer.release(location, agentKey);
+        }
+    }
+
+    private void doCollectionAndReschedule(CollectionPacer pacer) {
         // Update last scheduled poll time; if we are not doing strict interval,
         // it is the current time; if we are, it is the previous time plus the
         // interval
@@ -394,8 +428,25 @@ class CollectableService implements ReadyRunnable {
             diff = System.currentTimeMillis() - m_lastScheduledCollectionTime;
             diff = Math.min(diff, m_spec.getInterval());
         }
-    	// Reschedule the service
-        m_scheduler.schedule(m_spec.getInterval() - diff, getReadyRunnable());
+    	// Reschedule the service, stretching the interval of low priority packages when collections are late
+        schedule(pacer.getNextInterval(m_spec.getPackageName(), m_spec.getInterval(), m_lowPriority) - diff);
+    }
+
+    /**
+     * Schedules the next collection of this service.
+     *
+     * @param delay the delay before the collection, in milliseconds
+     */
+    protected void schedule(long delay) {
+        m_nextCollectionTime = System.currentTimeMillis() + delay;
+        m_scheduler.schedule(delay, getReadyRunnable());
+    }
+
+    /**
+     * @return identifies the agent when capping the concurrent collections
+     */
+    protected String getAgentKey() {
+        return m_agent.getLocationName() + '/' + getHostAddress();
     }
 
     private void updateStatus(CollectionStatus status, CollectionException e) {
@@ -435,17 +486,22 @@ class CollectableService implements ReadyRunnable {
 		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 		CollectionSet result = null;
 		try {
-		    result = m_spec.collect(m_agent);
-		    if (result != null) {
+		    final StreamingVisitor streamingVisitor = createStreamingVisitor();
+		    if (streamingVisitor != null) {
+		        result = m_spec.collect(m_agent, Collections.singletonMap(StreamingVisitor.PARAMETER_KEY, streamingVisitor));
+		    } else {
+		        result = m_spec.collect(m_agent);
+		    }
+		    if (result != null && streamingVisitor != null && streamingVisitor.isStarted()) {
+		        // The resources were already persisted and thresholded while they were being collected
+		        LOG.debug("run: collection set for {}/{}/{}/{} was streamed", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+		        if (!CollectionStatus.SUCCEEDED.equals(result.getStatus())) {
+		            throw new CollectionFailed(result.getStatus());
+		        }
+		    } else if (result != null) {
                         Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
                         try {
-                            CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
-                            if (Boolean.getBoolean(USE_COLLECTION_START_TIME_SYS_PROP)) {
-                                final ConstantTimeKeeper timeKeeper = new ConstantTimeKeeper(new Date(m_lastScheduledCollectionTime));
-                                // Wrap the persister visitor such that calls to CollectionResource.getTimeKeeper() return the given timeKeeper
-                                persister = wrapResourcesWithTimekeeper(persister, timeKeeper);
-                            }
-                            result.visit(persister);
+                            result.visit(createPersister(result.ignorePersist()));
                         } finally {
                             Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
                         }
@@ -477,6 +533,44 @@ class CollectableService implements ReadyRunnable {
 		LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 	}
 
+    private CollectionSetVisitor createPersister(boolean ignorePersist) {
+        CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, ignorePersist, false, false);
+        if (Boolean.getBoolean(USE_COLLECTION_START_TIME_SYS_PROP)) {
+            final ConstantTimeKeeper timeKeeper = new ConstantTimeKeeper(new Date(m_lastScheduledCollectionTime));
+            // Wrap the persister visitor such that calls to CollectionResource.getTimeKeeper() return the given timeKeeper
+            persister = wrapResourcesWithTimekeeper(persister, timeKeeper);
+        }
+        return persister;
+    }
+
+    /**
+     * Creates the visitor used by collectors that support streaming to persist and threshold
+     * the resources while these are being collected.
+     *
+     * Collectors only start streaming once they know that the values should be persisted,
+     * so the visitors are created without ignoring the values or resetting the counters.
+     *
+     * @return the visitor, or null if streaming is disabled or the agent is monitored remotely
+     */
+    private StreamingVisitor createStreamingVisitor() {
+        if (!StreamingVisitor.isEnabled() || !MonitoringLocationUtils.isDefaultLocationName(m_agent.getLocationName())) {
+            return null;
+        }
+        return new StreamingVisitor(() -> {
+            final List<CollectionSetVisitor> visitors = new ArrayList<>(2);
+            visitors.add(createPersister(false));
+            if (m_thresholdVisitor != null) {
+                if (m_thresholdVisitor.isNodeInOutage()) {
+                    LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
+                } else if (m_thresholdVisitor.hasThresholds()) {
+                    m_thresholdVisitor.setCounterReset(false);
+                    visitors.add(m_thresholdVisitor);
+                }
+            }
+            return visitors;
+        });
+    }
+
 	/**
      * Process any outstanding updates.
      * 
@@ -81,7 +81,10 @@ import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.opennms.netmgt.snmp.InetAddrUtils;
+import org.opennms.netmgt.threshd.ThresholdStateStore;
+import org.opennms.netmgt.threshd.ThresholdingExecutor;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -329,7 +332,12 @@ public class Collectd extends AbstractServiceDaemon implements
             // Create a scheduler
             try {
                 LOG.debug("init: Creating collectd scheduler");
-                setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                final int threads = m_collectdConfigFactory.getCollectdConfig().getThreads();
+                if (TimingWheelScheduler.isEnabled()) {
+                    setScheduler(new TimingWheelScheduler("Collectd", threads));
+                } else {
+                    setScheduler(new LegacyScheduler("Collectd", threads));
+                }
             } catch (final RuntimeException e) {
                 LOG.error("init: Failed to create collectd scheduler", e);
                 throw e;
@@ -358,6 +366,12 @@ public class Collectd extends AbstractServiceDaemon implements
         deinstallMessageSelectors();
 
         setScheduler(null);
+
+        // Finish thresholding the resources that were already collected
+        ThresholdingExecutor.setInstance(null);
+
+        // Keep the threshold states across restarts
+        ThresholdStateStore.getInstance().snapshot();
     }
 
     /** {@inheritDoc} */
@@ -534,8 +548,8 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Add new collectable service to the collectable service list.
                 m_collectableServices.add(cSvc);
 
-                // Schedule the collectable service for immediate collection
-                getScheduler().schedule(0, cSvc.getReadyRunnable());
+                // Schedule the collectable service, spreading the first collections over the interval if enabled
+                cSvc.schedule(CollectionPacer.getInstance().getInitialDelay(cSvc.getAgentKey(), spec.getPackageName(), spec.getInterval()));
 
                 LOG.debug("scheduleInterface: {}/{} collection, scheduled", iface, svcName);
             } catch (CollectionInitializationException e) {
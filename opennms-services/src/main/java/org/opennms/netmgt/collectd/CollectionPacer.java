@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Paces the collections of the collectable services.
+ *
+ * The number of collections running concurrently against the same agent, and
+ * against the agents of the same location can be capped, so that a slow agent
+ * or location cannot hold every collectd thread. The collections that would
+ * exceed a cap are postponed instead of waiting in a thread.
+ *
+ * The start times of the services can be spread over their interval, instead
+ * of starting all of the packages of a node at the same instant.
+ *
+ * The lag between the time at which the collections were scheduled, and the
+ * time at which these actually started is tracked. When the collections are
+ * falling behind, the interval of the low priority packages is stretched, and
+ * the collections that were skipped as a result are accounted for.
+ */
+public class CollectionPacer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CollectionPacer.class);
+
+    public static final String MAX_PER_AGENT_SYS_PROP = "org.opennms.netmgt.collectd.maxConcurrentPerAgent";
+
+    public static final String MAX_PER_LOCATION_SYS_PROP = "org.opennms.netmgt.collectd.maxConcurrentPerLocation";
+
+    public static final String SPREAD_START_TIMES_SYS_PROP = "org.opennms.netmgt.collectd.spreadStartTimes";
+
+    public static final String STRETCH_FACTOR_SYS_PROP = "org.opennms.netmgt.collectd.lowPriorityStretchFactor";
+
+    /**
+     * Service parameter used to mark the packages that can be stretched.
+     */
+    public static final String PRIORITY_PARAMETER = "collection-priority";
+
+    public static final String LOW_PRIORITY = "low";
+
+    /**
+     * Collections that start later than this fraction of their interval are late.
+     */
+    protected static final double ON_TIME_TOLERANCE = 0.1;
+
+    /**
+     * Delay after which a postponed collection is retried.
+     */
+    protected static final long POSTPONE_DELAY = 1000;
+
+    /**
+     * Weight of the last collection in the moving average of the lag.
+     */
+    private static final double LAG_WEIGHT = 0.05;
+
+    private static CollectionPacer s_instance;
+
+    private final int m_maxPerAgent;
+
+    private final int m_maxPerLocation;
+
+    private final boolean m_spreadStartTimes;
+
+    private final int m_stretchFactor;
+
+    private final Map<String, AtomicInteger> m_activeByAgent = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> m_activeByLocation = new ConcurrentHashMap<>();
+
+    private final Map<String, PackageStatistics> m_statsByPackage = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong m_postponed = new AtomicLong();
+
+    /**
+     * Moving average of the lag of the collections, as a fraction of their interval.
+     */
+    private double m_lagRatio = 0.0;
+
+    /**
+     * @param maxPerAgent the maximum number of concurrent collections per agent, 0 for no limit
+     * @param maxPerLocation the maximum number of concurrent collections per location, 0 for no limit
+     * @param spreadStartTimes whether or not the first collections are spread over the interval
+     * @param stretchFactor the factor by which the interval of the low priority packages
+     *   is multiplied while the collections are late, 1 to never stretch them
+     */
+    public CollectionPacer(int maxPerAgent, int maxPerLocation, boolean spreadStartTimes, int stretchFactor) {
+        m_maxPerAgent = maxPerAgent;
+        m_maxPerLocation = maxPerLocation;
+        m_spreadStartTimes = spreadStartTimes;
+        m_stretchFactor = Math.max(stretchFactor, 1);
+    }
+
+    /**
+     * <p>getInstance</p>
+     *
+     * @return the pacer shared by all of the collectable services
+     */
+    public static synchronized CollectionPacer getInstance() {
+        if (s_instance == null) {
+            s_instance = new CollectionPacer(Integer.getInteger(MAX_PER_AGENT_SYS_PROP, 0),
+                    Integer.getInteger(MAX_PER_LOCATION_SYS_PROP, 0),
+                    Boolean.getBoolean(SPREAD_START_TIMES_SYS_PROP),
+                    Integer.getInteger(STRETCH_FACTOR_SYS_PROP, 2));
+        }
+        return s_instance;
+    }
+
+    /**
+     * @param pacer the pacer, or null to create a new one from the system properties on the next use
+     */
+    public static synchronized void setInstance(CollectionPacer pacer) {
+        s_instance = pacer;
+    }
+
+    /**
+     * Returns the delay before the first collection of a service.
+     *
+     * The delay is derived from the agent and the package, so that a given
+     * service keeps the same offset in its interval across restarts.
+     *
+     * @param agent identifies the agent
+     * @param packageName the name of the package
+     * @param interval the collection interval
+     * @return the delay in milliseconds
+     */
+    public long getInitialDelay(String agent, String packageName, long interval) {
+        if (!m_spreadStartTimes || interval < 1) {
+            return 0;
+        }
+        return Math.floorMod(Objects.hash(agent, packageName), interval);
+    }
+
+    /**
+     * Reserves a collection against the given agent and location.
+     *
+     * @param location the location of the agent
+     * @param agent identifies the agent
+     * @return true if the collection can start, false if it must be postponed,
+     *   in which case nothing is reserved
+     */
+    public boolean tryAcquire(String location, String agent) {
+        final AtomicInteger activeForAgent = m_maxPerAgent > 0 ? m_activeByAgent.computeIfAbsent(agent, k -> new AtomicInteger()) : null;
+        final AtomicInteger activeForLocation = m_maxPerLocation > 0 ? m_activeByLocation.computeIfAbsent(Objects.toString(location, ""), k -> new AtomicInteger()) : null;
+        if (activeForAgent != null && !tryIncrement(activeForAgent, m_maxPerAgent)) {
+            m_postponed.incrementAndGet();
+            LOG.debug("tryAcquire: {} collections are already running against {}, postponing.", m_maxPerAgent, agent);
+            return false;
+        }
+        if (activeForLocation != null && !tryIncrement(activeForLocation, m_maxPerLocation)) {
+            if (activeForAgent != null) {
+                activeForAgent.decrementAndGet();
+            }
+            m_postponed.incrementAndGet();
+            LOG.debug("tryAcquire: {} collections are already running at location {}, postponing.", m_maxPerLocation, location);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a collection reserved with {@link #tryAcquire(String, String)}.
+     *
+     * @param location the location of the agent
+     * @param agent identifies the agent
+     */
+    public void release(String location, String agent) {
+        if (m_maxPerAgent > 0) {
+            m_activeByAgent.get(agent).decrementAndGet();
+        }
+        if (m_maxPerLocation > 0) {
+            m_activeByLocation.get(Objects.toString(location, "")).decrementAndGet();
+        }
+    }
+
+    private static boolean tryIncrement(AtomicInteger active, int max) {
+        int current;
+        do {
+            current = active.get();
+            if (current >= max) {
+                return false;
+            }
+        } while (!active.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Records the start of a collection.
+     *
+     * @param packageName the name of the package
+     * @param interval the collection interval
+     * @param lag the time elapsed since the collection was due, in milliseconds
+     */
+    public void collectionStarted(String packageName, long interval, long lag) {
+        lag = Math.max(lag, 0);
+        final boolean onTime = lag <= interval * ON_TIME_TOLERANCE;
+        getStatistics(packageName).collectionStarted(lag, onTime);
+        if (interval > 0) {
+            synchronized (this) {
+                m_lagRatio += LAG_WEIGHT * ((double)lag / interval - m_lagRatio);
+            }
+        }
+    }
+
+    /**
+     * Returns the interval after which the next collection of a service is due.
+     *
+     * The interval of the low priority packages is stretched while the
+     * collections are late, the collections that are skipped in the process
+     * are recorded.
+     *
+     * @param packageName the name of the package
+     * @param interval the collection interval
+     * @param lowPriority whether or not the package is of low priority
+     * @return the interval in milliseconds
+     */
+    public long getNextInterval(String packageName, long interval, boolean lowPriority) {
+        if (!lowPriority || m_stretchFactor == 1 || !isBehind()) {
+            return interval;
+        }
+        LOG.debug("getNextInterval: collections are behind, stretching the interval of package {} by {}.", packageName, m_stretchFactor);
+        getStatistics(packageName).collectionsSkipped(m_stretchFactor - 1);
+        return interval * m_stretchFactor;
+    }
+
+    /**
+     * @return true if the collections start, on average, later than the tolerance
+     */
+    public synchronized boolean isBehind() {
+        return m_lagRatio > ON_TIME_TOLERANCE;
+    }
+
+    private PackageStatistics getStatistics(String packageName) {
+        return m_statsByPackage.computeIfAbsent(packageName, PackageStatistics::new);
+    }
+
+    /**
+     * @return the statistics of every package, by package name
+     */
+    public Map<String, PackageStatistics> getPackageStatistics() {
+        return m_statsByPackage;
+    }
+
+    /**
+     * @return the percentage of the collections of all packages that started on time
+     */
+    public double getOnTimePercentage() {
+        long collections = 0;
+        long onTime = 0;
+        for (PackageStatistics stats : m_statsByPackage.values()) {
+            collections += stats.getCollections();
+            onTime += stats.getOnTimeCollections();
+        }
+        return collections > 0 ? 100.0 * onTime / collections : 100.0;
+    }
+
+    /**
+     * @return the moving average of the lag, as a percentage of the collection interval
+     */
+    public synchronized double getLagPercentage() {
+        return 100.0 * m_lagRatio;
+    }
+
+    /**
+     * @return the number of collections of all packages skipped by stretching their interval
+     */
+    public long getSkippedCollections() {
+        return m_statsByPackage.values().stream().mapToLong(PackageStatistics::getSkippedCollections).sum();
+    }
+
+    /**
+     * @return the number of times a collection was postponed because a cap was reached
+     */
+    public long getPostponedCollections() {
+        return m_postponed.get();
+    }
+
+    /**
+     * The pacing statistics of a collection package.
+     */
+    public static class PackageStatistics {
+        private final String m_packageName;
+        private final AtomicLong m_collections = new AtomicLong();
+        private final AtomicLong m_onTime = new AtomicLong();
+        private final AtomicLong m_totalLag = new AtomicLong();
+        private final AtomicLong m_skipped = new AtomicLong();
+
+        private PackageStatistics(String packageName) {
+            m_packageName = packageName;
+        }
+
+        private void collectionStarted(long lag, boolean onTime) {
+            m_collections.incrementAndGet();
+            m_totalLag.addAndGet(lag);
+            if (onTime) {
+                m_onTime.incrementAndGet();
+            }
+        }
+
+        private void collectionsSkipped(long count) {
+            m_skipped.addAndGet(count);
+        }
+
+        public String getPackageName() {
+            return m_packageName;
+        }
+
+        public long getCollections() {
+            return m_collections.get();
+        }
+
+        public long getOnTimeCollections() {
+            return m_onTime.get();
+        }
+
+        public double getOnTimePercentage() {
+            final long collections = getCollections();
+            return collections > 0 ? 100.0 * getOnTimeCollections() / collections : 100.0;
+        }
+
+        /**
+         * @return the average lag of the collections, in milliseconds
+         */
+        public long getAverageLag() {
+            final long collections = getCollections();
+            return collections > 0 ? m_totalLag.get() / collections : 0;
+        }
+
+        public long getSkippedCollections() {
+            return m_skipped.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: collections=%d, onTime=%.1f%%, averageLag=%dms, skipped=%d",
+                    m_packageName, getCollections(), getOnTimePercentage(), getAverageLag(), getSkippedCollections());
+        }
+    }
+}
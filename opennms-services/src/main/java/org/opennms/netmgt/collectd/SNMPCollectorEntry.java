@@ -29,8 +29,11 @@
 package org.opennms.netmgt.collectd;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.opennms.netmgt.config.datacollection.MibObject;
 import org.opennms.netmgt.snmp.AbstractSnmpStore;
@@ -69,6 +72,11 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
     private Collection<SnmpAttributeType> m_attrList;
     private SnmpCollectionSet m_collectionSet;
 
+    /**
+     * The resources the values were stored in, only tracked when streaming.
+     */
+    private Set<SnmpCollectionResource> m_resources;
+
     /**
      * <p>Constructor for SNMPCollectorEntry.</p>
      *
@@ -110,12 +118,27 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
             if (attrType.getInstance().equals(MibObject.INSTANCE_IFINDEX)) {
                 putIfIndex(res.getInstance().toInt());
             }
-            attrType.storeResult(m_collectionSet, this, res);
+            final SnmpCollectionResource resource = attrType.storeResult(m_collectionSet, this, res);
+            if (resource != null && m_collectionSet != null && m_collectionSet.isStreaming()) {
+                if (m_resources == null) {
+                    m_resources = new LinkedHashSet<>(2);
+                }
+                m_resources.add(resource);
+            }
             LOG.debug("storeResult: added value for {}: {}", attrType.getAlias(), res.toString());
         }
     }
 
 
+    /**
+     * <p>getResources</p>
+     *
+     * @return the resources the values of this entry were stored in, when streaming
+     */
+    Set<SnmpCollectionResource> getResources() {
+        return m_resources != null ? m_resources : Collections.emptySet();
+    }
+
     String getValueForBase(String baseOid) {
     
         String instance = String.valueOf(getIfIndex()); 
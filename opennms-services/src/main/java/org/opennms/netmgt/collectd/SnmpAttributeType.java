@@ -210,8 +210,9 @@ public abstract class SnmpAttributeType extends AbstractCollectionAttributeType
      * @param collectionSet a {@link org.opennms.netmgt.collectd.SnmpCollectionSet} object.
      * @param entry a {@link org.opennms.netmgt.collectd.SNMPCollectorEntry} object.
      * @param res a {@link org.opennms.netmgt.snmp.SnmpResult} object.
+     * @return the resource the value was stored in, or null if no resource was found
      */
-    public void storeResult(SnmpCollectionSet collectionSet, SNMPCollectorEntry entry, SnmpResult res) {
+    public SnmpCollectionResource storeResult(SnmpCollectionSet collectionSet, SNMPCollectorEntry entry, SnmpResult res) {
         LOG.debug("Setting attribute: {}.[{}] = '{}'", this, res.getInstance(), res.getValue());
         SnmpCollectionResource resource = null;
         if(this.getAlias().equals("ifAlias")) {
@@ -224,6 +225,7 @@ public abstract class SnmpAttributeType extends AbstractCollectionAttributeType
         } else {
             resource.setAttributeValue(this, res.getValue());
         }
+        return resource;
     }
 
     /**
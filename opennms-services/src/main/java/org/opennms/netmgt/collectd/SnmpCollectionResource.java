@@ -175,6 +175,13 @@ public abstract class SnmpCollectionResource implements CollectionResource {
         return m_groups.values();
     }
 
+    /**
+     * Releases the collected values once the resource was streamed.
+     */
+    void clearAttributes() {
+        m_groups.clear();
+    }
+
     public List<CollectionAttribute> getStringAttributes() {
         return m_groups.values().stream()
         .flatMap(g -> g.getAttributes().stream())
@@ -30,13 +30,19 @@ package org.opennms.netmgt.collectd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.rpc.api.RpcExceptionHandler;
 import org.opennms.core.rpc.api.RpcExceptionUtils;
@@ -51,6 +57,7 @@ import org.opennms.netmgt.collection.api.CollectionStatus;
 import org.opennms.netmgt.collection.api.CollectionTimedOut;
 import org.opennms.netmgt.collection.api.CollectionUnknown;
 import org.opennms.netmgt.collection.api.CollectionWarning;
+import org.opennms.netmgt.dao.api.MonitoringLocationUtils;
 import org.opennms.netmgt.snmp.AggregateTracker;
 import org.opennms.netmgt.snmp.Collectable;
 import org.opennms.netmgt.snmp.CollectionTracker;
@@ -99,8 +106,20 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     private SnmpNodeCollector m_nodeCollector;
     private CollectionStatus m_status = CollectionStatus.FAILED;
     private boolean m_ignorePersist;
+    private boolean m_systemRestartChecked;
     private Date m_timestamp;
 
+    private StreamingVisitor m_streamingVisitor;
+    private boolean m_streamingStarted;
+    private boolean m_streamingAbandoned;
+    private boolean m_streamingCompleted;
+    /**
+     * Rows completed by the SNMP threads, waiting to be streamed by the collecting thread.
+     */
+    private final BlockingQueue<Collection<SnmpCollectionResource>> m_completedRows = new LinkedBlockingQueue<>();
+    private final List<CollectionResource> m_pendingResources = new ArrayList<>();
+    private final Set<CollectionResource> m_streamedResources = Collections.newSetFromMap(new IdentityHashMap<>());
+
     /**
      * <p>toString</p>
      *
@@ -370,23 +389,31 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
             CollectionAgent agent = getCollectionAgent();
             logStartedWalker();
 
-            CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
-                .withDescription("SnmpCollectors for " + agent.getHostAddress())
-                .withLocation(getCollectionAgent().getLocationName())
-                .withTimeToLive(m_snmpCollection.getServiceParameters().getServiceInterval())
-                .execute();
-
-            // wait for collection to finish
-            try {
-                future.get();
-            } finally {
-                logFinishedWalker();
+            if (isStreaming()) {
+                walkAndStream();
+            } else {
+                CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
+                    .withDescription("SnmpCollectors for " + agent.getHostAddress())
+                    .withLocation(getCollectionAgent().getLocationName())
+                    .withTimeToLive(m_snmpCollection.getServiceParameters().getServiceInterval())
+                    .execute();
+
+                // wait for collection to finish
+                try {
+                    future.get();
+                } finally {
+                    logFinishedWalker();
+                }
             }
 
             // Execute POST Updates (add custom parameters)
             SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
             processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
             m_status = CollectionStatus.SUCCEEDED;
+
+            if (isStreaming()) {
+                completeStreaming();
+            }
         } catch (InterruptedException|ExecutionException e) {
             throw RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
                 @Override
@@ -421,7 +448,145 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
                             getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
                 }
             });
+        } finally {
+            if (m_streamingStarted && !m_streamingCompleted) {
+                // Let the visitors complete with the resources that were streamed before the failure
+                m_streamingCompleted = true;
+                m_streamingVisitor.completeCollectionSet(this);
+            }
+        }
+    }
+
+    /**
+     * Uses the given visitor to persist and threshold the resources as soon as all of their
+     * values were collected, instead of building the complete collection set first.
+     *
+     * Streaming is only used when the agent is walked locally, since the remote walks return
+     * all of the values at once anyway, and when no MibObj properties need to be applied, since
+     * these are derived from the values of other resources.
+     *
+     * @param streamingVisitor the visitor, or null to disable streaming
+     */
+    void setStreamingVisitor(StreamingVisitor streamingVisitor) {
+        m_streamingVisitor = null;
+        if (streamingVisitor == null) {
+            return;
+        }
+        if (!MonitoringLocationUtils.isDefaultLocationName(getCollectionAgent().getLocationName())) {
+            LOG.debug("setStreamingVisitor: not streaming, agent {} is at location {}", getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName());
+            return;
+        }
+        if (new SnmpPropertyExtenderProcessor().hasProperties(m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress())) {
+            LOG.debug("setStreamingVisitor: not streaming, MibObj properties are defined for agent {}", getCollectionAgent().getHostAddress());
+            return;
+        }
+        m_streamingVisitor = streamingVisitor;
+    }
+
+    boolean isStreaming() {
+        return m_streamingVisitor != null;
+    }
+
+    /**
+     * Called by the SNMP threads when all of the values of the given resources were collected.
+     *
+     * @param resources the resources
+     */
+    void rowsCompleted(Collection<SnmpCollectionResource> resources) {
+        m_completedRows.offer(resources);
+    }
+
+    /**
+     * Walks the agent directly, streaming the completed rows from the collecting thread while the walk is ongoing.
+     */
+    private void walkAndStream() throws InterruptedException, ExecutionException {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final SnmpWalker walker = createWalker();
+        walker.setCallback((w, t) -> {
+            if (t != null) {
+                future.completeExceptionally(t);
+            } else {
+                future.complete(null);
+            }
+            // Wake up the collecting thread
+            m_completedRows.offer(Collections.emptyList());
+        });
+        try {
+            walker.start();
+            while (!future.isDone()) {
+                final Collection<SnmpCollectionResource> rows = m_completedRows.poll(1, TimeUnit.SECONDS);
+                if (rows != null) {
+                    streamResources(rows);
+                }
+            }
+            future.get();
+
+            if (getIfCollector() != null) {
+                getIfCollector().completeAllRows();
+            }
+            Collection<SnmpCollectionResource> rows;
+            while ((rows = m_completedRows.poll()) != null) {
+                streamResources(rows);
+            }
+        } finally {
+            logFinishedWalker();
+            walker.close();
+        }
+    }
+
+    private void streamResources(Collection<? extends CollectionResource> resources) {
+        if (m_streamingAbandoned) {
+            return;
+        }
+        m_pendingResources.addAll(resources);
+        if (!m_streamingStarted) {
+            if (!getSysUpTime().isFinished()) {
+                // Hold on to the resources until we know whether or not the agent was restarted
+                return;
+            }
+            startStreaming();
+            if (m_streamingAbandoned) {
+                return;
+            }
+        }
+
+        for (CollectionResource resource : m_pendingResources) {
+            if (m_streamedResources.add(resource)) {
+                m_streamingVisitor.streamResource(resource);
+            }
+        }
+        // Release the values once all of the resources were visited, aliased resources share them with the interfaces
+        for (CollectionResource resource : m_pendingResources) {
+            if (resource instanceof SnmpCollectionResource) {
+                ((SnmpCollectionResource)resource).clearAttributes();
+            }
+        }
+        m_pendingResources.clear();
+    }
+
+    private void startStreaming() {
+        checkForSystemRestart();
+        if (m_ignorePersist) {
+            LOG.debug("startStreaming: not streaming, sysUpTime has changed on agent {}", getCollectionAgent().getHostAddress());
+            m_streamingAbandoned = true;
+            m_pendingResources.clear();
+            return;
+        }
+        m_streamingStarted = true;
+        m_streamingVisitor.visitCollectionSet(this);
+    }
+
+    private void completeStreaming() {
+        if (!m_streamingStarted && !m_streamingAbandoned) {
+            startStreaming();
         }
+        if (m_streamingAbandoned) {
+            return;
+        }
+        // Stream the resources for which no values were collected incrementally, such as the node level resource
+        streamResources(getResources());
+        m_streamingCompleted = true;
+        m_streamingVisitor.completeCollectionSet(this);
     }
 
     boolean checkDisableForceRescan(final String disabledString) {
@@ -468,6 +633,11 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     }
 
     void checkForSystemRestart() {
+        if (m_systemRestartChecked) {
+            // Already checked while streaming
+            return;
+        }
+        m_systemRestartChecked = true;
         logSysUpTime();
         m_ignorePersist = false;
         if (getSysUpTime().isChanged(getCollectionAgent().getSavedSysUpTime())) {
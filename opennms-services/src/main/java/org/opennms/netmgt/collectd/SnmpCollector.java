@@ -247,14 +247,19 @@ public class SnmpCollector extends AbstractServiceCollector {
                 // should we return here?
             }
 
+            final boolean forceRescan = System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true");
+            if (!forceRescan) {
+                // The rescan checks need the complete collection set, so we only stream when these are disabled
+                collectionSet.setStreamingVisitor(StreamingVisitor.fromParameters(parameters));
+            }
+
             collectionSet.collect();
 
             /*
              * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
              * {@see http://issues.opennms.org/browse/NMS-1057}
              */
-            if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
-                    && collectionSet.rescanNeeded()) {
+            if (forceRescan && collectionSet.rescanNeeded()) {
                 /*
                  * TODO: the behavior of this object may have been re-factored away.
                  * Verify that this is correct and remove this unused object if it
@@ -30,13 +30,18 @@ package org.opennms.netmgt.collectd;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.ColumnTracker;
 import org.opennms.netmgt.snmp.ErrorStatus;
 import org.opennms.netmgt.snmp.ErrorStatusException;
 import org.opennms.netmgt.snmp.SnmpInstId;
@@ -60,7 +65,9 @@ public class SnmpIfCollector extends AggregateTracker {
     
     private static final Logger LOG = LoggerFactory.getLogger(SnmpIfCollector.class);
     
-    private Map<SnmpInstId, SNMPCollectorEntry> m_results = new TreeMap<SnmpInstId, SNMPCollectorEntry>();
+    private NavigableMap<SnmpInstId, SNMPCollectorEntry> m_results = new TreeMap<SnmpInstId, SNMPCollectorEntry>();
+
+    private final List<Collectable> m_trackers;
     
     /**
      * Holds the IP Address of the primary SNMP iterface.
@@ -109,7 +116,12 @@ public class SnmpIfCollector extends AggregateTracker {
      * @param collectionSet TODO
      */
     public SnmpIfCollector(InetAddress address, List<SnmpAttributeType> objList, SnmpCollectionSet collectionSet) {
-        super(SnmpAttributeType.getCollectionTrackers(objList));
+        this(SnmpAttributeType.getCollectionTrackers(objList), address, objList, collectionSet);
+    }
+
+    private SnmpIfCollector(List<Collectable> trackers, InetAddress address, List<SnmpAttributeType> objList, SnmpCollectionSet collectionSet) {
+        super(trackers);
+        m_trackers = trackers;
         
         LOG.debug("COLLECTING on list of {} items", objList.size());
         LOG.debug("List is {}", objList);
@@ -173,6 +185,66 @@ public class SnmpIfCollector extends AggregateTracker {
         }
         entry.storeResult(res);
 
+        if (m_collectionSet != null && m_collectionSet.isStreaming()) {
+            final SnmpInstId lastCompleted = getLastCompletedInstance();
+            if (lastCompleted != null) {
+                completeRows(m_results.headMap(lastCompleted, true));
+            }
+        }
+    }
+
+    /**
+     * Returns the highest instance for which all of the columns were collected.
+     *
+     * The columns are walked in lexicographical order, so once every column that is
+     * still being walked went past a given instance, no more values will be received for it.
+     *
+     * @return the instance, or null if no row is known to be complete
+     */
+    private SnmpInstId getLastCompletedInstance() {
+        SnmpInstId lastCompleted = null;
+        for (Collectable collectable : m_trackers) {
+            final CollectionTracker tracker = collectable.getCollectionTracker();
+            if (tracker.isFinished()) {
+                continue;
+            }
+            if (!(tracker instanceof ColumnTracker)) {
+                // We can't tell how far along other trackers are
+                return null;
+            }
+            final SnmpInstId lastInstance = ((ColumnTracker)tracker).getLastInstance();
+            if (lastInstance == null) {
+                return null;
+            }
+            if (lastCompleted == null || lastInstance.compareTo(lastCompleted) < 0) {
+                lastCompleted = lastInstance;
+            }
+        }
+        return lastCompleted;
+    }
+
+    /**
+     * Hands all of the remaining rows over to the collection set, once the walk is complete.
+     */
+    void completeAllRows() {
+        completeRows(m_results);
+    }
+
+    /**
+     * Hands the given rows over to the collection set, and stops tracking them.
+     */
+    private void completeRows(Map<SnmpInstId, SNMPCollectorEntry> completed) {
+        if (completed.isEmpty()) {
+            return;
+        }
+        final List<SnmpCollectionResource> resources = new ArrayList<>(completed.size());
+        for (Iterator<SNMPCollectorEntry> it = completed.values().iterator(); it.hasNext(); ) {
+            resources.addAll(it.next().getResources());
+            it.remove();
+        }
+        if (!resources.isEmpty()) {
+            m_collectionSet.rowsCompleted(resources);
+        }
     }
     
     /**
@@ -75,6 +75,18 @@ public class SnmpPropertyExtenderProcessor {
         m_dataCollectionConfigDao = config;
     }
 
+    /**
+     * Checks whether there are custom MibObj properties to process.
+     *
+     * @param collectionName the collection name
+     * @param sysObjectId the system object ID
+     * @param ipAddress the IP address
+     * @return true if {@link #process(SnmpCollectionSet, String, String, String)} would update any resources
+     */
+    public boolean hasProperties(final String collectionName, final String sysObjectId, final String ipAddress) {
+        return !getDataCollectionConfigDao().getMibObjProperties(collectionName, sysObjectId, ipAddress).isEmpty();
+    }
+
     /**
      * Process.
      *
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
+
+/**
+ * Hands the visitors that would otherwise be applied to the complete collection set
+ * (i.e. the persister and the thresholding visitor) to a collector, so that the
+ * resources can be visited as soon as they are collected.
+ *
+ * Collectd passes the instance to the collector as a parameter, using {@link #PARAMETER_KEY}.
+ * Collectors that support streaming call {@link #visitCollectionSet(CollectionSet)}, then
+ * {@link #streamResource(CollectionResource)} for every resource and finally
+ * {@link #completeCollectionSet(CollectionSet)}. Collectors that don't simply ignore the
+ * parameter, and the visitors are applied to the returned collection set as usual.
+ */
+public class StreamingVisitor {
+
+    public static final String STREAMING_SYS_PROP = "org.opennms.netmgt.collectd.streaming";
+
+    public static final String PARAMETER_KEY = StreamingVisitor.class.getName();
+
+    private final Supplier<List<CollectionSetVisitor>> m_visitorSupplier;
+
+    private List<CollectionSetVisitor> m_visitors;
+
+    /**
+     * @param visitorSupplier creates the visitors, this is only called once the collector starts streaming
+     */
+    public StreamingVisitor(Supplier<List<CollectionSetVisitor>> visitorSupplier) {
+        m_visitorSupplier = Objects.requireNonNull(visitorSupplier);
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(STREAMING_SYS_PROP);
+    }
+
+    public static StreamingVisitor fromParameters(Map<String, Object> parameters) {
+        final Object visitor = parameters.get(PARAMETER_KEY);
+        return visitor instanceof StreamingVisitor ? (StreamingVisitor)visitor : null;
+    }
+
+    public void visitCollectionSet(CollectionSet set) {
+        if (m_visitors != null) {
+            throw new IllegalStateException("The collection set is already being streamed.");
+        }
+        m_visitors = m_visitorSupplier.get();
+        m_visitors.forEach(v -> v.visitCollectionSet(set));
+    }
+
+    public void streamResource(CollectionResource resource) {
+        m_visitors.forEach(resource::visit);
+    }
+
+    public void completeCollectionSet(CollectionSet set) {
+        m_visitors.forEach(v -> v.completeCollectionSet(set));
+    }
+
+    /**
+     * @return true if the collector started streaming, in which case the
+     *   visitors must not be applied to the returned collection set
+     */
+    public boolean isStarted() {
+        return m_visitors != null;
+    }
+}
@@ -29,7 +29,11 @@
 package org.opennms.netmgt.collectd.jmx;
 
 import java.util.concurrent.ThreadPoolExecutor;
+import org.opennms.netmgt.collectd.CollectionPacer;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
+import org.opennms.netmgt.threshd.ThresholdingExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -139,16 +143,81 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
         }
     }
 
+    @Override
+    public long getThresholdingQueuePendingCount() {
+        return ThresholdingExecutor.getInstance().getQueueSize();
+    }
+
+    @Override
+    public double getCollectionsOnTimePercentage() {
+        return CollectionPacer.getInstance().getOnTimePercentage();
+    }
+
+    @Override
+    public double getCollectionLagPercentage() {
+        return CollectionPacer.getInstance().getLagPercentage();
+    }
+
+    @Override
+    public long getSkippedCollections() {
+        return CollectionPacer.getInstance().getSkippedCollections();
+    }
+
+    @Override
+    public long getPostponedCollections() {
+        return CollectionPacer.getInstance().getPostponedCollections();
+    }
+
+    @Override
+    public String[] getPackageStatistics() {
+        return CollectionPacer.getInstance().getPackageStatistics().values().stream()
+                .map(CollectionPacer.PackageStatistics::toString)
+                .toArray(String[]::new);
+    }
+
     @Override
     public long getCollectableServiceCount() {
         return getDaemon().getCollectableServiceCount();
     }
     
+    @Override
+    public long getSchedulerMaxLagMs() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getMaxLagMs() : 0L;
+    }
+
+    @Override
+    public double getSchedulerAverageLagMs() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getAverageLagMs() : 0d;
+    }
+
+    @Override
+    public String[] getSchedulerLagStatistics() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        if (scheduler == null) {
+            return new String[0];
+        }
+        return scheduler.getLagStatistics().entrySet().stream()
+                .map(e -> String.format("interval=%dms, %s", e.getKey(), e.getValue()))
+                .toArray(String[]::new);
+    }
+
+    private TimingWheelScheduler getTimingWheelScheduler() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return scheduler instanceof TimingWheelScheduler ? (TimingWheelScheduler) scheduler : null;
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return (scheduler instanceof LegacyScheduler || scheduler instanceof TimingWheelScheduler);
     }
 }
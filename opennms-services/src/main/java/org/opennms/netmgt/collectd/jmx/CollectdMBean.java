@@ -86,4 +86,51 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of pending tasks
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of collected resources waiting to be thresholded
+     */
+    public long getThresholdingQueuePendingCount();
+
+    /**
+     * @return The percentage of the collections that started on time
+     */
+    public double getCollectionsOnTimePercentage();
+
+    /**
+     * @return The average lag of the collections, as a percentage of their interval
+     */
+    public double getCollectionLagPercentage();
+
+    /**
+     * @return The cumulative number of collections skipped by stretching low priority packages
+     */
+    public long getSkippedCollections();
+
+    /**
+     * @return The cumulative number of collections postponed by the concurrency limits
+     */
+    public long getPostponedCollections();
+
+    /**
+     * @return The on-time percentage, lag and skipped collections of every package
+     */
+    public String[] getPackageStatistics();
+
+    /**
+     * @return The largest delay between the time at which a task was due and the time at
+     * which it was handed to the thread pool, in ms, or 0 when the timing wheel scheduler isn't used
+     */
+    public long getSchedulerMaxLagMs();
+
+    /**
+     * @return The average delay between the time at which a task was due and the time at
+     * which it was handed to the thread pool, in ms, or 0 when the timing wheel scheduler isn't used
+     */
+    public double getSchedulerAverageLagMs();
+
+    /**
+     * @return The scheduling lag for each of the scheduled intervals
+     */
+    public String[] getSchedulerLagStatistics();
 }
@@ -33,10 +33,14 @@ import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.rpc.api.RequestRejectedException;
 import org.opennms.core.rpc.api.RequestTimedOutException;
 import org.opennms.netmgt.config.PollerConfig;
@@ -67,6 +71,12 @@ import org.slf4j.LoggerFactory;
 public class DefaultPollContext implements PollContext, EventListener {
     
     private static final Logger LOG = LoggerFactory.getLogger(DefaultPollContext.class);
+
+    public static final String ASYNC_POLLING_SYS_PROP = AsyncServiceMonitor.ASYNC_POLLING_SYS_PROP;
+
+    public static final String ASYNC_POLL_THREADS_SYS_PROP = "org.opennms.netmgt.poller.async.threads";
+
+    public static final String BATCH_STATUS_CHANGES_SYS_PROP = "org.opennms.netmgt.poller.batchStatusChanges";
     private static final String[] UEIS = {
         // service events without node processing enable
         EventConstants.SERVICE_UNRESPONSIVE_EVENT_UEI,
@@ -92,6 +102,11 @@ public class DefaultPollContext implements PollContext, EventListener {
     private volatile String m_name;
     private volatile String m_localHostName;
     private volatile boolean m_listenerAdded = false;
+    private volatile boolean m_asyncPollingEnabled = Boolean.getBoolean(ASYNC_POLLING_SYS_PROP);
+    private volatile ScheduledExecutorService m_asyncPollExecutor;
+    private ScheduledExecutorService m_ownedAsyncPollExecutor;
+    private volatile boolean m_batchStatusChanges = Boolean.parseBoolean(System.getProperty(BATCH_STATUS_CHANGES_SYS_PROP, "true"));
+    private final ThreadLocal<StatusChangeAccumulator> m_accumulator = new ThreadLocal<>();
     private final Queue<PendingPollEvent> m_pendingPollEvents = new ConcurrentLinkedQueue<>();
 
     /**
@@ -238,18 +253,107 @@ public class DefaultPollContext implements PollContext, EventListener {
     /** {@inheritDoc} */
     @Override
     public PollEvent sendEvent(Event event) {
+        PendingPollEvent pollEvent = trackEvent(event);
+
+        final StatusChangeAccumulator accumulator = m_accumulator.get();
+        if (accumulator != null) {
+            // Sent along with the other events once the status changes are processed
+            accumulator.addEvent(event);
+        } else {
+            //log().info("Sending "+event.getUei()+" for element "+event.getNodeid()+":"+event.getInterface()+":"+event.getService(), new Exception("StackTrace"));
+            getEventManager().sendNow(event);
+        }
+        return pollEvent;
+    }
+
+    private PendingPollEvent trackEvent(Event event) {
         if (!m_listenerAdded) {
             getEventManager().addEventListener(this, Arrays.asList(UEIS));
             m_listenerAdded = true;
         }
         PendingPollEvent pollEvent = new PendingPollEvent(event);
         m_pendingPollEvents.add(pollEvent);
-
-        //log().info("Sending "+event.getUei()+" for element "+event.getNodeid()+":"+event.getInterface()+":"+event.getService(), new Exception("StackTrace"));
-        getEventManager().sendNow(event);
         return pollEvent;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The outages are opened and resolved using a single transaction once the
+     * runnable completes, and all of the events are then sent in a single log.
+     */
+    @Override
+    public void batchStatusChanges(Runnable r) {
+        if (!m_batchStatusChanges || m_accumulator.get() != null) {
+            r.run();
+            return;
+        }
+
+        final StatusChangeAccumulator accumulator = new StatusChangeAccumulator();
+        m_accumulator.set(accumulator);
+        try {
+            r.run();
+        } finally {
+            m_accumulator.remove();
+            flush(accumulator);
+        }
+    }
+
+    /**
+     * Writes the accumulated outages and sends the accumulated events.
+     *
+     * If the outages can't be written in a single transaction, they are written one at a
+     * time so that a single failure doesn't affect the others. The events are sent in all
+     * cases, as they would have been if the status changes weren't batched.
+     */
+    private void flush(StatusChangeAccumulator accumulator) {
+        try {
+            final List<StatusChangeAccumulator.PendingOutage> outages = accumulator.getOutages();
+            if (!outages.isEmpty()) {
+                LOG.debug("flush: updating {} outages", outages.size());
+                List<Integer> outageIds;
+                try {
+                    outageIds = getQueryManager().updateOutages(accumulator.getTransitions());
+                } catch (RuntimeException e) {
+                    LOG.warn("flush: failed to update {} outages at once, updating them one at a time", outages.size(), e);
+                    outageIds = null;
+                }
+                for (int i = 0; i < outages.size(); i++) {
+                    final StatusChangeAccumulator.PendingOutage outage = outages.get(i);
+                    try {
+                        final Integer outageId = outageIds != null ? outageIds.get(i) : updateOutage(outage.getTransition());
+                        final Event event;
+                        if (outage.getTransition().isLost()) {
+                            event = outageOpened(outage.getService(), outage.getEvent(), outageId);
+                        } else {
+                            event = outageResolved(outage.getService(), outage.getEvent(), outageId);
+                        }
+                        if (event != null) {
+                            trackEvent(event);
+                            accumulator.addEvent(event);
+                        }
+                    } catch (RuntimeException e) {
+                        LOG.error("flush: failed to update the outage for {}", outage.getService(), e);
+                    }
+                }
+            }
+        } finally {
+            if (accumulator.hasEvents()) {
+                getEventManager().sendNow(accumulator.getLog());
+            }
+        }
+    }
+
+    private Integer updateOutage(OutageTransition transition) {
+        if (transition.isLost()) {
+            return getQueryManager().openOutagePendingLostEventId(transition.getNodeId(),
+                    transition.getIpAddr(), transition.getSvcName(), transition.getDate());
+        } else {
+            return getQueryManager().resolveOutagePendingRegainEventId(transition.getNodeId(),
+                    transition.getIpAddr(), transition.getSvcName(), transition.getDate());
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.poller.pollables.PollContext#createEvent(java.lang.String, int, java.net.InetAddress, java.lang.String, java.util.Date)
      */
@@ -305,10 +409,19 @@ public class DefaultPollContext implements PollContext, EventListener {
     /** {@inheritDoc} */
     @Override
     public void openOutage(final PollableService svc, final PollEvent svcLostEvent) {
+        final StatusChangeAccumulator accumulator = m_accumulator.get();
+        if (accumulator != null) {
+            accumulator.addLostService(svc, svcLostEvent);
+            return;
+        }
+
         // Open the outage immediately
         final Integer outageId = getQueryManager().openOutagePendingLostEventId(svc.getNodeId(),
                 svc.getIpAddr(), svc.getSvcName(), svcLostEvent.getDate());
+        sendEvent(outageOpened(svc, svcLostEvent, outageId));
+    }
 
+    private Event outageOpened(final PollableService svc, final PollEvent svcLostEvent, final Integer outageId) {
         // Defer updating the outage with the event id until we receive back
         // from the event bus
         final Runnable r = new Runnable() {
@@ -329,7 +442,7 @@ public class DefaultPollContext implements PollContext, EventListener {
             r.run();
         }
         LOG.debug("openOutage: sending outageCreated event for: {} on {}", svc.getSvcName(), svc.getIpAddr());
-        sendEvent(createEvent(EventConstants.OUTAGE_CREATED_EVENT_UEI, svc.getNodeId(), svc.getAddress(), svc.getSvcName(), svcLostEvent.getDate(), null));
+        return createEvent(EventConstants.OUTAGE_CREATED_EVENT_UEI, svc.getNodeId(), svc.getAddress(), svc.getSvcName(), svcLostEvent.getDate(), null);
     }
 
     /* (non-Javadoc)
@@ -338,15 +451,27 @@ public class DefaultPollContext implements PollContext, EventListener {
     /** {@inheritDoc} */
     @Override
     public void resolveOutage(final PollableService svc, final PollEvent svcRegainEvent) {
+        final StatusChangeAccumulator accumulator = m_accumulator.get();
+        if (accumulator != null) {
+            accumulator.addRegainedService(svc, svcRegainEvent);
+            return;
+        }
+
         // Resolve the outage immediately
         final Integer outageId = getQueryManager().resolveOutagePendingRegainEventId(svc.getNodeId(),
                 svc.getIpAddr(), svc.getSvcName(), svcRegainEvent.getDate());
+        final Event event = outageResolved(svc, svcRegainEvent, outageId);
+        if (event != null) {
+            sendEvent(event);
+        }
+    }
 
+    private Event outageResolved(final PollableService svc, final PollEvent svcRegainEvent, final Integer outageId) {
         // There may be no outage for this particular service. This can happen when interfaces
         // are reparented or when a node gains a new service while down.
         if (outageId == null) {
             LOG.info("resolveOutage: no outstanding outage for {} on {} with node id {}", svc.getSvcName(), svc.getIpAddr(), svc.getNodeId());
-            return;
+            return null;
         }
 
         // Defer updating the outage with the event id until we receive back
@@ -369,7 +494,7 @@ public class DefaultPollContext implements PollContext, EventListener {
             r.run();
         }
         LOG.debug("resolveOutage: sending outageResolved event for: {} on {}", svc.getSvcName(), svc.getIpAddr());
-        sendEvent(createEvent(EventConstants.OUTAGE_RESOLVED_EVENT_UEI, svc.getNodeId(), svc.getAddress(), svc.getSvcName(), svcRegainEvent.getDate(), null));
+        return createEvent(EventConstants.OUTAGE_RESOLVED_EVENT_UEI, svc.getNodeId(), svc.getAddress(), svc.getSvcName(), svcRegainEvent.getDate(), null);
     }
 
     /* (non-Javadoc)
@@ -385,6 +510,88 @@ public class DefaultPollContext implements PollContext, EventListener {
         return getPollerConfig().isServiceUnresponsiveEnabled();
     }
 
+    /**
+     * <p>setBatchStatusChanges</p>
+     *
+     * @param batchStatusChanges a boolean.
+     */
+    public void setBatchStatusChanges(boolean batchStatusChanges) {
+        m_batchStatusChanges = batchStatusChanges;
+    }
+
+    /**
+     * <p>isAsyncPollingEnabled</p>
+     *
+     * @return the value of the {@value #ASYNC_POLLING_SYS_PROP} system property
+     */
+    @Override
+    public boolean isAsyncPollingEnabled() {
+        return m_asyncPollingEnabled;
+    }
+
+    /**
+     * <p>setAsyncPollingEnabled</p>
+     *
+     * @param asyncPollingEnabled a boolean.
+     */
+    public void setAsyncPollingEnabled(boolean asyncPollingEnabled) {
+        m_asyncPollingEnabled = asyncPollingEnabled;
+    }
+
+    /**
+     * <p>getAsyncPollExecutor</p>
+     *
+     * Applying a poll status takes the tree lock and may send events, so this is
+     * done on a small pool instead of on the threads that complete the polls.
+     *
+     * @return a {@link java.util.concurrent.ScheduledExecutorService} object.
+     */
+    @Override
+    public ScheduledExecutorService getAsyncPollExecutor() {
+        if (m_asyncPollExecutor == null) {
+            synchronized (this) {
+                if (m_asyncPollExecutor == null) {
+                    final int threads = Integer.getInteger(ASYNC_POLL_THREADS_SYS_PROP, Runtime.getRuntime().availableProcessors());
+                    m_ownedAsyncPollExecutor = Executors.newScheduledThreadPool(threads, new LogPreservingThreadFactory("PollerAsync", threads));
+                    m_asyncPollExecutor = m_ownedAsyncPollExecutor;
+                }
+            }
+        }
+        return m_asyncPollExecutor;
+    }
+
+    /**
+     * <p>setAsyncPollExecutor</p>
+     *
+     * @param asyncPollExecutor a {@link java.util.concurrent.ScheduledExecutorService} object.
+     */
+    public void setAsyncPollExecutor(ScheduledExecutorService asyncPollExecutor) {
+        m_asyncPollExecutor = asyncPollExecutor;
+    }
+
+    /**
+     * <p>shutdown</p>
+     *
+     * Stops the executor created by {@link #getAsyncPollExecutor()}, if any.
+     * Executors set with {@link #setAsyncPollExecutor(ScheduledExecutorService)} are left to
+     * their owner.
+     */
+    public synchronized void shutdown() {
+        if (m_ownedAsyncPollExecutor != null) {
+            m_ownedAsyncPollExecutor.shutdown();
+            try {
+                if (!m_ownedAsyncPollExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    m_ownedAsyncPollExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                m_ownedAsyncPollExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            m_ownedAsyncPollExecutor = null;
+            m_asyncPollExecutor = null;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.eventd.EventListener#onEvent(org.opennms.netmgt.xml.event.Event)
      */
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller;
+
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * A service losing or regaining service, used to open or resolve
+ * outages in batches.
+ *
+ * @see QueryManager#updateOutages(java.util.List)
+ */
+public final class OutageTransition {
+
+    private final int m_nodeId;
+    private final String m_ipAddr;
+    private final String m_svcName;
+    private final Date m_date;
+    private final boolean m_lost;
+
+    private OutageTransition(int nodeId, String ipAddr, String svcName, Date date, boolean lost) {
+        m_nodeId = nodeId;
+        m_ipAddr = Objects.requireNonNull(ipAddr);
+        m_svcName = Objects.requireNonNull(svcName);
+        m_date = Objects.requireNonNull(date);
+        m_lost = lost;
+    }
+
+    public static OutageTransition lost(int nodeId, String ipAddr, String svcName, Date lostTime) {
+        return new OutageTransition(nodeId, ipAddr, svcName, lostTime, true);
+    }
+
+    public static OutageTransition regained(int nodeId, String ipAddr, String svcName, Date regainedTime) {
+        return new OutageTransition(nodeId, ipAddr, svcName, regainedTime, false);
+    }
+
+    public int getNodeId() {
+        return m_nodeId;
+    }
+
+    public String getIpAddr() {
+        return m_ipAddr;
+    }
+
+    public String getSvcName() {
+        return m_svcName;
+    }
+
+    public Date getDate() {
+        return m_date;
+    }
+
+    /**
+     * @return true if the service was lost, false if it was regained
+     */
+    public boolean isLost() {
+        return m_lost;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OutageTransition[%s %d:%s:%s @ %s]", m_lost ? "lost" : "regained", m_nodeId, m_ipAddr, m_svcName, m_date);
+    }
+}
@@ -75,6 +75,16 @@ public interface QueryManager {
      */
     void updateResolvedOutageWithEventId(int outageId, int regainedEventId);
 
+    /**
+     * Opens and resolves the outages for the given transitions, in order,
+     * using a single transaction.
+     *
+     * Returns the ids of the outages in the same order as the transitions,
+     * as returned by {@link #openOutagePendingLostEventId(int, String, String, Date)}
+     * and {@link #resolveOutagePendingRegainEventId(int, String, String, Date)}.
+     */
+    List<Integer> updateOutages(List<OutageTransition> transitions);
+
     /**
      * @param nodeId
      * @return
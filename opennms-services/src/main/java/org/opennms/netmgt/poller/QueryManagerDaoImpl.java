@@ -33,7 +33,9 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -57,6 +59,9 @@ import org.opennms.netmgt.model.OnmsOutage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * <p>QueryManagerDaoImpl class.</p>
@@ -79,6 +84,9 @@ public class QueryManagerDaoImpl implements QueryManager {
     @Autowired
     private MonitoredServiceDao m_monitoredServiceDao;
 
+    @Autowired
+    private TransactionTemplate m_transactionTemplate;
+
     /** {@inheritDoc} */
     @Override
     public String getNodeLabel(int nodeId) {
@@ -149,6 +157,28 @@ public class QueryManagerDaoImpl implements QueryManager {
         return outage.getId();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<Integer> updateOutages(final List<OutageTransition> transitions) {
+        if (transitions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return m_transactionTemplate.execute(new TransactionCallback<List<Integer>>() {
+            @Override
+            public List<Integer> doInTransaction(TransactionStatus status) {
+                final List<Integer> outageIds = new ArrayList<>(transitions.size());
+                for (OutageTransition transition : transitions) {
+                    if (transition.isLost()) {
+                        outageIds.add(openOutagePendingLostEventId(transition.getNodeId(), transition.getIpAddr(), transition.getSvcName(), transition.getDate()));
+                    } else {
+                        outageIds.add(resolveOutagePendingRegainEventId(transition.getNodeId(), transition.getIpAddr(), transition.getSvcName(), transition.getDate()));
+                    }
+                }
+                return outageIds;
+            }
+        });
+    }
+
     /** {@inheritDoc} */
     @Override
     public void updateResolvedOutageWithEventId(int outageId, int regainedEventId) {
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.poller.pollables.PollEvent;
+import org.opennms.netmgt.poller.pollables.PollableService;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+
+/**
+ * Collects the events and the outage transitions generated while processing
+ * the status changes of a node, so that they can be written and sent at once.
+ *
+ * Instances are confined to the thread processing the status changes.
+ */
+class StatusChangeAccumulator {
+
+    /**
+     * An outage transition along with the event that caused it.
+     */
+    static class PendingOutage {
+        private final PollableService m_service;
+        private final PollEvent m_event;
+        private final OutageTransition m_transition;
+
+        private PendingOutage(PollableService service, PollEvent event, OutageTransition transition) {
+            m_service = service;
+            m_event = event;
+            m_transition = transition;
+        }
+
+        public PollableService getService() {
+            return m_service;
+        }
+
+        public PollEvent getEvent() {
+            return m_event;
+        }
+
+        public OutageTransition getTransition() {
+            return m_transition;
+        }
+    }
+
+    private final Log m_log = new Log();
+
+    private final List<PendingOutage> m_outages = new ArrayList<>();
+
+    public void addEvent(Event event) {
+        m_log.addEvent(event);
+    }
+
+    public void addLostService(PollableService svc, PollEvent svcLostEvent) {
+        m_outages.add(new PendingOutage(svc, svcLostEvent,
+                OutageTransition.lost(svc.getNodeId(), svc.getIpAddr(), svc.getSvcName(), svcLostEvent.getDate())));
+    }
+
+    public void addRegainedService(PollableService svc, PollEvent svcRegainEvent) {
+        m_outages.add(new PendingOutage(svc, svcRegainEvent,
+                OutageTransition.regained(svc.getNodeId(), svc.getIpAddr(), svc.getSvcName(), svcRegainEvent.getDate())));
+    }
+
+    public List<PendingOutage> getOutages() {
+        return m_outages;
+    }
+
+    public List<OutageTransition> getTransitions() {
+        final List<OutageTransition> transitions = new ArrayList<>(m_outages.size());
+        for (PendingOutage outage : m_outages) {
+            transitions.add(outage.getTransition());
+        }
+        return transitions;
+    }
+
+    public Log getLog() {
+        return m_log;
+    }
+
+    public boolean hasEvents() {
+        return m_log.getEvents() != null && m_log.getEvents().getEventCount() > 0;
+    }
+}
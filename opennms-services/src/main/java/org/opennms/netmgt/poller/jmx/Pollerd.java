@@ -32,6 +32,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -139,11 +141,44 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
     
+    @Override
+    public long getSchedulerMaxLagMs() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getMaxLagMs() : 0L;
+    }
+
+    @Override
+    public double getSchedulerAverageLagMs() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getAverageLagMs() : 0d;
+    }
+
+    @Override
+    public String[] getSchedulerLagStatistics() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        if (scheduler == null) {
+            return new String[0];
+        }
+        return scheduler.getLagStatistics().entrySet().stream()
+                .map(e -> String.format("interval=%dms, %s", e.getKey(), e.getValue()))
+                .toArray(String[]::new);
+    }
+
+    private TimingWheelScheduler getTimingWheelScheduler() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return scheduler instanceof TimingWheelScheduler ? (TimingWheelScheduler) scheduler : null;
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return (scheduler instanceof LegacyScheduler || scheduler instanceof TimingWheelScheduler);
     }
 }
@@ -84,4 +84,21 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The number of open slots on our ExecutorService queue.
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The largest delay between the time at which a task was due and the time at
+     * which it was handed to the thread pool, in ms, or 0 when the timing wheel scheduler isn't used
+     */
+    public long getSchedulerMaxLagMs();
+
+    /**
+     * @return The average delay between the time at which a task was due and the time at
+     * which it was handed to the thread pool, in ms, or 0 when the timing wheel scheduler isn't used
+     */
+    public double getSchedulerAverageLagMs();
+
+    /**
+     * @return The scheduling lag for each of the scheduled intervals
+     */
+    public String[] getSchedulerLagStatistics();
 }
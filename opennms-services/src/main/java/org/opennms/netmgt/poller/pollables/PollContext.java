@@ -30,6 +30,7 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.net.InetAddress;
 import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.opennms.netmgt.xml.event.Event;
 
@@ -105,4 +106,26 @@ public interface PollContext {
      */
     public boolean isServiceUnresponsiveEnabled();
 
+    /**
+     * <p>isAsyncPollingEnabled</p>
+     *
+     * @return true if the services should be polled without blocking the scheduler threads
+     */
+    public boolean isAsyncPollingEnabled();
+
+    /**
+     * <p>getAsyncPollExecutor</p>
+     *
+     * @return the executor used to apply the results of the asynchronous polls
+     */
+    public ScheduledExecutorService getAsyncPollExecutor();
+
+    /**
+     * Runs the given status change processing, deferring the outage updates and the
+     * events it produces so they can be written and sent together when it completes.
+     *
+     * @param r the status change processing
+     */
+    public void batchStatusChanges(Runnable r);
+
 }
@@ -204,6 +204,17 @@ public class PollableNode extends PollableContainer {
         v.visitNode(this);
     }
     
+    /**
+     * {@inheritDoc}
+     *
+     * The outages and events resulting from the status changes of the node's
+     * members are written and sent together once the whole tree is processed.
+     */
+    @Override
+    public void processStatusChange(final Date date) {
+        getContext().batchStatusChanges(() -> super.processStatusChange(date));
+    }
+
     /** {@inheritDoc} */
     @Override
     public Event createDownEvent(Date date) {
@@ -31,6 +31,11 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -52,6 +57,25 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
+    private static final Random random = new Random();
+
+    /**
+     * Result of the asynchronous poll being applied by the current thread. Only consumed by
+     * {@link #poll()} on the service it belongs to, and on that thread, so that other threads
+     * polling the same service while the result is applied still perform their own poll.
+     */
+    private static final ThreadLocal<AsyncPollResult> s_asyncPollResult = new ThreadLocal<>();
+
+    private static final class AsyncPollResult {
+        private final PollableService m_service;
+        private final PollStatus m_status;
+
+        private AsyncPollResult(PollableService service, PollStatus status) {
+            m_service = service;
+            m_status = status;
+        }
+    }
+
     private final class PollRunner implements Runnable {
     	
     	private volatile PollStatus m_pollStatus;
@@ -72,6 +96,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+
+    /**
+     * Set while an asynchronous poll is in progress.
+     */
+    private final AtomicBoolean m_asyncPollInProgress = new AtomicBoolean(false);
+
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -187,7 +217,14 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        final AsyncPollResult asyncPollResult = s_asyncPollResult.get();
+        final PollStatus newStatus;
+        if (asyncPollResult != null && asyncPollResult.m_service == this) {
+            s_asyncPollResult.remove();
+            newStatus = asyncPollResult.m_status;
+        } else {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -376,7 +413,72 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public void run() {
-        doRun(500);
+        if (getContext().isAsyncPollingEnabled()) {
+            doRunAsync();
+        } else {
+            doRun(500);
+        }
+    }
+
+    /**
+     * Starts the poll without waiting for it to complete. Once the status is
+     * available, it is applied in the same way as {@link #doRun()} does, except
+     * that the service itself isn't polled again: the tree lock is only held
+     * while processing the status change.
+     */
+    private void doRunAsync() {
+        if (!m_asyncPollInProgress.compareAndSet(false, true)) {
+            LOG.info("Skipping scheduled poll of service {}, the previous poll is still in progress", this);
+            return;
+        }
+
+        final CompletableFuture<PollStatus> future;
+        try {
+            LOG.debug("Start Asynchronous Poll of service {}", this);
+            future = m_pollConfig.pollAsync();
+        } catch (RuntimeException e) {
+            m_asyncPollInProgress.set(false);
+            throw e;
+        }
+
+        final Map<String, String> mdc = Logging.getCopyOfContextMap();
+        future.whenComplete((status, e) -> {
+            applyAsyncPollStatus(e == null ? status : PollStatus.unknown(e.getMessage()), mdc, 0);
+        });
+    }
+
+    /**
+     * Applies the status of an asynchronous poll on the context's executor. If
+     * the tree lock can't be acquired, the status is applied again after a delay,
+     * in the same way as the scheduler does for postponed polls, until it is applied
+     * or the service is deleted.
+     */
+    private void applyAsyncPollStatus(final PollStatus status, final Map<String, String> mdc, final long delay) {
+        try {
+            getContext().getAsyncPollExecutor().schedule(() -> {
+                boolean done = true;
+                try (Logging.MDCCloseable mdcCloseable = Logging.withContextMapCloseable(mdc)) {
+                    s_asyncPollResult.set(new AsyncPollResult(this, status));
+                    doRun(500);
+                } catch (PostponeNecessary e) {
+                    if (!isDeleted()) {
+                        done = false;
+                        // Chose a random number of seconds between 5 and 14 to wait before trying again
+                        applyAsyncPollStatus(status, mdc, random.nextInt(10) * 1000L + 5000L);
+                    }
+                } catch (Throwable t) {
+                    LOG.error("Failed to process the result of the asynchronous poll of service {}", this, t);
+                } finally {
+                    s_asyncPollResult.remove();
+                    if (done) {
+                        m_asyncPollInProgress.set(false);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.info("Discarding the result of the asynchronous poll of service {}, the poller is stopping", this);
+            m_asyncPollInProgress.set(false);
+        }
     }
     
     /**
@@ -410,7 +512,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             }
             else {
                 doPoll();
-                processStatusChange(new Date());
+                getContext().batchStatusChanges(() -> processStatusChange(new Date()));
                 status = getStatus();
             }
             LOG.debug("Finish Scheduled Poll of service {}, started at {}", this, new Date(startDate));
@@ -105,6 +105,16 @@ public class CollectorThresholdingSet extends ThresholdingSet {
      */
     /** {@inheritDoc} */
     public List<Event> applyThresholds(CollectionResource resource, Map<String, CollectionAttribute> attributesMap, Date collectionTimestamp) {
+        return applyThresholds(resource, attributesMap, collectionTimestamp, counterReset);
+    }
+
+    /**
+     * Same as {@link #applyThresholds(CollectionResource, Map, Date)}, used when the resource is thresholded
+     * after the flag was already updated for the next collection.
+     *
+     * @param counterReset whether the counters should be reinitialized, see {@link #setCounterReset(boolean)}
+     */
+    public List<Event> applyThresholds(CollectionResource resource, Map<String, CollectionAttribute> attributesMap, Date collectionTimestamp, boolean counterReset) {
         if (!isCollectionEnabled(resource)) {
             LOG.debug("applyThresholds: Ignoring resource {} because data collection is disabled for this resource.", resource);
             return new LinkedList<>();
@@ -37,12 +37,19 @@ import java.util.Map;
 import org.apache.commons.jexl2.ExpressionImpl;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.jexl.UnsupportedExpressionException;
 import org.opennms.netmgt.config.threshd.Expression;
+import org.opennms.netmgt.threshd.ThresholdExpressionCompiler.CompiledExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 
+ * Wraps threshold definitions based on expressions.
+ *
+ * The expressions are compiled using the {@link ThresholdExpressionCompiler} when possible,
+ * and evaluated with JEXL otherwise. The compiled expressions are also evaluated with JEXL
+ * when given values for which they cannot guarantee the same results, i.e. missing values.
+ *
  * @author <a href="mailto:agalue@opennms.org">Alejandro Galue</a>
  * @author <a href="mailto:jeffg@opennms.org">Jeff Gehlbach</a>
  * @author <a href="mailto:cmiskell@opennms.org">Craig Miskell</a>
@@ -50,16 +57,27 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    public static final String COMPILE_SYS_PROP = "org.opennms.threshd.expression.compile";
+
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final org.apache.commons.jexl2.Expression m_jexlExpression;
+    private final CompiledExpression m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
+        this(expression, Boolean.parseBoolean(System.getProperty(COMPILE_SYS_PROP, "true")));
+    }
+
+    ExpressionConfigWrapper(Expression expression, boolean compile) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            ExpressionImpl e = (ExpressionImpl) JEXL_ENGINE.createExpression(m_expression.getExpression());
+            m_jexlExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -77,6 +95,23 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
         LOG.trace("Threshold Variables: {}", m_datasources);
+        m_compiledExpression = compile ? compile(m_expression.getExpression()) : null;
+    }
+
+    private static CompiledExpression compile(String expression) {
+        try {
+            return ThresholdExpressionCompiler.compile(expression);
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("The threshold expression will be evaluated with JEXL: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the expression was compiled, false if it is always evaluated with JEXL
+     */
+    public boolean isCompiled() {
+        return m_compiledExpression != null;
     }
 
     @Override
@@ -142,6 +177,19 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
+        if (m_compiledExpression != null) {
+            final double[] slots = m_compiledExpression.bind(values);
+            if (slots == null) {
+                LOG.trace("Evaluating the threshold expression with JEXL, since some of the values are missing");
+            } else {
+                try {
+                    return m_compiledExpression.evaluate(slots);
+                } catch (UnsupportedExpressionException e) {
+                    LOG.trace("Evaluating the threshold expression with JEXL: {}", e.getMessage());
+                }
+            }
+        }
+
         // Add all of the variable values to the script context
         Map<String,Object> context = new HashMap<String,Object>();
         context.putAll(values);
@@ -149,8 +197,7 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         context.put("math", new MathBinding());
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_jexlExpression.evaluate(new MapContext(context));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
@@ -32,10 +32,12 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.opennms.netmgt.threshd.ThresholdEvaluatorState.Status;
 import org.opennms.netmgt.xml.event.Event;
@@ -61,6 +63,18 @@ public final class ThresholdEntity implements Cloneable {
     // in the Constructor.  Note that this means we must use a null-key capable map like HashMap
     private Map<String,List<ThresholdEvaluatorState>> m_thresholdEvaluatorStates = new HashMap<String,List<ThresholdEvaluatorState>>();
 
+    //The list for the "null" key, which is also accessed without holding the lock on this entity
+    private final List<ThresholdEvaluatorState> m_defaultEvaluatorStates = new LinkedList<ThresholdEvaluatorState>();
+
+    //The last time the evaluators of each instance were used, so that the states of the instances that disappeared can be evicted
+    private Map<String,Long> m_lastEvaluated = new HashMap<String,Long>();
+
+    //Identifies this threshold in the ThresholdStateStore, once it was evaluated with a key
+    private volatile String m_stateKey;
+
+    //The last time any of the instances was evaluated
+    private volatile long m_lastEvaluatedAt;
+
     // the commands for these need to be listed in ThresholdController as well
     static {
         s_thresholdEvaluators = new LinkedList<ThresholdEvaluator>();
@@ -75,7 +89,7 @@ public final class ThresholdEntity implements Cloneable {
      */
     public ThresholdEntity() {
         //Put in a default list for the "null" key (the default evaluators)
-        m_thresholdEvaluatorStates.put(null, new LinkedList<ThresholdEvaluatorState>());
+        m_thresholdEvaluatorStates.put(null, m_defaultEvaluatorStates);
     }
 
     /**
@@ -84,11 +98,11 @@ public final class ThresholdEntity implements Cloneable {
      * @return a {@link org.opennms.netmgt.threshd.BaseThresholdDefConfigWrapper} object.
      */
     public BaseThresholdDefConfigWrapper getThresholdConfig() {
-        return m_thresholdEvaluatorStates.get(null).get(0).getThresholdConfig();
+        return m_defaultEvaluatorStates.get(0).getThresholdConfig();
     }
     
     private boolean hasThresholds() {
-        return m_thresholdEvaluatorStates.get(null).size()!=0;
+        return m_defaultEvaluatorStates.size()!=0;
     }
     /**
      * Get datasource name
@@ -228,6 +242,28 @@ public final class ThresholdEntity implements Cloneable {
      * @param resource a {@link org.opennms.netmgt.threshd.CollectionResourceWrapper} object.
      */
     public List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date) {
+        return evaluateAndCreateEvents(resource, values, date, null);
+    }
+
+    /**
+     * Evaluates the threshold in light of the provided datasource value, for
+     * the named instance (or the generic instance if instance is null) and
+     * create any events for thresholds.
+     *
+     * The entity is registered with the {@link ThresholdStateStore}, which reads the states of
+     * the evaluators when these need to be saved, and the states are restored from the store
+     * when the evaluators of an instance are created.
+     *
+     * @param values
+     *          map of values (by datasource name) to evaluate against the threshold (might be an expression)
+     * @param date
+     *          Date to use in created events
+     * @param stateKey
+     *          identifies this threshold in the {@link ThresholdStateStore}, or null if the states should not be stored
+     * @return List of events
+     * @param resource a {@link org.opennms.netmgt.threshd.CollectionResourceWrapper} object.
+     */
+    public List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date, String stateKey) {
         List<Event> events = new LinkedList<Event>();
         double dsValue=0.0;
 
@@ -239,8 +275,24 @@ public final class ThresholdEntity implements Cloneable {
             // such as the SiblingColumnStorageStrategy
             instance = resource.getInstanceLabel();
         }
+        if (stateKey != null && m_stateKey == null) {
+            // Before creating any evaluators, so that the ones of a previous entity are handed over first
+            m_stateKey = stateKey;
+            ThresholdStateStore.getInstance().register(stateKey, this);
+        }
+        m_lastEvaluatedAt = System.currentTimeMillis();
+        final boolean created;
+        final List<ThresholdEvaluatorState> states;
+        synchronized (this) {
+            created = !m_thresholdEvaluatorStates.containsKey(instance);
+            states = getThresholdEvaluatorStates(instance);
+            if (instance != null) {
+                m_lastEvaluated.put(instance, System.currentTimeMillis());
+            }
+        }
+
         try {
-            if (getThresholdEvaluatorStates(instance).size() > 0) {
+            if (states.size() > 0) {
                 dsValue=getThresholdConfig().evaluate(values);
             } else {
                 throw new IllegalStateException("No thresholds have been added.");
@@ -252,17 +304,95 @@ public final class ThresholdEntity implements Cloneable {
         
         LOG.debug("evaluate: value= {} against threshold: {}", dsValue, this);
 
-        for (ThresholdEvaluatorState item : getThresholdEvaluatorStates(instance)) {
-            Status status = item.evaluate(dsValue);
-            Event event = item.getEventForState(status, date, dsValue, resource);
-            if (event != null) {
-                events.add(event);
+        // The resources are thresholded concurrently, but the states of each instance are only updated by one thread at a time
+        synchronized (states) {
+            if (created && stateKey != null) {
+                restoreStates(stateKey, instance, states);
+            }
+            for (ThresholdEvaluatorState item : states) {
+                Status status = item.evaluate(dsValue);
+                Event event = item.getEventForState(status, date, dsValue, resource);
+                if (event != null) {
+                    events.add(event);
+                }
             }
         }
 
         return events;
     }
 
+    private static void restoreStates(String stateKey, String instance, List<ThresholdEvaluatorState> states) {
+        final ThresholdStateStore store = ThresholdStateStore.getInstance();
+        for (ThresholdEvaluatorState item : states) {
+            final ThresholdStateStore.State state = store.take(ThresholdStateStore.getKey(stateKey, instance, item));
+            if (state != null) {
+                LOG.debug("restoreStates: restoring {} for instance {} of {}", state, instance, stateKey);
+                item.restoreState(state);
+            }
+        }
+    }
+
+    /**
+     * Passes the current states of the evaluators of each instance to the given consumer,
+     * along with their keys in the {@link ThresholdStateStore}.
+     *
+     * @param consumer the consumer
+     */
+    public synchronized void saveStates(BiConsumer<String, ThresholdStateStore.State> consumer) {
+        final String stateKey = m_stateKey;
+        if (stateKey == null) {
+            return;
+        }
+        for (Map.Entry<String, List<ThresholdEvaluatorState>> entry : m_thresholdEvaluatorStates.entrySet()) {
+            if (entry.getKey() == null) {
+                // The default evaluators are never restored
+                continue;
+            }
+            synchronized (entry.getValue()) {
+                for (ThresholdEvaluatorState item : entry.getValue()) {
+                    final ThresholdStateStore.State state = item.getState();
+                    if (state != null) {
+                        consumer.accept(ThresholdStateStore.getKey(stateKey, entry.getKey(), item), state);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the last time any of the instances was evaluated, in milliseconds
+     */
+    public long getLastEvaluatedAt() {
+        return m_lastEvaluatedAt;
+    }
+
+    /**
+     * Releases the evaluators of the instances that were not evaluated since the given time.
+     * Their states are saved to the {@link ThresholdStateStore}, which keeps them until these expire.
+     *
+     * @param cutoff the time in milliseconds
+     * @return the number of evicted instances
+     */
+    public synchronized int evictStates(long cutoff) {
+        int evicted = 0;
+        for (Iterator<Map.Entry<String,Long>> it = m_lastEvaluated.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String,Long> entry = it.next();
+            if (entry.getValue() < cutoff) {
+                final List<ThresholdEvaluatorState> states = m_thresholdEvaluatorStates.remove(entry.getKey());
+                if (states != null && entry.getKey() != null && m_stateKey != null) {
+                    synchronized (states) {
+                        for (ThresholdEvaluatorState item : states) {
+                            ThresholdStateStore.getInstance().put(ThresholdStateStore.getKey(m_stateKey, entry.getKey(), item), item.getState());
+                        }
+                    }
+                }
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
     /**
      * <p>addThreshold</p>
      *
@@ -271,7 +401,7 @@ public final class ThresholdEntity implements Cloneable {
     public void addThreshold(BaseThresholdDefConfigWrapper threshold) {
         ThresholdEvaluator evaluator = getEvaluatorForThreshold(threshold);
         //Get the default list of evaluators (the null key)
-        List<ThresholdEvaluatorState> defaultList=m_thresholdEvaluatorStates.get(null);
+        List<ThresholdEvaluatorState> defaultList=m_defaultEvaluatorStates;
 
         for (ThresholdEvaluatorState item : defaultList) {
             if (threshold.getType().equals(item.getThresholdConfig().getType())) {
@@ -301,11 +431,11 @@ public final class ThresholdEntity implements Cloneable {
      * @param instance The key to use to identify the instance to get states for. Can be null to get the default instance
      * @return a {@link java.util.List} object.
      */
-    public List<ThresholdEvaluatorState> getThresholdEvaluatorStates(String instance) {
+    public synchronized List<ThresholdEvaluatorState> getThresholdEvaluatorStates(String instance) {
         List<ThresholdEvaluatorState> result= m_thresholdEvaluatorStates.get(instance);
         if(result==null) {
             //There is no set of evaluators for this instance; create a list by copying the base ones
-            List<ThresholdEvaluatorState> defaultList=m_thresholdEvaluatorStates.get(null);
+            List<ThresholdEvaluatorState> defaultList=m_defaultEvaluatorStates;
           
             //Create the new list
             result=new LinkedList<ThresholdEvaluatorState>();
@@ -336,9 +466,12 @@ public final class ThresholdEntity implements Cloneable {
      */
     public void delete() {
         sendRearmForTriggeredStates();
+        if (m_stateKey != null) {
+            ThresholdStateStore.getInstance().unregister(m_stateKey, this);
+        }
     }
     
-    private void sendRearmForTriggeredStates() {
+    private synchronized void sendRearmForTriggeredStates() {
         for (String instance : m_thresholdEvaluatorStates.keySet()) {
             for (ThresholdEvaluatorState state : m_thresholdEvaluatorStates.get(instance)) {
                 if (state.isTriggered()) {
@@ -355,6 +488,10 @@ public final class ThresholdEntity implements Cloneable {
                 }
             }
         }
+        if (m_stateKey != null) {
+            // No rearm is sent for the instances whose states were not restored yet, start over with these too
+            ThresholdStateStore.getInstance().remove(m_stateKey);
+        }
     }
 
     /**
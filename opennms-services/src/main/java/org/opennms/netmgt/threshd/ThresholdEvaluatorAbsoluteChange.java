@@ -183,6 +183,17 @@ public class ThresholdEvaluatorAbsoluteChange implements ThresholdEvaluator {
         @Override
         public void clearState() {
         }
+
+        @Override
+        public ThresholdStateStore.State getState() {
+            return new ThresholdStateStore.State(0, true, getLastSample(), getPreviousTriggeringSample());
+        }
+
+        @Override
+        public void restoreState(ThresholdStateStore.State state) {
+            setLastSample(state.getLastSample());
+            setPreviousTriggeringSample(state.getPreviousTriggeringSample());
+        }
     }
 
 }
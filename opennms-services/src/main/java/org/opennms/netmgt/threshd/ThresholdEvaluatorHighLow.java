@@ -269,6 +269,17 @@ public class ThresholdEvaluatorHighLow implements ThresholdEvaluator {
             setArmed(true);
             setExceededCount(0);
         }
+
+        @Override
+        public ThresholdStateStore.State getState() {
+            return new ThresholdStateStore.State(getExceededCount(), isArmed(), Double.NaN, Double.NaN);
+        }
+
+        @Override
+        public void restoreState(ThresholdStateStore.State state) {
+            setExceededCount(state.getCount());
+            setArmed(state.isArmed());
+        }
         
     }
 
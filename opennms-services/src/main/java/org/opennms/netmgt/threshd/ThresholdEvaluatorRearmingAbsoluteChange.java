@@ -199,5 +199,17 @@ public class ThresholdEvaluatorRearmingAbsoluteChange implements ThresholdEvalua
             setPreviousTriggeringSample(Double.NaN);
         }
 
+        @Override
+        public ThresholdStateStore.State getState() {
+            return new ThresholdStateStore.State(m_triggerCount, Double.isNaN(getPreviousTriggeringSample()), getLastSample(), getPreviousTriggeringSample());
+        }
+
+        @Override
+        public void restoreState(ThresholdStateStore.State state) {
+            m_triggerCount = state.getCount();
+            setLastSample(state.getLastSample());
+            setPreviousTriggeringSample(state.getPreviousTriggeringSample());
+        }
+
     }
 }
@@ -194,6 +194,17 @@ public class ThresholdEvaluatorRelativeChange implements ThresholdEvaluator {
         public void clearState() {
         }
 
+        @Override
+        public ThresholdStateStore.State getState() {
+            return new ThresholdStateStore.State(0, true, getLastSample(), getPreviousTriggeringSample());
+        }
+
+        @Override
+        public void restoreState(ThresholdStateStore.State state) {
+            setLastSample(state.getLastSample());
+            setPreviousTriggeringSample(state.getPreviousTriggeringSample());
+        }
+
     }
 
 }
@@ -93,4 +93,21 @@ public interface ThresholdEvaluatorState {
      * @return a {@link org.opennms.netmgt.threshd.ThresholdEvaluatorState} object.
      */
     public ThresholdEvaluatorState getCleanClone();
+
+    /**
+     * Returns the current state, so that it can be kept by the {@link ThresholdStateStore}.
+     *
+     * @return the state, or null if this evaluator does not keep any state
+     */
+    public default ThresholdStateStore.State getState() {
+        return null;
+    }
+
+    /**
+     * Restores a state previously returned by {@link #getState()}.
+     *
+     * @param state the state
+     */
+    public default void restoreState(ThresholdStateStore.State state) {
+    }
 }
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+
+package org.opennms.netmgt.threshd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.core.jexl.ExpressionCompiler;
+import org.opennms.core.jexl.ExpressionCompiler.Kind;
+import org.opennms.core.jexl.ExpressionCompiler.Node;
+import org.opennms.core.jexl.ExpressionCompiler.Variable;
+import org.opennms.core.jexl.UnsupportedExpressionException;
+
+/**
+ * Compiles threshold expressions using the {@link ExpressionCompiler}, so that
+ * they are evaluated against an array of datasource values instead of being
+ * interpreted with JEXL against a map.
+ *
+ * The datasources referenced by the expression, either by name or with
+ * <code>datasources.name</code> and <code>datasources['name']</code>, are
+ * resolved to slots in the array when the expression is compiled. The
+ * functions of the {@link ExpressionConfigWrapper.MathBinding} are available
+ * as <code>math.function()</code>.
+ */
+class ThresholdExpressionCompiler implements ExpressionCompiler.Scope {
+
+    /**
+     * A compiled expression, along with the datasources bound to its slots.
+     */
+    static final class CompiledExpression {
+        private final ExpressionCompiler.CompiledExpression m_expression;
+        private final String[] m_variables;
+
+        private CompiledExpression(ExpressionCompiler.CompiledExpression expression, List<String> variables) {
+            m_expression = expression;
+            m_variables = variables.toArray(new String[variables.size()]);
+        }
+
+        /**
+         * @return the names of the datasources, in the order of their slots
+         */
+        List<String> getVariables() {
+            return Collections.unmodifiableList(Arrays.asList(m_variables));
+        }
+
+        /**
+         * Binds the datasource values to the slots.
+         *
+         * @param values the datasource values, by name
+         * @return the slots, or null if one of the values is missing, since
+         * JEXL treats these as zero in some places and as null in others
+         */
+        double[] bind(Map<String, Double> values) {
+            final double[] slots = new double[m_variables.length];
+            for (int i = 0; i < m_variables.length; i++) {
+                final Double value = values.get(m_variables[i]);
+                if (value == null) {
+                    return null;
+                }
+                slots[i] = value;
+            }
+            return slots;
+        }
+
+        /**
+         * Evaluates the expression.
+         *
+         * @param slots the datasource values, as returned by {@link #bind(Map)}
+         * @return the same value that JEXL would have returned
+         * @throws UnsupportedExpressionException if the result would differ
+         * from the one returned by JEXL
+         */
+        double evaluate(double[] slots) throws UnsupportedExpressionException {
+            return m_expression.evaluate(slots);
+        }
+    }
+
+    private static final String DATASOURCES = "datasources";
+
+    private static final String MATH = "math";
+
+    private final List<String> m_variables = new ArrayList<>();
+
+    private ThresholdExpressionCompiler() {
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param expression the JEXL expression
+     * @return the compiled expression
+     * @throws UnsupportedExpressionException if the expression cannot be compiled
+     */
+    static CompiledExpression compile(String expression) throws UnsupportedExpressionException {
+        final ThresholdExpressionCompiler scope = new ThresholdExpressionCompiler();
+        return new CompiledExpression(ExpressionCompiler.compile(expression, scope), scope.m_variables);
+    }
+
+    @Override
+    public Node resolve(String name) {
+        if (name.startsWith(DATASOURCES + ".")) {
+            final String datasource = name.substring(DATASOURCES.length() + 1);
+            return datasource.indexOf('.') < 0 ? variable(datasource) : null;
+        } else if (name.indexOf('.') >= 0) {
+            return null;
+        }
+        return variable(name);
+    }
+
+    @Override
+    public Node property(String object, String property) {
+        // See NMS-5019
+        return DATASOURCES.equals(object) ? variable(property) : null;
+    }
+
+    /**
+     * @see ExpressionConfigWrapper.MathBinding
+     */
+    @Override
+    public Node function(String object, String name, List<Node> args) throws UnsupportedExpressionException {
+        if (!MATH.equals(object)) {
+            return null;
+        }
+        final Node node = ExpressionCompiler.mathFunction(false, name, args);
+        if (node != null) {
+            return node;
+        }
+        if (args.size() == 1 && args.get(0).getKind() == Kind.DOUBLE && "ulp".equals(name)) {
+            return ExpressionCompiler.unaryFunction(Kind.DOUBLE, Math::ulp, args.get(0));
+        } else if (args.size() == 2) {
+            final Node left = args.get(0);
+            final Node right = args.get(1);
+            // A double can only be passed to the double overload, which then accepts any other number
+            if (left.getKind() == Kind.DOUBLE || right.getKind() == Kind.DOUBLE) {
+                switch (name) {
+                    case "min":
+                        return ExpressionCompiler.binaryFunction(Math::min, left, right);
+                    case "max":
+                        return ExpressionCompiler.binaryFunction(Math::max, left, right);
+                    default:
+                        break;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Node variable(String name) {
+        if (name.isEmpty() || ExpressionCompiler.isReserved(name) || name.equals(DATASOURCES) || name.equals(MATH)) {
+            return null;
+        }
+        int slot = m_variables.indexOf(name);
+        if (slot < 0) {
+            slot = m_variables.size();
+            m_variables.add(name);
+        }
+        return new Variable(Kind.DOUBLE, slot);
+    }
+}
@@ -193,6 +193,30 @@ public class ThresholdGroup {
 	    }
 	}
 
+	/**
+	 * Releases the states of the instances that were not evaluated since the given time.
+	 *
+	 * @param cutoff the time in milliseconds
+	 * @return the number of evicted instances
+	 */
+	public int evictStates(long cutoff) {
+	    int evicted = evictStates(getNodeResourceType(), cutoff) + evictStates(getIfResourceType(), cutoff);
+	    for (final Entry<String, ThresholdResourceType> entry : getGenericResourceTypeMap().entrySet()) {
+	        evicted += evictStates(entry.getValue(), cutoff);
+	    }
+	    return evicted;
+	}
+
+	private int evictStates(ThresholdResourceType type, long cutoff) {
+	    int evicted = 0;
+	    for (final Entry<String, Set<ThresholdEntity>> entry : type.getThresholdMap().entrySet()) {
+	        for (final ThresholdEntity e : entry.getValue()) {
+	            evicted += e.evictStates(cutoff);
+	        }
+	    }
+	    return evicted;
+	}
+
 	private void delete(ThresholdResourceType type) {
 	    final Map<String,Set<ThresholdEntity>> entityMap = type.getThresholdMap();
 	    for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
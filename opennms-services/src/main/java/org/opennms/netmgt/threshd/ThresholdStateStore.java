@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the state of the threshold evaluators that are not in use as primitive
+ * records, keyed by node, service, threshold group, resource, threshold and instance.
+ *
+ * The states of the evaluators in use are not copied to the store. Instead, the
+ * {@link ThresholdEntity} holding them is registered, and the states are read from
+ * its evaluators when they need to be saved: when the thresholding set is recreated,
+ * and a new entity is registered for the same threshold, and when the records are
+ * written to the file. The evaluators take their record back when they are created
+ * for an instance, so the triggered and armed states survive the reinitialization
+ * of the thresholding sets.
+ *
+ * When a file is configured, the records are written to it periodically and when
+ * the daemons stop, and read back on startup, so the states also survive restarts.
+ * Records that were not updated, and entities that were not evaluated, for longer
+ * than the configured age are evicted, so that the states of resources that
+ * disappeared are eventually released.
+ */
+public class ThresholdStateStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdStateStore.class);
+
+    public static final String FILE_SYS_PROP = "org.opennms.threshd.state.file";
+
+    public static final String SNAPSHOT_INTERVAL_SYS_PROP = "org.opennms.threshd.state.snapshotInterval";
+
+    public static final String MAX_AGE_SYS_PROP = "org.opennms.threshd.state.maxAge";
+
+    private static final int MAGIC = 0x4f4e5453;
+
+    private static final int VERSION = 1;
+
+    private static ThresholdStateStore s_instance;
+
+    private final Map<String, State> m_states = new ConcurrentHashMap<>();
+
+    private final Map<String, ThresholdEntity> m_entities = new ConcurrentHashMap<>();
+
+    private final File m_file;
+
+    private final long m_maxAge;
+
+    private long m_lastEviction;
+
+    private ScheduledExecutorService m_snapshotExecutor;
+
+    /**
+     * The state of a single threshold evaluator. The meaning of the fields depends on the type of threshold.
+     */
+    public static final class State {
+        private final int m_count;
+        private final boolean m_armed;
+        private final double m_lastSample;
+        private final double m_previousTriggeringSample;
+        private final long m_updated;
+
+        public State(int count, boolean armed, double lastSample, double previousTriggeringSample) {
+            this(count, armed, lastSample, previousTriggeringSample, System.currentTimeMillis());
+        }
+
+        private State(int count, boolean armed, double lastSample, double previousTriggeringSample, long updated) {
+            m_count = count;
+            m_armed = armed;
+            m_lastSample = lastSample;
+            m_previousTriggeringSample = previousTriggeringSample;
+            m_updated = updated;
+        }
+
+        public int getCount() {
+            return m_count;
+        }
+
+        public boolean isArmed() {
+            return m_armed;
+        }
+
+        public double getLastSample() {
+            return m_lastSample;
+        }
+
+        public double getPreviousTriggeringSample() {
+            return m_previousTriggeringSample;
+        }
+
+        public long getUpdated() {
+            return m_updated;
+        }
+
+        @Override
+        public String toString() {
+            return "State[count=" + m_count + ", armed=" + m_armed + ", lastSample=" + m_lastSample
+                    + ", previousTriggeringSample=" + m_previousTriggeringSample + ", updated=" + m_updated + "]";
+        }
+    }
+
+    /**
+     * @param file the file used to persist the states, or null to keep them in memory only
+     * @param maxAge the time in milliseconds after which states that were not updated are evicted
+     */
+    public ThresholdStateStore(File file, long maxAge) {
+        m_file = file;
+        m_maxAge = maxAge;
+        if (m_file != null) {
+            restore();
+        }
+    }
+
+    /**
+     * <p>getInstance</p>
+     *
+     * @return the store shared by all of the thresholding sets
+     */
+    public static synchronized ThresholdStateStore getInstance() {
+        if (s_instance == null) {
+            final String fileName = System.getProperty(FILE_SYS_PROP);
+            final File file = fileName == null || fileName.trim().isEmpty() ? null : new File(fileName.trim());
+            final long maxAge = Long.getLong(MAX_AGE_SYS_PROP, TimeUnit.DAYS.toMillis(7));
+            s_instance = new ThresholdStateStore(file, maxAge);
+            if (file != null) {
+                s_instance.scheduleSnapshots(Long.getLong(SNAPSHOT_INTERVAL_SYS_PROP, TimeUnit.MINUTES.toMillis(5)));
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Used by the tests to replace or reset the shared store.
+     *
+     * @param store the store, or null to create a new one from the system properties on the next use
+     */
+    public static synchronized void setInstance(ThresholdStateStore store) {
+        if (s_instance != null && s_instance != store) {
+            s_instance.stopSnapshots();
+        }
+        s_instance = store;
+    }
+
+    public State get(String key) {
+        return m_states.get(key);
+    }
+
+    /**
+     * Removes the record with the given key.
+     *
+     * @param key the key
+     * @return the record, or null if there is none
+     */
+    public State take(String key) {
+        return m_states.remove(key);
+    }
+
+    /**
+     * Saves the given state.
+     *
+     * @param key the key
+     * @param state the state, or null to remove the record
+     */
+    public void put(String key, State state) {
+        if (state == null) {
+            m_states.remove(key);
+        } else {
+            m_states.put(key, state);
+        }
+    }
+
+    /**
+     * Removes the records of all of the instances of a threshold.
+     *
+     * @param stateKey identifies the threshold
+     */
+    public void remove(String stateKey) {
+        final String prefix = stateKey + "|";
+        m_states.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Registers the entity holding the evaluators of a threshold. If another entity
+     * was registered for the same threshold, the states of its evaluators are saved
+     * so that the new entity can restore them.
+     *
+     * @param stateKey identifies the threshold
+     * @param entity the entity
+     */
+    public void register(String stateKey, ThresholdEntity entity) {
+        final ThresholdEntity previous = m_entities.put(stateKey, entity);
+        if (previous != null && previous != entity) {
+            previous.saveStates(m_states::put);
+        }
+        maybeEvict();
+    }
+
+    /**
+     * Unregisters the entity holding the evaluators of a threshold that was removed,
+     * along with the records of its instances.
+     *
+     * @param stateKey identifies the threshold
+     * @param entity the entity
+     */
+    public void unregister(String stateKey, ThresholdEntity entity) {
+        m_entities.remove(stateKey, entity);
+        remove(stateKey);
+    }
+
+    public long getMaxAge() {
+        return m_maxAge;
+    }
+
+    /**
+     * @return the number of records, the states of the evaluators in use are not included
+     */
+    public int size() {
+        return m_states.size();
+    }
+
+    /**
+     * Removes the records that were not updated, and unregisters the entities that
+     * were not evaluated, within the maximum age.
+     *
+     * @return the number of evicted records and entities
+     */
+    public int evict() {
+        final long cutoff = System.currentTimeMillis() - m_maxAge;
+        int evicted = 0;
+        for (final Iterator<State> it = m_states.values().iterator(); it.hasNext();) {
+            if (it.next().getUpdated() < cutoff) {
+                it.remove();
+                evicted++;
+            }
+        }
+        for (final Iterator<ThresholdEntity> it = m_entities.values().iterator(); it.hasNext();) {
+            if (it.next().getLastEvaluatedAt() < cutoff) {
+                it.remove();
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            LOG.debug("evict: evicted {} threshold states that were not updated since {}", evicted, cutoff);
+        }
+        return evicted;
+    }
+
+    /**
+     * Evicts the expired records and entities, at most ten times within the maximum age.
+     */
+    private synchronized void maybeEvict() {
+        final long now = System.currentTimeMillis();
+        if (now - m_lastEviction >= m_maxAge / 10) {
+            m_lastEviction = now;
+            evict();
+        }
+    }
+
+    /**
+     * Evicts the expired records, and writes the remaining ones to the file, if any.
+     */
+    public synchronized void snapshot() {
+        evict();
+        if (m_file == null) {
+            return;
+        }
+        final File tmpFile = new File(m_file.getPath() + ".tmp");
+        int count = 0;
+        try {
+            if (m_file.getParentFile() != null) {
+                m_file.getParentFile().mkdirs();
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (final Map.Entry<String, State> entry : m_states.entrySet()) {
+                    write(out, entry.getKey(), entry.getValue());
+                    count++;
+                }
+                // The states of the evaluators in use are read from these
+                final int[] numInUse = new int[1];
+                for (final ThresholdEntity entity : m_entities.values()) {
+                    entity.saveStates((key, state) -> {
+                        try {
+                            write(out, key, state);
+                            numInUse[0]++;
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                count += numInUse[0];
+                out.writeBoolean(false);
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.debug("snapshot: wrote {} threshold states to {}", count, m_file);
+        } catch (final IOException e) {
+            LOG.warn("snapshot: failed to write the threshold states to {}", m_file, e);
+            tmpFile.delete();
+        }
+    }
+
+    private static void write(DataOutputStream out, String key, State state) throws IOException {
+        out.writeBoolean(true);
+        out.writeUTF(key);
+        out.writeInt(state.getCount());
+        out.writeBoolean(state.isArmed());
+        out.writeDouble(state.getLastSample());
+        out.writeDouble(state.getPreviousTriggeringSample());
+        out.writeLong(state.getUpdated());
+    }
+
+    private void restore() {
+        if (!m_file.canRead()) {
+            LOG.debug("restore: no threshold states to restore from {}", m_file);
+            return;
+        }
+        final long cutoff = System.currentTimeMillis() - m_maxAge;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("restore: ignoring {}, the file was not written by this version of the threshold state store", m_file);
+                return;
+            }
+            while (in.readBoolean()) {
+                final String key = in.readUTF();
+                final State state = new State(in.readInt(), in.readBoolean(), in.readDouble(), in.readDouble(), in.readLong());
+                if (state.getUpdated() >= cutoff) {
+                    m_states.put(key, state);
+                    count++;
+                }
+            }
+            LOG.info("restore: restored {} threshold states from {}", count, m_file);
+        } catch (final IOException e) {
+            LOG.warn("restore: failed to read the threshold states from {}, keeping the {} states read so far", m_file, count, e);
+        }
+    }
+
+    private synchronized void scheduleSnapshots(long interval) {
+        if (interval <= 0 || m_snapshotExecutor != null) {
+            return;
+        }
+        m_snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "ThresholdStateStore-Snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_snapshotExecutor.scheduleWithFixedDelay(this::snapshot, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopSnapshots() {
+        if (m_snapshotExecutor != null) {
+            m_snapshotExecutor.shutdown();
+            m_snapshotExecutor = null;
+        }
+    }
+
+    /**
+     * Builds the key of the state of a threshold evaluator.
+     *
+     * @param prefix identifies the node, service, group, resource type and threshold
+     * @param instance the instance of the resource, may be null
+     * @param state the evaluator
+     * @return the key
+     */
+    static String getKey(String prefix, String instance, ThresholdEvaluatorState state) {
+        return Objects.requireNonNull(prefix) + "|" + instance + "|" + state.getThresholdConfig().getType();
+    }
+}
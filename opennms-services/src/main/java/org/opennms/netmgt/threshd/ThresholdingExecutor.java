@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of workers used to threshold the resources of the collection sets
+ * outside of the collectd threads.
+ *
+ * The pool is partitioned: every worker has its own queue and the tasks are
+ * assigned to a worker using a key that identifies the resource. The resources
+ * are therefore always thresholded by the same worker, in the order in which
+ * they were collected, and the states of their evaluators are never updated
+ * concurrently.
+ *
+ * The queues are bounded, when these are full the collectd threads wait for room,
+ * so that thresholding that falls behind slows down the collections instead of
+ * consuming all of the memory.
+ */
+public class ThresholdingExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdingExecutor.class);
+
+    public static final String THREADS_SYS_PROP = "org.opennms.threshd.collector.threads";
+
+    public static final String QUEUE_SIZE_SYS_PROP = "org.opennms.threshd.collector.queueSize";
+
+    private static ThresholdingExecutor s_instance;
+
+    private final ThreadPoolExecutor[] m_workers;
+
+    /**
+     * @param threads the number of workers, 0 to threshold the resources in the calling threads
+     * @param queueSize the maximum number of tasks waiting for each worker
+     */
+    public ThresholdingExecutor(int threads, int queueSize) {
+        m_workers = new ThreadPoolExecutor[Math.max(threads, 0)];
+        for (int i = 0; i < m_workers.length; i++) {
+            m_workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(queueSize),
+                    new LogPreservingThreadFactory("Thresholder-" + i, 1),
+                    (task, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("The thresholding workers were stopped.");
+                        }
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for a thresholding worker.", e);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * <p>getInstance</p>
+     *
+     * @return the workers shared by all of the collectable services
+     */
+    public static synchronized ThresholdingExecutor getInstance() {
+        if (s_instance == null) {
+            s_instance = new ThresholdingExecutor(Integer.getInteger(THREADS_SYS_PROP, 0), Integer.getInteger(QUEUE_SIZE_SYS_PROP, 10000));
+        }
+        return s_instance;
+    }
+
+    /**
+     * Replaces the shared workers, the previous ones are stopped once their queues are drained.
+     *
+     * @param executor the workers, or null to create new ones from the system properties on the next use
+     */
+    public static synchronized void setInstance(ThresholdingExecutor executor) {
+        if (s_instance != null && s_instance != executor) {
+            s_instance.stop(TimeUnit.SECONDS.toMillis(30));
+        }
+        s_instance = executor;
+    }
+
+    /**
+     * @return true if the resources are thresholded by the workers, false if
+     *   these should be thresholded in the calling threads
+     */
+    public boolean isEnabled() {
+        return m_workers.length > 0;
+    }
+
+    /**
+     * Queues the given task on the worker assigned to the given key, waits for room in the queue if needed.
+     *
+     * @param key identifies the resource being thresholded
+     * @param task the task
+     * @throws RejectedExecutionException if the workers were stopped
+     */
+    public void execute(Object key, Runnable task) {
+        if (!isEnabled()) {
+            task.run();
+            return;
+        }
+        m_workers[Math.floorMod(key.hashCode(), m_workers.length)].execute(task);
+    }
+
+    /**
+     * @return the number of tasks waiting for a worker, which grows when thresholding falls behind
+     */
+    public long getQueueSize() {
+        long size = 0;
+        for (ThreadPoolExecutor worker : m_workers) {
+            size += worker.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * Stops the workers once the tasks already queued were run.
+     *
+     * @param timeout the time in milliseconds to wait for the queued tasks
+     */
+    public void stop(long timeout) {
+        for (ThreadPoolExecutor worker : m_workers) {
+            worker.shutdown();
+        }
+        final long deadline = System.currentTimeMillis() + timeout;
+        try {
+            for (ThreadPoolExecutor worker : m_workers) {
+                if (!worker.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) {
+                    LOG.warn("stop: gave up waiting for the thresholding workers, {} resources were not thresholded.", worker.shutdownNow().size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -40,6 +40,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -77,8 +79,13 @@ public class ThresholdingSet {
 
     private boolean m_initialized = false;
     private boolean m_hasThresholds = false;
+    private long m_lastEviction = System.currentTimeMillis();
 
     protected final List<ThresholdGroup> m_thresholdGroups = new LinkedList<>();
+    /**
+     * The resources may be thresholded concurrently, but not while the groups are being (re)initialized.
+     */
+    private final ReadWriteLock m_thresholdGroupsLock = new ReentrantReadWriteLock();
     protected final List<String> m_scheduledOutages = new ArrayList<>();
 
     /**
@@ -110,7 +117,8 @@ public class ThresholdingSet {
     protected void initialize() throws ThresholdInitializationException {
         final String logHeader = "initialize(nodeId=" + m_nodeId + ",ipAddr=" + m_hostAddress + ",svc=" + m_serviceName + ")";
         final List<String> groupNameList = getThresholdGroupNames(m_nodeId, m_hostAddress, m_serviceName);
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.writeLock().lock();
+        try {
             m_thresholdGroups.clear();
             for (final String groupName : groupNameList) {
                 try {
@@ -127,6 +135,8 @@ public class ThresholdingSet {
                 }
             }
             m_hasThresholds = !m_thresholdGroups.isEmpty();
+        } finally {
+            m_thresholdGroupsLock.writeLock().unlock();
         }
         updateScheduledOutages();
     }
@@ -156,10 +166,15 @@ public class ThresholdingSet {
         } catch (final Exception e) {
             LOG.error("Failed to reinitialize thresholding set.  Reverting to previous configuration.", e);
             ThresholdingConfigFactory.setInstance(tcf);
-            m_hasThresholds = hasThresholds;
-            if (!thresholdGroups.equals(m_thresholdGroups)) {
-                m_thresholdGroups.clear();
-                m_thresholdGroups.addAll(thresholdGroups);
+            m_thresholdGroupsLock.writeLock().lock();
+            try {
+                m_hasThresholds = hasThresholds;
+                if (!thresholdGroups.equals(m_thresholdGroups)) {
+                    m_thresholdGroups.clear();
+                    m_thresholdGroups.addAll(thresholdGroups);
+                }
+            } finally {
+                m_thresholdGroupsLock.writeLock().unlock();
             }
             if (!scheduledOutages.equals(m_scheduledOutages)) {
                 m_scheduledOutages.clear();
@@ -185,7 +200,8 @@ public class ThresholdingSet {
         final List<String> existingGroupNameList = m_thresholdGroups.stream().map(ThresholdGroup::getName).collect(Collectors.toList());
         List<String> newGroupNameList = getThresholdGroupNames(nodeId, hostAddress, serviceName);
 
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.writeLock().lock();
+        try {
             // If size differs its because some groups where deleted.
             if (newGroupNameList.size() != m_thresholdGroups.size() || !existingGroupNameList.equals(newGroupNameList)) {
                 // Deleting Groups
@@ -228,6 +244,8 @@ public class ThresholdingSet {
             m_thresholdGroups.clear();
             m_thresholdGroups.addAll(newThresholdGroupList);
             m_hasThresholds = !m_thresholdGroups.isEmpty();
+        } finally {
+            m_thresholdGroupsLock.writeLock().unlock();
         }
     }
 
@@ -252,7 +270,8 @@ public class ThresholdingSet {
      */
     public boolean hasThresholds(final String resourceTypeName, final String attributeName) {
         boolean ok = false;
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.readLock().lock();
+        try {
             for (ThresholdGroup group : m_thresholdGroups) {
                 Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceTypeName);
                 if (entityMap != null) {
@@ -270,6 +289,8 @@ public class ThresholdingSet {
                     }
                 }
             }
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
         }
         return ok;
     }
@@ -308,7 +329,9 @@ public class ThresholdingSet {
         }
         LOG.debug("applyThresholds: Applying thresholds on {} using {} attributes.", resourceWrapper, attributesMap.size());
         Date date = new Date();
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.readLock().lock();
+        try {
+            evictStates(date.getTime());
             for (ThresholdGroup group : m_thresholdGroups) {
                 Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceWrapper.getResourceTypeName());
                 if (entityMap != null) {
@@ -334,7 +357,7 @@ public class ThresholdingSet {
                                     LOG.info("applyThresholds: All attributes found for {}, evaluating", resourceWrapper);
                                     resourceWrapper.setDsLabel(thresholdEntity.getDatasourceLabel());
                                     try {
-                                        List<Event> thresholdEvents = thresholdEntity.evaluateAndCreateEvents(resourceWrapper, values, date);
+                                        List<Event> thresholdEvents = thresholdEntity.evaluateAndCreateEvents(resourceWrapper, values, date, getStateKey(group, resourceWrapper.getResourceTypeName(), key));
                                         eventsList.addAll(thresholdEvents);
                                     } catch (Exception e) {
                                         LOG.warn("applyThresholds: Can't evaluate {} on {} because {}", key, resourceWrapper, e.getMessage());
@@ -347,10 +370,38 @@ public class ThresholdingSet {
                     }
                 }
             }
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
         }
         return eventsList;
     }
 
+    /**
+     * Identifies the states of a threshold in the {@link ThresholdStateStore}.
+     */
+    private String getStateKey(ThresholdGroup group, String resourceTypeName, String thresholdKey) {
+        return m_nodeId + "|" + m_hostAddress + "|" + m_serviceName + "|" + group.getName() + "|" + resourceTypeName + "|" + thresholdKey;
+    }
+
+    /**
+     * Releases the evaluators of the resources that were not thresholded within the maximum
+     * age of the {@link ThresholdStateStore}, i.e. the resources that disappeared.
+     */
+    private synchronized void evictStates(long now) {
+        final long maxAge = ThresholdStateStore.getInstance().getMaxAge();
+        if (now - m_lastEviction < maxAge / 10) {
+            return;
+        }
+        m_lastEviction = now;
+        int evicted = 0;
+        for (ThresholdGroup group : m_thresholdGroups) {
+            evicted += group.evictStates(now - maxAge);
+        }
+        if (evicted > 0) {
+            LOG.debug("evictStates: released the thresholds of {} instances on node {}, interface {}, service {}", evicted, m_nodeId, m_hostAddress, m_serviceName);
+        }
+    }
+
     /**
      * <p>passedThresholdFilters</p>
      *
@@ -539,8 +590,11 @@ public class ThresholdingSet {
     /** {@inheritDoc} */
     @Override
     public String toString() {
-        synchronized (m_thresholdGroups) {
+        m_thresholdGroupsLock.readLock().lock();
+        try {
             return m_thresholdGroups.toString();
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
         }
     }
 }
@@ -33,6 +33,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.collection.api.AttributeGroup;
@@ -60,6 +61,10 @@ import org.slf4j.LoggerFactory;
  * Assumes and requires that the any visitation start at CollectionSet level, so that the collection timestamp can
  * be recorded. 
  *
+ * When the {@link ThresholdingExecutor} is enabled, the resources are thresholded by its workers instead of
+ * the calling thread, and the events generated for the whole collection set are sent together once all of its
+ * resources were thresholded.
+ *
  * @author <a href="mailto:agalue@opennms.org">Alejandro Galue</a>
  * @author <a href="mailto:craig@opennms.org">Craig Miskell</a>
  * @version $Id: $
@@ -82,10 +87,17 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
     /**
      * Holds required attribute from CollectionResource to evaluate thresholds.
      */
-    final Map<String, CollectionAttribute> m_attributesMap = new HashMap<String, CollectionAttribute>();
+    Map<String, CollectionAttribute> m_attributesMap = new HashMap<String, CollectionAttribute>();
 
 	private Date m_collectionTimestamp;
 
+    private boolean m_counterReset = false;
+
+    /**
+     * Collects the events of the current collection set, when the resources are thresholded by the workers.
+     */
+    private EventBatch m_eventBatch;
+
     /**
      * Static method create must be used to create new ThresholdingVisitor instance.
      * Is static because successful creation depends on thresholding-enabled parameter.
@@ -125,6 +137,7 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
     }
     
     public void setCounterReset(boolean counterReset) {
+        m_counterReset = counterReset;
         m_thresholdingSet.setCounterReset(counterReset);
     }
 
@@ -151,6 +164,22 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
     @Override
     public void visitCollectionSet(CollectionSet set) {
         m_collectionTimestamp = set.getCollectionTimestamp();
+        if (m_eventBatch != null) {
+            // The previous collection set was not completed
+            m_eventBatch.complete();
+        }
+        m_eventBatch = ThresholdingExecutor.getInstance().isEnabled() ? new EventBatch() : null;
+    }
+
+    /**
+     * Sends the events of the collection set once all of its resources were thresholded.
+     */
+    @Override
+    public void completeCollectionSet(CollectionSet set) {
+        if (m_eventBatch != null) {
+            m_eventBatch.complete();
+            m_eventBatch = null;
+        }
     }
     
     /**
@@ -173,7 +202,8 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
      */
     @Override
     public void visitResource(CollectionResource resource) {
-        m_attributesMap.clear();
+        // The previous map may still be in use by the workers
+        m_attributesMap = new HashMap<String, CollectionAttribute>();
     }
 
     /**
@@ -198,10 +228,43 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
      */
     @Override
     public void completeResource(CollectionResource resource) {
-        List<Event> eventList = m_thresholdingSet.applyThresholds(resource, m_attributesMap, m_collectionTimestamp);
-        ThresholdingEventProxy proxy = ThresholdingEventProxyFactory.getFactory().getProxy();
-        proxy.add(eventList);
-        proxy.sendAllEvents();
+        final ThresholdingExecutor executor = ThresholdingExecutor.getInstance();
+        if (!executor.isEnabled()) {
+            List<Event> eventList = m_thresholdingSet.applyThresholds(resource, m_attributesMap, m_collectionTimestamp);
+            ThresholdingEventProxy proxy = ThresholdingEventProxyFactory.getFactory().getProxy();
+            proxy.add(eventList);
+            proxy.sendAllEvents();
+            return;
+        }
+
+        // Capture the state of this collection, the visitor moves on to the next resource right away
+        final Map<String, CollectionAttribute> attributesMap = m_attributesMap;
+        final Date collectionTimestamp = m_collectionTimestamp;
+        final boolean counterReset = m_counterReset;
+        final EventBatch eventBatch = m_eventBatch != null ? m_eventBatch : new EventBatch();
+        final boolean standalone = eventBatch != m_eventBatch;
+
+        eventBatch.taskQueued();
+        final String key = m_thresholdingSet.m_nodeId + "/" + resource.getResourceTypeName() + "/" + resource.getInstance();
+        try {
+            executor.execute(key, () -> {
+                List<Event> eventList = Collections.emptyList();
+                try {
+                    eventList = m_thresholdingSet.applyThresholds(resource, attributesMap, collectionTimestamp, counterReset);
+                } catch (Throwable t) {
+                    LOG.warn("completeResource: failed to apply thresholds on {}", resource, t);
+                } finally {
+                    eventBatch.taskCompleted(eventList);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("completeResource: thresholds were not applied on {}: {}", resource, e.getMessage());
+            eventBatch.taskCompleted(Collections.emptyList());
+        }
+        if (standalone) {
+            // The resource was visited on its own, so there is nothing to wait for
+            eventBatch.complete();
+        }
     }
     
     /**
@@ -216,5 +279,36 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
     public String toString() {
         return "ThresholdingVisitor for " + m_thresholdingSet;
     }
+
+    /**
+     * The events generated while thresholding the resources of a collection set,
+     * which are sent in a single log once all of the resources were thresholded.
+     */
+    private static final class EventBatch {
+        private final ThresholdingEventProxy m_proxy = new ThresholdingEventProxy();
+        private int m_pending = 0;
+        private boolean m_complete = false;
+
+        public synchronized void taskQueued() {
+            m_pending++;
+        }
+
+        public synchronized void taskCompleted(List<Event> events) {
+            m_proxy.add(events);
+            m_pending--;
+            sendIfDone();
+        }
+
+        public synchronized void complete() {
+            m_complete = true;
+            sendIfDone();
+        }
+
+        private void sendIfDone() {
+            if (m_complete && m_pending == 0) {
+                m_proxy.sendAllEvents();
+            }
+        }
+    }
     
 }
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -224,7 +225,11 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
         if (!m_stopped) {
             List<Statement> statements = getVacuumdConfig().getStatements();
             for (Statement statement : statements) {
-				runUpdate(statement.getContent(), statement.getTransactional());
+                if (statement.isRepeat()) {
+                    runRepeatedUpdate(statement.getContent(), statement.getTransactional());
+                } else {
+                    runUpdate(statement.getContent(), statement.getTransactional());
+                }
 			}
         }
     }
@@ -252,21 +257,75 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
         return now;
     }
 
-    private void runUpdate(String sql, boolean transactional) {
+    /**
+     * Runs the statement until it no longer affects any rows, committing along the way.
+     *
+     * All of the runs share the same connection, so that the statement can keep its state in
+     * temporary tables from one run to the next, i.e. where purge_events() left off. The temporary
+     * tables are discarded before and after, since the connection is returned to the pool.
+     */
+    private void runRepeatedUpdate(String sql, boolean transactional) {
+        long total = 0;
+        try (Connection dbConn = getDataSourceFactory().getConnection()) {
+            discardTemporaryTables(dbConn);
+            try {
+                long count;
+                while (!m_stopped && (count = runUpdate(dbConn, sql, transactional)) > 0) {
+                    total += count;
+                }
+            } finally {
+                discardTemporaryTables(dbConn);
+            }
+        } catch (SQLException ex) {
+            LOG.error("Vacuumd:  Database error execuating statement {}", sql, ex);
+        }
+        LOG.info("Vacuumd: Repeated statement {}: this affected {} rows in total", sql, total);
+    }
+
+    private static void discardTemporaryTables(Connection dbConn) throws SQLException {
+        dbConn.setAutoCommit(true);
+        try (java.sql.Statement stmt = dbConn.createStatement()) {
+            stmt.execute("DISCARD TEMP");
+        }
+    }
+
+    /**
+     * @return the number of affected rows, or -1 if the statement failed
+     */
+    private long runUpdate(String sql, boolean transactional) {
+        try (Connection dbConn = getDataSourceFactory().getConnection()) {
+            return runUpdate(dbConn, sql, transactional);
+        } catch (SQLException ex) {
+            LOG.error("Vacuumd:  Database error execuating statement {}", sql, ex);
+            return -1;
+        }
+    }
+
+    /**
+     * @return the number of affected rows, or -1 if the statement failed
+     */
+    private long runUpdate(Connection dbConn, String sql, boolean transactional) {
         LOG.info("Vacuumd executing statement: {}", sql);
         // update the database
-        Connection dbConn = null;
-        
+
         //initially set doCommit to avoid doing a commit in the finally
         //if an exception is thrown.        
         boolean commitRequired = false;
         boolean autoCommitFlag = !transactional;
+        long count = -1;
         try {
-            dbConn = getDataSourceFactory().getConnection();
             dbConn.setAutoCommit(autoCommitFlag);
 
             PreparedStatement stmt = dbConn.prepareStatement(sql);
-            int count = stmt.executeUpdate();
+            if (stmt.execute()) {
+                // The statement returned a result, i.e. a call to a stored procedure
+                // such as purge_events(), use the first column as the number of affected rows
+                try (ResultSet rs = stmt.getResultSet()) {
+                    count = rs.next() ? rs.getLong(1) : 0;
+                }
+            } else {
+                count = stmt.getUpdateCount();
+            }
             stmt.close();
 
             LOG.debug("Vacuumd: Ran update {}: this affected {} rows", sql, count);
@@ -274,25 +333,19 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
             commitRequired = transactional;
         } catch (SQLException ex) {
             LOG.error("Vacuumd:  Database error execuating statement {}", sql, ex);
+            count = -1;
         } finally {
-            if (dbConn != null) {
-                try {
-                    if (commitRequired) {
-                        dbConn.commit();
-                    } else if (transactional) {
-                        dbConn.rollback();
-                    }
-                } catch (SQLException ex) {
-                } finally {
-                    if (dbConn != null) {
-                        try {
-                            dbConn.close();
-                        } catch (Throwable e) {
-                        }
-                    }
+            try {
+                if (commitRequired) {
+                    dbConn.commit();
+                } else if (transactional) {
+                    dbConn.rollback();
                 }
+            } catch (SQLException ex) {
+                count = -1;
             }
         }
+        return count;
     }
 
     private void createScheduler() {
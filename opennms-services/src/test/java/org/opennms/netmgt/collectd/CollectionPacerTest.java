@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CollectionPacerTest {
+
+    @Test
+    public void testNoLimitsByDefault() {
+        CollectionPacer pacer = new CollectionPacer(0, 0, false, 1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(pacer.tryAcquire("Default", "Default/10.0.0.1"));
+        }
+        assertEquals(0, pacer.getPostponedCollections());
+    }
+
+    @Test
+    public void testAgentLimit() {
+        CollectionPacer pacer = new CollectionPacer(2, 0, false, 1);
+        assertTrue(pacer.tryAcquire("Default", "Default/10.0.0.1"));
+        assertTrue(pacer.tryAcquire("Default", "Default/10.0.0.1"));
+        assertFalse(pacer.tryAcquire("Default", "Default/10.0.0.1"));
+
+        // Other agents are not affected
+        assertTrue(pacer.tryAcquire("Default", "Default/10.0.0.2"));
+
+        pacer.release("Default", "Default/10.0.0.1");
+        assertTrue(pacer.tryAcquire("Default", "Default/10.0.0.1"));
+        assertEquals(1, pacer.getPostponedCollections());
+    }
+
+    @Test
+    public void testLocationLimit() {
+        CollectionPacer pacer = new CollectionPacer(1, 2, false, 1);
+        assertTrue(pacer.tryAcquire("Remote", "Remote/10.0.0.1"));
+        assertTrue(pacer.tryAcquire("Remote", "Remote/10.0.0.2"));
+        assertFalse(pacer.tryAcquire("Remote", "Remote/10.0.0.3"));
+        assertTrue(pacer.tryAcquire("Default", "Default/10.0.0.3"));
+
+        // The agent must not stay reserved when the location is full
+        pacer.release("Remote", "Remote/10.0.0.1");
+        assertTrue(pacer.tryAcquire("Remote", "Remote/10.0.0.3"));
+        assertEquals(1, pacer.getPostponedCollections());
+    }
+
+    @Test
+    public void testInitialDelay() {
+        assertEquals(0, new CollectionPacer(0, 0, false, 1).getInitialDelay("Default/10.0.0.1", "example1", 300000));
+
+        CollectionPacer pacer = new CollectionPacer(0, 0, true, 1);
+        long delay = pacer.getInitialDelay("Default/10.0.0.1", "example1", 300000);
+        assertTrue(delay >= 0 && delay < 300000);
+        assertEquals(delay, pacer.getInitialDelay("Default/10.0.0.1", "example1", 300000));
+        assertTrue(pacer.getInitialDelay("Default/10.0.0.1", "example2", 300000) != delay);
+        assertEquals(0, pacer.getInitialDelay("Default/10.0.0.1", "example1", 0));
+    }
+
+    @Test
+    public void testStretchLowPriorityWhenBehind() {
+        CollectionPacer pacer = new CollectionPacer(0, 0, false, 3);
+        pacer.collectionStarted("example1", 300000, 0);
+        assertFalse(pacer.isBehind());
+        assertEquals(300000, pacer.getNextInterval("low", 300000, true));
+
+        // Fall behind
+        for (int i = 0; i < 100; i++) {
+            pacer.collectionStarted("example1", 300000, 150000);
+        }
+        assertTrue(pacer.isBehind());
+        assertEquals(300000, pacer.getNextInterval("example1", 300000, false));
+        assertEquals(900000, pacer.getNextInterval("low", 300000, true));
+        assertEquals(2, pacer.getPackageStatistics().get("low").getSkippedCollections());
+        assertEquals(2, pacer.getSkippedCollections());
+
+        // Catch up
+        for (int i = 0; i < 200; i++) {
+            pacer.collectionStarted("example1", 300000, 0);
+        }
+        assertFalse(pacer.isBehind());
+        assertEquals(300000, pacer.getNextInterval("low", 300000, true));
+    }
+
+    @Test
+    public void testPackageStatistics() {
+        CollectionPacer pacer = new CollectionPacer(0, 0, false, 1);
+        assertEquals(100.0, pacer.getOnTimePercentage(), 0.0);
+
+        pacer.collectionStarted("example1", 300000, 1000);
+        pacer.collectionStarted("example1", 300000, 59000);
+        pacer.collectionStarted("example2", 300000, -10);
+        pacer.collectionStarted("example2", 300000, 30000);
+
+        CollectionPacer.PackageStatistics stats = pacer.getPackageStatistics().get("example1");
+        assertEquals(2, stats.getCollections());
+        assertEquals(1, stats.getOnTimeCollections());
+        assertEquals(50.0, stats.getOnTimePercentage(), 0.0);
+        assertEquals(30000, stats.getAverageLag());
+
+        stats = pacer.getPackageStatistics().get("example2");
+        assertEquals(100.0, stats.getOnTimePercentage(), 0.0);
+        assertEquals(15000, stats.getAverageLag());
+
+        assertEquals(75.0, pacer.getOnTimePercentage(), 0.0);
+    }
+}
@@ -29,9 +29,10 @@
 package org.opennms.netmgt.collectd;
 
 import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
-import static org.easymock.EasyMock.matches;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
@@ -158,7 +159,7 @@ public class SnmpAttributeTest {
         m_rrdStrategy.createFile(isA(Object.class));
 
         expect(m_rrdStrategy.openFile(isA(String.class))).andReturn(new Object());
-        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), anyLong(), aryEq(new double[] { Double.parseDouble(matchValue) }));
         m_rrdStrategy.closeFile(isA(Object.class));
 
         m_mocks.replayAll();
@@ -34,9 +34,13 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -54,12 +58,15 @@ import org.opennms.core.test.TestContextAware;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
 import org.opennms.core.test.snmp.annotations.JUnitSnmpAgent;
 import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.CollectionStatus;
 import org.opennms.netmgt.collection.api.CollectionTimedOut;
 import org.opennms.netmgt.collection.core.CollectionSpecification;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
 import org.opennms.netmgt.collection.test.api.CollectorTestUtils;
 import org.opennms.netmgt.config.SnmpPeerFactory;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
@@ -537,6 +544,56 @@ public class SnmpCollectorIT implements InitializingBean, TestContextAware {
         assertEquals("1100334455667788", value);
     }
 
+    @Test
+    @Transactional
+    @JUnitCollector(
+                    datacollectionConfig = "/org/opennms/netmgt/config/datacollection-config.xml",
+                    datacollectionType = "snmp"
+            )
+    @JUnitSnmpAgent(resource = "/org/opennms/netmgt/snmp/snmpTestData1.properties")
+    public void testStreaming() throws Exception {
+        final List<String> visitedCollectionSets = new ArrayList<>();
+        final Set<String> streamedAttributes = new HashSet<>();
+        final CollectionSetVisitor recorder = new AbstractCollectionSetVisitor() {
+            @Override
+            public void visitCollectionSet(CollectionSet set) {
+                visitedCollectionSets.add("visit");
+            }
+
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                streamedAttributes.add(attribute.getResource().getInterfaceLabel() + "/" + attribute.getName());
+            }
+
+            @Override
+            public void completeCollectionSet(CollectionSet set) {
+                visitedCollectionSets.add("complete");
+            }
+        };
+        final StreamingVisitor streamingVisitor = new StreamingVisitor(() -> Collections.singletonList(recorder));
+
+        CollectionSet collectionSet = m_collectionSpecification.collect(m_collectionAgent,
+                Collections.singletonMap(StreamingVisitor.PARAMETER_KEY, streamingVisitor));
+        assertEquals("collection status",
+                     CollectionStatus.SUCCEEDED,
+                     collectionSet.getStatus());
+
+        assertTrue(streamingVisitor.isStarted());
+        assertEquals(Arrays.asList("visit", "complete"), visitedCollectionSets);
+        assertTrue(streamedAttributes.contains("fw0/ifInOctets"));
+        assertTrue(streamedAttributes.contains("null/tcpActiveOpens"));
+
+        // The values were released once they were streamed
+        final Set<String> remainingAttributes = new HashSet<>();
+        collectionSet.visit(new AbstractCollectionSetVisitor() {
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                remainingAttributes.add(attribute.getName());
+            }
+        });
+        assertEquals(Collections.emptySet(), remainingAttributes);
+    }
+
     @Transactional
     @JUnitCollector(
                     datacollectionConfig = "/org/opennms/netmgt/config/datacollection-persistTest-config.xml",
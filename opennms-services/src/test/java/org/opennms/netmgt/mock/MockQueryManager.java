@@ -35,6 +35,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.opennms.netmgt.poller.OutageTransition;
 import org.opennms.netmgt.poller.QueryManager;
 
 public class MockQueryManager implements QueryManager {
@@ -139,6 +140,19 @@ public class MockQueryManager implements QueryManager {
         // TODO Auto-generated method stub
     }
 
+    @Override
+    public List<Integer> updateOutages(List<OutageTransition> transitions) {
+        final List<Integer> outageIds = new ArrayList<>(transitions.size());
+        for (OutageTransition transition : transitions) {
+            if (transition.isLost()) {
+                outageIds.add(openOutagePendingLostEventId(transition.getNodeId(), transition.getIpAddr(), transition.getSvcName(), transition.getDate()));
+            } else {
+                outageIds.add(resolveOutagePendingRegainEventId(transition.getNodeId(), transition.getIpAddr(), transition.getSvcName(), transition.getDate()));
+            }
+        }
+        return outageIds;
+    }
+
     @Override
     public List<java.lang.String[]> getNodeServices(int nodeId) {
         return null;
@@ -37,6 +37,9 @@ import static org.junit.Assert.fail;
 
 import static org.mockito.Mockito.mock;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -70,6 +73,7 @@ import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.test.context.ContextConfiguration;
 
 /**
@@ -297,6 +301,75 @@ public class PollContextIT implements TemporaryDatabaseAware<MockDatabase> {
         
     }
 
+    @Test
+    public void testBatchedOpenResolveOutage() throws Exception {
+        final Event downEvent = m_mSvc.createDownEvent();
+        m_outageAnticipator.anticipateOutageOpened(m_mSvc, downEvent);
+        m_pollContext.batchStatusChanges(() -> {
+            PollEvent pollDownEvent = m_pollContext.sendEvent(downEvent);
+            m_pollContext.openOutage(m_pSvc, pollDownEvent);
+        });
+
+        verifyOutages();
+
+        m_outageAnticipator.reset();
+        final Event upEvent = m_mSvc.createUpEvent();
+        m_outageAnticipator.anticipateOutageClosed(m_mSvc, upEvent);
+        m_pollContext.batchStatusChanges(() -> {
+            PollEvent pollUpEvent = m_pollContext.sendEvent(upEvent);
+            m_pollContext.resolveOutage(m_pSvc, pollUpEvent);
+        });
+
+        verifyOutages();
+    }
+
+    @Test
+    public void testBatchedOpenOutageWhenBatchUpdateFails() throws Exception {
+        m_pollContext.setQueryManager(failingQueryManager("updateOutages"));
+
+        // The outage is opened on its own instead
+        final Event downEvent = m_mSvc.createDownEvent();
+        m_outageAnticipator.anticipateOutageOpened(m_mSvc, downEvent);
+        m_pollContext.batchStatusChanges(() -> {
+            PollEvent pollDownEvent = m_pollContext.sendEvent(downEvent);
+            m_pollContext.openOutage(m_pSvc, pollDownEvent);
+        });
+
+        verifyOutages();
+    }
+
+    @Test
+    public void testBatchedEventsAreSentWhenOutageUpdateFails() throws Exception {
+        m_pollContext.setQueryManager(failingQueryManager("updateOutages", "openOutagePendingLostEventId"));
+
+        final Event downEvent = m_mSvc.createDownEvent();
+        m_eventMgr.getEventAnticipator().anticipateEvent(downEvent);
+        m_pollContext.batchStatusChanges(() -> {
+            PollEvent pollDownEvent = m_pollContext.sendEvent(downEvent);
+            m_pollContext.openOutage(m_pSvc, pollDownEvent);
+        });
+
+        m_eventMgr.finishProcessingEvents();
+        assertEquals(0, m_eventMgr.getEventAnticipator().waitForAnticipated(0).size());
+    }
+
+    /**
+     * Wraps the query manager, failing the calls to the given methods.
+     */
+    private QueryManager failingQueryManager(String... failingMethods) {
+        final List<String> methods = Arrays.asList(failingMethods);
+        return (QueryManager)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { QueryManager.class }, (proxy, method, args) -> {
+            if (methods.contains(method.getName())) {
+                throw new DataRetrievalFailureException("Failed to call " + method.getName());
+            }
+            try {
+                return method.invoke(m_queryManager, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
     /**
      * 
      */
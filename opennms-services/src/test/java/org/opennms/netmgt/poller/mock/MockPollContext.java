@@ -34,6 +34,8 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.opennms.core.test.db.MockDatabase;
 import org.opennms.core.utils.InetAddressUtils;
@@ -56,6 +58,9 @@ public class MockPollContext implements PollContext, EventListener {
     private boolean m_nodeProcessingEnabled;
     private boolean m_pollingAllIfCritServiceUndefined;
     private boolean m_serviceUnresponsiveEnabled;
+    private boolean m_asyncPollingEnabled;
+    // Apply the results on the thread that completes the poll by default
+    private ScheduledExecutorService m_asyncPollExecutor;
     private EventIpcManager m_eventMgr;
     private MockDatabase m_db;
     private MockNetwork m_mockNetwork;
@@ -172,6 +177,32 @@ public class MockPollContext implements PollContext, EventListener {
         m_serviceUnresponsiveEnabled = serviceUnresponsiveEnabled;
     }
 
+    @Override
+    public boolean isAsyncPollingEnabled() {
+        return m_asyncPollingEnabled;
+    }
+
+    public void setAsyncPollingEnabled(boolean asyncPollingEnabled) {
+        m_asyncPollingEnabled = asyncPollingEnabled;
+    }
+
+    @Override
+    public synchronized ScheduledExecutorService getAsyncPollExecutor() {
+        if (m_asyncPollExecutor == null) {
+            m_asyncPollExecutor = Executors.newSingleThreadScheduledExecutor();
+        }
+        return m_asyncPollExecutor;
+    }
+
+    public synchronized void setAsyncPollExecutor(ScheduledExecutorService asyncPollExecutor) {
+        m_asyncPollExecutor = asyncPollExecutor;
+    }
+
+    @Override
+    public void batchStatusChanges(Runnable r) {
+        r.run();
+    }
+
     @Override
     public String getName() {
         return "MockPollContext";
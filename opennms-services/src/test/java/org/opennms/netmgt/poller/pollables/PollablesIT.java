@@ -46,6 +46,9 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -1190,6 +1193,54 @@ public class PollablesIT {
 
     }
 
+    @Test
+    public void testAsyncPolling() throws Exception {
+        m_pollContext.setAsyncPollingEnabled(true);
+
+        anticipateDown(mDot1Smtp);
+
+        mDot1Smtp.bringDown();
+
+        runAsync(pDot1Smtp);
+
+        verifyAnticipated();
+        assertDown(pDot1Smtp);
+        assertUp(pDot1);
+
+        // the service is polled once, outside of the tree lock, and
+        // the critical service is polled while processing the change
+        assertPoll(mDot1Smtp);
+        assertPoll(mDot1Icmp);
+        assertNoPoll(m_mockNetwork);
+
+        anticipateUp(mDot1Smtp);
+
+        mDot1Smtp.bringUp();
+
+        runAsync(pDot1Smtp);
+
+        verifyAnticipated();
+        assertUp(pDot1Smtp);
+        assertPoll(mDot1Smtp);
+    }
+
+    private void runAsync(PollableService pSvc) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                latch.countDown();
+            }
+        };
+        m_pollContext.setAsyncPollExecutor(executor);
+        try {
+            pSvc.run();
+            assertTrue("Asynchronous poll did not complete", latch.await(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testServiceEvent() throws Exception {
         MockService mSvc = mDot1Smtp;
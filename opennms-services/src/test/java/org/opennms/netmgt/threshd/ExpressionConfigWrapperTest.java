@@ -28,7 +28,9 @@
 
 package org.opennms.netmgt.threshd;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Assert;
@@ -56,6 +58,7 @@ public class ExpressionConfigWrapperTest {
         exp.setExpression(FORMULA);
         wrapper = new ExpressionConfigWrapper(exp);
         Assert.assertEquals(4, wrapper.getRequiredDatasources().size());
+        Assert.assertTrue(wrapper.isCompiled());
     }
 
     @After
@@ -171,4 +174,54 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    /**
+     * Verifies that the compiled expressions yield the same values as JEXL.
+     */
+    @Test
+    public void testCompiledExpressionsMatchJexl() throws Exception {
+        final List<String> expressions = Arrays.asList(
+                FORMULA,
+                "math.max(data, 5)",
+                "math.min(data, other) + math.abs(data - other)",
+                "math.round(data / 3) * 2",
+                "math.pow(data, 2) + math.sqrt(other)",
+                "data / other + data % other",
+                "data / 0 + 7 / 2",
+                "-0.1 + data * 1.5d",
+                "data == other ? 1 : 0.5d",
+                "data ge other and not (data eq 0) ? data : other",
+                "datasources.data - datasources['other']");
+        final List<Double> samples = Arrays.asList(0.0, -0.0, 1.0, 3.0, -2.5, 1e12, Double.NaN, Double.POSITIVE_INFINITY);
+        for (String expression : expressions) {
+            final Expression exp = new Expression();
+            exp.setExpression(expression);
+            final ExpressionConfigWrapper compiled = new ExpressionConfigWrapper(exp, true);
+            final ExpressionConfigWrapper jexl = new ExpressionConfigWrapper(exp, false);
+            Assert.assertTrue(expression, compiled.isCompiled());
+            Assert.assertFalse(expression, jexl.isCompiled());
+            for (Double data : samples) {
+                for (Double other : samples) {
+                    final Map<String, Double> values = new HashMap<String,Double>();
+                    for (String ds : compiled.getRequiredDatasources()) {
+                        values.put(ds, 1.0);
+                    }
+                    values.put("data", data);
+                    values.put("other", other);
+                    Assert.assertEquals(expression + " with " + values, jexl.evaluate(values), compiled.evaluate(values), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedExpressionsUseJexl() throws Exception {
+        Expression exp = new Expression();
+        exp.setExpression("data ?: 5");
+        ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+        Assert.assertFalse(wrapper.isCompiled());
+        Map<String, Double> values = new HashMap<String,Double>();
+        values.put("data", 10.0);
+        Assert.assertEquals(10.0, wrapper.evaluate(values), 0.0);
+    }
 }
@@ -206,6 +206,8 @@ public class LatencyThresholdingSetIT implements TemporaryDatabaseAware<MockData
 
         // Resets Counters Cache Data
         CollectionResourceWrapper.s_cache.clear();
+        // Resets the threshold states kept from the previous tests
+        ThresholdStateStore.setInstance(null);
 
         MockLogAppender.setupLogging();
 
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.config.threshd.Expression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of the evaluation of expression thresholds, with the compiled
+ * expressions and with JEXL, using expressions typical of threshd-configuration.xml
+ * over 1000 resources.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.threshd.ThresholdExpressionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThresholdExpressionBenchmark {
+
+    private static final int NUM_RESOURCES = 1000;
+
+    @Param({"utilization", "state", "diskUsage"})
+    public String threshold;
+
+    private ExpressionConfigWrapper compiled;
+
+    private ExpressionConfigWrapper jexl;
+
+    private final List<Map<String, Double>> resources = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws ThresholdExpressionException {
+        final String expression;
+        switch (threshold) {
+            case "utilization":
+                // As in the default mib2 thresholds
+                expression = "ifHighSpeed > 0 ? (ifHCInOctets * 8 / (ifHighSpeed * 1000000)) * 100 : 0";
+                break;
+            case "state":
+                expression = "jnxOperatingState == 2.0 || jnxOperatingState == 3.0 || jnxOperatingState == 7.0 ? 1.0 : 0.0";
+                break;
+            case "diskUsage":
+                expression = "math.max(datasources['ns-dskUsed'] * 100 / datasources['ns-dskTotal'], 0)";
+                break;
+            default:
+                throw new IllegalArgumentException(threshold);
+        }
+        final Expression exp = new Expression();
+        exp.setExpression(expression);
+        compiled = new ExpressionConfigWrapper(exp, true);
+        jexl = new ExpressionConfigWrapper(exp, false);
+        if (!compiled.isCompiled()) {
+            throw new IllegalStateException("Expression was not compiled: " + expression);
+        }
+
+        final Random random = new Random(42);
+        for (int i = 0; i < NUM_RESOURCES; i++) {
+            final Map<String, Double> values = new HashMap<>();
+            for (String ds : compiled.getRequiredDatasources()) {
+                values.put(ds, (double)random.nextInt(10000));
+            }
+            resources.add(values);
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) throws ThresholdExpressionException {
+        for (Map<String, Double> values : resources) {
+            bh.consume(compiled.evaluate(values));
+        }
+    }
+
+    @Benchmark
+    public void jexl(Blackhole bh) throws ThresholdExpressionException {
+        for (Map<String, Double> values : resources) {
+            bh.consume(jexl.evaluate(values));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ThresholdExpressionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
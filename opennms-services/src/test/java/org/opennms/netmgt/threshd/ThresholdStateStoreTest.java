@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.config.threshd.Threshold;
+import org.opennms.netmgt.config.threshd.ThresholdType;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorHighLow.ThresholdEvaluatorStateHighLow;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorState.Status;
+import org.opennms.netmgt.xml.event.Event;
+
+public class ThresholdStateStoreTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        ThresholdStateStore.setInstance(null);
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws Exception {
+        final File file = new File(m_tempFolder.getRoot(), "threshold-states.dat");
+        ThresholdStateStore store = new ThresholdStateStore(file, TimeUnit.DAYS.toMillis(1));
+
+        final ThresholdEvaluatorStateHighLow state = new ThresholdEvaluatorStateHighLow(createHighThreshold());
+        assertEquals(Status.TRIGGERED, state.evaluate(100.0));
+        store.put("key", state.getState());
+        store.snapshot();
+        assertTrue(file.exists());
+
+        store = new ThresholdStateStore(file, TimeUnit.DAYS.toMillis(1));
+        assertEquals(1, store.size());
+        assertNotNull(store.get("key"));
+
+        // The restored threshold is still triggered, and only rearms once the value drops
+        final ThresholdEvaluatorStateHighLow restored = new ThresholdEvaluatorStateHighLow(createHighThreshold());
+        restored.restoreState(store.get("key"));
+        assertTrue(restored.isTriggered());
+        assertEquals(Status.NO_CHANGE, restored.evaluate(100.0));
+        assertEquals(Status.RE_ARMED, restored.evaluate(1.0));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        final ThresholdStateStore store = new ThresholdStateStore(null, 1);
+        store.put("key", new ThresholdStateStore.State(1, false, Double.NaN, Double.NaN));
+        assertEquals(1, store.size());
+
+        Thread.sleep(10);
+        assertEquals(1, store.evict());
+        assertNull(store.get("key"));
+    }
+
+    @Test
+    public void testEntityRestoresStates() throws Exception {
+        ThresholdStateStore.setInstance(new ThresholdStateStore(null, TimeUnit.DAYS.toMillis(1)));
+        final MockCollectionResourceWrapper resource = new MockCollectionResourceWrapper("testInstance") {
+            @Override
+            public String getInstanceLabel() {
+                return "testInstance";
+            }
+        };
+
+        final ThresholdEntity entity = new ThresholdEntity();
+        entity.addThreshold(createHighThreshold());
+        List<Event> events = entity.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 100.0), new Date(), "node|ds-name");
+        assertEquals(1, events.size());
+        assertEquals(EventConstants.HIGH_THRESHOLD_EVENT_UEI, events.get(0).getUei());
+
+        // A new entity for the same threshold, i.e. after the thresholding set was recreated, does not trigger again
+        final ThresholdEntity recreated = new ThresholdEntity();
+        recreated.addThreshold(createHighThreshold());
+        events = recreated.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 100.0), new Date(), "node|ds-name");
+        assertEquals(0, events.size());
+        events = recreated.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 1.0), new Date(), "node|ds-name");
+        assertEquals(1, events.size());
+        assertEquals(EventConstants.HIGH_THRESHOLD_REARM_EVENT_UEI, events.get(0).getUei());
+
+        // The states of the evaluators in use are not copied to the store
+        assertEquals(0, ThresholdStateStore.getInstance().size());
+
+        // The evaluators of instances that are no longer thresholded are released, and their states saved
+        assertEquals(1, recreated.evictStates(System.currentTimeMillis() + 1));
+        assertEquals(1, ThresholdStateStore.getInstance().size());
+    }
+
+    @Test
+    public void testRearmClearsStates() throws Exception {
+        ThresholdStateStore.setInstance(new ThresholdStateStore(null, TimeUnit.DAYS.toMillis(1)));
+        final MockCollectionResourceWrapper resource = new MockCollectionResourceWrapper("testInstance") {
+            @Override
+            public String getInstanceLabel() {
+                return "testInstance";
+            }
+        };
+
+        final ThresholdEntity entity = new ThresholdEntity();
+        entity.addThreshold(createHighThreshold());
+        List<Event> events = entity.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 100.0), new Date(), "node|ds-name");
+        assertEquals(1, events.size());
+
+        // The threshold was removed, and rearmed
+        entity.delete();
+        assertEquals(0, ThresholdStateStore.getInstance().size());
+
+        // Once it is added again, it triggers again
+        final ThresholdEntity recreated = new ThresholdEntity();
+        recreated.addThreshold(createHighThreshold());
+        events = recreated.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 100.0), new Date(), "node|ds-name");
+        assertEquals(1, events.size());
+        assertEquals(EventConstants.HIGH_THRESHOLD_EVENT_UEI, events.get(0).getUei());
+    }
+
+    @Test
+    public void testSnapshotIncludesStatesInUse() throws Exception {
+        final File file = new File(m_tempFolder.getRoot(), "threshold-states.dat");
+        ThresholdStateStore.setInstance(new ThresholdStateStore(file, TimeUnit.DAYS.toMillis(1)));
+        final MockCollectionResourceWrapper resource = new MockCollectionResourceWrapper("testInstance") {
+            @Override
+            public String getInstanceLabel() {
+                return "testInstance";
+            }
+        };
+
+        final ThresholdEntity entity = new ThresholdEntity();
+        entity.addThreshold(createHighThreshold());
+        assertEquals(1, entity.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 100.0), new Date(), "node|ds-name").size());
+        ThresholdStateStore.getInstance().snapshot();
+
+        // After a restart, the threshold is still triggered
+        ThresholdStateStore.setInstance(new ThresholdStateStore(file, TimeUnit.DAYS.toMillis(1)));
+        assertEquals(1, ThresholdStateStore.getInstance().size());
+        final ThresholdEntity restarted = new ThresholdEntity();
+        restarted.addThreshold(createHighThreshold());
+        assertEquals(0, restarted.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", 100.0), new Date(), "node|ds-name").size());
+    }
+
+    private static ThresholdConfigWrapper createHighThreshold() {
+        final Threshold threshold = new Threshold();
+        threshold.setType(ThresholdType.HIGH);
+        threshold.setDsName("ds-name");
+        threshold.setDsType("node");
+        threshold.setValue(99.0);
+        threshold.setRearm(50.0);
+        threshold.setTrigger(1);
+        return new ThresholdConfigWrapper(threshold);
+    }
+}
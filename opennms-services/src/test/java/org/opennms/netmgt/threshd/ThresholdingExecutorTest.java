@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ThresholdingExecutorTest {
+
+    private ThresholdingExecutor m_executor;
+
+    @After
+    public void tearDown() {
+        if (m_executor != null) {
+            m_executor.stop(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    public void testDisabledRunsInCallingThread() {
+        m_executor = new ThresholdingExecutor(0, 10);
+        assertFalse(m_executor.isEnabled());
+        final List<Thread> threads = new ArrayList<>();
+        m_executor.execute("resource", () -> threads.add(Thread.currentThread()));
+        assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void testResourcesArePartitioned() throws Exception {
+        m_executor = new ThresholdingExecutor(4, 100);
+        assertTrue(m_executor.isEnabled());
+
+        final Map<String, List<Integer>> sequences = new ConcurrentHashMap<>();
+        final Map<String, Thread> threads = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 10; i++) {
+            for (String key : new String[] { "1/if/eth0", "1/if/eth1", "2/if/eth0", "2/node/" }) {
+                final int sequence = i;
+                m_executor.execute(key, () -> {
+                    final Thread previous = threads.putIfAbsent(key, Thread.currentThread());
+                    if (previous == null || previous == Thread.currentThread()) {
+                        sequences.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+                    }
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // Every resource is thresholded by a single worker, in order
+        for (List<Integer> sequence : sequences.values()) {
+            assertEquals(10, sequence.size());
+            for (int i = 0; i < sequence.size(); i++) {
+                assertEquals(i, sequence.get(i).intValue());
+            }
+        }
+        assertEquals(4, sequences.size());
+        for (Thread thread : threads.values()) {
+            assertNotEquals(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void testQueueSize() throws Exception {
+        m_executor = new ThresholdingExecutor(1, 10);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        m_executor.execute("a", () -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        m_executor.execute("a", () -> {});
+        m_executor.execute("b", () -> {});
+        assertEquals(2, m_executor.getQueueSize());
+
+        blocked.countDown();
+        m_executor.stop(TimeUnit.SECONDS.toMillis(10));
+        assertEquals(0, m_executor.getQueueSize());
+    }
+
+    @Test
+    public void testSharedInstanceIsDisabledByDefault() {
+        ThresholdingExecutor.setInstance(null);
+        try {
+            final ThresholdingExecutor executor = ThresholdingExecutor.getInstance();
+            assertSame(executor, ThresholdingExecutor.getInstance());
+            assertFalse(executor.isEnabled());
+        } finally {
+            ThresholdingExecutor.setInstance(null);
+        }
+    }
+}
@@ -216,6 +216,10 @@ public class ThresholdingVisitorIT {
     public void setUp() throws Exception {
         // Resets Counters Cache Data
         CollectionResourceWrapper.s_cache.clear();
+        // Resets the threshold states kept from the previous tests
+        ThresholdStateStore.setInstance(null);
+        // Threshold in the calling thread unless a test enables the workers
+        ThresholdingExecutor.setInstance(null);
 
         MockLogAppender.setupLogging();
 
@@ -399,6 +403,41 @@ public class ThresholdingVisitorIT {
         verifyEvents(0);
     }
 
+    /*
+     * Same as testResourceCounterData, with the resources thresholded by the workers.
+     */
+    @Test
+    public void testResourceCounterDataWithWorkers() throws Exception {
+        ThresholdingExecutor.setInstance(new ThresholdingExecutor(2, 100));
+        initFactories("/threshd-configuration.xml", "/test-thresholds-counters.xml");
+        ThresholdingVisitor visitor = createVisitor();
+
+        SnmpCollectionAgent agent = createCollectionAgent();
+        NodeResourceType resourceType = createNodeResourceType(agent);
+        MibObject mibObject = createMibObject("counter", "myCounter", "0");
+        SnmpAttributeType attributeType = new NumericAttributeType(resourceType, "default", mibObject, new AttributeGroupType("mibGroup", AttributeGroupType.IF_TYPE_IGNORE));
+
+        addHighThresholdEvent(1, 10, 5, 15, "node", "node", "myCounter", null, null);
+        addHighRearmEvent(1, 10, 5, 2, "node", "node", "myCounter", null, null);
+
+        long baseDate = new Date().getTime();
+        long[] counters = new long[] { 1000, 5500, 6100 };
+        for (int i = 0; i < counters.length; i++) {
+            CollectionSet collectionSet = createAnonymousCollectionSet(baseDate + i * 300000);
+            visitor.visitCollectionSet(collectionSet);
+            SnmpCollectionResource resource = new NodeInfo(resourceType, agent);
+            resource.setAttributeValue(attributeType, SnmpUtils.getValueFactory().getCounter32(counters[i]));
+            resource.visit(visitor);
+            visitor.completeCollectionSet(collectionSet);
+        }
+
+        // Wait for the workers
+        ThresholdingExecutor.setInstance(null);
+
+        EasyMock.verify(agent);
+        verifyEvents(0);
+    }
+
     @Test
     public void testZeroIntervalResourceCounterData() throws Exception {
         initFactories("/threshd-configuration.xml", "/test-thresholds-counters.xml");
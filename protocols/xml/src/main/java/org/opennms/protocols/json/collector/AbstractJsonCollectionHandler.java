@@ -35,8 +35,10 @@ import java.net.URLConnection;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import net.sf.json.JSON;
 import net.sf.json.JSONObject;
@@ -46,9 +48,6 @@ import org.apache.commons.jxpath.JXPathContext;
 import org.apache.commons.jxpath.JXPathException;
 import org.apache.commons.jxpath.Pointer;
 import org.apache.commons.lang.StringUtils;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
 import org.opennms.netmgt.collection.support.builder.Resource;
@@ -108,6 +107,40 @@ public abstract class AbstractJsonCollectionHandler extends AbstractXmlCollectio
         }
     }
 
+    /**
+     * Fill collection set from a stream, without building the whole JSON object.
+     * <p>The source must be supported by {@link JsonStreamingParser#isStreamable(XmlSource)} and {@link #isDetachable(XmlSource)}.</p>
+     *
+     * @param agent the agent
+     * @param builder the collection set builder
+     * @param source the source
+     * @param is the input stream
+     * @throws Exception the exception
+     */
+    @Override
+    protected void fillCollectionSet(CollectionAgent agent, CollectionSetBuilder builder, XmlSource source, InputStream is) throws Exception {
+        final Map<XmlGroup, List<ParsedResource>> resources = new IdentityHashMap<>();
+        final Map<XmlGroup, String> timestamps = new JsonStreamingParser(source).parse(is, (group, json) -> {
+            final JXPathContext context = JXPathContext.newContext(json);
+            final String resourceName = getResourceName(context, group);
+            final List<String> values = new ArrayList<>(group.getXmlObjects().size());
+            for (XmlObject object : group.getXmlObjects()) {
+                String value = null;
+                try {
+                    Object obj = context.getValue(object.getXpath());
+                    if (obj != null) {
+                        value = obj.toString();
+                    }
+                } catch (JXPathException ex) {
+                    LOG.warn("Unable to get value for {}: {}", object.getXpath(), ex.getMessage());
+                }
+                values.add(value);
+            }
+            resources.computeIfAbsent(group, g -> new ArrayList<>()).add(new ParsedResource(resourceName, values));
+        });
+        fillCollectionSet(agent, builder, source, resources, timestamps);
+    }
+
     /**
      * Gets the resource name.
      *
@@ -146,18 +179,8 @@ public abstract class AbstractJsonCollectionHandler extends AbstractXmlCollectio
         if (group.getTimestampXpath() == null) {
             return null;
         }
-        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
-        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {} and pattern {}", group.getTimestampXpath(), pattern);
-        Date date = null;
-        String value = (String)context.getValue(group.getTimestampXpath());
-        try {
-            DateTimeFormatter dtf = DateTimeFormat.forPattern(pattern);
-            DateTime dateTime = dtf.parseDateTime(value);
-            date = dateTime.toDate();
-        } catch (Exception e) {
-            LOG.warn("getTimeStamp: can't convert custom timestamp {} using pattern {}", value, pattern);
-        }
-        return date;
+        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {}", group.getTimestampXpath());
+        return parseTimeStamp((String)context.getValue(group.getTimestampXpath()), group);
     }
 
     /**
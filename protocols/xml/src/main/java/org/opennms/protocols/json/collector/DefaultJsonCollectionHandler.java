@@ -33,6 +33,8 @@ import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
 import org.opennms.netmgt.collection.support.builder.Resource;
 import org.opennms.protocols.xml.config.Request;
 import org.opennms.protocols.xml.config.XmlSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.sf.json.JSONObject;
 
@@ -44,8 +46,19 @@ import net.sf.json.JSONObject;
  */
 public class DefaultJsonCollectionHandler extends AbstractJsonCollectionHandler {
 
+    /** The Constant LOG. */
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultJsonCollectionHandler.class);
+
     @Override
     protected void fillCollectionSet(String urlString, Request request, CollectionAgent agent, CollectionSetBuilder builder, XmlSource source) throws Exception {
+        if (isStreaming(request)) {
+            if (isDetachable(source) && JsonStreamingParser.isStreamable(source)) {
+                streamCollectionSet(urlString, request, agent, builder, source);
+                LOG.debug("fillCollectionSet: streamed source url '{}' collection", urlString);
+                return;
+            }
+            LOG.debug("fillCollectionSet: source url '{}' can't be streamed, parsing the whole document", urlString);
+        }
         JSONObject json = getJSONObject(urlString, request);
         fillCollectionSet(agent, builder, source, json);
     }
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.json.collector;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Single pass parser for JSON sources.
+ * <p>The resource and timestamp XPaths of the groups are matched against the stream of tokens, and only
+ * the objects matching a resource are materialized, on which the key and object XPaths are then evaluated
+ * with JXPath, like on the whole document.</p>
+ * <p>Only XPaths made of property names are supported for the resources and timestamps (i.e.
+ * <code>/zones/zone</code>). Arrays are traversed, and a top-level array is seen as the <code>elements</code>
+ * property, like {@link AbstractJsonCollectionHandler#wrapArray(net.sf.json.JSON)} does.</p>
+ */
+class JsonStreamingParser {
+
+    /** The Constant LOG. */
+    private static final Logger LOG = LoggerFactory.getLogger(JsonStreamingParser.class);
+
+    private static final Pattern PATH = Pattern.compile("^/?[A-Za-z_$][\\w.$-]*(/[A-Za-z_$][\\w.$-]*)*$");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Callback invoked for every resource found on the stream.
+     */
+    interface ResourceHandler {
+        void handleResource(XmlGroup group, JSONObject resource) throws Exception;
+    }
+
+    private final Map<List<String>, List<XmlGroup>> m_resourcePaths = new HashMap<>();
+    private final Map<List<String>, List<XmlGroup>> m_timestampPaths = new HashMap<>();
+    private final Set<List<String>> m_prefixes = new HashSet<>();
+    // Groups override equals() but not hashCode(), so they are tracked by identity
+    private final Map<XmlGroup, String> m_timestamps = new IdentityHashMap<>();
+
+    /**
+     * Instantiates a new streaming parser.
+     *
+     * @param source the XML source, which must be streamable
+     * @throws IllegalArgumentException if the source is not streamable
+     */
+    JsonStreamingParser(XmlSource source) {
+        if (!isStreamable(source)) {
+            throw new IllegalArgumentException("The groups of source " + source.getUrl() + " can't be streamed");
+        }
+        for (XmlGroup group : source.getXmlGroups()) {
+            add(m_resourcePaths, compile(group.getResourceXpath()), group);
+            if (group.getTimestampXpath() != null) {
+                add(m_timestampPaths, compile(group.getTimestampXpath()), group);
+            }
+        }
+    }
+
+    private void add(Map<List<String>, List<XmlGroup>> paths, List<String> path, XmlGroup group) {
+        paths.computeIfAbsent(path, p -> new ArrayList<>()).add(group);
+        for (int i = 0; i < path.size(); i++) {
+            m_prefixes.add(path.subList(0, i));
+        }
+    }
+
+    /**
+     * Checks if the groups of a source can be collected using this parser.
+     * <p>As the objects of a resource are consumed when materialized, the resource and timestamp XPaths
+     * of a group can't point inside the resources of another group.</p>
+     *
+     * @param source the XML source
+     * @return true, if the source is streamable
+     */
+    static boolean isStreamable(XmlSource source) {
+        final List<List<String>> resourcePaths = new ArrayList<>();
+        final List<List<String>> paths = new ArrayList<>();
+        for (XmlGroup group : source.getXmlGroups()) {
+            final List<String> resourcePath = compile(group.getResourceXpath());
+            if (resourcePath == null) {
+                LOG.debug("isStreamable: unsupported resource XPath {} on group {}", group.getResourceXpath(), group.getName());
+                return false;
+            }
+            if (group.getTimestampXpath() != null) {
+                final List<String> timestampPath = compile(group.getTimestampXpath());
+                if (timestampPath == null) {
+                    LOG.debug("isStreamable: unsupported timestamp XPath {} on group {}", group.getTimestampXpath(), group.getName());
+                    return false;
+                }
+                paths.add(timestampPath);
+            }
+            resourcePaths.add(resourcePath);
+            paths.add(resourcePath);
+        }
+        for (List<String> path : resourcePaths) {
+            for (List<String> other : paths) {
+                if (other.size() > path.size() && other.subList(0, path.size()).equals(path)) {
+                    LOG.debug("isStreamable: resource XPath /{} is nested on /{}", String.join("/", other), String.join("/", path));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<String> compile(String xpath) {
+        if (xpath == null || !PATH.matcher(xpath.trim()).matches()) {
+            return null;
+        }
+        final String path = xpath.trim();
+        return Collections.unmodifiableList(Arrays.asList((path.startsWith("/") ? path.substring(1) : path).split("/")));
+    }
+
+    /**
+     * Parses the stream.
+     *
+     * @param is the input stream
+     * @param handler the resource handler
+     * @return the raw value of the timestamp of each group, if found
+     * @throws Exception the exception
+     */
+    Map<XmlGroup, String> parse(InputStream is, ResourceHandler handler) throws Exception {
+        final JsonParser parser = JSON_FACTORY.createJsonParser(is);
+        try {
+            final JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                value(parser, token, new ArrayList<>(Collections.singletonList("elements")), handler);
+            } else if (token == JsonToken.START_OBJECT) {
+                value(parser, token, new ArrayList<>(), handler);
+            }
+        } finally {
+            parser.close();
+        }
+        return Collections.unmodifiableMap(m_timestamps);
+    }
+
+    private void value(JsonParser parser, JsonToken token, List<String> path, ResourceHandler handler) throws Exception {
+        if (token == JsonToken.START_ARRAY) {
+            if (!m_prefixes.contains(path) && !m_resourcePaths.containsKey(path)) {
+                parser.skipChildren();
+                return;
+            }
+            // The elements of an array share the path of the array
+            for (JsonToken t = parser.nextToken(); t != JsonToken.END_ARRAY; t = parser.nextToken()) {
+                value(parser, t, path, handler);
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            final List<XmlGroup> groups = m_resourcePaths.get(path);
+            if (groups != null) {
+                final JSONObject resource = readObject(parser);
+                for (XmlGroup group : groups) {
+                    handler.handleResource(group, resource);
+                }
+                return;
+            }
+            if (!m_prefixes.contains(path)) {
+                parser.skipChildren();
+                return;
+            }
+            for (JsonToken t = parser.nextToken(); t == JsonToken.FIELD_NAME; t = parser.nextToken()) {
+                path.add(parser.getCurrentName());
+                value(parser, parser.nextToken(), path, handler);
+                path.remove(path.size() - 1);
+            }
+        } else if (token != null && token.isScalarValue()) {
+            final List<XmlGroup> groups = m_timestampPaths.get(path);
+            if (groups != null) {
+                for (XmlGroup group : groups) {
+                    if (!m_timestamps.containsKey(group)) {
+                        m_timestamps.put(group, parser.getText());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the current object into a JSON object.
+     * <p>The object is parsed by json-lib, like the whole document would be, so that JXPath sees the same types.</p>
+     */
+    private static JSONObject readObject(JsonParser parser) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final JsonGenerator generator = JSON_FACTORY.createJsonGenerator(writer);
+        try {
+            generator.copyCurrentStructure(parser);
+        } finally {
+            generator.close();
+        }
+        return JSONObject.fromObject(writer.toString());
+    }
+}
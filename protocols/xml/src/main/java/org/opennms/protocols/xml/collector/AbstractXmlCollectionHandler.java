@@ -36,16 +36,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
+import javax.management.ObjectName;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -56,6 +62,7 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -108,6 +115,15 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
 
     private static final String FALLBACK_RESOURCE_TYPE_NAME = "xmlCollector";
 
+    /** Whether sources are parsed in a single pass without building the whole document, unless the request says otherwise. */
+    public static final String STREAMING_SYS_PROP = "org.opennms.protocols.xml.streaming";
+
+    /** The request parameter used to enable or disable the streaming parser for a given source. */
+    public static final String STREAMING_PARAMETER = "streaming";
+
+    /** Matches absolute paths and reverse or sibling axes, which can't be evaluated on a detached resource. */
+    private static final Pattern NON_LOCAL_XPATH = Pattern.compile("(^|[\\[(,=<>|\\s])/|\\.\\.|(ancestor|ancestor-or-self|parent|preceding|preceding-sibling|following|following-sibling)::");
+
     /** The Service Name associated with this Collection Handler. */
     private String m_serviceName;
 
@@ -169,6 +185,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         String status = "finished";
         CollectionSetBuilder builder = new CollectionSetBuilder(agent);
         DateTime startTime = new DateTime();
+        final long allocatedBytes = LOG.isDebugEnabled() ? getThreadAllocatedBytes() : -1;
         try {
             LOG.debug("collect: looping sources for collection {}", collection.getName());
             for (XmlSource source : collection.getXmlSources()) {
@@ -184,8 +201,68 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
             throw new CollectionException(e.getMessage(), e);
         } finally {
             DateTime endTime = new DateTime();
-            LOG.debug("collect: {} collection {}: duration: {} ms", status, collection.getName(), endTime.getMillis()-startTime.getMillis());
+            if (allocatedBytes >= 0) {
+                LOG.debug("collect: {} collection {}: duration: {} ms, allocated: {} bytes", status, collection.getName(), endTime.getMillis()-startTime.getMillis(), getThreadAllocatedBytes() - allocatedBytes);
+            } else {
+                LOG.debug("collect: {} collection {}: duration: {} ms", status, collection.getName(), endTime.getMillis()-startTime.getMillis());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated on the heap by the current thread.
+     * <p>The collection runs on a single thread, so the difference before and after a collection gives the memory
+     * used to fetch and parse its sources, which is how the DOM and streaming parsers can be compared.
+     * The platform MBean is used, as <code>com.sun.management</code> may not be visible from the bundle.</p>
+     *
+     * @return the allocated bytes, or -1 if the JVM doesn't support it
+     */
+    private static long getThreadAllocatedBytes() {
+        try {
+            final Object bytes = ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME),
+                    "getThreadAllocatedBytes", new Object[] { Thread.currentThread().getId() }, new String[] { long.class.getName() });
+            return bytes instanceof Long ? (Long) bytes : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks that the key and object XPaths of the groups of a source only look inside the resource,
+     * so that they can be evaluated on the detached resources built by the streaming parsers.
+     *
+     * @param source the XML source
+     * @return true, if all the XPaths are relative to the resource
+     */
+    protected static boolean isDetachable(XmlSource source) {
+        for (XmlGroup group : source.getXmlGroups()) {
+            final List<String> xpaths = new ArrayList<>();
+            xpaths.add(group.getKeyXpath());
+            if (group.getXmlResourceKey() != null) {
+                xpaths.addAll(group.getXmlResourceKey().getKeyXpathList());
+            }
+            for (XmlObject object : group.getXmlObjects()) {
+                xpaths.add(object.getXpath());
+            }
+            for (String xpath : xpaths) {
+                if (xpath != null && NON_LOCAL_XPATH.matcher(xpath.trim()).find()) {
+                    LOG.debug("isDetachable: XPath {} on group {} is not relative to the resource", xpath, group.getName());
+                    return false;
+                }
+            }
         }
+        return true;
+    }
+
+    /**
+     * Checks if the source should be parsed using the streaming parser.
+     *
+     * @param request the request
+     * @return true, if streaming is enabled for the request
+     */
+    protected static boolean isStreaming(Request request) {
+        final String streaming = request == null ? null : request.getParameter(STREAMING_PARAMETER);
+        return streaming == null ? Boolean.getBoolean(STREAMING_SYS_PROP) : Boolean.parseBoolean(streaming);
     }
 
     /**
@@ -221,6 +298,103 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         LOG.debug("fillCollectionSet: finishing collection set with {} resources and {} attributes on {}", builder.getNumResources(), builder.getNumAttributes(), agent);
     }
 
+    /**
+     * Fill collection set from a stream, without building the whole document.
+     * <p>The source must be supported by {@link XmlStreamingParser#isStreamable(XmlSource)} and {@link #isDetachable(XmlSource)}.</p>
+     *
+     * @param agent the agent
+     * @param builder the collection set builder
+     * @param source the source
+     * @param is the input stream
+     * @throws Exception the exception
+     */
+    protected void fillCollectionSet(CollectionAgent agent, CollectionSetBuilder builder, XmlSource source, InputStream is) throws Exception {
+        final XmlStreamingParser parser = new XmlStreamingParser(source);
+        final XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(parser.getNamespaceContext());
+        final Map<String, XPathExpression> expressions = new HashMap<>();
+        final Map<XmlGroup, List<ParsedResource>> resources = new IdentityHashMap<>();
+        final Map<XmlGroup, String> timestamps = parser.parse(is, (group, resource) -> {
+            final String resourceName = getResourceName(xpath, group, resource);
+            final List<String> values = new ArrayList<>(group.getXmlObjects().size());
+            for (XmlObject object : group.getXmlObjects()) {
+                XPathExpression expression = expressions.get(object.getXpath());
+                if (expression == null) {
+                    expression = xpath.compile(object.getXpath());
+                    expressions.put(object.getXpath(), expression);
+                }
+                values.add(expression.evaluate(resource));
+            }
+            resources.computeIfAbsent(group, g -> new ArrayList<>()).add(new ParsedResource(resourceName, values));
+        });
+        fillCollectionSet(agent, builder, source, resources, timestamps);
+    }
+
+    /**
+     * Fill collection set with the resources found by a streaming parser.
+     * <p>The timestamp of a group can appear after its resources in the stream (i.e. on a footer),
+     * so the resources are only added once the whole stream was parsed.</p>
+     *
+     * @param agent the agent
+     * @param builder the collection set builder
+     * @param source the source
+     * @param resources the parsed resources for each group
+     * @param timestamps the raw value of the timestamp for each group
+     */
+    protected void fillCollectionSet(CollectionAgent agent, CollectionSetBuilder builder, XmlSource source, Map<XmlGroup, List<ParsedResource>> resources, Map<XmlGroup, String> timestamps) {
+        for (XmlGroup group : source.getXmlGroups()) {
+            Date timestamp = null;
+            if (group.getTimestampXpath() != null) {
+                if (timestamps.containsKey(group)) {
+                    timestamp = parseTimeStamp(timestamps.get(group), group);
+                } else {
+                    LOG.warn("fillCollectionSet: can't find the custom timestamp using XPATH {}", group.getTimestampXpath());
+                }
+            }
+            final List<ParsedResource> parsedResources = resources.getOrDefault(group, Collections.emptyList());
+            LOG.debug("fillCollectionSet: found {} resources for XML group {} using XPATH {}", parsedResources.size(), group.getName(), group.getResourceXpath());
+            for (ParsedResource parsedResource : parsedResources) {
+                final Resource collectionResource = getCollectionResource(agent, parsedResource.getName(), group.getResourceType(), timestamp);
+                LOG.debug("fillCollectionSet: processing resource {}", collectionResource);
+                for (int i = 0; i < group.getXmlObjects().size(); i++) {
+                    final XmlObject object = group.getXmlObjects().get(i);
+                    final String value = parsedResource.getValues().get(i);
+                    if (value != null) {
+                        builder.withAttribute(collectionResource, group.getName(), object.getName(), value, object.getDataType());
+                    }
+                }
+                processXmlResource(builder, collectionResource, parsedResource.getName(), group.getName());
+            }
+        }
+        LOG.debug("fillCollectionSet: finishing collection set with {} resources and {} attributes on {}", builder.getNumResources(), builder.getNumAttributes(), agent);
+    }
+
+    /**
+     * Fill collection set using the streaming parser.
+     *
+     * @param urlString the URL string
+     * @param request the request
+     * @param agent the collection agent
+     * @param builder the collection set builder
+     * @param source the XML source
+     * @throws Exception the exception
+     */
+    protected void streamCollectionSet(String urlString, Request request, CollectionAgent agent, CollectionSetBuilder builder, XmlSource source) throws Exception {
+        InputStream is = null;
+        URLConnection c = null;
+        try {
+            URL url = UrlFactory.getUrl(urlString, request);
+            c = url.openConnection();
+            is = c.getInputStream();
+            is = preProcessHtml(request, is);
+            is = applyXsltTransformation(request, is);
+            fillCollectionSet(agent, builder, source, is);
+        } finally {
+            IOUtils.closeQuietly(is);
+            UrlFactory.disconnect(c);
+        }
+    }
+
     /**
      * Gets the resource name.
      *
@@ -308,16 +482,26 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         if (group.getTimestampXpath() == null) {
             return null;
         }
-        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
-        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {} and pattern {}", group.getTimestampXpath(), pattern);
+        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {}", group.getTimestampXpath());
         Node tsNode = (Node) xpath.evaluate(group.getTimestampXpath(), doc, XPathConstants.NODE);
         if (tsNode == null) {
             LOG.warn("getTimeStamp: can't find the custom timestamp using XPATH {}",  group.getTimestampXpath());
             return null;
         }
+        return parseTimeStamp(tsNode.getNodeValue() == null ? tsNode.getTextContent() : tsNode.getNodeValue(), group);
+    }
+
+    /**
+     * Parses the time stamp using the format of the group.
+     *
+     * @param value the time stamp value
+     * @param group the group
+     * @return the time stamp, or null if it can't be parsed
+     */
+    protected Date parseTimeStamp(String value, XmlGroup group) {
+        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
         Date date = null;
-        String value = tsNode.getNodeValue() == null ? tsNode.getTextContent() : tsNode.getNodeValue();
-        LOG.debug("getTimeStamp: time stamp value is {}", value);
+        LOG.debug("getTimeStamp: time stamp value is {}, using pattern {}", value, pattern);
         try {
             DateTimeFormatter dtf = DateTimeFormat.forPattern(pattern);
             DateTime dateTime = dtf.parseDateTime(value);
@@ -540,4 +724,31 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         }
     }
 
+    /**
+     * A resource found by a streaming parser, with the values of the objects of its group.
+     */
+    protected static class ParsedResource {
+        private final String m_name;
+        private final List<String> m_values;
+
+        /**
+         * Instantiates a new parsed resource.
+         *
+         * @param name the resource name
+         * @param values the values, in the order of the objects of the group (null when not found)
+         */
+        public ParsedResource(String name, List<String> values) {
+            m_name = name;
+            m_values = values;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public List<String> getValues() {
+            return m_values;
+        }
+    }
+
 }
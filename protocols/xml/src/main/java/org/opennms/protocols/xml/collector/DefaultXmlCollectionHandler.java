@@ -52,6 +52,14 @@ public class DefaultXmlCollectionHandler extends AbstractXmlCollectionHandler {
 
     @Override
     protected void fillCollectionSet(String urlString, Request request, CollectionAgent agent, CollectionSetBuilder builder, XmlSource source) throws Exception {
+        if (isStreaming(request)) {
+            if (isDetachable(source) && XmlStreamingParser.isStreamable(source)) {
+                streamCollectionSet(urlString, request, agent, builder, source);
+                LOG.debug("fillCollectionSet: streamed source url '{}' collection", urlString);
+                return;
+            }
+            LOG.debug("fillCollectionSet: source url '{}' can't be streamed, parsing the whole document", urlString);
+        }
         final Document doc = getXmlDocument(urlString, request);
         LOG.debug("fillCollectionSet: parsed document for source url '{}' collection", urlString);
         fillCollectionSet(agent, builder, source, doc);
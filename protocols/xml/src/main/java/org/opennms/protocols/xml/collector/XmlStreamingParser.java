@@ -0,0 +1,640 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Single pass StAX parser for XML sources.
+ * <p>The resource and timestamp XPaths of the groups are matched against the stream of elements,
+ * and only the sub-tree of each matching resource is materialized as a small DOM document, on which
+ * the key and object XPaths are then evaluated. The full document is never held in memory.</p>
+ * <p>Only a subset of XPath is supported for the resource and timestamp XPaths: child and descendant
+ * steps by name or wildcard, optionally followed by attribute existence or equality predicates, and for timestamps,
+ * a trailing attribute or <code>text()</code> step. Sources using anything else must be parsed using DOM.</p>
+ */
+class XmlStreamingParser {
+
+    /** The Constant LOG. */
+    private static final Logger LOG = LoggerFactory.getLogger(XmlStreamingParser.class);
+
+    private static final String NAME = "[A-Za-z_][\\w.-]*";
+
+    private static final Pattern STEP = Pattern.compile("^(?:(" + NAME + "):)?(" + NAME + "|\\*)((?:\\[[^\\]]*\\])*)$");
+
+    private static final Pattern PREDICATE = Pattern.compile("\\[\\s*@(?:(" + NAME + "):)?(" + NAME + ")\\s*(?:=\\s*(?:'([^']*)'|\"([^\"]*)\"|(-?\\d+(?:\\.\\d+)?))\\s*)?\\]");
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("^@(?:(" + NAME + "):)?(" + NAME + ")$");
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Callback invoked for every resource found on the stream.
+     */
+    interface ResourceHandler {
+        void handleResource(XmlGroup group, Element resource) throws Exception;
+    }
+
+    // Groups override equals() but not hashCode(), so they are tracked by identity
+    private final Map<XmlGroup, Path> m_resourcePaths = new IdentityHashMap<>();
+    private final Map<XmlGroup, Path> m_timestampPaths = new IdentityHashMap<>();
+    private final Map<String, String> m_rootNamespaces = new HashMap<>();
+    private final NamespaceContext m_namespaceContext = new RootNamespaceContext();
+    private final DocumentBuilder m_documentBuilder;
+
+    private final List<ElementInfo> m_stack = new ArrayList<>();
+    private final Deque<Map<String, String>> m_scopes = new ArrayDeque<>();
+    private final List<Capture> m_captures = new ArrayList<>();
+    private final Map<XmlGroup, TextCapture> m_timestampCaptures = new IdentityHashMap<>();
+    private final Map<XmlGroup, String> m_timestamps = new IdentityHashMap<>();
+
+    /**
+     * Instantiates a new streaming parser.
+     *
+     * @param source the XML source, which must be streamable
+     * @throws IllegalArgumentException if the source is not streamable
+     */
+    XmlStreamingParser(XmlSource source) {
+        for (XmlGroup group : source.getXmlGroups()) {
+            final Path resourcePath = Path.compile(group.getResourceXpath(), false);
+            if (resourcePath == null) {
+                throw new IllegalArgumentException("Unsupported resource XPath " + group.getResourceXpath() + " on group " + group.getName());
+            }
+            m_resourcePaths.put(group, resourcePath);
+            if (group.getTimestampXpath() != null) {
+                final Path timestampPath = Path.compile(group.getTimestampXpath(), true);
+                if (timestampPath == null) {
+                    throw new IllegalArgumentException("Unsupported timestamp XPath " + group.getTimestampXpath() + " on group " + group.getName());
+                }
+                m_timestampPaths.put(group, timestampPath);
+            }
+        }
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            m_documentBuilder = factory.newDocumentBuilder();
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't create a document builder", e);
+        }
+    }
+
+    /**
+     * Checks if the groups of a source can be collected using this parser.
+     *
+     * @param source the XML source
+     * @return true, if the source is streamable
+     */
+    static boolean isStreamable(XmlSource source) {
+        for (XmlGroup group : source.getXmlGroups()) {
+            if (Path.compile(group.getResourceXpath(), false) == null) {
+                LOG.debug("isStreamable: unsupported resource XPath {} on group {}", group.getResourceXpath(), group.getName());
+                return false;
+            }
+            if (group.getTimestampXpath() != null && Path.compile(group.getTimestampXpath(), true) == null) {
+                LOG.debug("isStreamable: unsupported timestamp XPath {} on group {}", group.getTimestampXpath(), group.getName());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the namespace context.
+     * <p>Like {@link DocumentNamespaceResolver}, prefixes are resolved using the declarations of the root element,
+     * so the context can only be used once the first resource was handled.</p>
+     *
+     * @return the namespace context
+     */
+    NamespaceContext getNamespaceContext() {
+        return m_namespaceContext;
+    }
+
+    /**
+     * Parses the stream.
+     *
+     * @param is the input stream
+     * @param handler the resource handler
+     * @return the raw value of the timestamp of each group, if found
+     * @throws Exception the exception
+     */
+    Map<XmlGroup, String> parse(InputStream is, ResourceHandler handler) throws Exception {
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(is);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement(reader);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement(handler);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    characters(reader.getText());
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return Collections.unmodifiableMap(m_timestamps);
+    }
+
+    private void startElement(XMLStreamReader reader) {
+        Map<String, String> scope = m_scopes.isEmpty() ? Collections.emptyMap() : m_scopes.peek();
+        if (reader.getNamespaceCount() > 0) {
+            scope = new HashMap<>(scope);
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                scope.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+            }
+        }
+        m_scopes.push(scope);
+        if (m_stack.isEmpty()) {
+            m_rootNamespaces.putAll(scope);
+        }
+        final ElementInfo element = new ElementInfo(reader);
+        m_stack.add(element);
+
+        for (Capture capture : m_captures) {
+            capture.startElement(reader);
+        }
+        for (Map.Entry<XmlGroup, Path> entry : m_resourcePaths.entrySet()) {
+            if (entry.getValue().matches(m_stack, m_rootNamespaces)) {
+                m_captures.add(new Capture(entry.getKey(), reader, scope, m_stack.size()));
+            }
+        }
+        for (TextCapture capture : m_timestampCaptures.values()) {
+            capture.startElement(m_stack.size());
+        }
+        for (Map.Entry<XmlGroup, Path> entry : m_timestampPaths.entrySet()) {
+            final XmlGroup group = entry.getKey();
+            if (m_timestamps.containsKey(group) || m_timestampCaptures.containsKey(group)) {
+                continue;
+            }
+            final Path path = entry.getValue();
+            if (!path.matches(m_stack, m_rootNamespaces)) {
+                continue;
+            }
+            if (path.m_attribute != null) {
+                final String value = element.getAttribute(path.m_attribute, m_rootNamespaces);
+                if (value != null) {
+                    m_timestamps.put(group, value);
+                }
+            } else {
+                m_timestampCaptures.put(group, new TextCapture(m_stack.size(), path.m_text));
+            }
+        }
+    }
+
+    private void endElement(ResourceHandler handler) throws Exception {
+        final int depth = m_stack.size();
+        for (Iterator<Map.Entry<XmlGroup, TextCapture>> it = m_timestampCaptures.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<XmlGroup, TextCapture> entry = it.next();
+            if (entry.getValue().m_depth == depth) {
+                m_timestamps.put(entry.getKey(), entry.getValue().m_text.toString());
+                it.remove();
+            }
+        }
+        final List<Capture> completed = new ArrayList<>();
+        for (Iterator<Capture> it = m_captures.iterator(); it.hasNext();) {
+            final Capture capture = it.next();
+            if (capture.m_depth == depth) {
+                completed.add(capture);
+                it.remove();
+            } else {
+                capture.endElement();
+            }
+        }
+        m_stack.remove(depth - 1);
+        m_scopes.pop();
+        for (Capture capture : completed) {
+            handler.handleResource(capture.m_group, capture.m_document.getDocumentElement());
+        }
+    }
+
+    private void characters(String text) {
+        for (Capture capture : m_captures) {
+            capture.characters(text);
+        }
+        for (TextCapture capture : m_timestampCaptures.values()) {
+            capture.characters(m_stack.size(), text);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? XMLConstants.NULL_NS_URI : value;
+    }
+
+    /**
+     * The name and attributes of an open element.
+     */
+    private static class ElementInfo {
+        private final String m_namespaceURI;
+        private final String m_localName;
+        private final Map<QName, String> m_attributes = new HashMap<>();
+
+        private ElementInfo(XMLStreamReader reader) {
+            m_namespaceURI = nullToEmpty(reader.getNamespaceURI());
+            m_localName = reader.getLocalName();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                m_attributes.put(new QName(nullToEmpty(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+            }
+        }
+
+        private String getAttribute(QName name, Map<String, String> namespaces) {
+            return m_attributes.get(resolve(name, namespaces));
+        }
+    }
+
+    /**
+     * Resolves the prefix of a name from the path using the given namespace declarations.
+     * <p>As for XPath 1.0, names without prefix are not in any namespace.</p>
+     */
+    private static QName resolve(QName name, Map<String, String> namespaces) {
+        if (name.getPrefix().isEmpty()) {
+            return name;
+        }
+        final String namespaceURI = namespaces.get(name.getPrefix());
+        return new QName(namespaceURI == null ? name.getPrefix() + ":" : namespaceURI, name.getLocalPart());
+    }
+
+    /**
+     * The sub-tree of a resource being materialized.
+     */
+    private class Capture {
+        private final XmlGroup m_group;
+        private final int m_depth;
+        private final Document m_document;
+        private Node m_current;
+
+        private Capture(XmlGroup group, XMLStreamReader reader, Map<String, String> scope, int depth) {
+            m_group = group;
+            m_depth = depth;
+            m_document = m_documentBuilder.newDocument();
+            final Element root = createElement(reader);
+            // Re-declare the namespaces in scope so that prefixes can still be looked up on the detached resource
+            for (Map.Entry<String, String> entry : scope.entrySet()) {
+                final String qname = entry.getKey().isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + entry.getKey();
+                root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, qname, entry.getValue());
+            }
+            m_document.appendChild(root);
+            m_current = root;
+        }
+
+        private void startElement(XMLStreamReader reader) {
+            final Element element = createElement(reader);
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                final String prefix = reader.getNamespacePrefix(i);
+                final String qname = prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, qname, nullToEmpty(reader.getNamespaceURI(i)));
+            }
+            m_current.appendChild(element);
+            m_current = element;
+        }
+
+        private void endElement() {
+            m_current = m_current.getParentNode();
+        }
+
+        private void characters(String text) {
+            m_current.appendChild(m_document.createTextNode(text));
+        }
+
+        private Element createElement(XMLStreamReader reader) {
+            final Element element = m_document.createElementNS(emptyToNull(reader.getNamespaceURI()), qualifiedName(reader.getPrefix(), reader.getLocalName()));
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)), qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+            }
+            return element;
+        }
+
+        private String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+
+        private String qualifiedName(String prefix, String localName) {
+            return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+        }
+    }
+
+    /**
+     * The text of a timestamp element being read.
+     * <p>For a trailing <code>text()</code> step, only the text before the first child element is kept, otherwise
+     * the text of all the descendants is concatenated, like the string-value of the element.</p>
+     */
+    private static class TextCapture {
+        private final int m_depth;
+        private final boolean m_directTextOnly;
+        private final StringBuilder m_text = new StringBuilder();
+        private boolean m_sawChild = false;
+
+        private TextCapture(int depth, boolean directTextOnly) {
+            m_depth = depth;
+            m_directTextOnly = directTextOnly;
+        }
+
+        private void startElement(int depth) {
+            if (depth > m_depth) {
+                m_sawChild = true;
+            }
+        }
+
+        private void characters(int depth, String text) {
+            if (!m_directTextOnly || (depth == m_depth && !m_sawChild)) {
+                m_text.append(text);
+            }
+        }
+    }
+
+    /**
+     * A compiled location path.
+     */
+    private static class Path {
+        private final List<Step> m_steps;
+        private final QName m_attribute;
+        private final boolean m_text;
+
+        private Path(List<Step> steps, QName attribute, boolean text) {
+            m_steps = steps;
+            m_attribute = attribute;
+            m_text = text;
+        }
+
+        /**
+         * Compiles a path.
+         * <p>Relative paths are evaluated from the document, exactly like absolute paths.</p>
+         *
+         * @param xpath the XPath
+         * @param allowValue whether a trailing attribute or text() step is allowed
+         * @return the path, or null if the XPath is not supported
+         */
+        private static Path compile(String xpath, boolean allowValue) {
+            if (xpath == null || xpath.trim().isEmpty()) {
+                return null;
+            }
+            final List<String> segments = split(xpath.trim());
+            if (segments == null) {
+                return null;
+            }
+            int first = segments.get(0).isEmpty() ? 1 : 0;
+            int last = segments.size() - 1;
+            QName attribute = null;
+            boolean text = false;
+            if (allowValue) {
+                final String segment = segments.get(last);
+                final Matcher m = ATTRIBUTE.matcher(segment);
+                if (m.matches()) {
+                    attribute = qname(m.group(1), m.group(2));
+                    last--;
+                } else if ("text()".equals(segment)) {
+                    text = true;
+                    last--;
+                }
+            }
+            final List<Step> steps = new ArrayList<>();
+            boolean descendant = false;
+            for (int i = first; i <= last; i++) {
+                final String segment = segments.get(i);
+                if (segment.isEmpty()) {
+                    if (descendant) {
+                        return null;
+                    }
+                    descendant = true;
+                    continue;
+                }
+                final Step step = Step.compile(segment, descendant);
+                if (step == null) {
+                    return null;
+                }
+                steps.add(step);
+                descendant = false;
+            }
+            if (steps.isEmpty() || descendant) {
+                return null;
+            }
+            return new Path(steps, attribute, text);
+        }
+
+        /**
+         * Splits an XPath on the slashes that are not part of a predicate.
+         */
+        private static List<String> split(String xpath) {
+            final List<String> segments = new ArrayList<>();
+            final StringBuilder segment = new StringBuilder();
+            int depth = 0;
+            char quote = 0;
+            for (char c : xpath.toCharArray()) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                } else if (c == '/' && depth == 0) {
+                    segments.add(segment.toString().trim());
+                    segment.setLength(0);
+                    continue;
+                }
+                segment.append(c);
+            }
+            if (quote != 0 || depth != 0) {
+                return null;
+            }
+            segments.add(segment.toString().trim());
+            return segments;
+        }
+
+        private boolean matches(List<ElementInfo> stack, Map<String, String> namespaces) {
+            return matches(0, stack, 0, namespaces);
+        }
+
+        private boolean matches(int stepIndex, List<ElementInfo> stack, int elementIndex, Map<String, String> namespaces) {
+            if (stepIndex == m_steps.size()) {
+                return elementIndex == stack.size();
+            }
+            final Step step = m_steps.get(stepIndex);
+            if (step.m_descendant) {
+                for (int i = elementIndex; i < stack.size(); i++) {
+                    if (step.matches(stack.get(i), namespaces) && matches(stepIndex + 1, stack, i + 1, namespaces)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return elementIndex < stack.size() && step.matches(stack.get(elementIndex), namespaces) && matches(stepIndex + 1, stack, elementIndex + 1, namespaces);
+        }
+    }
+
+    /**
+     * A compiled location step.
+     */
+    private static class Step {
+        private final boolean m_descendant;
+        private final QName m_name;
+        private final Map<QName, Object> m_predicates;
+
+        private Step(boolean descendant, QName name, Map<QName, Object> predicates) {
+            m_descendant = descendant;
+            m_name = name;
+            m_predicates = predicates;
+        }
+
+        private static Step compile(String segment, boolean descendant) {
+            final Matcher m = STEP.matcher(segment);
+            if (!m.matches()) {
+                return null;
+            }
+            final Map<QName, Object> predicates = new LinkedHashMap<>();
+            final String brackets = m.group(3);
+            final Matcher p = PREDICATE.matcher(brackets);
+            int end = 0;
+            while (p.find()) {
+                if (p.start() != end) {
+                    return null;
+                }
+                final Object value;
+                if (p.group(5) != null) {
+                    value = Double.valueOf(p.group(5));
+                } else {
+                    // Without a value, only checks that the attribute exists
+                    value = p.group(3) != null ? p.group(3) : p.group(4);
+                }
+                predicates.put(qname(p.group(1), p.group(2)), value);
+                end = p.end();
+            }
+            if (end != brackets.length()) {
+                return null;
+            }
+            return new Step(descendant, qname(m.group(1), m.group(2)), predicates);
+        }
+
+        private boolean matches(ElementInfo element, Map<String, String> namespaces) {
+            final QName name = resolve(m_name, namespaces);
+            if (!"*".equals(name.getLocalPart()) && !name.getLocalPart().equals(element.m_localName)) {
+                return false;
+            }
+            if (!name.getNamespaceURI().equals(element.m_namespaceURI) && !("*".equals(name.getLocalPart()) && m_name.getPrefix().isEmpty())) {
+                return false;
+            }
+            for (Map.Entry<QName, Object> predicate : m_predicates.entrySet()) {
+                final String value = element.getAttribute(predicate.getKey(), namespaces);
+                if (value == null) {
+                    return false;
+                }
+                if (predicate.getValue() == null) {
+                    continue;
+                }
+                if (predicate.getValue() instanceof Double) {
+                    try {
+                        if (Double.parseDouble(value.trim()) != (Double) predicate.getValue()) {
+                            return false;
+                        }
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                } else if (!value.equals(predicate.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static QName qname(String prefix, String localName) {
+        return prefix == null ? new QName(localName) : new QName(XMLConstants.NULL_NS_URI, localName, prefix);
+    }
+
+    /**
+     * Resolves prefixes using the declarations of the root element.
+     */
+    private class RootNamespaceContext implements NamespaceContext {
+        @Override
+        public String getNamespaceURI(String prefix) {
+            final String namespaceURI = m_rootNamespaces.get(prefix);
+            return namespaceURI == null ? XMLConstants.NULL_NS_URI : namespaceURI;
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            for (Map.Entry<String, String> entry : m_rootNamespaces.entrySet()) {
+                if (entry.getValue().equals(namespaceURI)) {
+                    return entry.getKey();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Iterator getPrefixes(String namespaceURI) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.json.collector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.Pointer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+
+import net.sf.json.JSONSerializer;
+
+/**
+ * The Test Class for JsonStreamingParser.
+ * <p>The resources found by the streaming parser are compared with the ones found using JXPath on the whole document.</p>
+ */
+public class JsonStreamingParserTest {
+
+    /**
+     * Test resources on nested objects, with repeated keys.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testSolarisZones() throws Exception {
+        XmlSource source = createSource(createGroup("solaris-zone-stats", "/zones/zone", "@name", "parameter[@key='nproc']/@value", "parameter[@key='pctcpu']/@value"));
+        List<String> resources = stream(source, "src/test/resources/solaris-zones.json");
+        Assert.assertEquals(3, resources.size());
+        Assert.assertEquals("solaris-zone-stats/global/245/0.24", resources.get(0));
+        Assert.assertEquals("solaris-zone-stats/zone2/124/0.06", resources.get(2));
+        Assert.assertEquals(evaluate(source, "src/test/resources/solaris-zones.json"), resources);
+    }
+
+    /**
+     * Test resources on a top-level array.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testArray() throws Exception {
+        XmlSource source = createSource(createGroup("json-array-stats", "/elements", "@it", "val"));
+        List<String> resources = stream(source, "src/test/resources/array.json");
+        Assert.assertEquals(4, resources.size());
+        Assert.assertEquals("json-array-stats/works/1337", resources.get(3));
+        Assert.assertEquals(evaluate(source, "src/test/resources/array.json"), resources);
+    }
+
+    /**
+     * Test the detection of unsupported XPaths.
+     */
+    @Test
+    public void testStreamable() {
+        Assert.assertTrue(JsonStreamingParser.isStreamable(createSource(createGroup("g", "/zones/zone", "@name", "id"))));
+        Assert.assertTrue(JsonStreamingParser.isStreamable(createSource(createGroup("g", "result", null, "id"))));
+        Assert.assertFalse(JsonStreamingParser.isStreamable(createSource(createGroup("g", "/zones/zone[1]", null, "id"))));
+        Assert.assertFalse(JsonStreamingParser.isStreamable(createSource(createGroup("g", "//zone", null, "id"))));
+        Assert.assertFalse(JsonStreamingParser.isStreamable(createSource(createGroup("g", "/zones", null, "id"), createGroup("h", "/zones/zone", null, "id"))));
+
+        XmlGroup group = createGroup("g", "/zones/zone", null, "id");
+        group.setTimestampXpath("/zones/zone/timestamp");
+        Assert.assertFalse(JsonStreamingParser.isStreamable(createSource(group)));
+    }
+
+    private static XmlGroup createGroup(String name, String resourceXpath, String keyXpath, String... objectXpaths) {
+        XmlGroup group = new XmlGroup();
+        group.setName(name);
+        group.setResourceType(keyXpath == null ? "node" : name);
+        group.setResourceXpath(resourceXpath);
+        group.setKeyXpath(keyXpath);
+        for (int i = 0; i < objectXpaths.length; i++) {
+            XmlObject object = new XmlObject();
+            object.setName("obj" + i);
+            object.setXpath(objectXpaths[i]);
+            group.addXmlObject(object);
+        }
+        return group;
+    }
+
+    private static XmlSource createSource(XmlGroup... groups) {
+        XmlSource source = new XmlSource();
+        source.setUrl("file:///dev/null");
+        for (XmlGroup group : groups) {
+            source.addXmlGroup(group);
+        }
+        return source;
+    }
+
+    /**
+     * Streams the document, and returns the resources in order, as group/name/values.
+     */
+    private static List<String> stream(XmlSource source, String fileName) throws Exception {
+        List<String> resources = new ArrayList<>();
+        try (InputStream is = new FileInputStream(new File(fileName))) {
+            new JsonStreamingParser(source).parse(is, (group, json) -> {
+                resources.add(toString(JXPathContext.newContext(json), group));
+            });
+        }
+        return resources;
+    }
+
+    /**
+     * Evaluates the XPaths on the whole document, the way the non streaming collections do.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> evaluate(XmlSource source, String fileName) throws Exception {
+        JXPathContext context = JXPathContext.newContext(AbstractJsonCollectionHandler.wrapArray(JSONSerializer.toJSON(FileUtils.readFileToString(new File(fileName), StandardCharsets.UTF_8))));
+        List<String> resources = new ArrayList<>();
+        for (XmlGroup group : source.getXmlGroups()) {
+            Iterator<Pointer> itr = context.iteratePointers(group.getResourceXpath());
+            while (itr.hasNext()) {
+                resources.add(toString(context.getRelativeContext(itr.next()), group));
+            }
+        }
+        return resources;
+    }
+
+    private static String toString(JXPathContext context, XmlGroup group) {
+        StringBuilder sb = new StringBuilder(group.getName());
+        sb.append('/').append(group.getKeyXpath() == null ? "node" : context.getValue(group.getKeyXpath()));
+        for (XmlObject object : group.getXmlObjects()) {
+            sb.append('/').append(context.getValue(object.getXpath()));
+        }
+        return sb.toString();
+    }
+}
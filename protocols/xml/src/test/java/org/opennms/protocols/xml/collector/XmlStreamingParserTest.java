@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The Test Class for XmlStreamingParser.
+ * <p>The resources found by the streaming parser are compared with the ones found using XPath on the whole document.</p>
+ */
+public class XmlStreamingParserTest {
+
+    private static final String MEAS_COLLEC_FILE = "<?xml version=\"1.0\"?>\n"
+            + "<measCollecFile>\n"
+            + "  <measData>\n"
+            + "    <measInfo measInfoId=\"dns|dns\">\n"
+            + "      <measValue measObjLdn=\"system|dns|\"><r p=\"1\">0</r><r p=\"2\">58</r><suspect>false</suspect></measValue>\n"
+            + "    </measInfo>\n"
+            + "    <measInfo measInfoId=\"ga|msg\">\n"
+            + "      <!-- comments are ignored -->\n"
+            + "      <measValue measObjLdn=\"system|ga1|\"><r p=\"1\">10</r><r p=\"2\">11</r><suspect>false</suspect></measValue>\n"
+            + "      <measValue measObjLdn=\"system|ga2|\"><r p=\"1\">20</r><r p=\"02\">21</r><suspect>true</suspect></measValue>\n"
+            + "    </measInfo>\n"
+            + "  </measData>\n"
+            + "  <fileFooter>\n"
+            + "    <measCollec endTime=\"2011-10-25T00:45:00-05:00\"/>\n"
+            + "  </fileFooter>\n"
+            + "</measCollecFile>\n";
+
+    /**
+     * Test resources with predicates and a timestamp found after them.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testPredicatesAndFooterTimestamp() throws Exception {
+        XmlGroup group = createGroup("ga-msg", "/measCollecFile/measData/measInfo[@measInfoId='ga|msg']/measValue", "@measObjLdn", "suspect", "r[@p=1]", "r[@p=2]");
+        group.setTimestampXpath("/measCollecFile/fileFooter/measCollec/@endTime");
+        XmlSource source = createSource(group);
+
+        List<String> resources = new ArrayList<>();
+        Map<XmlGroup, String> timestamps = stream(source, MEAS_COLLEC_FILE, resources);
+        Assert.assertEquals("2011-10-25T00:45:00-05:00", timestamps.get(group));
+        Assert.assertEquals(2, resources.size());
+        Assert.assertEquals("ga-msg/system|ga1|/false/10/11", resources.get(0));
+        Assert.assertEquals("ga-msg/system|ga2|/true/20/21", resources.get(1));
+        Assert.assertEquals(evaluate(source, MEAS_COLLEC_FILE), resources);
+    }
+
+    /**
+     * Test descendant and wildcard steps.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testDescendantSteps() throws Exception {
+        XmlGroup group = createGroup("all", "//*[@measObjLdn]", "@measObjLdn", "r[@p=1]");
+        group.setTimestampXpath("//measCollec/@endTime");
+        XmlSource source = createSource(group);
+        Assert.assertTrue(XmlStreamingParser.isStreamable(source));
+
+        List<String> resources = new ArrayList<>();
+        Map<XmlGroup, String> timestamps = stream(source, MEAS_COLLEC_FILE, resources);
+        Assert.assertEquals("2011-10-25T00:45:00-05:00", timestamps.get(group));
+        Assert.assertEquals(3, resources.size());
+        Assert.assertEquals(evaluate(source, MEAS_COLLEC_FILE), resources);
+    }
+
+    /**
+     * Test a document with prefixed namespaces.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testNamespaces() throws Exception {
+        XmlGroup group = createGroup("namespace-stats", "/dp:RootElement/dp:ChildElement/dp:StatList", null, "dp:Stat[@Name='REQUESTS']/@Value", "dp:Stat[@Name='PANTS']/@Value");
+        XmlSource source = createSource(group);
+        String xml = read("src/test/resources/namespace.xml");
+
+        List<String> resources = new ArrayList<>();
+        stream(source, xml, resources);
+        Assert.assertEquals(1, resources.size());
+        Assert.assertEquals("namespace-stats/node/13/4", resources.get(0));
+        Assert.assertEquals(evaluate(source, xml), resources);
+    }
+
+    /**
+     * Test several groups on the same document.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testMultipleGroups() throws Exception {
+        XmlGroup zones = createGroup("zones", "/zones/zone", "@name", "parameter[@key='nproc']/@value", "parameter[@key='pctcpu']/@value");
+        XmlGroup global = createGroup("global", "/zones/zone[@name='global']", null, "@id", "parameter[@key='nlwp']/@value");
+        XmlSource source = createSource(zones, global);
+        String xml = read("src/test/resources/solaris-zones.xml");
+
+        List<String> resources = new ArrayList<>();
+        stream(source, xml, resources);
+        Assert.assertEquals(4, resources.size());
+        Assert.assertTrue(resources.contains("zones/global/245/0.24"));
+        Assert.assertTrue(resources.contains("global/node/0/1455"));
+        Assert.assertEquals(evaluate(source, xml), resources);
+    }
+
+    /**
+     * Test the detection of unsupported XPaths.
+     */
+    @Test
+    public void testStreamable() {
+        Assert.assertTrue(XmlStreamingParser.isStreamable(createSource(createGroup("g", "/a/b[@c='d'][@e=1]", "@f", "g"))));
+        Assert.assertTrue(XmlStreamingParser.isStreamable(createSource(createGroup("g", "a//b/*", null, "g"))));
+        Assert.assertFalse(XmlStreamingParser.isStreamable(createSource(createGroup("g", "/a/b[1]", null, "g"))));
+        Assert.assertFalse(XmlStreamingParser.isStreamable(createSource(createGroup("g", "/a/b[count(c) > 1]", null, "g"))));
+        Assert.assertFalse(XmlStreamingParser.isStreamable(createSource(createGroup("g", "/a/b/..", null, "g"))));
+        Assert.assertFalse(XmlStreamingParser.isStreamable(createSource(createGroup("g", "/a | /b", null, "g"))));
+        Assert.assertFalse(XmlStreamingParser.isStreamable(createSource(createGroup("g", "/a/@b", null, "g"))));
+
+        Assert.assertTrue(AbstractXmlCollectionHandler.isDetachable(createSource(createGroup("g", "/a", "@f", "g[@h='i']/@j", ".//k", "string(l)"))));
+        Assert.assertFalse(AbstractXmlCollectionHandler.isDetachable(createSource(createGroup("g", "/a", "../@f", "g"))));
+        Assert.assertFalse(AbstractXmlCollectionHandler.isDetachable(createSource(createGroup("g", "/a", null, "/a/g"))));
+        Assert.assertFalse(AbstractXmlCollectionHandler.isDetachable(createSource(createGroup("g", "/a", null, "count(//g)"))));
+        Assert.assertFalse(AbstractXmlCollectionHandler.isDetachable(createSource(createGroup("g", "/a", null, "following-sibling::g"))));
+    }
+
+    private static XmlGroup createGroup(String name, String resourceXpath, String keyXpath, String... objectXpaths) {
+        XmlGroup group = new XmlGroup();
+        group.setName(name);
+        group.setResourceType(keyXpath == null ? "node" : name);
+        group.setResourceXpath(resourceXpath);
+        group.setKeyXpath(keyXpath);
+        for (int i = 0; i < objectXpaths.length; i++) {
+            XmlObject object = new XmlObject();
+            object.setName("obj" + i);
+            object.setXpath(objectXpaths[i]);
+            group.addXmlObject(object);
+        }
+        return group;
+    }
+
+    private static XmlSource createSource(XmlGroup... groups) {
+        XmlSource source = new XmlSource();
+        source.setUrl("file:///dev/null");
+        for (XmlGroup group : groups) {
+            source.addXmlGroup(group);
+        }
+        return source;
+    }
+
+    private static String read(String fileName) throws Exception {
+        return FileUtils.readFileToString(new File(fileName), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Streams the document, and returns the resources of each group in order, as group/name/values.
+     */
+    private static Map<XmlGroup, String> stream(XmlSource source, String xml, List<String> resources) throws Exception {
+        XmlStreamingParser parser = new XmlStreamingParser(source);
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(parser.getNamespaceContext());
+        List<List<String>> byGroup = new ArrayList<>();
+        for (int i = 0; i < source.getXmlGroups().size(); i++) {
+            byGroup.add(new ArrayList<>());
+        }
+        Map<XmlGroup, String> timestamps = parser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), (group, resource) -> {
+            byGroup.get(source.getXmlGroups().indexOf(group)).add(toString(xpath, group, resource));
+        });
+        byGroup.forEach(resources::addAll);
+        return timestamps;
+    }
+
+    /**
+     * Evaluates the XPaths on the whole document, the way DOM based collections do.
+     */
+    private static List<String> evaluate(XmlSource source, String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setIgnoringComments(true);
+        Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new DocumentNamespaceResolver(doc));
+        List<String> resources = new ArrayList<>();
+        for (XmlGroup group : source.getXmlGroups()) {
+            NodeList nodes = (NodeList) xpath.evaluate(group.getResourceXpath(), doc, XPathConstants.NODESET);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                resources.add(toString(xpath, group, nodes.item(i)));
+            }
+        }
+        return resources;
+    }
+
+    private static String toString(XPath xpath, XmlGroup group, Node resource) throws Exception {
+        StringBuilder sb = new StringBuilder(group.getName());
+        if (group.getKeyXpath() == null) {
+            sb.append("/node");
+        } else {
+            Node key = (Node) xpath.evaluate(group.getKeyXpath(), resource, XPathConstants.NODE);
+            sb.append('/').append(key.getNodeValue() == null ? key.getTextContent() : key.getNodeValue());
+        }
+        for (XmlObject object : group.getXmlObjects()) {
+            sb.append('/').append(xpath.evaluate(object.getXpath(), resource, XPathConstants.STRING));
+        }
+        return sb.toString();
+    }
+}